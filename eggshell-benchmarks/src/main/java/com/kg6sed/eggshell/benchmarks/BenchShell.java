@@ -0,0 +1,226 @@
+package com.kg6sed.eggshell.benchmarks;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.AbstractShell;
+import com.kg6sed.eggshell.Argument;
+import com.kg6sed.eggshell.Command;
+import com.kg6sed.eggshell.CommandOutcome;
+import jline.ConsoleReader;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shell with a few dozen commands used by the benchmarks.
+ */
+public class BenchShell extends AbstractShell {
+    private String last;
+
+    public BenchShell() throws IOException {
+        super();
+    }
+
+    @Override
+    protected ConsoleReader createConsole() throws IOException {
+        return HeadlessConsole.create();
+    }
+
+    /**
+     * Dispatches a line the way the interactive loop does.
+     */
+    public CommandOutcome dispatchLine(String line) throws IOException {
+        return this.dispatch(line);
+    }
+
+    /**
+     * @return the console with all completors registered, created on first use
+     */
+    public ConsoleReader console() throws IOException {
+        return this.getConsole();
+    }
+
+    @Command(help = "command with converted arguments")
+    private void typed(@Argument(name = "count") int count, @Argument(name = "path") Path path,
+                       @Argument(name = "unit") TimeUnit unit) {
+        this.last = path.toString();
+    }
+
+    @Command(help = "benchmark command 0")
+    private void command0(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 1")
+    private void command1(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 2")
+    private void command2(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 3")
+    private void command3(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 4")
+    private void command4(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 5")
+    private void command5(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 6")
+    private void command6(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 7")
+    private void command7(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 8")
+    private void command8(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 9")
+    private void command9(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 10")
+    private void command10(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 11")
+    private void command11(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 12")
+    private void command12(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 13")
+    private void command13(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 14")
+    private void command14(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 15")
+    private void command15(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 16")
+    private void command16(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 17")
+    private void command17(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 18")
+    private void command18(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 19")
+    private void command19(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 20")
+    private void command20(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 21")
+    private void command21(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 22")
+    private void command22(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 23")
+    private void command23(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 24")
+    private void command24(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 25")
+    private void command25(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 26")
+    private void command26(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 27")
+    private void command27(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 28")
+    private void command28(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 29")
+    private void command29(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 30")
+    private void command30(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+
+    @Command(help = "benchmark command 31")
+    private void command31(@Argument(name = "value") String value, @Argument(name = "count", optional = true) int count) {
+        this.last = value;
+    }
+}
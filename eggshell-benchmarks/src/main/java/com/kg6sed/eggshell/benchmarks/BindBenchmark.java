@@ -0,0 +1,87 @@
+package com.kg6sed.eggshell.benchmarks;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.ArgumentBinder;
+import com.kg6sed.eggshell.ArgumentBindingException;
+import com.kg6sed.eggshell.CommandScanner;
+import com.kg6sed.eggshell.ShellCommand;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures converting argument strings to parameter values.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BindBenchmark {
+    private ArgumentBinder intBinder;
+    private ArgumentBinder pathBinder;
+    private ArgumentBinder enumBinder;
+    private ArgumentBinder stringBinder;
+
+    @Setup
+    public void setUp() {
+        ShellCommand typed = CommandScanner.findCommands(BenchShell.class).get("typed");
+        intBinder = typed.getBinders()[0];
+        pathBinder = typed.getBinders()[1];
+        enumBinder = typed.getBinders()[2];
+        stringBinder = CommandScanner.findCommands(BenchShell.class).get("command0").getBinders()[0];
+    }
+
+    @Benchmark
+    public Object bindString() throws ArgumentBindingException {
+        return stringBinder.bind("hello", 0);
+    }
+
+    @Benchmark
+    public Object bindInt() throws ArgumentBindingException {
+        return intBinder.bind("12345", 0);
+    }
+
+    @Benchmark
+    public Object bindPath() throws ArgumentBindingException {
+        return pathBinder.bind("/var/log/messages", 1);
+    }
+
+    @Benchmark
+    public Object bindEnum() throws ArgumentBindingException {
+        return enumBinder.bind("seconds", 2);
+    }
+
+    @Benchmark
+    public Object bindDefault() throws ArgumentBindingException {
+        return intBinder.bind(null, 0);
+    }
+}
@@ -0,0 +1,77 @@
+package com.kg6sed.eggshell.benchmarks;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import jline.Completor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures TAB completion through the completors the shell registers on its console,
+ * using a headless console.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompletionBenchmark {
+    private Completor completor;
+    private List<String> candidates = new ArrayList<String>();
+
+    @Setup
+    public void setUp() throws Exception {
+        completor = (Completor) new BenchShell().console().getCompletors().iterator().next();
+    }
+
+    @Benchmark
+    public List<String> commandPrefix() {
+        return complete("comm");
+    }
+
+    @Benchmark
+    public List<String> uniqueCommand() {
+        return complete("command17");
+    }
+
+    @Benchmark
+    public List<String> argument() {
+        return complete("stats r");
+    }
+
+    private List<String> complete(String buffer) {
+        candidates.clear();
+        completor.complete(buffer, buffer.length(), candidates);
+        return candidates;
+    }
+}
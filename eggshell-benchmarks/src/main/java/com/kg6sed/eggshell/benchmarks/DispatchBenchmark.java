@@ -0,0 +1,83 @@
+package com.kg6sed.eggshell.benchmarks;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.CommandOutcome;
+import com.kg6sed.eggshell.CommandScanner;
+import com.kg6sed.eggshell.ShellCommand;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures calling a command: reflective {@link Method#invoke} as baseline, the method
+ * handle {@link ShellCommand} uses, and a whole line through tokenizing, lookup, binding
+ * and invocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DispatchBenchmark {
+    private BenchShell shell;
+    private ShellCommand command;
+    private Method method;
+    private Object[] arguments;
+
+    @Setup
+    public void setUp() throws Exception {
+        shell = new BenchShell();
+        command = CommandScanner.findCommands(BenchShell.class).get("command7");
+        method = command.getMethod();
+        arguments = new Object[]{"hello", 3};
+    }
+
+    @Benchmark
+    public Object methodInvoke() throws Exception {
+        return method.invoke(shell, arguments);
+    }
+
+    @Benchmark
+    public Object handleInvoke() throws Throwable {
+        return command.invoke(shell, arguments);
+    }
+
+    @Benchmark
+    public CommandOutcome dispatchLine() throws Exception {
+        return shell.dispatchLine("command7 hello 3");
+    }
+
+    @Benchmark
+    public CommandOutcome dispatchConvertedLine() throws Exception {
+        return shell.dispatchLine("typed 42 /tmp/file seconds");
+    }
+}
@@ -0,0 +1,64 @@
+package com.kg6sed.eggshell.benchmarks;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import jline.ConsoleReader;
+import jline.UnsupportedTerminal;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Console without a terminal, reading nothing and discarding its output, so the
+ * benchmarks run the same on a CI machine as on a desktop.
+ */
+public final class HeadlessConsole {
+
+    private HeadlessConsole() {
+    }
+
+    public static ConsoleReader create() throws IOException {
+        return new ConsoleReader(new ByteArrayInputStream(new byte[0]), nullWriter(), null, new UnsupportedTerminal());
+    }
+
+    /**
+     * @return writer discarding everything written to it
+     */
+    public static Writer nullWriter() {
+        return new Writer() {
+            @Override
+            public void write(char[] chars, int offset, int length) {
+            }
+
+            @Override
+            public void write(String s, int offset, int length) {
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
@@ -0,0 +1,81 @@
+package com.kg6sed.eggshell.benchmarks;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.AbstractShell;
+import com.kg6sed.eggshell.CommandScanner;
+import com.kg6sed.eggshell.ShellCommand;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.StringReader;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures command discovery and help rendering of generated shells with thousands of
+ * commands, see {@link LargeShells}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LargeShellBenchmark {
+
+    @Param({"1000", "5000"})
+    public int commandCount;
+
+    private Class<? extends AbstractShell> plainShell;
+    private Class<? extends AbstractShell> registryShell;
+    private AbstractShell shell;
+
+    @Setup
+    public void setUp() throws Exception {
+        plainShell = LargeShells.create(commandCount, false);
+        registryShell = LargeShells.create(commandCount, true);
+        shell = registryShell.newInstance();
+    }
+
+    @Benchmark
+    public Map<String, ShellCommand> reflection() {
+        return CommandScanner.scan(plainShell);
+    }
+
+    @Benchmark
+    public Map<String, ShellCommand> registry() {
+        return CommandScanner.loadRegistry(registryShell);
+    }
+
+    @Benchmark
+    public Object help() throws Exception {
+        return shell.execute(new StringReader("help"), HeadlessConsole.nullWriter());
+    }
+}
@@ -0,0 +1,105 @@
+package com.kg6sed.eggshell.benchmarks;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.AbstractShell;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Generates and compiles shells with thousands of commands, which would be impractical
+ * to keep as source. Needs a JDK, the classes are compiled with the system compiler.
+ */
+public final class LargeShells {
+
+    private LargeShells() {
+    }
+
+    /**
+     * Generates, compiles and loads a shell class.
+     *
+     * @param commandCount number of commands
+     * @param registry     whether the command registry is generated for it
+     * @return the shell class, loaded in its own class loader
+     * @throws IOException if the shell cannot be compiled
+     */
+    public static Class<? extends AbstractShell> create(int commandCount, boolean registry) throws IOException {
+        Path directory = compile(commandCount, registry);
+        ClassLoader loader = new URLClassLoader(new URL[]{directory.toUri().toURL()}, LargeShells.class.getClassLoader());
+        try {
+            return Class.forName("LargeShell", true, loader).asSubclass(AbstractShell.class);
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Generates and compiles a shell class named <code>LargeShell</code>. Its main method
+     * runs one command, so the directory can be started as a program on its own.
+     *
+     * @param commandCount number of commands
+     * @param registry     whether the command registry is generated for it
+     * @return directory of the compiled classes
+     * @throws IOException if the shell cannot be compiled
+     */
+    public static Path compile(int commandCount, boolean registry) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IOException("No system Java compiler, run the benchmarks on a JDK");
+        }
+
+        Path directory = Files.createTempDirectory("eggshell-large");
+        Path source = directory.resolve("LargeShell.java");
+        Writer out = Files.newBufferedWriter(source, Charset.forName("UTF-8"));
+        try {
+            out.write("public class LargeShell extends com.kg6sed.eggshell.AbstractShell {\n");
+            out.write("    public LargeShell() throws java.io.IOException {\n    }\n");
+            out.write("    public static void main(String[] args) throws java.io.IOException {\n");
+            out.write("        new LargeShell().execute(new com.kg6sed.eggshell.io.MemoryIO(\"command0 value 1\\n\"));\n    }\n");
+            for (int i = 0; i < commandCount; i++) {
+                out.write("    @com.kg6sed.eggshell.Command(help = \"generated command " + i + "\")\n");
+                out.write("    public void command" + i + "(@com.kg6sed.eggshell.Argument(name = \"value\") String value,"
+                        + " @com.kg6sed.eggshell.Argument(name = \"count\", optional = true) int count) {\n    }\n");
+            }
+            out.write("}\n");
+        } finally {
+            out.close();
+        }
+
+        // with processing enabled the registry processor is found on the class path
+        int status = registry
+                ? compiler.run(null, null, null, "-nowarn", "-classpath", System.getProperty("java.class.path"),
+                        "-d", directory.toString(), source.toString())
+                : compiler.run(null, null, null, "-nowarn", "-proc:none", "-classpath", System.getProperty("java.class.path"),
+                        "-d", directory.toString(), source.toString());
+        if (status != 0) {
+            throw new IOException("Compiling " + source + " failed");
+        }
+        return directory;
+    }
+}
@@ -0,0 +1,81 @@
+package com.kg6sed.eggshell.benchmarks;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.AbstractShell;
+import com.kg6sed.eggshell.io.MemoryIO;
+import com.kg6sed.eggshell.record.ReplayReport;
+import com.kg6sed.eggshell.record.SessionRecorder;
+import com.kg6sed.eggshell.record.SessionReplay;
+import com.kg6sed.eggshell.server.ShellFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Replays a session recording against {@link BenchShell}s. Without a recording, one is
+ * made first from a few sessions of generated commands.
+ * <p/>
+ * Usage: <code>java -cp target/benchmarks.jar com.kg6sed.eggshell.benchmarks.ReplayLoadTest
+ * [recording] [speed] [copies]</code>
+ */
+public class ReplayLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        Path recording = args.length > 0 ? Paths.get(args[0]) : Files.createTempFile("eggshell", ".rec");
+        double speed = args.length > 1 ? Double.parseDouble(args[1]) : 0;
+        int copies = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+
+        if (args.length == 0) {
+            record(recording, 8, 2000);
+        }
+
+        SessionReplay replay = new SessionReplay(new ShellFactory() {
+            public AbstractShell createShell() throws IOException {
+                return new BenchShell();
+            }
+        });
+        replay.setSpeed(speed);
+        replay.setCopies(copies);
+        ReplayReport report = replay.replay(recording);
+        System.out.println(report);
+    }
+
+    private static void record(Path recording, int sessions, int commands) throws IOException {
+        SessionRecorder recorder = new SessionRecorder(recording);
+        try {
+            for (int s = 0; s < sessions; s++) {
+                StringBuilder lines = new StringBuilder();
+                for (int c = 0; c < commands; c++) {
+                    lines.append("command").append((s + c) % 32).append(" value ").append(c).append('\n');
+                }
+                BenchShell shell = new BenchShell();
+                shell.setRecorder(recorder);
+                shell.execute(new MemoryIO(lines.toString()));
+            }
+        } finally {
+            recorder.close();
+        }
+        System.out.printf("recorded %d commands of %d sessions into %s, %d bytes%n", recorder.getRecordedCount(),
+                sessions, recording, Files.size(recording));
+    }
+}
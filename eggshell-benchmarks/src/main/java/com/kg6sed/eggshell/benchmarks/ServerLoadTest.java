@@ -0,0 +1,144 @@
+package com.kg6sed.eggshell.benchmarks;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.AbstractShell;
+import com.kg6sed.eggshell.server.ShellFactory;
+import com.kg6sed.eggshell.server.ShellServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test for {@link ShellServer}: opens many concurrent sessions against a local
+ * server and drives commands through all of them, reporting throughput and latency.
+ * <p/>
+ * Usage: <code>java -cp target/benchmarks.jar com.kg6sed.eggshell.benchmarks.ServerLoadTest
+ * [sessions] [commands per session] [client threads]</code>
+ */
+public class ServerLoadTest {
+    private static final byte[] PROMPT = "> ".getBytes(Charset.forName("US-ASCII"));
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int commands = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+
+        ShellServer server = new ShellServer(new ShellFactory() {
+            public AbstractShell createShell() throws IOException {
+                return new BenchShell();
+            }
+        }, 0);
+        server.start();
+        InetSocketAddress address = server.getAddress();
+
+        long openStart = System.nanoTime();
+        final List<Socket> sockets = new ArrayList<Socket>(sessions);
+        for (int i = 0; i < sessions; i++) {
+            Socket socket = new Socket(address.getAddress(), address.getPort());
+            socket.setTcpNoDelay(true);
+            sockets.add(socket);
+        }
+        for (Socket socket : sockets) {
+            readPrompt(socket.getInputStream());
+        }
+        long openNanos = System.nanoTime() - openStart;
+        System.out.printf("opened %d sessions in %d ms, %d active on the server, %d threads%n", sessions,
+                TimeUnit.NANOSECONDS.toMillis(openNanos), server.getSessionCount(),
+                ManagementFactory.getThreadMXBean().getThreadCount());
+
+        final long[] latencies = new long[sessions * commands];
+        final CountDownLatch done = new CountDownLatch(threads);
+        final int commandsPerSession = commands;
+        final int threadCount = threads;
+        long runStart = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int c = 0; c < commandsPerSession; c++) {
+                            byte[] line = ("command" + (c % 32) + " value " + c + "\n").getBytes("US-ASCII");
+                            for (int s = thread; s < sockets.size(); s += threadCount) {
+                                Socket socket = sockets.get(s);
+                                long start = System.nanoTime();
+                                OutputStream out = socket.getOutputStream();
+                                out.write(line);
+                                out.flush();
+                                readPrompt(socket.getInputStream());
+                                latencies[s * commandsPerSession + c] = System.nanoTime() - start;
+                            }
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "load-" + t).start();
+        }
+        done.await();
+        long runNanos = System.nanoTime() - runStart;
+
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        server.close();
+
+        Arrays.sort(latencies);
+        System.out.printf("%d commands over %d sessions in %d ms: %.0f commands/s%n", latencies.length, sessions,
+                TimeUnit.NANOSECONDS.toMillis(runNanos), latencies.length / (runNanos / 1e9));
+        System.out.printf("latency p50 %d us, p99 %d us, p99.9 %d us, max %d us%n",
+                percentile(latencies, 0.5), percentile(latencies, 0.99), percentile(latencies, 0.999),
+                TimeUnit.NANOSECONDS.toMicros(latencies[latencies.length - 1]));
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        return TimeUnit.NANOSECONDS.toMicros(sorted[(int) Math.min(sorted.length - 1, sorted.length * fraction)]);
+    }
+
+    /**
+     * Reads until the output ends with the prompt.
+     */
+    private static void readPrompt(InputStream in) throws IOException {
+        int matched = 0;
+        while (matched < PROMPT.length) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("session closed");
+            }
+            if (b == PROMPT[matched]) {
+                matched++;
+            } else {
+                matched = b == PROMPT[0] ? 1 : 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.kg6sed.eggshell.benchmarks;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Measures the wall clock time of starting a generated shell with thousands of commands
+ * as a new process and running one command: on the JVM with the reflective scan, with
+ * the generated registry, with the registry and an AppCDS archive, and as a native
+ * image if <code>native-image</code> is on the path.
+ * <p/>
+ * Usage: <code>java -cp target/benchmarks.jar com.kg6sed.eggshell.benchmarks.StartupTime
+ * [commands] [runs]</code>
+ */
+public class StartupTime {
+
+    public static void main(String[] args) throws Exception {
+        int commandCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        String classPath = System.getProperty("java.class.path");
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        Path plain = LargeShells.compile(commandCount, false);
+        Path registry = LargeShells.compile(commandCount, true);
+        String plainPath = plain + File.pathSeparator + classPath;
+        String registryPath = registry + File.pathSeparator + classPath;
+
+        System.out.println(commandCount + " commands, median of " + runs + " runs");
+        report("JVM, reflection", time(runs, java, "-cp", plainPath, "LargeShell"));
+        report("JVM, registry", time(runs, java, "-cp", registryPath, "LargeShell"));
+
+        // the archive is dumped at the exit of a training run, which needs a JDK 13 or later,
+        // and class data sharing only takes classes from jars
+        String jarPath = jar(registry) + File.pathSeparator + classPath;
+        String archive = registry.resolve("LargeShell.jsa").toString();
+        if (run(java, "-XX:ArchiveClassesAtExit=" + archive, "-cp", jarPath, "LargeShell") == 0) {
+            report("JVM, registry, AppCDS", time(runs, java, "-XX:SharedArchiveFile=" + archive, "-cp", jarPath, "LargeShell"));
+        } else {
+            System.out.println("JVM, registry, AppCDS: skipped, the JVM cannot dump a class data archive");
+        }
+
+        String nativeImage = findOnPath("native-image");
+        if (nativeImage == null) {
+            System.out.println("native image: skipped, native-image is not on the path");
+            return;
+        }
+        String executable = registry.resolve("largeshell").toString();
+        if (run(nativeImage, "--no-fallback", "-cp", registryPath, "LargeShell", executable) != 0) {
+            System.out.println("native image: building it failed");
+            return;
+        }
+        report("native image", time(runs, executable));
+    }
+
+    /**
+     * Runs a command once to warm the file system cache, then the given number of times.
+     *
+     * @return median wall clock time in milliseconds
+     */
+    private static double time(int runs, String... command) throws IOException, InterruptedException {
+        run(command);
+        List<Double> times = new ArrayList<Double>();
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            if (run(command) != 0) {
+                throw new IOException(Arrays.toString(command) + " failed");
+            }
+            times.add((System.nanoTime() - start) / 1e6);
+        }
+        Collections.sort(times);
+        return times.get(times.size() / 2);
+    }
+
+    /**
+     * Packs the class files of a directory into a jar next to them.
+     */
+    private static Path jar(Path directory) throws IOException {
+        Path jar = directory.resolve("LargeShell.jar");
+        JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar));
+        try {
+            DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.class");
+            try {
+                for (Path file : files) {
+                    out.putNextEntry(new JarEntry(file.getFileName().toString()));
+                    Files.copy(file, out);
+                    out.closeEntry();
+                }
+            } finally {
+                files.close();
+            }
+        } finally {
+            out.close();
+        }
+        return jar;
+    }
+
+    private static int run(String... command) throws IOException, InterruptedException {
+        File log = File.createTempFile("eggshell-startup", ".log");
+        try {
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log).start();
+            return process.waitFor();
+        } finally {
+            Files.delete(log.toPath());
+        }
+    }
+
+    private static String findOnPath(String program) {
+        for (String directory : System.getenv("PATH").split(File.pathSeparator)) {
+            File file = new File(directory, program);
+            if (file.canExecute()) {
+                return file.getPath();
+            }
+        }
+        return null;
+    }
+
+    private static void report(String variant, double millis) {
+        System.out.println(String.format("%s: %.1f ms", variant, millis));
+    }
+}
@@ -0,0 +1,133 @@
+package com.kg6sed.eggshell.benchmarks;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.ArgumentTokenizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures splitting command lines into arguments. Run with <code>-prof gc</code>
+ * to see the allocation rate of the tokenizer against the previous implementation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TokenizerBenchmark {
+
+    @Param({"short", "quoted", "manyArguments", "longLine"})
+    public String shape;
+
+    private String line;
+    private ArgumentTokenizer tokenizer;
+
+    @Setup
+    public void setUp() {
+        if (shape.equals("short")) {
+            line = "append hello";
+        } else if (shape.equals("quoted")) {
+            line = "set \"some quoted value\" 'single quoted' escaped\\ space \"with \\\"escape\\\"\"";
+        } else if (shape.equals("manyArguments")) {
+            StringBuilder builder = new StringBuilder("command");
+            for (int i = 0; i < 200; i++) {
+                builder.append(" arg").append(i);
+            }
+            line = builder.toString();
+        } else {
+            StringBuilder builder = new StringBuilder("append \"");
+            for (int i = 0; i < 8192; i++) {
+                builder.append((char) ('a' + i % 26));
+            }
+            line = builder.append('"').toString();
+        }
+        tokenizer = new ArgumentTokenizer();
+    }
+
+    @Benchmark
+    public void tokenizer(Blackhole blackhole) {
+        int count = tokenizer.tokenize(line);
+        for (int i = 0; i < count; i++) {
+            blackhole.consume(tokenizer.getToken(i));
+        }
+    }
+
+    @Benchmark
+    public String[] legacySplit() {
+        return splitArguments(line);
+    }
+
+    /**
+     * The splitter AbstractShell used before the tokenizer, kept as baseline.
+     */
+    private static String[] splitArguments(String line) {
+        LinkedList<String> result = new LinkedList<String>();
+        StringBuilder currentArgument = new StringBuilder();
+        int state = 0;
+        char prevChar = 0;
+        for (char c : line.toCharArray()) {
+            switch (state) {
+                case 0:
+                    if (c == '"') {
+                        state = 1;
+                    } else if (c != ' ') {
+                        currentArgument.append(c);
+                    } else {
+                        if (currentArgument.length() > 0) {
+                            result.add(currentArgument.toString());
+                            currentArgument = new StringBuilder();
+                        }
+                    }
+                    break;
+                case 1:
+                    if (c == '"' && prevChar != '\\') {
+                        if (currentArgument.length() > 0) {
+                            result.add(currentArgument.toString());
+                            currentArgument = new StringBuilder();
+                        }
+                        state = 0;
+                    } else {
+                        currentArgument.append(c);
+                    }
+                    break;
+            }
+            prevChar = c;
+        }
+        if (currentArgument.length() > 0) {
+            result.add(currentArgument.toString());
+        }
+        return result.toArray(new String[result.size()]);
+    }
+}
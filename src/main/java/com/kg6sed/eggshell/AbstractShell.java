@@ -1,19 +1,67 @@
 package com.kg6sed.eggshell;
 
+import com.kg6sed.eggshell.history.HistoryFile;
+import com.kg6sed.eggshell.jline.CachingCompletor;
+import com.kg6sed.eggshell.jline.CommandCompletor;
+import com.kg6sed.eggshell.jline.MappedHistory;
+import com.kg6sed.eggshell.jline.MethodCompletor;
+import com.kg6sed.eggshell.jline.ReverseSearch;
+import com.kg6sed.eggshell.io.Pager;
+import com.kg6sed.eggshell.io.ShellIO;
+import com.kg6sed.eggshell.io.StreamIO;
+import com.kg6sed.eggshell.io.TerminalIO;
+import com.kg6sed.eggshell.output.StructuredOutput;
+import com.kg6sed.eggshell.plugin.Plugin;
+import com.kg6sed.eggshell.plugin.PluginListener;
+import com.kg6sed.eggshell.record.SessionRecorder;
 import com.kg6sed.eggshell.jline.WrappingCompletor;
+import com.kg6sed.eggshell.stats.CommandStatistics;
+import com.kg6sed.eggshell.stats.CommandSummary;
+import com.kg6sed.eggshell.stats.SlowCommand;
+import com.kg6sed.eggshell.stats.SlowCommandLog;
+import com.kg6sed.eggshell.table.Table;
+import com.kg6sed.eggshell.table.TableRenderer;
 import jline.*;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Constructor;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * EggShell - Annotation driven command-line shell library
@@ -38,70 +86,320 @@ import java.util.Map;
  * Super class for all shells.
  */
 public abstract class AbstractShell implements Shell {
-    private Map<String, ShellCommand> commands;
+    private static final int BATCH_BUFFER_SIZE = 64 * 1024;
+    private static final long COMPLETION_WAIT_MILLIS = 150;
+    private static final int PIPE_CAPACITY = 1024;
+    private static final String FOREACH = "foreach";
+    private static final int MAX_SUGGESTIONS = 5;
+    private static final String BUILTIN_CATEGORY = "Shell";
+    private static final String JOBS_CATEGORY = "Jobs";
+    private static final long TIMEOUT_GRACE_MILLIS = 1000;
+
+    private static final TableRenderer TABLE_RENDERER = new TableRenderer();
+
+    // the command model is shared by all instances of a class, the rest is created when first needed
+    private ShellModel model;
+    private volatile CommandSet commands;
+    private CommandCompletor completor;
+    private Map<ShellCommand, Completor> argumentCompletors;
+    private ShellIO io;
+    private volatile Thread foreground;
+    private TableRenderer tableRenderer = TABLE_RENDERER;
+    private ArgumentTokenizer tokenizer;
+    private volatile JobManager jobManager;
+    private InterruptHandler interruptHandler = new InterruptHandler();
+    private Map<String, CachingCompletor> completionCaches;
+    private volatile ConcurrentMap<String, ResultCache> resultCaches;
+    private List<CommandListener> listeners = new CopyOnWriteArrayList<CommandListener>();
+    private CommandStatistics statistics;
+    private boolean concurrentPipelines;
+    private FanOut fanOut;
+    private Path historyPath;
+    private long historySize = HistoryFile.DEFAULT_MAX_SIZE;
+    private HistoryFile history;
+    private SessionRecorder recorder;
+    private int recordingSession;
+    private volatile StructuredOutput structuredOutput;
+    private volatile long commandTimeout;
+    private volatile SlowCommandLog slowCommandLog;
+    /**
+     * Interactive console, created by {@link #getConsole()} when first needed.
+     */
     protected ConsoleReader console;
 
     protected AbstractShell() throws IOException {
-        this.commands = new HashMap<String, ShellCommand>();
-        this.console = new ConsoleReader();
-
-
-        findAnnotations(this.getClass());
-
-
-        for (ShellCommand command : this.commands.values()) {
-            List<Completor> completors = new LinkedList<Completor>();
-            completors.add(new SimpleCompletor(command.getName()));
-
-            for (Annotation[] annArray : command.getMethod().getParameterAnnotations()) {
-                boolean addedCompletor = false;
-                for (Annotation annotation : annArray) {
-                    if (annotation instanceof Argument) {
-                        Argument arg = (Argument) annotation;
-                        if (!arg.completions()[0].equals(Argument.NO_COMPLETIONS)) {
-                            if (arg.type().equalsIgnoreCase(Argument.SIMPLE)) {
-                                completors.add(new SimpleCompletor(arg.completions()));
-                                addedCompletor = true;
-                            } else if (arg.type().equalsIgnoreCase(Argument.SIMPLE_METHOD)) {
-                                String[] result = new String[0];
-                                try {
-                                    Method m = this.getClass().getDeclaredMethod(arg.completions()[0]);
-                                    m.setAccessible(true);
-                                    result = (String[]) m.invoke(this);
-                                } catch (Exception e) {
-                                    // TODO: log statement
-                                }
-                                completors.add(new SimpleCompletor(result));
-                                addedCompletor = true;
-                            } else if (arg.type().equalsIgnoreCase(Argument.COMPLETOR_GETTER)) {
-                                try {
-                                    Method m = this.getClass().getDeclaredMethod(arg.completions()[0]);
-                                    m.setAccessible(true);
-                                    completors.add(new WrappingCompletor(this, m));
-                                    addedCompletor = true;
-                                } catch (NoSuchMethodException e) {
-                                    // TOOD: log statement
-                                }
-                            }
-                        } else if (arg.type().equalsIgnoreCase("filename")) {
-                            completors.add(new FileNameCompletor());
-                            addedCompletor = true;
-                        }
+        this.model = ShellModel.of(this.getClass());
+        this.commands = new CommandSet(this.model);
+    }
+
+    /**
+     * Returns the console, creating it and registering the command completors on first use.
+     * Batch execution never creates a console unless a command asks for it.
+     *
+     * @return console
+     * @throws IOException if the terminal cannot be set up
+     */
+    protected ConsoleReader getConsole() throws IOException {
+        if (this.console == null) {
+            this.console = this.createConsole();
+            this.addCompletors(this.console);
+            if (this.historyPath != null) {
+                this.history = new HistoryFile(this.historyPath, this.historySize);
+                this.console.setHistory(new MappedHistory(this.history, this.console));
+                if (!ReverseSearch.install(this.console, this.history)) {
+                    this.console.printString("Ctrl-R history search is not supported by this jline version");
+                    this.console.printNewline();
+                }
+            }
+        }
+        return this.console;
+    }
+
+    /**
+     * Keeps the command history in a file, shared with other shells using the same file.
+     * Ctrl-R searches it. Must be called before the console is created.
+     *
+     * @param path    history file, created if missing
+     * @param maxSize size in bytes at which the file is rotated
+     */
+    public void setHistoryFile(Path path, long maxSize) {
+        this.historyPath = path;
+        this.historySize = maxSize;
+    }
+
+    public void setHistoryFile(Path path) {
+        this.setHistoryFile(path, HistoryFile.DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Creates the console used by {@link #getConsole()}, on the system terminal by default.
+     * Override to run on other streams or a headless terminal.
+     *
+     * @return new console
+     * @throws IOException if the terminal cannot be set up
+     */
+    protected ConsoleReader createConsole() throws IOException {
+        return new ConsoleReader();
+    }
+
+    /**
+     * Adds the command line completor to the console. Completors which do not call the
+     * shell come from the class's {@link ShellModel}, the others are bound to this instance.
+     */
+    private synchronized void addCompletors(ConsoleReader console) {
+        Completor shared = this.model.getCompletor();
+        CommandSet commands = this.commands;
+        if (shared != null && commands.getProviders().isEmpty()) {
+            console.addCompletor(shared);
+            return;
+        }
+        this.argumentCompletors = new ConcurrentHashMap<ShellCommand, Completor>();
+        this.addArgumentCompletors(this, this.model.getCommands().values());
+        for (Object provider : commands.getProviders()) {
+            this.addArgumentCompletors(provider, commands.getCommands(provider));
+        }
+        this.completor = new CommandCompletor(commands.getIndex(), this.argumentCompletors);
+        console.addCompletor(this.completor);
+    }
+
+    /**
+     * Adds the argument completors of commands declared by an object, the shell or a provider.
+     */
+    private void addArgumentCompletors(Object instance, Collection<ShellCommand> commands) {
+        // matched by name, names are unique within a model and do not need the methods looked up
+        Map<String, ShellCommand> byName = new HashMap<String, ShellCommand>();
+        for (ShellCommand command : commands) {
+            byName.put(command.getName(), command);
+        }
+        for (ShellModel.Completion completion : ShellModel.of(instance.getClass()).getCompletions()) {
+            ShellCommand command = byName.get(completion.getCommand().getName());
+            if (command == null) {
+                continue;
+            }
+            Completor completor = completion.getCompletor();
+            if (completor == null) {
+                completor = this.bind(completion, command, instance);
+            }
+            this.argumentCompletors.put(command, completor);
+        }
+    }
+
+    private Completor bind(ShellModel.Completion completion, ShellCommand command, Object instance) {
+        Completor[] completors = completion.getCompletors();
+        for (int i = 0; i < completors.length; i++) {
+            Method m = completion.getMethod(i);
+            if (m == null) {
+                continue;
+            }
+            ArgumentInfo arg = completion.getArgument(i);
+            if (arg.getType().equalsIgnoreCase(Argument.SIMPLE_METHOD)) {
+                if (arg.isCompletionCached()) {
+                    completors[i] = this.cache(command, arg, new MethodCompletor(instance, completion.getGetter(i)));
+                } else {
+                    try {
+                        completors[i] = new SimpleCompletor((String[]) m.invoke(instance));
+                    } catch (InvocationTargetException e) {
+                        throw new IllegalStateException("Completion method " + m.getName() + " failed", e.getCause());
+                    } catch (IllegalAccessException e) {
+                        throw new IllegalStateException("Completion method " + m.getName() + " failed", e);
                     }
                 }
-                if (!addedCompletor) {
-                    completors.add(new NullCompletor());
+            } else {
+                Completor completor = new WrappingCompletor(instance, m);
+                completors[i] = arg.isCompletionCached() ? this.cache(command, arg, completor) : completor;
+            }
+        }
+        return ShellModel.Completion.argumentCompletor(completors);
+    }
+
+    /**
+     * Adds the {@link Command} methods of another object to the shell. They run on that
+     * object and replace commands of the same name, which come back when the object is
+     * unregistered. Registering an object again updates its commands.
+     *
+     * @param provider object declaring command methods
+     */
+    public void registerCommands(Object provider) {
+        this.replaceCommands(Collections.emptyList(), Collections.singletonList(provider));
+    }
+
+    /**
+     * @param provider registered object
+     * @return true if the object was registered
+     */
+    public boolean unregisterCommands(Object provider) {
+        if (!this.commands.contains(provider)) {
+            return false;
+        }
+        this.replaceCommands(Collections.singletonList(provider), Collections.emptyList());
+        return true;
+    }
+
+    /**
+     * Unregisters and registers command providers in one step, so no command line
+     * dispatched meanwhile sees some of them missing, e.g. when a plugin is reloaded.
+     * Commands being dispatched finish on the set of commands they were resolved in;
+     * dispatching does not wait for a registration. Only the completors of the changed
+     * providers are created or dropped.
+     *
+     * @param removed providers to unregister
+     * @param added   providers to register
+     */
+    public synchronized void replaceCommands(Collection<?> removed, Collection<?> added) {
+        CommandSet previous = this.commands;
+        CommandSet next = previous;
+        for (Object provider : removed) {
+            next = next.without(provider);
+        }
+        for (Object provider : added) {
+            next = next.with(provider);
+        }
+
+        if (this.completor != null) {
+            for (Object provider : removed) {
+                this.removeArgumentCompletors(previous.getCommands(provider));
+            }
+            for (Object provider : added) {
+                this.removeArgumentCompletors(previous.getCommands(provider));
+                this.addArgumentCompletors(provider, next.getCommands(provider));
+            }
+        }
+        this.commands = next;
+        if (this.completor != null) {
+            this.completor.setIndex(next.getIndex());
+        } else if (this.console != null) {
+            // the console has the completor shared by the class, which knows no providers
+            this.console.removeCompletor(this.model.getCompletor());
+            this.addCompletors(this.console);
+        }
+    }
+
+    private void removeArgumentCompletors(Collection<ShellCommand> commands) {
+        for (ShellCommand command : commands) {
+            this.argumentCompletors.remove(command);
+            if (this.completionCaches != null) {
+                for (int i = 0; i < command.getArguments().length; i++) {
+                    this.completionCaches.remove(command.getName() + "/" + i);
                 }
             }
+        }
+    }
 
+    /**
+     * Registers the {@link CommandProvider} services found by a class loader, e.g. of a
+     * plugin jar. Only providers defined by the loader itself are registered, not those
+     * it finds through its parents.
+     *
+     * @param loader class loader to look up providers with
+     * @return registered providers
+     */
+    public List<CommandProvider> loadCommandProviders(ClassLoader loader) {
+        List<CommandProvider> providers = new ArrayList<CommandProvider>();
+        for (CommandProvider provider : ServiceLoader.load(CommandProvider.class, loader)) {
+            if (provider.getClass().getClassLoader() == loader) {
+                providers.add(provider);
+            }
+        }
+        this.replaceCommands(Collections.emptyList(), providers);
+        return providers;
+    }
+
+    /**
+     * Loads the command providers of a plugin jar, see {@link Plugin}. Failed reloads are
+     * printed like the failures of background jobs, unless the plugin is given another
+     * {@link PluginListener}.
+     *
+     * @param jar    plugin jar
+     * @param reload true to reload the plugin whenever the jar changes
+     * @return the loaded plugin, closing it unregisters its commands
+     * @throws IOException if the jar cannot be loaded
+     */
+    public Plugin loadPlugin(Path jar, boolean reload) throws IOException {
+        Plugin plugin = new Plugin(this, jar);
+        plugin.load();
+        if (reload) {
+            plugin.setListener(new PluginListener() {
+                public void reloaded(Plugin plugin) {
+                }
 
-            completors.add(new NullCompletor());
-            ArgumentCompletor ac = new ArgumentCompletor(completors);
-            ac.setStrict(false);
-            console.addCompletor(ac);
+                public void reloadFailed(Plugin plugin, Exception e) {
+                    try {
+                        printError(CommandOutcome.FAILURE, null, String.format("Plugin %s was not reloaded: %s",
+                                plugin.getJar(), e.getMessage()), null, null);
+                    } catch (IOException e1) {
+                        // the plugin prints what its listener throws
+                        throw new UncheckedIOException(e1);
+                    }
+                }
+            });
+            plugin.watch();
         }
+        return plugin;
+    }
 
+    private Completor cache(ShellCommand command, ArgumentInfo arg, Completor completor) {
+        CachingCompletor cache = new CachingCompletor(completor, arg.getCompletionTtl(), arg.getCompletionCacheSize(),
+                COMPLETION_WAIT_MILLIS, this.getJobManager().getExecutor());
+        int position = Arrays.asList(command.getArguments()).indexOf(arg);
+        if (this.completionCaches == null) {
+            this.completionCaches = new LinkedHashMap<String, CachingCompletor>();
+        }
+        this.completionCaches.put(command.getName() + "/" + position, cache);
+        return cache;
+    }
 
+    /**
+     * Returns the caches of arguments declaring a {@link Argument#completionTtl()}, keyed by
+     * command name and argument position, e.g. <code>open/0</code>. They are created with
+     * the console.
+     *
+     * @return completion caches
+     */
+    protected Map<String, CachingCompletor> getCompletionCaches() {
+        if (this.completionCaches == null) {
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(this.completionCaches);
     }
 
     protected String generatePrompt() {
@@ -109,313 +407,1771 @@ public abstract class AbstractShell implements Shell {
     }
 
     protected void printMOTD() throws IOException {
-        this.console.printString("Welcome. Type 'help' for help.");
-        this.console.printNewline();
+        this.println("Welcome. Type 'help' for help.");
+    }
+
+    /**
+     * Prints a line to the shell output. Output of a running command is buffered and
+     * written when the command finishes, output printed while the shell waits for input,
+     * for example by a background job, is written right away. Output of a command run
+     * for a target is printed with the target name once that run has completed.
+     *
+     * @param message line to print
+     * @throws IOException on output errors
+     */
+    protected void println(String message) throws IOException {
+        FanOut.Task task = FanOut.current();
+        if (task != null) {
+            task.output.add(message);
+            return;
+        }
+        // a command that ran past its timeout prints nothing more
+        if (!Watchdog.enterOutput()) {
+            return;
+        }
+        try {
+            StructuredOutput output = this.structuredOutput;
+            if (output != null) {
+                output.text(null, message);
+                if (this.foreground == null) {
+                    output.flush();
+                }
+                return;
+            }
+            ShellIO io = this.getIO();
+            io.println(message);
+            if (this.foreground == null) {
+                io.flush();
+            }
+        } finally {
+            Watchdog.exitOutput();
+        }
+    }
+
+    /**
+     * Returns the input and output of the shell, by default the terminal console.
+     *
+     * @return shell I/O
+     * @throws IOException if the terminal cannot be set up
+     */
+    protected ShellIO getIO() throws IOException {
+        if (this.io == null) {
+            this.io = new TerminalIO(this.getConsole());
+        }
+        return this.io;
+    }
+
+    /**
+     * Runs the shell interactively over the given streams instead of the terminal,
+     * for example for a network session. Returns when the input ends or a command
+     * exits the shell.
+     *
+     * @param in  input of the session
+     * @param out output of the session
+     * @throws IOException on read or write errors
+     */
+    public void run(InputStream in, OutputStream out) throws IOException {
+        this.run(new StreamIO(in, out));
+    }
+
+    /**
+     * Runs the shell interactively on the given input and output. Returns when the
+     * input ends or a command exits the shell.
+     *
+     * @param io input and output of the session
+     * @throws IOException on read or write errors
+     */
+    public void run(ShellIO io) throws IOException {
+        this.io = io;
+        try {
+            this.interact(io);
+        } finally {
+            io.flush();
+        }
     }
 
     public void run() {
+        try {
+            this.interact(this.getIO());
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+    }
+
+    private void interact(ShellIO io) throws IOException {
+        boolean terminal = io.isInteractive();
+        if (terminal) {
+            this.interruptHandler.install();
+        }
         try {
             this.printMOTD();
-            for (String line = console.readLine(this.generatePrompt()); line != null; line = console.readLine(this.generatePrompt())) {
+            while (true) {
+                this.reportFinishedJobs();
+                // programs reading structured output get no prompts between the records
+                String line = io.readLine(this.structuredOutput == null ? this.generatePrompt() : null);
+                if (line == null || this.dispatchAndFlush(line, io) == CommandOutcome.EXIT) {
+                    return;
+                }
+            }
+        } finally {
+            if (terminal) {
+                this.interruptHandler.uninstall();
+            }
+        }
+    }
+
+    /**
+     * Starts an interactive session whose lines are read by the caller and passed to
+     * {@link #runLine(String)} one at a time, for servers that read many sessions on a few
+     * threads. Prints the welcome message and the first prompt.
+     *
+     * @param io output of the session; its input is not read
+     * @throws IOException on write errors
+     */
+    public void open(ShellIO io) throws IOException {
+        this.io = io;
+        this.printMOTD();
+        this.prompt(io);
+    }
+
+    /**
+     * Runs a line of a session started with {@link #open(ShellIO)}, then reports finished
+     * jobs and prints the next prompt. Lines of one session must not be run concurrently.
+     *
+     * @param line command line
+     * @return what happened; after {@link CommandOutcome#EXIT} the session has ended
+     * @throws IOException on write errors
+     */
+    public CommandOutcome runLine(String line) throws IOException {
+        ShellIO io = this.io;
+        CommandOutcome outcome = this.dispatchAndFlush(line, io);
+        if (outcome != CommandOutcome.EXIT) {
+            this.reportFinishedJobs();
+            this.prompt(io);
+        }
+        return outcome;
+    }
+
+    private void prompt(ShellIO io) throws IOException {
+        // programs reading structured output get no prompts between the records
+        if (this.structuredOutput == null) {
+            io.print(this.generatePrompt());
+        }
+        io.flush();
+    }
+
+    private CommandOutcome dispatchAndFlush(String line, ShellIO io) throws IOException {
+        this.foreground = Thread.currentThread();
+        try {
+            return this.dispatch(line);
+        } finally {
+            this.foreground = null;
+            this.flush(io);
+        }
+    }
+
+    /**
+     * @return the background jobs of this shell
+     */
+    protected JobManager getJobManager() {
+        JobManager jobManager = this.jobManager;
+        if (jobManager == null) {
+            synchronized (this) {
+                if (this.jobManager == null) {
+                    this.jobManager = new JobManager();
+                }
+                jobManager = this.jobManager;
+            }
+        }
+        return jobManager;
+    }
+
+    /**
+     * Sets the executor background jobs are started on, so that slow commands can
+     * overlap on a pool sized for them.
+     *
+     * @param executor executor for new jobs
+     */
+    public void setJobExecutor(ExecutorService executor) {
+        this.getJobManager().setExecutor(executor);
+    }
+
+    /**
+     * Runs the commands read from a file without a terminal, see {@link #execute(Reader, Writer)}.
+     *
+     * @param script file with one command per line
+     * @return summary of the run
+     * @throws IOException on read or write errors
+     */
+    public ExecutionSummary executeFile(Path script) throws IOException {
+        Reader input = Files.newBufferedReader(script, Charset.defaultCharset());
+        try {
+            return this.execute(input);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Runs the commands read from the input without a terminal, writing to standard out.
+     * See {@link #execute(Reader, Writer)}.
+     *
+     * @param input commands, one per line
+     * @return summary of the run
+     * @throws IOException on read or write errors
+     */
+    public ExecutionSummary execute(Reader input) throws IOException {
+        return this.execute(input, new OutputStreamWriter(System.out, Charset.defaultCharset()));
+    }
+
+    /**
+     * Runs the commands read from the input without a terminal, see {@link #execute(ShellIO)}.
+     *
+     * @param input  commands, one per line
+     * @param output destination of all output of the shell
+     * @return summary of the run
+     * @throws IOException on read or write errors
+     */
+    public ExecutionSummary execute(Reader input, Writer output) throws IOException {
+        return this.execute(new StreamIO(input, output, BATCH_BUFFER_SIZE));
+    }
 
+    /**
+     * Runs the commands read from the given input. No prompt or welcome message is
+     * printed, empty lines and comments, lines starting with '#' after any blanks, are
+     * skipped. Output is written in blocks as the buffer of the I/O fills up, and flushed
+     * when the input ends or a command exits the shell, which stops the run.
+     *
+     * @param io commands, one per line, and destination of all output of the shell
+     * @return summary of the run
+     * @throws IOException on read or write errors
+     */
+    public ExecutionSummary execute(ShellIO io) throws IOException {
+        ShellIO previousIO = this.io;
+        Thread previousForeground = this.foreground;
+        this.io = io;
+        this.foreground = Thread.currentThread();
 
-                String[] args = this.splitArguments(line);
-                if (args == null || args.length < 1 || args[0] == null) {
+        long start = System.nanoTime();
+        int commandCount = 0;
+        int failureCount = 0;
+        boolean exited = false;
+        try {
+            for (String line = io.readLine(null); line != null; line = io.readLine(null)) {
+                if (line.trim().startsWith("#")) {
                     continue;
                 }
-                ShellCommand command = this.commands.get(args[0].trim().toLowerCase());
-                if (command == null) {
-                    this.console.printString(String.format("Unknown command '%s', try 'help'", args[0]));
-                    this.console.printNewline();
+                CommandOutcome outcome = this.dispatch(line);
+                if (outcome == CommandOutcome.EMPTY) {
                     continue;
+                }
+                commandCount++;
+                if (outcome.isFailure()) {
+                    failureCount++;
+                } else if (outcome == CommandOutcome.EXIT) {
+                    exited = true;
+                    break;
+                }
+            }
+            this.awaitJobs();
+        } finally {
+            this.flush(io);
+            this.io = previousIO;
+            this.foreground = previousForeground;
+        }
+        return new ExecutionSummary(commandCount, failureCount, System.nanoTime() - start, exited);
+    }
+
+    /**
+     * Parses and runs a single command line.
+     *
+     * @param line command line
+     * @return what happened
+     * @throws IOException on output errors
+     */
+    protected CommandOutcome dispatch(String line) throws IOException {
+        StructuredOutput output = this.structuredOutput;
+        if (this.listeners.isEmpty() && this.recorder == null && output == null) {
+            return this.dispatch(line, null);
+        }
+        Timing timing = new Timing();
+        CommandOutcome outcome = this.dispatch(line, timing);
+        if (outcome != CommandOutcome.EMPTY && this.recorder != null) {
+            this.recorder.record(this.recordingSession, timing.start, line, timing.command, outcome,
+                    System.nanoTime() - timing.start);
+        }
+        if (outcome != CommandOutcome.EMPTY && output != null) {
+            output.end(timing.command == null ? null : timing.command.getName(), outcome, System.nanoTime() - timing.start);
+        }
+        if (this.listeners.isEmpty()) {
+            return outcome;
+        }
+        if (outcome != CommandOutcome.EMPTY && !timing.background && !timing.fannedOut) {
+            long end = System.nanoTime();
+            if (timing.parsed == 0) {
+                timing.parsed = end;
+            }
+            long parseNanos = timing.parsed - timing.start;
+            if (outcome == CommandOutcome.BINDING_ERROR) {
+                timing.bound = end;
+            }
+            long bindNanos = timing.bound == 0 ? 0 : timing.bound - timing.parsed;
+            long invokeNanos = timing.bound == 0 ? 0 : end - timing.bound;
+            this.fireCommandExecuted(timing.command, outcome, parseNanos, bindNanos, invokeNanos);
+        }
+        return outcome;
+    }
+
+    private CommandOutcome dispatch(String line, Timing timing) throws IOException {
+        return this.dispatch(line, null, timing);
+    }
+
+    /**
+     * @param targetSpec targets to run the line on, null to take them from a leading
+     *                   <code>foreach</code>
+     */
+    private CommandOutcome dispatch(String line, String targetSpec, Timing timing) throws IOException {
+        // tokens are only valid until the next dispatch, so all of them are bound before the command runs
+        if (this.tokenizer == null) {
+            this.tokenizer = new ArgumentTokenizer();
+        }
+        int tokenCount = this.tokenizer.tokenize(line);
+        if (tokenCount < 1) {
+            return CommandOutcome.EMPTY;
+        }
+        boolean background = tokenCount > 1 && this.tokenizer.isPlain(tokenCount - 1)
+                && "&".contentEquals(this.tokenizer.getToken(tokenCount - 1));
+        if (background) {
+            tokenCount--;
+        }
+
+        // 'foreach <targets> <command> ...' binds the command after the target list
+        int first = 0;
+        if (targetSpec == null && tokenCount > 2 && this.tokenizer.isPlain(0) && FOREACH.contentEquals(this.tokenizer.getToken(0))) {
+            targetSpec = this.tokenizer.getString(1);
+            first = 2;
+        }
+
+        // a pipeline is split into stages, each bound like a single command; commands
+        // registered meanwhile do not affect this line
+        CommandIndex index = this.commands.getIndex();
+        List<ShellCommand> stages = new ArrayList<ShellCommand>(1);
+        List<Object[]> stageArguments = new ArrayList<Object[]>(1);
+        for (int i = 1; i <= tokenCount; i++) {
+            if (i < tokenCount && !this.isPipe(i)) {
+                continue;
+            }
+            if (i == first) {
+                this.printError(CommandOutcome.USAGE_ERROR, null, "Missing command in pipeline", null, null);
+                return CommandOutcome.USAGE_ERROR;
+            }
+            CharSequence name = this.tokenizer.getToken(first);
+            ShellCommand command = index.resolve(name);
+            if (timing != null) {
+                timing.parsed = System.nanoTime();
+                timing.command = command;
+            }
+            if (command == null) {
+                List<String> candidates = index.complete(name);
+                if (candidates.isEmpty()) {
+                    List<String> suggestions = index.suggest(name, MAX_SUGGESTIONS);
+                    this.printError(CommandOutcome.UNKNOWN_COMMAND, null, suggestions.isEmpty()
+                            ? String.format("Unknown command '%s', try 'help'", name)
+                            : String.format("Unknown command '%s', did you mean %s?", name, join(suggestions)),
+                            null, suggestions);
                 } else {
-                    // attempt to execute command
-
-                    Object[] arguments = new Object[command.getMethod().getParameterTypes().length];
-
-
-                    if (args.length < command.getRequiredArgumentCount() + 1) {
-                        this.console.printString(String.format("'%s': Invalid number of arguments, got %d, expected %d", command.getName(), args.length - 1, command.getRequiredArgumentCount()));
-                        this.console.printNewline();
-                        StringBuilder usage = new StringBuilder("Usage: ");
-                        usage.append(command.getName());
-                        Annotation[][] annArray = command.getMethod().getParameterAnnotations();
-                        for (int i = 0; i < annArray.length; i++) {
-                            boolean usageAdded = false;
-                            boolean optional = false;
-                            for (int j = 0; j < annArray[i].length; j++) {
-                                if (annArray[i][j] instanceof Argument) {
-                                    Argument argument = (Argument) annArray[i][j];
-                                    optional = argument.optional();
-                                    if (!argument.name().equals(Argument.NO_ARGUMENT_NAME)) {
-                                        usage.append(' ');
-                                        if (optional) {
-                                            usage.append("{").append(argument.name()).append("}");
-                                        } else {
-                                            usage.append(argument.name());
-                                        }
-                                        usageAdded = true;
-                                    }
-                                    break;
-                                }
-                            }
-                            if (!usageAdded) {
-                                usage.append(' ');
-                                if (optional) {
-                                    usage.append("{");
-                                    usage.append(command.getMethod().getParameterTypes()[i].getName());
-                                    usage.append("}");
-                                } else {
-                                    usage.append(command.getMethod().getParameterTypes()[i].getName());
-                                }
-                            }
-                        }
-                        this.console.printString(usage.toString());
-                        this.console.printNewline();
-                        continue;
-                    }   // end
-
-                    // have the right number of arguments, fill out the argument array
-
-                    Class[] parameters = command.getMethod().getParameterTypes();
-
-                    boolean error = false;
-                    for (int i = 0; i < parameters.length; i++) {
-                        if (parameters[i] == String.class) {
-                            if (args.length <= (i + 1)) {
-                                arguments[i] = null;
-                            } else {
-                                arguments[i] = args[i + 1];
-                            }
-                        } else if (parameters[i] == long.class) {
-                            if (args.length <= (i + 1)) {
-                                arguments[i] = 0L;
-                            } else {
-                                try {
-                                    arguments[i] = Long.parseLong(args[i + 1]);
-                                } catch (NumberFormatException e) {
-                                    this.console.printString(String.format("Cannot parse '%s' to long for parameter %d", args[i + 1], i));
-                                    this.console.printNewline();
-                                    error = true;
-                                    break;
-                                }
-                            }
-                        } else if (parameters[i] == int.class) {
-                            if (args.length <= (i + 1)) {
-                                arguments[i] = 0;
-                            } else {
-                                try {
-                                    arguments[i] = Integer.parseInt(args[i + 1]);
-                                } catch (NumberFormatException e) {
-                                    this.console.printString(String.format("Cannot parse '%s' to int for parameter %d", args[i + 1], i));
-                                    this.console.printNewline();
-                                    error = true;
-                                    break;
-                                }
-                            }
-                        } else if (parameters[i] == short.class) {
-                            if (args.length <= (i + 1)) {
-                                arguments[i] = (short) 0;
-                            } else {
-                                try {
-                                    arguments[i] = Short.parseShort(args[i + 1]);
-                                } catch (NumberFormatException e) {
-                                    this.console.printString(String.format("Cannot parse '%s' to short for parameter %d", args[i + 1], i));
-                                    this.console.printNewline();
-                                    error = true;
-                                    break;
-                                }
-                            }
-                        } else if (parameters[i] == char.class) {
-                            if (args.length <= (i + 1)) {
-                                arguments[i] = (char) 0;
-                            } else {
-                                if (args[i + 1].length() != 1) {
-                                    this.console.printString(String.format("Cannot parse '%s' to char for parameter %d", args[i + 1], i));
-                                    this.console.printNewline();
-                                    error = true;
-                                    break;
-                                } else {
-                                    arguments[i] = args[i + 1].charAt(0);
-                                }
-                            }
-                        } else if (parameters[i] == byte.class) {
-                            if (args.length <= (i + 1)) {
-                                arguments[i] = (byte) 0;
-                            } else {
-                                try {
-                                    arguments[i] = Byte.parseByte(args[i + 1]);
-                                } catch (NumberFormatException e) {
-                                    this.console.printString(String.format("Cannot parse '%s' to byte for parameter %d", args[i + 1], i));
-                                    this.console.printNewline();
-                                    error = true;
-                                    break;
-                                }
-                            }
-                        } else if (parameters[i] == boolean.class) {
-                            if (args.length <= (i + 1)) {
-                                arguments[i] = false;
-                            } else {
-                                arguments[i] = !(args[i + 1].length() < 1 || (!args[i + 1].startsWith("t") && !args[i + 1].startsWith("T")));
-                            }
-                        } else {
-                            // check if the class has a constructor that takes a string
-                            Constructor constructor = parameters[i].getConstructor(String.class);
-
-                            if (constructor != null) {
-                                try {
-                                    arguments[i] = constructor.newInstance(args[i + 1]);
-                                } catch (Throwable t) {
-                                    this.console.printString(String.format("Programming error, unable to construct %s from string, parameter %d", parameters[i], i));
-                                    this.console.printNewline();
-                                    error = true;
-                                    break;
-                                }
-                            } else {
-
-                                this.console.printString(String.format("Programming error, unable to assign string to %s, parameter %d", parameters[i], i));
-                                this.console.printNewline();
-                                error = true;
-                                break;
-                            }
-                        }
+                    this.printError(CommandOutcome.UNKNOWN_COMMAND, null,
+                            String.format("Ambiguous command '%s', could be: %s", name, join(candidates)), null, candidates);
+                }
+                return CommandOutcome.UNKNOWN_COMMAND;
+            }
+            if (!stages.isEmpty() && command.getInputIndex() < 0) {
+                this.printError(CommandOutcome.USAGE_ERROR, command.getName(),
+                        String.format("'%s' takes no input and cannot follow '|'", command.getName()), null, null);
+                return CommandOutcome.USAGE_ERROR;
+            }
+
+            Object[] arguments = new Object[command.getBinders().length];
+            CommandOutcome bound = this.bind(command, first + 1, i - first - 1, arguments);
+            if (bound != CommandOutcome.SUCCESS) {
+                return bound;
+            }
+            stages.add(command);
+            stageArguments.add(arguments);
+            first = i + 1;
+        }
+        if (timing != null) {
+            timing.bound = System.nanoTime();
+        }
+
+        ShellCommand command = stages.get(0);
+        Object[] arguments = stageArguments.get(0);
+        if (targetSpec != null || command.isFanOut()) {
+            if (stages.size() > 1) {
+                this.printError(CommandOutcome.USAGE_ERROR, command.getName(), "Pipelines cannot be run on targets", null, null);
+                return CommandOutcome.USAGE_ERROR;
+            }
+            List<TargetContext> targets = targetSpec == null ? this.getFanOut().getTargets() : this.getFanOut().select(targetSpec);
+            if (targets.isEmpty()) {
+                this.printError(CommandOutcome.USAGE_ERROR, command.getName(),
+                        targetSpec == null ? "No targets registered" : String.format("No targets match '%s'", targetSpec), null, null);
+                return CommandOutcome.USAGE_ERROR;
+            }
+            if (timing != null) {
+                timing.fannedOut = true;
+            }
+            if (background) {
+                Job job = this.startFanOut(line.trim(), command, arguments, targets, timing);
+                this.println(String.format("[%d] started", job.getId()));
+                return CommandOutcome.SUCCESS;
+            }
+            this.interruptHandler.begin();
+            try {
+                return this.runFanOut(command, arguments, targets, timing);
+            } finally {
+                this.interruptHandler.end();
+            }
+        }
+        if (background) {
+            if (timing != null) {
+                timing.background = true;
+            }
+            Job job = stages.size() == 1
+                    ? this.startJob(line.trim(), command, arguments, timing)
+                    : this.startPipeline(line.trim(), stages, stageArguments);
+            this.println(String.format("[%d] started", job.getId()));
+            return CommandOutcome.SUCCESS;
+        }
+
+        long timeout = this.getTimeout(stages);
+        if (timeout > 0) {
+            return this.runWatched(line.trim(), stages, stageArguments, timeout);
+        }
+        this.interruptHandler.begin();
+        try {
+            return this.runForeground(stages, stageArguments);
+        } finally {
+            this.interruptHandler.end();
+        }
+    }
+
+    /**
+     * Runs a command or pipeline in the foreground and prints its result.
+     */
+    private CommandOutcome runForeground(List<ShellCommand> stages, List<Object[]> stageArguments) throws IOException {
+        ShellCommand command = stages.get(0);
+        try {
+            if (stages.size() > 1) {
+                command = stages.get(stages.size() - 1);
+                this.runPipeline(stages, stageArguments);
+                return CommandOutcome.SUCCESS;
+            }
+            Object result = this.invoke(command, stageArguments.get(0));
+            if (result instanceof Future) {
+                return this.awaitForeground(command, (Future<?>) result);
+            } else if (Pipes.isStream(result) || result instanceof Table) {
+                this.printElements(command, result);
+            } else if (this.structuredOutput != null) {
+                // only structured output shows single values, the text of a value is left to the command
+                this.printResult(command.getName(), result);
+            } else if (command.isCached()) {
+                // the method is not called on a cache hit, so the result is all a cached command shows
+                this.printElements(command, result);
+            }
+            return CommandOutcome.SUCCESS;
+        } catch (ExitShellException e) {
+            try {
+                this.println(e.getMessage());
+            } catch (IOException e1) {
+                // boo hoo, so they didnt get to see the exit message, big deal
+            }
+            return CommandOutcome.EXIT;
+        } catch (InterruptedException e) {
+            this.printError(CommandOutcome.FAILURE, command.getName(), "Interrupted", null, null);
+            return CommandOutcome.FAILURE;
+        } catch (CancellationException e) {
+            this.printError(CommandOutcome.FAILURE, command.getName(), "Interrupted", null, null);
+            return CommandOutcome.FAILURE;
+        } catch (Throwable t) {
+            this.printFailure(command.getName(), t);
+            return CommandOutcome.FAILURE;
+        }
+    }
+
+    /**
+     * @return milliseconds the stages may run together: the shortest timeout of any of them,
+     *         0 for none
+     */
+    private long getTimeout(List<ShellCommand> stages) {
+        long timeout = 0;
+        for (ShellCommand stage : stages) {
+            long stageTimeout = stage.getTimeout() == Command.DEFAULT_TIMEOUT ? this.commandTimeout : stage.getTimeout();
+            if (stageTimeout > 0 && (timeout == 0 || stageTimeout < timeout)) {
+                timeout = stageTimeout;
+            }
+        }
+        return timeout;
+    }
+
+    /**
+     * Runs a foreground command with a timeout on a command thread and waits for it. When the
+     * timeout passes the command is added to the slow command log with the stack of its
+     * thread, its output is dropped and it is interrupted. A command that does not return
+     * within a grace period is abandoned, and the shell moves on to the next line.
+     */
+    private CommandOutcome runWatched(String commandLine, final List<ShellCommand> stages,
+                                      final List<Object[]> stageArguments, long timeout) throws IOException {
+        final Watchdog.Watch watch = new Watchdog.Watch(stages.get(0).getName(), commandLine, timeout,
+                this.getSlowCommandLog());
+        Future<CommandOutcome> future = Watchdog.getCommandExecutor().submit(new Callable<CommandOutcome>() {
+            public CommandOutcome call() throws IOException {
+                watch.begin(false);
+                try {
+                    // a command thread that started after the deadline does not run the command
+                    return watch.isExpired() ? CommandOutcome.TIMEOUT : runForeground(stages, stageArguments);
+                } finally {
+                    watch.end();
+                }
+            }
+        });
+        String name = stages.get(stages.size() - 1).getName();
+        CommandOutcome outcome;
+        this.interruptHandler.begin();
+        try {
+            try {
+                outcome = this.await(future, timeout);
+            } catch (InterruptedException e) {
+                // Ctrl-C, the command reports that it was interrupted unless it does not stop
+                watch.interrupt();
+                outcome = this.awaitStopped(future);
+                if (outcome == null) {
+                    watch.abandon();
+                    this.printError(CommandOutcome.FAILURE, name, String.format("Interrupted, '%s' was abandoned",
+                            commandLine), null, null);
+                    return CommandOutcome.FAILURE;
+                }
+                return outcome;
+            }
+            if (outcome != null) {
+                return outcome;
+            }
+            if (watch.expire() == null) {
+                // returned right at the deadline
+                outcome = this.awaitStopped(future);
+                if (outcome != null) {
+                    return outcome;
+                }
+            }
+            watch.interrupt();
+            boolean stopped = this.awaitStopped(future) != null;
+            this.printError(CommandOutcome.TIMEOUT, name, String.format("'%s' timed out after %d ms and was %s",
+                    commandLine, timeout, stopped ? "interrupted" : "abandoned"), null, null);
+            return CommandOutcome.TIMEOUT;
+        } finally {
+            this.interruptHandler.end();
+        }
+    }
+
+    /**
+     * @return outcome of a command run by {@link #runWatched}, null if it has not returned in time
+     */
+    private CommandOutcome await(Future<CommandOutcome> future, long millis) throws IOException, InterruptedException {
+        try {
+            return future.get(millis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return null;
+        } catch (ExecutionException e) {
+            // runForeground only throws output errors, everything else is reported
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    /**
+     * Gives an interrupted command the grace period to return; Ctrl-C stops waiting.
+     */
+    private CommandOutcome awaitStopped(Future<CommandOutcome> future) throws IOException {
+        try {
+            return this.await(future, TIMEOUT_GRACE_MILLIS);
+        } catch (InterruptedException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Invokes a command, answering it from its result cache if it has one, and drops the
+     * cached results the command invalidates.
+     */
+    private Object invoke(ShellCommand command, Object[] arguments) throws Throwable {
+        try {
+            if (!command.isCached()) {
+                return command.invoke(this, arguments);
+            }
+            TargetContext target = this.getTarget();
+            return this.getResultCache(command).get(this, target == null ? null : target.getName(), arguments);
+        } finally {
+            for (String name : command.getInvalidates()) {
+                this.invalidateResults(name);
+            }
+        }
+    }
+
+    private ResultCache getResultCache(ShellCommand command) {
+        ConcurrentMap<String, ResultCache> caches = this.resultCaches;
+        if (caches == null) {
+            synchronized (this) {
+                if (this.resultCaches == null) {
+                    this.resultCaches = new ConcurrentHashMap<String, ResultCache>();
+                }
+                caches = this.resultCaches;
+            }
+        }
+        String name = command.getName().toLowerCase();
+        ResultCache cache = caches.get(name);
+        // a command replaced by a provider starts with an empty cache
+        while (cache == null || cache.getCommand() != command) {
+            ResultCache created = new ResultCache(command);
+            boolean added = cache == null ? caches.putIfAbsent(name, created) == null : caches.replace(name, cache, created);
+            cache = added ? created : caches.get(name);
+        }
+        return cache;
+    }
+
+    /**
+     * Drops the cached results of a command, see {@link Command#cacheTtl()}.
+     *
+     * @param command name of a cached command, <code>*</code> for all
+     * @return true if the command had cached results
+     */
+    public boolean invalidateResults(String command) {
+        Map<String, ResultCache> caches = this.resultCaches;
+        if (caches == null) {
+            return false;
+        }
+        if (command.equals("*")) {
+            for (ResultCache cache : caches.values()) {
+                cache.invalidate();
+            }
+            return !caches.isEmpty();
+        }
+        ResultCache cache = caches.get(command.toLowerCase());
+        if (cache != null) {
+            cache.invalidate();
+        }
+        return cache != null;
+    }
+
+    /**
+     * @return result caches of the commands run so far, by command name
+     */
+    public Map<String, ResultCache> getResultCaches() {
+        if (this.resultCaches == null) {
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(this.resultCaches);
+    }
+
+    private boolean isPipe(int token) {
+        return this.tokenizer.isPlain(token) && "|".contentEquals(this.tokenizer.getToken(token));
+    }
+
+    /**
+     * Binds the argument tokens of a command, printing the usage if too few were given.
+     * The {@link Input} parameter gets an empty input.
+     *
+     * @param command   command to bind
+     * @param first     index of the first argument token
+     * @param count     number of argument tokens
+     * @param arguments receives the bound values
+     */
+    private CommandOutcome bind(ShellCommand command, int first, int count, Object[] arguments) throws IOException {
+        if (count < command.getRequiredArgumentCount()) {
+            this.printError(CommandOutcome.USAGE_ERROR, command.getName(), String.format("'%s': Invalid number of arguments, got %d, expected %d",
+                    command.getName(), count, command.getRequiredArgumentCount()), command.getUsage(), null);
+            return CommandOutcome.USAGE_ERROR;
+        }
+
+        ArgumentBinder[] binders = command.getBinders();
+        int token = first;
+        for (int i = 0; i < binders.length; i++) {
+            if (i == command.getInputIndex()) {
+                arguments[i] = Pipes.adapt(Collections.emptyIterator(), binders[i].getType());
+                continue;
+            }
+            String value = token < first + count ? this.tokenizer.getString(token) : null;
+            try {
+                arguments[i] = binders[i].bind(value, i);
+            } catch (ArgumentBindingException e) {
+                List<String> suggestions = command.suggestArgument(i, value, MAX_SUGGESTIONS);
+                this.printError(CommandOutcome.BINDING_ERROR, command.getName(), e.getMessage(), null, suggestions);
+                if (this.structuredOutput == null && !suggestions.isEmpty()) {
+                    this.println(String.format("Did you mean %s?", join(suggestions)));
+                }
+                return CommandOutcome.BINDING_ERROR;
+            }
+            token++;
+        }
+        return CommandOutcome.SUCCESS;
+    }
+
+    /**
+     * Runs the stages of a pipeline, each stage getting the elements returned by the
+     * previous one, and prints the elements returned by the last. With concurrent
+     * pipelines every stage but the last is drained on the job executor.
+     */
+    private void runPipeline(List<ShellCommand> stages, List<Object[]> stageArguments) throws Throwable {
+        List<Future<?>> producers = new ArrayList<Future<?>>();
+        List<AutoCloseable> results = new ArrayList<AutoCloseable>();
+        Iterator<?> input = Collections.emptyIterator();
+        Object result = null;
+        Throwable failure = null;
+        try {
+            for (int i = 0; i < stages.size(); i++) {
+                ShellCommand command = stages.get(i);
+                Object[] arguments = stageArguments.get(i);
+                if (command.getInputIndex() >= 0) {
+                    arguments[command.getInputIndex()] = Pipes.adapt(input, command.getBinders()[command.getInputIndex()].getType());
+                }
+                result = this.invoke(command, arguments);
+                if (result instanceof Future) {
+                    try {
+                        result = ((Future<?>) result).get();
+                    } catch (ExecutionException e) {
+                        throw e.getCause();
                     }
-                    if (error) {
-                        continue;
+                }
+                if (result instanceof AutoCloseable) {
+                    results.add((AutoCloseable) result);
+                }
+                if (i < stages.size() - 1) {
+                    input = Pipes.iterator(result);
+                    if (this.concurrentPipelines) {
+                        input = Pipes.async(input, this.getJobManager().getExecutor(), PIPE_CAPACITY, producers);
                     }
+                }
+            }
+            this.printElements(stages.get(stages.size() - 1), result);
+        } catch (Throwable t) {
+            failure = t;
+            throw t;
+        } finally {
+            for (Future<?> producer : producers) {
+                producer.cancel(true);
+            }
+            // every result is closed, the first failure to close fails the pipeline
+            Throwable closeFailure = failure;
+            for (AutoCloseable closeable : results) {
+                try {
+                    Pipes.close(closeable, closeFailure);
+                } catch (Exception e) {
+                    closeFailure = e;
+                }
+            }
+            if (closeFailure != failure) {
+                throw closeFailure;
+            }
+        }
+    }
 
-                    try {
-                        command.getMethod().invoke(this, arguments);
-                    } catch (InvocationTargetException e) {
-                        if (e.getCause() instanceof ExitShellException) {
-                            try {
-                                this.console.printString(e.getCause().getMessage());
-                                this.console.printNewline();
-                            } catch (IOException e1) {
-                                // boo hoo, so they didnt get to see the exit message, big deal
-                            }
-                            return;
-                        } else {
-                            ByteArrayOutputStream sw = new ByteArrayOutputStream();
-                            PrintStream ps = new PrintStream(sw);
-                            e.getCause().printStackTrace(ps);
-                            ps.close();
-                            this.console.printString(sw.toString());
-                            this.console.printNewline();
-                        }
+    private Job startPipeline(String commandLine, final List<ShellCommand> stages, final List<Object[]> stageArguments) {
+        final Watchdog.Watch watch = this.watch(commandLine, stages);
+        Job job = this.getJobManager().start(commandLine, new Callable<Object>() {
+            public Object call() throws Exception {
+                if (watch != null) {
+                    watch.begin(true);
+                }
+                try {
+                    runPipeline(stages, stageArguments);
+                    return null;
+                } catch (Exception e) {
+                    throw e;
+                } catch (Error e) {
+                    throw e;
+                } catch (Throwable t) {
+                    throw new UndeclaredThrowableException(t);
+                } finally {
+                    if (watch != null) {
+                        watch.end();
                     }
+                }
+            }
+        });
+        if (watch != null) {
+            watch.setJob(job);
+        }
+        return job;
+    }
+
+    /**
+     * @return a watch enforcing the timeout of a background job, null if it has none
+     */
+    private Watchdog.Watch watch(String commandLine, List<ShellCommand> stages) {
+        long timeout = this.getTimeout(stages);
+        return timeout > 0 ? new Watchdog.Watch(stages.get(0).getName(), commandLine, timeout, this.getSlowCommandLog()) : null;
+    }
 
+    /**
+     * Prints the elements of a command result one per line, or the lines of a table,
+     * stopping on Ctrl-C. Output of the foreground command is paged on a terminal.
+     * Structured output gets a record per element or row instead.
+     */
+    private void printElements(ShellCommand command, Object result) throws IOException, InterruptedException {
+        StructuredOutput output = this.structuredOutput;
+        if (output != null) {
+            this.writeElements(output, command, result);
+            return;
+        }
+        Iterator<?> elements = result instanceof Table ? this.tableRenderer.lines((Table) result) : Pipes.iterator(result);
+        Pager pager = Thread.currentThread() == this.foreground ? new Pager(this.getIO()) : null;
+        Throwable failure = null;
+        try {
+            while (elements.hasNext()) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                String line = String.valueOf(elements.next());
+                if (pager == null) {
+                    this.println(line);
+                } else if (!pager.println(line)) {
+                    break;
                 }
+            }
+        } catch (Throwable t) {
+            failure = t;
+            throw t;
+        } finally {
+            if (result != elements) {
+                Pipes.close(result, failure);
+            }
+        }
+    }
 
+    private void writeElements(StructuredOutput output, ShellCommand command, Object result)
+            throws IOException, InterruptedException {
+        Iterator<?> elements = Pipes.iterator(result);
+        String[] headers = result instanceof Table ? ((Table) result).getHeaders() : null;
+        Throwable failure = null;
+        try {
+            while (elements.hasNext()) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                Object element = elements.next();
+                if (!Watchdog.enterOutput()) {
+                    return;
+                }
+                try {
+                    if (headers == null) {
+                        output.result(command.getName(), null, element);
+                    } else {
+                        output.row(command.getName(), null, headers, element);
+                    }
+                } finally {
+                    Watchdog.exitOutput();
+                }
+            }
+        } catch (Throwable t) {
+            failure = t;
+            throw t;
+        } finally {
+            if (result != elements) {
+                Pipes.close(result, failure);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
+    }
 
+    /**
+     * Makes pipelines run their stages concurrently, each producing stage on its own
+     * thread of the job executor and at most a bounded number of elements ahead of its
+     * consumer. By default stages run one element at a time on the calling thread.
+     *
+     * @param concurrentPipelines true to run stages concurrently
+     */
+    public void setConcurrentPipelines(boolean concurrentPipelines) {
+        this.concurrentPipelines = concurrentPipelines;
     }
 
-    private String[] splitArguments(String line) {
-        LinkedList<String> result = new LinkedList<String>();
-        StringBuilder currentArgument = new StringBuilder();
-        int state = 0;
-        char prevChar = 0;
-        for (char c : line.toCharArray()) {
-            switch (state) {
-                case 0:
-                    // outside quoted string
-                    if (c == '"') {
-                        state = 1;
-                    } else if (c != ' ') {
-                        currentArgument.append(c);
-                    } else {
-                        if (currentArgument.length() > 0) {
-                            result.add(currentArgument.toString());
-                            currentArgument = new StringBuilder();
+    /**
+     * Sets the renderer used for commands returning a {@link Table}.
+     *
+     * @param tableRenderer renderer
+     */
+    public void setTableRenderer(TableRenderer tableRenderer) {
+        this.tableRenderer = tableRenderer;
+    }
+
+    /**
+     * Runs a bound command on each target on the fan-out executor and prints the output of
+     * every target as soon as it completes, followed by a summary. Runs taking longer than
+     * the fan-out timeout are cancelled; Ctrl-C cancels all of them.
+     */
+    private CommandOutcome runFanOut(ShellCommand command, Object[] arguments, List<TargetContext> targets,
+                                     Timing timing) throws IOException {
+        long start = System.nanoTime();
+        CompletionService<FanOut.Task> completion = new ExecutorCompletionService<FanOut.Task>(this.getFanOut().getExecutor());
+        List<FanOut.Task> pending = new LinkedList<FanOut.Task>();
+        for (TargetContext target : targets) {
+            FanOut.Task task = new FanOut.Task(target);
+            task.future = completion.submit(this.fanOutTask(task, command, arguments, timing));
+            pending.add(task);
+        }
+
+        long timeout = this.getFanOut().getTimeoutNanos();
+        List<Long> latencies = new ArrayList<Long>(targets.size());
+        int failed = 0;
+        int timedOut = 0;
+        try {
+            while (!pending.isEmpty()) {
+                // wait until the first running task is due, tasks still queued are not timed yet
+                long now = System.nanoTime();
+                long wait = TimeUnit.MILLISECONDS.toNanos(10);
+                for (FanOut.Task task : pending) {
+                    if (task.start != 0) {
+                        wait = Math.min(wait, task.start + timeout - now);
+                    }
+                }
+                Future<FanOut.Task> done = completion.poll(Math.max(wait, 0), TimeUnit.NANOSECONDS);
+                if (done != null && !done.isCancelled()) {
+                    FanOut.Task task = done.get();
+                    pending.remove(task);
+                    latencies.add(task.getElapsed());
+                    this.printTarget(command, task);
+                    if (task.failure != null) {
+                        failed++;
+                    }
+                }
+
+                now = System.nanoTime();
+                for (Iterator<FanOut.Task> i = pending.iterator(); i.hasNext(); ) {
+                    FanOut.Task task = i.next();
+                    if (task.start != 0 && now - task.start >= timeout && !task.future.isDone()) {
+                        task.future.cancel(true);
+                        i.remove();
+                        timedOut++;
+                        String message = "timed out after " + CommandStatistics.formatNanos(timeout);
+                        StructuredOutput output = this.structuredOutput;
+                        if (output != null) {
+                            output.error(command.getName(), task.target.getName(), CommandOutcome.FAILURE, message, null, null);
+                        } else {
+                            this.println("[" + task.target.getName() + "] " + message);
                         }
                     }
-                    break;
-                case 1:
-                    // inside quoted string
-                    if (c == '"' && prevChar != '\\') {
-                        if (currentArgument.length() > 0) {
-                            result.add(currentArgument.toString());
-                            currentArgument = new StringBuilder();
+                }
+            }
+        } catch (InterruptedException e) {
+            for (FanOut.Task task : pending) {
+                task.future.cancel(true);
+            }
+            this.printError(CommandOutcome.FAILURE, command.getName(),
+                    String.format("Interrupted, cancelled %d of %d targets", pending.size(), targets.size()), null, null);
+            return CommandOutcome.FAILURE;
+        } catch (ExecutionException e) {
+            // tasks catch the failures of their command
+            throw new IllegalStateException(e.getCause());
+        }
+
+        Collections.sort(latencies);
+        StringBuilder summary = new StringBuilder(String.format("%d targets: %d ok, %d failed, %d timed out in %s",
+                targets.size(), latencies.size() - failed, failed, timedOut,
+                CommandStatistics.formatNanos(System.nanoTime() - start)));
+        if (!latencies.isEmpty()) {
+            summary.append(String.format("; fastest %s, median %s, slowest %s",
+                    CommandStatistics.formatNanos(latencies.get(0)),
+                    CommandStatistics.formatNanos(latencies.get(latencies.size() / 2)),
+                    CommandStatistics.formatNanos(latencies.get(latencies.size() - 1))));
+        }
+        this.println(summary.toString());
+        return failed + timedOut > 0 ? CommandOutcome.FAILURE : CommandOutcome.SUCCESS;
+    }
+
+    private Callable<FanOut.Task> fanOutTask(final FanOut.Task task, final ShellCommand command, final Object[] arguments,
+                                             final Timing timing) {
+        return new Callable<FanOut.Task>() {
+            public FanOut.Task call() throws Exception {
+                task.start = System.nanoTime();
+                FanOut.setCurrent(task);
+                try {
+                    Object result = invoke(command, arguments);
+                    if (result instanceof Future) {
+                        try {
+                            result = ((Future<?>) result).get();
+                        } catch (ExecutionException e) {
+                            throw e.getCause();
                         }
-                        state = 0;
-                    } else {
-                        currentArgument.append(c);
                     }
-                    break;
+                    collect(result, task);
+                } catch (Throwable t) {
+                    task.failure = t;
+                } finally {
+                    task.end = System.nanoTime();
+                    FanOut.setCurrent(null);
+                }
+                if (timing != null) {
+                    fireCommandExecuted(command, task.failure == null ? CommandOutcome.SUCCESS : CommandOutcome.FAILURE,
+                            timing.parsed - timing.start, timing.bound - timing.parsed, task.getElapsed());
+                }
+                return task;
+            }
+        };
+    }
+
+    /**
+     * Reads the lines of a result computed for a target, while the target's thread still
+     * runs. For structured output the elements or rows themselves are kept.
+     */
+    private void collect(Object result, FanOut.Task task) throws IOException, InterruptedException {
+        if (result == null) {
+            return;
+        }
+        boolean structured = this.structuredOutput != null;
+        if (!Pipes.isStream(result) && !(result instanceof Table)) {
+            if (structured) {
+                task.results.add(result);
+            } else {
+                task.output.add(String.valueOf(result));
             }
-            prevChar = c;
+            return;
         }
-        if (currentArgument.length() > 0) {
-            result.add(currentArgument.toString());
+        Iterator<?> elements;
+        if (structured) {
+            elements = Pipes.iterator(result);
+            task.headers = result instanceof Table ? ((Table) result).getHeaders() : null;
+        } else {
+            elements = result instanceof Table ? this.tableRenderer.lines((Table) result) : Pipes.iterator(result);
+        }
+        Throwable failure = null;
+        try {
+            while (elements.hasNext()) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if (structured) {
+                    task.results.add(elements.next());
+                } else {
+                    task.output.add(String.valueOf(elements.next()));
+                }
+            }
+        } catch (Throwable t) {
+            failure = t;
+            throw t;
+        } finally {
+            if (result != elements) {
+                Pipes.close(result, failure);
+            }
         }
-        return result.toArray(new String[result.size()]);
     }
 
-    private void findAnnotations(Class clazz) {
+    private void printTarget(ShellCommand command, FanOut.Task task) throws IOException {
+        StructuredOutput output = this.structuredOutput;
+        if (output != null) {
+            this.writeTarget(output, command, task);
+            return;
+        }
+        String prefix = "[" + task.target.getName() + "] ";
+        for (String line : task.output) {
+            this.println(prefix + line);
+        }
+        if (task.failure != null) {
+            this.println(prefix + "failed: " + task.failure);
+        } else if (task.output.isEmpty()) {
+            this.println(prefix + "ok (" + CommandStatistics.formatNanos(task.getElapsed()) + ")");
+        }
+        // lines of finished targets are shown while the others still run
+        this.getIO().flush();
+    }
 
-        if (clazz.getSuperclass() != null) {
-            findAnnotations(clazz.getSuperclass());
+    private void writeTarget(StructuredOutput output, ShellCommand command, FanOut.Task task) throws IOException {
+        String target = task.target.getName();
+        for (String line : task.output) {
+            output.text(target, line);
+        }
+        for (Object value : task.results) {
+            if (task.headers == null) {
+                output.result(command.getName(), target, value);
+            } else {
+                output.row(command.getName(), target, task.headers, value);
+            }
         }
+        if (task.failure != null) {
+            output.failure(command.getName(), target, task.failure);
+        } else if (task.output.isEmpty() && task.results.isEmpty()) {
+            output.text(target, "ok (" + CommandStatistics.formatNanos(task.getElapsed()) + ")");
+        }
+        output.flush();
+    }
 
-        for (Method m : clazz.getDeclaredMethods()) {
-            Command c = null;
-            m.setAccessible(true);
+    private Job startFanOut(String commandLine, final ShellCommand command, final Object[] arguments,
+                            final List<TargetContext> targets, final Timing timing) {
+        return this.getJobManager().start(commandLine, new Callable<Object>() {
+            public Object call() throws Exception {
+                return runFanOut(command, arguments, targets, timing);
+            }
+        });
+    }
 
-            if ((c = m.getAnnotation(Command.class)) != null) {
+    private synchronized FanOut getFanOut() {
+        if (this.fanOut == null) {
+            this.fanOut = new FanOut();
+        }
+        return this.fanOut;
+    }
 
-                String commandName = c.name();
-                if (commandName.equals(Command.METHOD_NAME)) {
-                    commandName = m.getName();
-                }
+    /**
+     * Registers a target commands can be run on with <code>foreach</code> or
+     * {@link Command#fanOut()}, replacing a target of the same name.
+     *
+     * @param name    target name, used in output and target lists
+     * @param context object the commands use to reach the target, see {@link #getTarget()}
+     */
+    public void registerTarget(String name, Object context) {
+        this.getFanOut().register(name, context);
+    }
 
-                Annotation[][] annArray = m.getParameterAnnotations();
+    /**
+     * @param name target name
+     * @return true if the target was registered
+     */
+    public boolean unregisterTarget(String name) {
+        return this.getFanOut().unregister(name);
+    }
 
-                int requiredArguments = 0;
+    /**
+     * @return the registered targets in name order
+     */
+    public List<TargetContext> getTargets() {
+        return this.getFanOut().getTargets();
+    }
 
-                for (int i = 0; i < annArray.length; i++) {
-                    requiredArguments++;
-                    for (int j = 0; j < annArray[i].length; j++) {
-                        if (annArray[i][j] instanceof Argument) {
-                            Argument argument = (Argument) annArray[i][j];
-                            if (argument.optional()) {
-                                requiredArguments--;
-                            }
-                            break;
-                        }
-                    }
+    /**
+     * Returns the target the calling command runs for, when it was run with
+     * <code>foreach</code> or is a {@link Command#fanOut()} command.
+     *
+     * @return current target, or null
+     */
+    protected TargetContext getTarget() {
+        FanOut.Task task = FanOut.current();
+        return task == null ? null : task.target;
+    }
+
+    /**
+     * Sets how many targets a command runs on at once, 4 or the number of processors by
+     * default. Only applies to the default executor, before its first use.
+     *
+     * @param parallelism number of threads
+     */
+    public void setFanOutParallelism(int parallelism) {
+        this.getFanOut().setParallelism(parallelism);
+    }
+
+    /**
+     * Sets the executor commands are run on for their targets.
+     *
+     * @param executor bounded executor
+     */
+    public void setFanOutExecutor(ExecutorService executor) {
+        this.getFanOut().setExecutor(executor);
+    }
+
+    /**
+     * Sets how long a command may run on a single target before it is cancelled and
+     * reported as timed out, 30 seconds by default. Time spent waiting for a free
+     * thread is not counted.
+     *
+     * @param timeout maximum time per target
+     * @param unit    unit of the timeout
+     */
+    public void setFanOutTimeout(long timeout, TimeUnit unit) {
+        this.getFanOut().setTimeout(timeout, unit);
+    }
+
+    private Job startJob(String commandLine, final ShellCommand command, final Object[] arguments, final Timing timing) {
+        final Watchdog.Watch watch = this.watch(commandLine, Collections.singletonList(command));
+        Job job = this.getJobManager().start(commandLine, new Callable<Object>() {
+            public Object call() throws Exception {
+                if (watch == null) {
+                    return runJob(command, arguments, timing, null);
+                }
+                watch.begin(true);
+                try {
+                    // the deadline also covers a returned future
+                    return JobManager.await(runJob(command, arguments, timing, watch));
+                } finally {
+                    watch.end();
                 }
+            }
+        });
+        if (watch != null) {
+            watch.setJob(job);
+        }
+        return job;
+    }
+
+    private Object runJob(ShellCommand command, Object[] arguments, Timing timing, Watchdog.Watch watch) throws Exception {
+        long start = System.nanoTime();
+        CommandOutcome outcome = CommandOutcome.FAILURE;
+        try {
+            Object result = this.invoke(command, arguments);
+            outcome = CommandOutcome.SUCCESS;
+            return result;
+        } catch (Exception e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        } finally {
+            // a returned future is awaited by the job manager, its time is not included
+            if (timing != null) {
+                this.fireCommandExecuted(command, watch != null && watch.isExpired() ? CommandOutcome.TIMEOUT : outcome,
+                        timing.parsed - timing.start, timing.bound - timing.parsed, System.nanoTime() - start);
+            }
+        }
+    }
 
+    /**
+     * Notifies the listeners; a failing listener is printed like a failing command and
+     * does not keep the others from being notified.
+     */
+    private void fireCommandExecuted(ShellCommand command, CommandOutcome outcome, long parseNanos, long bindNanos,
+                                     long invokeNanos) throws IOException {
+        for (CommandListener listener : this.listeners) {
+            try {
+                listener.commandExecuted(command, outcome, parseNanos, bindNanos, invokeNanos);
+            } catch (RuntimeException e) {
+                this.printFailure(command == null ? null : command.getName(), e);
+            }
+        }
+    }
 
-                if (c.help().equals(Command.NO_HELP)) {
-                    this.commands.put(commandName.trim().toLowerCase(), new ShellCommand(commandName, m, requiredArguments));
-                } else {
-                    this.commands.put(commandName.trim().toLowerCase(), new ShellCommand(commandName, m, requiredArguments, c.help()));
+    /**
+     * Adds a listener notified after every command. Commands are only timed while
+     * at least one listener is registered.
+     *
+     * @param listener listener to add
+     */
+    public void addCommandListener(CommandListener listener) {
+        this.listeners.add(listener);
+    }
+
+    public void removeCommandListener(CommandListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * @return the statistics collected for the <code>stats</code> command, null if disabled
+     */
+    public CommandStatistics getStatistics() {
+        return this.statistics;
+    }
+
+    /**
+     * Sets the statistics the shell records its commands in, replacing the previous ones.
+     * Shells can share one instance to aggregate their commands.
+     *
+     * @param statistics statistics to record in, null to stop recording
+     */
+    public void setStatistics(CommandStatistics statistics) {
+        if (this.statistics != null) {
+            this.removeCommandListener(this.statistics);
+        }
+        this.statistics = statistics;
+        if (statistics != null) {
+            this.addCommandListener(statistics);
+        }
+    }
+
+    public SessionRecorder getRecorder() {
+        return this.recorder;
+    }
+
+    /**
+     * Records every command line this shell dispatches, with its timing and outcome, so
+     * the session can be replayed later by a {@link com.kg6sed.eggshell.record.SessionReplay}.
+     * Shells can share one recorder, each is recorded as a session of its own.
+     *
+     * @param recorder recorder to write to, null to stop recording
+     */
+    public void setRecorder(SessionRecorder recorder) {
+        this.recordingSession = recorder == null ? 0 : recorder.newSession();
+        this.recorder = recorder;
+    }
+
+    public StructuredOutput getStructuredOutput() {
+        return this.structuredOutput;
+    }
+
+    /**
+     * Writes results, errors and printed lines as typed records for programs driving the
+     * shell, instead of text. Every value a command returns is written, not only iterators,
+     * streams and tables, and no prompts are shown. Records are flushed where text would be.
+     *
+     * @param output output to write records to, null for text
+     */
+    public void setStructuredOutput(StructuredOutput output) {
+        this.structuredOutput = output;
+    }
+
+    /**
+     * Sets how long commands may run unless they declare their own {@link Command#timeout()}.
+     * A command running longer is added to the slow command log with a dump of its thread
+     * and interrupted; a foreground command that does not return within a second after
+     * that is abandoned, so the shell can go on with the next line.
+     *
+     * @param timeout time commands may run, 0 for no limit
+     * @param unit    unit of the timeout
+     */
+    public void setCommandTimeout(long timeout, TimeUnit unit) {
+        this.commandTimeout = unit.toMillis(timeout);
+    }
+
+    /**
+     * @return the commands that ran past their timeout, shown by <code>slow</code>
+     */
+    public SlowCommandLog getSlowCommandLog() {
+        SlowCommandLog log = this.slowCommandLog;
+        if (log == null) {
+            synchronized (this) {
+                if (this.slowCommandLog == null) {
+                    this.slowCommandLog = new SlowCommandLog();
                 }
+                log = this.slowCommandLog;
             }
+        }
+        return log;
+    }
 
+    /**
+     * Sets the log commands running past their timeout are added to. Shells can share one log.
+     *
+     * @param log log to add to
+     */
+    public void setSlowCommandLog(SlowCommandLog log) {
+        this.slowCommandLog = log;
+    }
+
+    /**
+     * Waits for a future returned by a foreground command, cancelling it on Ctrl-C.
+     */
+    private CommandOutcome awaitForeground(ShellCommand command, Future<?> future) throws IOException {
+        try {
+            this.printResult(command.getName(), future.get());
+            return CommandOutcome.SUCCESS;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            this.printError(CommandOutcome.FAILURE, command.getName(), "Interrupted", null, null);
+        } catch (CancellationException e) {
+            this.printError(CommandOutcome.FAILURE, command.getName(), "Cancelled", null, null);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ExitShellException) {
+                this.println(e.getCause().getMessage());
+                return CommandOutcome.EXIT;
+            }
+            this.printFailure(command.getName(), e.getCause());
         }
+        return CommandOutcome.FAILURE;
     }
 
-    @Command
-    public void help() throws IOException {
-        this.console.printString("Available commands:");
-        this.console.printNewline();
+    /**
+     * Prints the value a future or a background job completed with, if any.
+     */
+    private void printResult(String command, Object result) throws IOException {
+        if (result == null || !Watchdog.enterOutput()) {
+            return;
+        }
+        try {
+            StructuredOutput output = this.structuredOutput;
+            if (output != null) {
+                output.result(command, null, result);
+            } else {
+                this.println(String.valueOf(result));
+            }
+        } finally {
+            Watchdog.exitOutput();
+        }
+    }
+
+    /**
+     * Prints why a command line could not be run: the message, followed by the usage of
+     * the command if given. Structured output also gets the suggestions, which the text
+     * either names in the message or prints itself.
+     */
+    private void printError(CommandOutcome outcome, String command, String message, String usage,
+                            List<String> suggestions) throws IOException {
+        if (!Watchdog.enterOutput()) {
+            return;
+        }
+        try {
+            StructuredOutput output = this.structuredOutput;
+            if (output != null && FanOut.current() == null) {
+                output.error(command, null, outcome, message, usage, suggestions);
+                return;
+            }
+            this.println(message);
+            if (usage != null) {
+                this.println("Usage: " + usage);
+            }
+        } finally {
+            Watchdog.exitOutput();
+        }
+    }
+
+    private void printFailure(String command, Throwable t) throws IOException {
+        // the interrupt that ended a command past its timeout is not worth a stack trace
+        if (!Watchdog.enterOutput()) {
+            return;
+        }
+        try {
+            StructuredOutput output = this.structuredOutput;
+            if (output != null && FanOut.current() == null) {
+                output.failure(command, null, t);
+                return;
+            }
+            ByteArrayOutputStream sw = new ByteArrayOutputStream();
+            PrintStream ps = new PrintStream(sw);
+            t.printStackTrace(ps);
+            ps.close();
+            this.println(sw.toString());
+        } finally {
+            Watchdog.exitOutput();
+        }
+    }
+
+    private void flush(ShellIO io) throws IOException {
+        io.flush();
+        StructuredOutput output = this.structuredOutput;
+        if (output != null) {
+            output.flush();
+        }
+    }
+
+    private void reportFinishedJobs() throws IOException {
+        if (this.jobManager == null) {
+            return;
+        }
+        for (Job job : this.getJobManager().removeFinished()) {
+            this.report(job);
+        }
+    }
+
+    /**
+     * Prints the state of a finished job along with its result or failure.
+     */
+    private void report(Job job) throws IOException {
+        if (job.isTimedOut()) {
+            this.printError(CommandOutcome.TIMEOUT, null, job.toString(), null, null);
+            return;
+        }
+        this.println(job.toString());
+        if (job.getFuture().isCancelled()) {
+            return;
+        }
+        try {
+            this.printResult(null, job.getFuture().get());
+        } catch (ExecutionException e) {
+            this.printFailure(null, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void awaitJobs() throws IOException {
+        for (Job job : this.getJobManager().getJobs()) {
+            try {
+                job.getFuture().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                // reported below
+            }
+            this.getJobManager().remove(job);
+            this.report(job);
+        }
+    }
+
+    private Job findJob(int id) throws IOException {
+        Job job = null;
+        if (id > 0) {
+            job = this.getJobManager().get(id);
+        } else {
+            for (Job candidate : this.getJobManager().getJobs()) {
+                job = candidate;
+            }
+        }
+        if (job == null) {
+            this.println(id > 0 ? String.format("No such job: %d", id) : "No current job");
+        }
+        return job;
+    }
 
-        for (ShellCommand command : this.commands.values()) {
-            if (command.getHelp() != null) {
-                this.console.printString(String.format("%s - %s", command.getName(), command.getHelp()));
+    @Command(help = "List background jobs", category = JOBS_CATEGORY)
+    public void jobs() throws IOException {
+        // a finished job is reported with its result once, then it leaves the table
+        for (Job job : this.getJobManager().getJobs()) {
+            if (job.isDone()) {
+                this.getJobManager().remove(job);
+                this.report(job);
             } else {
-                this.console.printString(String.format("%s", command.getName()));
+                this.println(job.toString());
+            }
+        }
+    }
+
+    @Command(help = "Wait for a job in the foreground, Ctrl-C cancels it", category = JOBS_CATEGORY,
+            timeout = Command.NO_TIMEOUT)
+    public void fg(@Argument(name = "job", optional = true) int id) throws IOException {
+        Job job = this.findJob(id);
+        if (job == null) {
+            return;
+        }
+        this.println(job.getCommandLine());
+        try {
+            job.getFuture().get();
+        } catch (InterruptedException e) {
+            job.cancel();
+        } catch (Exception e) {
+            // reported below
+        }
+        this.getJobManager().remove(job);
+        this.report(job);
+    }
+
+    @Command(name = "wait", help = "Wait for a job, or for all jobs", category = JOBS_CATEGORY,
+            timeout = Command.NO_TIMEOUT)
+    public void waitForJobs(@Argument(name = "job", optional = true) int id) throws IOException {
+        if (id > 0) {
+            Job job = this.findJob(id);
+            if (job == null) {
+                return;
+            }
+            try {
+                job.getFuture().get();
+            } catch (InterruptedException e) {
+                this.println("Stopped waiting");
+                return;
+            } catch (Exception e) {
+                // reported below
+            }
+            this.getJobManager().remove(job);
+            this.report(job);
+        } else {
+            this.awaitJobs();
+        }
+    }
+
+    @Command(help = "Cancel a job by interrupting it", category = JOBS_CATEGORY)
+    public void kill(@Argument(name = "job") int id) throws IOException {
+        Job job = this.findJob(id);
+        if (job != null && !job.cancel()) {
+            this.println(String.format("Job %d has already finished", id));
+        }
+    }
+
+    private static String join(List<String> values) {
+        StringBuilder result = new StringBuilder();
+        for (String value : values) {
+            if (result.length() > 0) {
+                result.append(", ");
+            }
+            result.append(value);
+        }
+        return result.toString();
+    }
+
+    @Command(help = "Show command statistics; 'stats on', 'stats off' and 'stats reset' control them",
+            category = BUILTIN_CATEGORY)
+    public void stats(@Argument(name = "action", optional = true, completions = {"on", "off", "reset"}) String action) throws IOException {
+        if ("on".equals(action)) {
+            if (this.statistics == null) {
+                this.setStatistics(new CommandStatistics());
+            }
+            return;
+        } else if ("off".equals(action)) {
+            this.setStatistics(null);
+            return;
+        } else if (action != null && !action.equals("reset")) {
+            this.println(String.format("Unknown action '%s', expected on, off or reset", action));
+            return;
+        }
+        if (this.statistics == null) {
+            this.println("Statistics are off, 'stats on' enables them");
+            return;
+        }
+        if (action != null) {
+            this.statistics.reset();
+            return;
+        }
+
+        this.println(String.format("%-16s %8s %7s %9s %9s %9s %9s %9s",
+                "command", "count", "errors", "parse", "bind", "invoke", "p99", "max"));
+        for (CommandSummary summary : this.statistics.getCommands()) {
+            this.println(String.format("%-16s %8d %7d %9s %9s %9s %9s %9s",
+                    summary.getName(), summary.getCount(), summary.getErrorCount(),
+                    CommandStatistics.formatNanos(summary.getParseMedian()),
+                    CommandStatistics.formatNanos(summary.getBindMedian()),
+                    CommandStatistics.formatNanos(summary.getInvokeMedian()),
+                    CommandStatistics.formatNanos(summary.getInvoke99thPercentile()),
+                    CommandStatistics.formatNanos(summary.getInvokeMax())));
+        }
+        if (this.statistics.getUnknownCommandCount() > 0) {
+            this.println(String.format("%d unknown commands", this.statistics.getUnknownCommandCount()));
+        }
+    }
 
+    @Command(help = "Show the cached command results; 'cache clear' drops them, 'cache clear <command>' those of one command",
+            category = BUILTIN_CATEGORY)
+    public void cache(@Argument(name = "action", optional = true, completions = {"stats", "clear"}) String action,
+                      @Argument(name = "command", optional = true) String name) throws IOException {
+        if ("clear".equals(action)) {
+            if (!this.invalidateResults(name == null ? "*" : name) && name != null) {
+                this.println(String.format("No cached results for '%s'", name));
             }
-            this.console.printNewline();
+            return;
+        } else if (action != null && !action.equals("stats")) {
+            this.println(String.format("Unknown action '%s', expected stats or clear", action));
+            return;
         }
 
+        Map<String, ResultCache> caches = new TreeMap<String, ResultCache>(this.getResultCaches());
+        if (caches.isEmpty()) {
+            this.println("No cached results");
+            return;
+        }
+        this.println(String.format("%-16s %8s %8s %8s %6s %9s %13s", "command", "entries", "hits", "misses", "hit%",
+                "evictions", "invalidations"));
+        for (ResultCache cache : caches.values()) {
+            long requests = cache.getHitCount() + cache.getMissCount();
+            this.println(String.format("%-16s %8d %8d %8d %5.1f%% %9d %13d", cache.getCommand().getName(), cache.size(),
+                    cache.getHitCount(), cache.getMissCount(), requests == 0 ? 0.0 : 100.0 * cache.getHitCount() / requests,
+                    cache.getEvictionCount(), cache.getInvalidationCount()));
+        }
+    }
+
+    @Command(help = "Show the commands that ran past their timeout; 'slow <id>' shows the thread dump taken at the"
+            + " deadline, 'slow clear' clears them", category = BUILTIN_CATEGORY)
+    public void slow(@Argument(name = "id", optional = true, completions = {"clear"}) String action) throws IOException {
+        SlowCommandLog log = this.getSlowCommandLog();
+        if ("clear".equals(action)) {
+            log.clear();
+            return;
+        } else if (action != null) {
+            SlowCommand command;
+            try {
+                command = log.get(Integer.parseInt(action));
+            } catch (NumberFormatException e) {
+                this.println(String.format("Unknown action '%s', expected an id or clear", action));
+                return;
+            }
+            if (command == null) {
+                this.println(String.format("No such entry: %s", action));
+                return;
+            }
+            this.println(command.toString());
+            this.println(command.getThreadDump());
+            return;
+        }
+
+        List<SlowCommand> commands = log.getEntries();
+        if (commands.isEmpty()) {
+            this.println("No command ran past its timeout");
+            return;
+        }
+        this.println(String.format("%4s %-19s %-16s %9s %9s %-9s %s", "id", "started", "command", "timeout", "ran",
+                "state", "line"));
+        for (SlowCommand command : commands) {
+            this.println(String.format("%4d %tF %<tT %-16s %9s %9s %-9s %s", command.getId(), command.getStartTime(),
+                    command.getCommand(), CommandStatistics.formatNanos(command.getTimeout() * 1000000.0),
+                    CommandStatistics.formatNanos(command.getRunningTime(TimeUnit.NANOSECONDS)),
+                    command.isFinished() ? "returned" : "running", command.getCommandLine()));
+        }
+    }
+
+    @Command(name = FOREACH, help = "Run a command on several targets in parallel, e.g. 'foreach web* status'",
+            category = BUILTIN_CATEGORY)
+    public void foreach(@Argument(name = "targets") String targets,
+                        @Argument(name = "command") String command) throws IOException {
+        // lines starting with foreach are run by dispatch, this is only reached when called directly;
+        // the command is a line of its own, the targets are passed on as they are
+        this.dispatch(command, targets, null);
+    }
+
+    @Command(help = "List the targets of foreach", category = BUILTIN_CATEGORY)
+    public void targets() throws IOException {
+        for (TargetContext target : this.getFanOut().getTargets()) {
+            this.println(target.getName());
+        }
+    }
 
+    @Command(help = "Show the last commands entered", category = BUILTIN_CATEGORY)
+    public void history(@Argument(name = "count", optional = true) int count) throws IOException {
+        if (count <= 0) {
+            count = 20;
+        }
+        LinkedList<String> entries = new LinkedList<String>();
+        if (this.history != null) {
+            for (long offset = this.history.previous(this.history.end()); offset >= 0 && entries.size() < count;
+                 offset = this.history.previous(offset)) {
+                entries.addFirst(this.history.get(offset));
+            }
+        } else if (this.console != null) {
+            List<?> list = this.console.getHistory().getHistoryList();
+            for (Object entry : list.subList(Math.max(list.size() - count, 0), list.size())) {
+                entries.add(String.valueOf(entry));
+            }
+        }
+        for (String entry : entries) {
+            this.println(entry);
+        }
     }
 
+    /**
+     * Prints the listing of <code>help</code> without arguments. Subclasses may override it
+     * to change the listing.
+     *
+     * @throws IOException on output errors
+     */
+    public void help() throws IOException {
+        this.println(this.commands.getHelp());
+    }
+
+    @Command(help = "List the commands, or show the details of one", category = BUILTIN_CATEGORY)
+    public void help(@Argument(name = "command", optional = true) String name) throws IOException {
+        if (name == null) {
+            this.help();
+            return;
+        }
+        CommandSet commands = this.commands;
+        ShellCommand command = commands.getIndex().resolve(name);
+        if (command == null) {
+            List<String> candidates = commands.getIndex().complete(name);
+            if (!candidates.isEmpty()) {
+                this.println(String.format("Ambiguous command '%s', could be: %s", name, join(candidates)));
+                return;
+            }
+            List<String> suggestions = commands.getIndex().suggest(name, MAX_SUGGESTIONS);
+            this.println(suggestions.isEmpty()
+                    ? String.format("Unknown command '%s'", name)
+                    : String.format("Unknown command '%s', did you mean %s?", name, join(suggestions)));
+            return;
+        }
+        this.println(command.getHelpPage());
+    }
+
+    /**
+     * Phase timestamps of one dispatch, only created while listeners are registered or
+     * the shell is recorded.
+     */
+    private static final class Timing {
+        final long start = System.nanoTime();
+        long parsed;
+        long bound;
+        ShellCommand command;
+        boolean background;
+        boolean fannedOut;
+    }
 }
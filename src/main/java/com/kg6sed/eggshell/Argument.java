@@ -37,7 +37,8 @@ public @interface Argument {
     public static String SIMPLE = "simple";
     public static String SIMPLE_METHOD = "simple_method";
     public static String COMPLETOR_GETTER = "completor_getter";
-    
+    public static long NO_COMPLETION_CACHE = -1;
+
     String name() default NO_ARGUMENT_NAME;
 
     String type() default SIMPLE;
@@ -45,4 +46,25 @@ public @interface Argument {
     boolean optional() default false;
 
     String[] completions() default NO_COMPLETIONS;
+
+    /**
+     * Converter for this parameter, overriding the one registered for the parameter type.
+     * The class needs a public no-argument constructor.
+     */
+    @SuppressWarnings("rawtypes") // the raw interface itself stands for no converter
+    Class<? extends ArgumentConverter> converter() default ArgumentConverter.class;
+
+    /**
+     * Milliseconds completions of a {@link #SIMPLE_METHOD} or {@link #COMPLETOR_GETTER}
+     * argument are cached for. When set, the completion source is called in the background:
+     * TAB is answered from the cache, expired entries are served while they are refreshed,
+     * and a cold entry is waited for only briefly.
+     */
+    long completionTtl() default NO_COMPLETION_CACHE;
+
+    /**
+     * Maximum number of cached completion prefixes when {@link #completionTtl()} is set,
+     * least recently used prefixes are evicted first.
+     */
+    int completionCacheSize() default 256;
 }
@@ -0,0 +1,70 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+/**
+ * Binds the tokens for one command parameter, resolved once when the command is registered.
+ */
+public class ArgumentBinder {
+    private Class<?> type;
+    private ArgumentConverter<?> converter;
+    private Object defaultValue;
+
+    /**
+     * @param type      parameter type
+     * @param converter converter for the parameter, or null if there is none
+     */
+    public ArgumentBinder(Class<?> type, ArgumentConverter<?> converter) {
+        this.type = type;
+        this.converter = converter;
+        this.defaultValue = ArgumentConverters.defaultValue(type);
+    }
+
+    public Class<?> getType() {
+        return this.type;
+    }
+
+    /**
+     * Converts a token to the parameter value.
+     *
+     * @param value token, or null if the optional argument was not given
+     * @param index parameter index, used in error messages
+     * @return value to pass to the command method
+     * @throws ArgumentBindingException if the token cannot be converted
+     */
+    public Object bind(String value, int index) throws ArgumentBindingException {
+        if (value == null) {
+            return this.defaultValue;
+        }
+        if (this.converter == null) {
+            throw new ArgumentBindingException(String.format("Programming error, unable to assign string to %s, parameter %d", this.type, index));
+        }
+        try {
+            return this.converter.convert(value);
+        } catch (IllegalArgumentException e) {
+            throw new ArgumentBindingException(String.format("Cannot parse '%s' to %s for parameter %d", value,
+                    this.type.getSimpleName(), index), e);
+        } catch (RuntimeException e) {
+            // a broken converter fails the command line, not the shell
+            throw new ArgumentBindingException(String.format("Programming error, converting '%s' to %s for parameter %d failed: %s",
+                    value, this.type.getSimpleName(), index, e), e);
+        }
+    }
+}
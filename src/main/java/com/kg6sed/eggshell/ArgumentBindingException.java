@@ -0,0 +1,35 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+/**
+ * Thrown when a command line token cannot be bound to a command parameter.
+ */
+public class ArgumentBindingException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public ArgumentBindingException(String message) {
+        super(message);
+    }
+
+    public ArgumentBindingException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
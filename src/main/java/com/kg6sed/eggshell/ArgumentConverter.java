@@ -0,0 +1,40 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+/**
+ * Converts a command line token to a command parameter value. Implementations
+ * must be stateless, they are resolved once per command and shared.
+ * <p/>
+ * Converters can be registered for a type through
+ * {@link ArgumentConverters#register(Class, ArgumentConverter)} or set for a single
+ * parameter with {@link Argument#converter()}.
+ *
+ * @param <T> parameter type
+ */
+public interface ArgumentConverter<T> {
+
+    /**
+     * @param value token from the command line, never null
+     * @return converted value
+     * @throws IllegalArgumentException if the token cannot be converted
+     */
+    T convert(String value) throws IllegalArgumentException;
+}
@@ -0,0 +1,251 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of {@link ArgumentConverter}s by parameter type.
+ * <p/>
+ * Built in are converters for strings, the primitive types and their wrappers,
+ * enums (case insensitive), {@link Path} and {@link Duration}. Any other type with a
+ * public constructor taking a single string is converted through that constructor.
+ * Converters are resolved when a shell registers its commands, so custom converters
+ * have to be registered before the shell is created.
+ */
+public final class ArgumentConverters {
+    private static final Map<Class<?>, ArgumentConverter<?>> CONVERTERS = new ConcurrentHashMap<Class<?>, ArgumentConverter<?>>();
+    private static final Map<Class<?>, Object> DEFAULTS = new HashMap<Class<?>, Object>();
+
+    static {
+        ArgumentConverter<String> string = new ArgumentConverter<String>() {
+            public String convert(String value) {
+                return value;
+            }
+        };
+        ArgumentConverter<Long> longs = new ArgumentConverter<Long>() {
+            public Long convert(String value) {
+                return Long.parseLong(value);
+            }
+        };
+        ArgumentConverter<Integer> ints = new ArgumentConverter<Integer>() {
+            public Integer convert(String value) {
+                return Integer.parseInt(value);
+            }
+        };
+        ArgumentConverter<Short> shorts = new ArgumentConverter<Short>() {
+            public Short convert(String value) {
+                return Short.parseShort(value);
+            }
+        };
+        ArgumentConverter<Byte> bytes = new ArgumentConverter<Byte>() {
+            public Byte convert(String value) {
+                return Byte.parseByte(value);
+            }
+        };
+        ArgumentConverter<Character> chars = new ArgumentConverter<Character>() {
+            public Character convert(String value) {
+                if (value.length() != 1) {
+                    throw new IllegalArgumentException(value);
+                }
+                return value.charAt(0);
+            }
+        };
+        ArgumentConverter<Boolean> booleans = new ArgumentConverter<Boolean>() {
+            public Boolean convert(String value) {
+                return value.startsWith("t") || value.startsWith("T");
+            }
+        };
+        ArgumentConverter<Double> doubles = new ArgumentConverter<Double>() {
+            public Double convert(String value) {
+                return Double.parseDouble(value);
+            }
+        };
+        ArgumentConverter<Float> floats = new ArgumentConverter<Float>() {
+            public Float convert(String value) {
+                return Float.parseFloat(value);
+            }
+        };
+
+        register(String.class, string);
+        register(long.class, longs);
+        register(Long.class, longs);
+        register(int.class, ints);
+        register(Integer.class, ints);
+        register(short.class, shorts);
+        register(Short.class, shorts);
+        register(byte.class, bytes);
+        register(Byte.class, bytes);
+        register(char.class, chars);
+        register(Character.class, chars);
+        register(boolean.class, booleans);
+        register(Boolean.class, booleans);
+        register(double.class, doubles);
+        register(Double.class, doubles);
+        register(float.class, floats);
+        register(Float.class, floats);
+
+        register(Path.class, new ArgumentConverter<Path>() {
+            public Path convert(String value) {
+                return Paths.get(value);
+            }
+        });
+        register(Duration.class, new ArgumentConverter<Duration>() {
+            public Duration convert(String value) {
+                return parseDuration(value);
+            }
+        });
+
+        DEFAULTS.put(long.class, 0L);
+        DEFAULTS.put(int.class, 0);
+        DEFAULTS.put(short.class, (short) 0);
+        DEFAULTS.put(byte.class, (byte) 0);
+        DEFAULTS.put(char.class, (char) 0);
+        DEFAULTS.put(boolean.class, false);
+        DEFAULTS.put(double.class, 0d);
+        DEFAULTS.put(float.class, 0f);
+    }
+
+    private ArgumentConverters() {
+    }
+
+    /**
+     * Registers a converter for a parameter type, replacing any previous one.
+     *
+     * @param type      parameter type
+     * @param converter converter
+     * @param <T>       parameter type
+     */
+    public static <T> void register(Class<T> type, ArgumentConverter<? extends T> converter) {
+        CONVERTERS.put(type, converter);
+    }
+
+    /**
+     * Finds the converter for a parameter type.
+     *
+     * @param type parameter type
+     * @return converter, or null if strings cannot be converted to the type
+     */
+    public static ArgumentConverter<?> find(Class<?> type) {
+        ArgumentConverter<?> converter = CONVERTERS.get(type);
+        if (converter != null) {
+            return converter;
+        }
+        if (type.isEnum()) {
+            return new EnumConverter(type);
+        }
+        try {
+            return new ConstructorConverter(type.getConstructor(String.class));
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param type parameter type
+     * @return value used when an optional argument is missing, zero for primitives and null otherwise
+     */
+    public static Object defaultValue(Class<?> type) {
+        return DEFAULTS.get(type);
+    }
+
+    /**
+     * Parses ISO-8601 durations (<code>PT1M30S</code>) as well as a number followed by
+     * one of the units ms, s, m, h or d (<code>500ms</code>, <code>90s</code>).
+     */
+    private static Duration parseDuration(String value) {
+        if (value.length() > 0 && (value.charAt(0) == 'P' || value.charAt(0) == 'p' || value.charAt(0) == '-')) {
+            try {
+                return Duration.parse(value);
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException(value, e);
+            }
+        }
+        int unit = 0;
+        while (unit < value.length() && Character.isDigit(value.charAt(unit))) {
+            unit++;
+        }
+        if (unit == 0) {
+            throw new IllegalArgumentException(value);
+        }
+        long amount = Long.parseLong(value.substring(0, unit));
+        String suffix = value.substring(unit).toLowerCase();
+        try {
+            if (suffix.equals("ms")) {
+                return Duration.ofMillis(amount);
+            } else if (suffix.equals("s") || suffix.length() == 0) {
+                return Duration.ofSeconds(amount);
+            } else if (suffix.equals("m")) {
+                return Duration.ofMinutes(amount);
+            } else if (suffix.equals("h")) {
+                return Duration.ofHours(amount);
+            } else if (suffix.equals("d")) {
+                return Duration.ofDays(amount);
+            }
+        } catch (ArithmeticException e) {
+            // more than a Duration can hold
+            throw new IllegalArgumentException(value, e);
+        }
+        throw new IllegalArgumentException(value);
+    }
+
+    private static class EnumConverter implements ArgumentConverter<Object> {
+        private Object[] constants;
+
+        public EnumConverter(Class<?> type) {
+            this.constants = type.getEnumConstants();
+        }
+
+        public Object convert(String value) {
+            for (Object constant : this.constants) {
+                if (((Enum) constant).name().equalsIgnoreCase(value)) {
+                    return constant;
+                }
+            }
+            throw new IllegalArgumentException(value);
+        }
+    }
+
+    private static class ConstructorConverter implements ArgumentConverter<Object> {
+        private Constructor<?> constructor;
+
+        public ConstructorConverter(Constructor<?> constructor) {
+            this.constructor = constructor;
+        }
+
+        public Object convert(String value) {
+            try {
+                return this.constructor.newInstance(value);
+            } catch (InvocationTargetException e) {
+                throw new IllegalArgumentException(value, e.getCause());
+            } catch (Exception e) {
+                throw new IllegalArgumentException(value, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.lang.annotation.Annotation;
+
+/**
+ * Metadata of a single command parameter, as declared by its {@link Argument} annotation.
+ * Parameters without an annotation get the annotation defaults.
+ */
+@SuppressWarnings("rawtypes") // converter classes are raw, as in Argument.converter()
+public class ArgumentInfo {
+    public static final ArgumentInfo DEFAULT = new ArgumentInfo(Argument.NO_ARGUMENT_NAME, Argument.SIMPLE, false,
+            new String[]{Argument.NO_COMPLETIONS});
+    /**
+     * Metadata of an {@link Input} parameter.
+     */
+    public static final ArgumentInfo INPUT = new ArgumentInfo(Argument.NO_ARGUMENT_NAME, Argument.SIMPLE, true,
+            new String[]{Argument.NO_COMPLETIONS});
+
+    static {
+        INPUT.input = true;
+    }
+
+    private String name;
+    private String type;
+    private boolean optional;
+    private String[] completions;
+    private Class<? extends ArgumentConverter> converter;
+    private long completionTtl;
+    private int completionCacheSize;
+    private boolean input;
+
+    public ArgumentInfo(String name, String type, boolean optional, String[] completions) {
+        this(name, type, optional, completions, ArgumentConverter.class);
+    }
+
+    public ArgumentInfo(String name, String type, boolean optional, String[] completions,
+                        Class<? extends ArgumentConverter> converter) {
+        this(name, type, optional, completions, converter, Argument.NO_COMPLETION_CACHE, 0);
+    }
+
+    public ArgumentInfo(String name, String type, boolean optional, String[] completions,
+                        Class<? extends ArgumentConverter> converter, long completionTtl, int completionCacheSize) {
+        this.name = name;
+        this.type = type;
+        this.optional = optional;
+        this.completions = completions;
+        this.converter = converter;
+        this.completionTtl = completionTtl;
+        this.completionCacheSize = completionCacheSize;
+    }
+
+    public static ArgumentInfo fromAnnotation(Argument argument) {
+        if (argument == null) {
+            return DEFAULT;
+        }
+        return new ArgumentInfo(argument.name(), argument.type(), argument.optional(), argument.completions(),
+                argument.converter(), argument.completionTtl(), argument.completionCacheSize());
+    }
+
+    /**
+     * Reads the argument metadata of all parameters from their annotations.
+     *
+     * @param parameterAnnotations result of {@link java.lang.reflect.Method#getParameterAnnotations()}
+     * @return one entry per parameter
+     */
+    public static ArgumentInfo[] fromAnnotations(Annotation[][] parameterAnnotations) {
+        ArgumentInfo[] result = new ArgumentInfo[parameterAnnotations.length];
+        for (int i = 0; i < parameterAnnotations.length; i++) {
+            Argument argument = null;
+            boolean input = false;
+            for (Annotation annotation : parameterAnnotations[i]) {
+                if (annotation instanceof Argument) {
+                    argument = (Argument) annotation;
+                } else if (annotation instanceof Input) {
+                    input = true;
+                }
+            }
+            result[i] = input ? INPUT : fromAnnotation(argument);
+        }
+        return result;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public boolean hasName() {
+        return !this.name.equals(Argument.NO_ARGUMENT_NAME);
+    }
+
+    public String getType() {
+        return this.type;
+    }
+
+    public boolean isOptional() {
+        return this.optional;
+    }
+
+    public String[] getCompletions() {
+        return this.completions;
+    }
+
+    /**
+     * @return converter class declared on the parameter, {@link ArgumentConverter} itself if none was declared
+     */
+    public Class<? extends ArgumentConverter> getConverter() {
+        return this.converter;
+    }
+
+    public boolean hasConverter() {
+        return this.converter != ArgumentConverter.class;
+    }
+
+    /**
+     * @return milliseconds completions are cached for, {@link Argument#NO_COMPLETION_CACHE} if they are not cached
+     */
+    public long getCompletionTtl() {
+        return this.completionTtl;
+    }
+
+    public boolean isCompletionCached() {
+        return this.completionTtl != Argument.NO_COMPLETION_CACHE;
+    }
+
+    public int getCompletionCacheSize() {
+        return this.completionCacheSize;
+    }
+
+    /**
+     * @return true if the parameter receives the pipeline input instead of an argument
+     */
+    public boolean isInput() {
+        return this.input;
+    }
+
+    public boolean hasCompletions() {
+        return this.completions.length > 0 && !this.completions[0].equals(Argument.NO_COMPLETIONS);
+    }
+}
@@ -0,0 +1,239 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+/**
+ * Splits command lines into arguments. Arguments are separated by spaces or tabs,
+ * double quotes group an argument and allow backslash escapes of <code>"</code> and
+ * <code>\</code>, single quotes group an argument literally, and outside quotes a
+ * backslash escapes the next character. Quoted parts can be joined with unquoted
+ * ones, <code>a"b c"</code> is the single argument <code>ab c</code>.
+ * <p/>
+ * Tokens are returned as {@link CharSequence} views that stay valid until the next
+ * call to {@link #tokenize(CharSequence)}. Tokens without escapes or embedded quotes
+ * are slices of the line itself, the others are copied to an internal buffer. Buffers
+ * and views are reused, so once they have grown to the longest line seen the
+ * tokenizer does not allocate. Instances are not thread safe.
+ */
+public class ArgumentTokenizer {
+    private static final int OUTSIDE = 0;
+    private static final int DOUBLE_QUOTED = 1;
+    private static final int SINGLE_QUOTED = 2;
+
+    private CharSequence line;
+    private char[] buffer = new char[64];
+    private int bufferLength;
+    private Token[] tokens = new Token[8];
+    private int tokenCount;
+
+    public ArgumentTokenizer() {
+        for (int i = 0; i < this.tokens.length; i++) {
+            this.tokens[i] = new Token();
+        }
+    }
+
+    /**
+     * Splits a line, replacing the tokens of the previous line.
+     *
+     * @param line command line
+     * @return number of tokens
+     */
+    public int tokenize(CharSequence line) {
+        this.line = line;
+        this.bufferLength = 0;
+        this.tokenCount = 0;
+
+        Token token = null;
+        int state = OUTSIDE;
+        int length = line.length();
+        for (int i = 0; i < length; i++) {
+            char c = line.charAt(i);
+            switch (state) {
+                case OUTSIDE:
+                    if (c == ' ' || c == '\t') {
+                        token = null;
+                        continue;
+                    }
+                    if (token == null) {
+                        token = this.nextToken(i);
+                    }
+                    if (c == '"') {
+                        state = DOUBLE_QUOTED;
+                        token.plain = false;
+                    } else if (c == '\'') {
+                        state = SINGLE_QUOTED;
+                        token.plain = false;
+                    } else if (c == '\\' && i + 1 < length) {
+                        i++;
+                        token.append(line.charAt(i), i);
+                        token.plain = false;
+                    } else {
+                        token.append(c, i);
+                    }
+                    break;
+                case DOUBLE_QUOTED:
+                    if (c == '"') {
+                        state = OUTSIDE;
+                    } else if (c == '\\' && i + 1 < length && (line.charAt(i + 1) == '"' || line.charAt(i + 1) == '\\')) {
+                        i++;
+                        token.append(line.charAt(i), i);
+                    } else {
+                        token.append(c, i);
+                    }
+                    break;
+                case SINGLE_QUOTED:
+                    if (c == '\'') {
+                        state = OUTSIDE;
+                    } else {
+                        token.append(c, i);
+                    }
+                    break;
+            }
+        }
+        return this.tokenCount;
+    }
+
+    public int getTokenCount() {
+        return this.tokenCount;
+    }
+
+    /**
+     * @param index token index
+     * @return view of the token, valid until the next line is tokenized
+     */
+    public CharSequence getToken(int index) {
+        if (index >= this.tokenCount) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        return this.tokens[index];
+    }
+
+    /**
+     * Tells operators such as <code>|</code> apart from arguments that merely look like them.
+     *
+     * @param index token index
+     * @return true if the token was written without quotes or escapes
+     */
+    public boolean isPlain(int index) {
+        if (index >= this.tokenCount) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        return this.tokens[index].plain;
+    }
+
+    /**
+     * @param index token index
+     * @return the token as a new string
+     */
+    public String getString(int index) {
+        return this.getToken(index).toString();
+    }
+
+    private Token nextToken(int position) {
+        if (this.tokenCount == this.tokens.length) {
+            Token[] grown = new Token[this.tokens.length * 2];
+            System.arraycopy(this.tokens, 0, grown, 0, this.tokens.length);
+            for (int i = this.tokens.length; i < grown.length; i++) {
+                grown[i] = new Token();
+            }
+            this.tokens = grown;
+        }
+        Token token = this.tokens[this.tokenCount++];
+        token.reset(position);
+        return token;
+    }
+
+    private void ensureBuffer(int capacity) {
+        if (capacity > this.buffer.length) {
+            char[] grown = new char[Math.max(capacity, this.buffer.length * 2)];
+            System.arraycopy(this.buffer, 0, grown, 0, this.bufferLength);
+            this.buffer = grown;
+        }
+    }
+
+    /**
+     * A token, either a slice of the line or a slice of the buffer.
+     */
+    private class Token implements CharSequence {
+        private boolean copied;
+        private boolean plain;
+        private int offset;
+        private int length;
+
+        void reset(int position) {
+            this.copied = false;
+            this.plain = true;
+            this.offset = position;
+            this.length = 0;
+        }
+
+        /**
+         * Adds the character found at the given position of the line. As long as the
+         * characters are contiguous in the line the token stays a slice of it, the first
+         * gap (a quote or escape) moves the token to the buffer.
+         */
+        void append(char c, int position) {
+            if (!this.copied) {
+                if (this.length == 0) {
+                    this.offset = position;
+                    this.length = 1;
+                    return;
+                }
+                if (this.offset + this.length == position) {
+                    this.length++;
+                    return;
+                }
+                ensureBuffer(bufferLength + line.length());
+                for (int i = 0; i < this.length; i++) {
+                    buffer[bufferLength + i] = line.charAt(this.offset + i);
+                }
+                this.offset = bufferLength;
+                bufferLength += this.length;
+                this.copied = true;
+            }
+            ensureBuffer(bufferLength + 1);
+            buffer[bufferLength++] = c;
+            this.length++;
+        }
+
+        public int length() {
+            return this.length;
+        }
+
+        public char charAt(int index) {
+            if (index < 0 || index >= this.length) {
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            }
+            return this.copied ? buffer[this.offset + index] : line.charAt(this.offset + index);
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            return this.toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            if (this.copied) {
+                return new String(buffer, this.offset, this.length);
+            }
+            return line.subSequence(this.offset, this.offset + this.length).toString();
+        }
+    }
+}
@@ -33,7 +33,56 @@ import java.lang.annotation.Target;
 public @interface Command {
     public static String METHOD_NAME = "__METHOD_NAME__";
     public static String NO_HELP = "__NO_HELP__";
+    public static long NO_CACHE = -1;
+    public static long DEFAULT_TIMEOUT = -1;
+    public static long NO_TIMEOUT = 0;
 
     String name() default METHOD_NAME;
     String help() default NO_HELP;
+
+    /**
+     * Alternative names the command can be invoked by.
+     */
+    String[] aliases() default {};
+
+    /**
+     * Runs the command on every target registered with the shell, in parallel, like
+     * <code>foreach * command</code>. See {@link AbstractShell#registerTarget(String, Object)}.
+     */
+    boolean fanOut() default false;
+
+    /**
+     * Heading the command is listed under by <code>help</code>. Commands without a
+     * category are listed first.
+     */
+    String category() default "";
+
+    /**
+     * Milliseconds the result of the command is cached for, per distinct arguments, so
+     * repeated runs do not call the method again. Only for commands without side effects
+     * that return their result rather than print it: the result is printed on every run,
+     * while whatever the method prints itself is not repeated when the result comes from
+     * the cache. Void commands cannot be cached. Results that can be read once, iterators,
+     * streams, tables, futures and other closeable values, are not cached.
+     */
+    long cacheTtl() default NO_CACHE;
+
+    /**
+     * Maximum number of cached results when {@link #cacheTtl()} is set, least recently used
+     * results are evicted first.
+     */
+    int cacheSize() default 256;
+
+    /**
+     * Names of cached commands whose results are dropped whenever this command has run,
+     * <code>*</code> for all of them.
+     */
+    String[] invalidates() default {};
+
+    /**
+     * Milliseconds the command may run before the shell interrupts it and reports it as timed
+     * out, {@link #NO_TIMEOUT} to let it run as long as it takes. By default the command
+     * timeout of the shell applies, see {@link AbstractShell#setCommandTimeout(long, java.util.concurrent.TimeUnit)}.
+     */
+    long timeout() default DEFAULT_TIMEOUT;
 }
@@ -0,0 +1,216 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Immutable trie over the lower case names and aliases of a shell's commands. Exact
+ * lookup, unique prefix resolution and completion all walk at most one path of the
+ * trie, so they cost O(length of the name) whatever the number of commands; exact
+ * lookup and prefix resolution do not allocate.
+ * <p/>
+ * Nodes are stored in parallel arrays. Since the keys are sorted, the keys below a
+ * node form a contiguous range, which gives the completion candidates directly.
+ */
+public class CommandIndex {
+    private static final char[] NO_LABELS = new char[0];
+    private static final int[] NO_CHILDREN = new int[0];
+
+    private String[] keys;
+    private ShellCommand[] keyCommands;
+
+    private char[][] labels;
+    private int[][] children;
+    private ShellCommand[] exact;
+    private ShellCommand[] unique;
+    private int[] rangeStart;
+    private int[] rangeEnd;
+    private int nodeCount;
+    private volatile FuzzyIndex fuzzy;
+
+    /**
+     * Indexes the commands under their names and aliases.
+     *
+     * @param commands commands to index
+     */
+    public CommandIndex(Collection<ShellCommand> commands) {
+        TreeMap<String, ShellCommand> sorted = new TreeMap<String, ShellCommand>();
+        for (ShellCommand command : commands) {
+            for (String alias : command.getAliases()) {
+                sorted.put(alias.trim().toLowerCase(), command);
+            }
+        }
+        // names win over aliases of other commands
+        for (ShellCommand command : commands) {
+            sorted.put(command.getName().trim().toLowerCase(), command);
+        }
+        sorted.remove("");
+
+        this.keys = sorted.keySet().toArray(new String[sorted.size()]);
+        this.keyCommands = sorted.values().toArray(new ShellCommand[sorted.size()]);
+
+        int capacity = 1;
+        for (String key : this.keys) {
+            capacity += key.length();
+        }
+        this.labels = new char[capacity][];
+        this.children = new int[capacity][];
+        this.exact = new ShellCommand[capacity];
+        this.unique = new ShellCommand[capacity];
+        this.rangeStart = new int[capacity];
+        this.rangeEnd = new int[capacity];
+        this.build(0, this.keys.length, 0);
+    }
+
+    /**
+     * Builds the node for the keys in [from, to), which share their first depth characters.
+     *
+     * @return node index
+     */
+    private int build(int from, int to, int depth) {
+        int node = this.nodeCount++;
+        this.rangeStart[node] = from;
+        this.rangeEnd[node] = to;
+
+        int i = from;
+        if (i < to && this.keys[i].length() == depth) {
+            this.exact[node] = this.keyCommands[i];
+            i++;
+        }
+
+        ShellCommand single = from < to ? this.keyCommands[from] : null;
+        for (int k = from + 1; k < to && single != null; k++) {
+            if (this.keyCommands[k] != single) {
+                single = null;
+            }
+        }
+        this.unique[node] = single;
+
+        List<Character> childLabels = new ArrayList<Character>();
+        List<Integer> childNodes = new ArrayList<Integer>();
+        while (i < to) {
+            char c = this.keys[i].charAt(depth);
+            int end = i + 1;
+            while (end < to && this.keys[end].charAt(depth) == c) {
+                end++;
+            }
+            childLabels.add(c);
+            childNodes.add(this.build(i, end, depth + 1));
+            i = end;
+        }
+
+        if (childLabels.isEmpty()) {
+            this.labels[node] = NO_LABELS;
+            this.children[node] = NO_CHILDREN;
+        } else {
+            this.labels[node] = new char[childLabels.size()];
+            this.children[node] = new int[childNodes.size()];
+            for (int k = 0; k < childLabels.size(); k++) {
+                this.labels[node][k] = childLabels.get(k);
+                this.children[node][k] = childNodes.get(k);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * @return node reached by the name, ignoring case, or -1
+     */
+    private int walk(CharSequence name) {
+        int node = 0;
+        for (int i = 0; i < name.length(); i++) {
+            int child = Arrays.binarySearch(this.labels[node], Character.toLowerCase(name.charAt(i)));
+            if (child < 0) {
+                return -1;
+            }
+            node = this.children[node][child];
+        }
+        return node;
+    }
+
+    /**
+     * Finds a command by its exact name or alias, ignoring case.
+     *
+     * @param name command name
+     * @return the command, or null
+     */
+    public ShellCommand lookup(CharSequence name) {
+        int node = this.walk(name);
+        return node < 0 ? null : this.exact[node];
+    }
+
+    /**
+     * Finds a command by its exact name or alias, or by a prefix shared by the names
+     * and aliases of a single command only.
+     *
+     * @param name command name or prefix
+     * @return the command, or null if there is none or the prefix is ambiguous
+     */
+    public ShellCommand resolve(CharSequence name) {
+        int node = this.walk(name);
+        if (node < 0) {
+            return null;
+        }
+        return this.exact[node] != null ? this.exact[node] : this.unique[node];
+    }
+
+    /**
+     * @param prefix start of a command name
+     * @return names and aliases starting with the prefix, sorted
+     */
+    public List<String> complete(CharSequence prefix) {
+        int node = this.walk(prefix);
+        if (node < 0) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(Arrays.asList(this.keys).subList(this.rangeStart[node], this.rangeEnd[node]));
+    }
+
+    /**
+     * Suggests the names and aliases closest to a mistyped command name. The fuzzy index
+     * is built on first use and then shared by every user of this index.
+     *
+     * @param name  mistyped name
+     * @param limit maximum number of suggestions
+     * @return the closest names and aliases, sorted; empty if none is close enough
+     * @see FuzzyIndex#suggest(CharSequence, int)
+     */
+    public List<String> suggest(CharSequence name, int limit) {
+        FuzzyIndex fuzzy = this.fuzzy;
+        if (fuzzy == null) {
+            fuzzy = new FuzzyIndex(Arrays.asList(this.keys));
+            this.fuzzy = fuzzy;
+        }
+        return fuzzy.suggest(name, limit);
+    }
+
+    /**
+     * @return number of indexed names and aliases
+     */
+    public int size() {
+        return this.keys.length;
+    }
+}
@@ -0,0 +1,181 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.lang.reflect.Method;
+
+/**
+ * Metadata of a command, as declared by its {@link Command} annotation.
+ */
+public class CommandInfo {
+    private static final String[] NO_ALIASES = new String[0];
+
+    private String name;
+    private String help;
+    private String[] aliases;
+    private boolean fanOut;
+    private String category;
+    private long cacheTtl = Command.NO_CACHE;
+    private int cacheSize;
+    private String[] invalidates = NO_ALIASES;
+    private long timeout = Command.DEFAULT_TIMEOUT;
+
+    public CommandInfo(String name, String help) {
+        this(name, help, NO_ALIASES);
+    }
+
+    /**
+     * @param name    command name
+     * @param help    help text, or null
+     * @param aliases alternative names
+     */
+    public CommandInfo(String name, String help, String[] aliases) {
+        this(name, help, aliases, false);
+    }
+
+    /**
+     * @param name    command name
+     * @param help    help text, or null
+     * @param aliases alternative names
+     * @param fanOut  whether the command runs on all targets
+     */
+    public CommandInfo(String name, String help, String[] aliases, boolean fanOut) {
+        this(name, help, aliases, fanOut, "");
+    }
+
+    /**
+     * @param name     command name
+     * @param help     help text, or null
+     * @param aliases  alternative names
+     * @param fanOut   whether the command runs on all targets
+     * @param category help heading, empty for none
+     */
+    public CommandInfo(String name, String help, String[] aliases, boolean fanOut, String category) {
+        this.name = name;
+        this.help = help;
+        this.aliases = aliases;
+        this.fanOut = fanOut;
+        this.category = category;
+    }
+
+    /**
+     * @param name        command name
+     * @param help        help text, or null
+     * @param aliases     alternative names
+     * @param fanOut      whether the command runs on all targets
+     * @param category    help heading, empty for none
+     * @param cacheTtl    milliseconds results are cached for, {@link Command#NO_CACHE} for none
+     * @param cacheSize   maximum number of cached results
+     * @param invalidates names of the cached commands this command invalidates
+     */
+    public CommandInfo(String name, String help, String[] aliases, boolean fanOut, String category,
+                       long cacheTtl, int cacheSize, String[] invalidates) {
+        this(name, help, aliases, fanOut, category);
+        this.cacheTtl = cacheTtl;
+        this.cacheSize = cacheSize;
+        this.invalidates = invalidates;
+    }
+
+    /**
+     * @param name        command name
+     * @param help        help text, or null
+     * @param aliases     alternative names
+     * @param fanOut      whether the command runs on all targets
+     * @param category    help heading, empty for none
+     * @param cacheTtl    milliseconds results are cached for, {@link Command#NO_CACHE} for none
+     * @param cacheSize   maximum number of cached results
+     * @param invalidates names of the cached commands this command invalidates
+     * @param timeout     milliseconds the command may run, {@link Command#DEFAULT_TIMEOUT} for
+     *                    the shell's default or {@link Command#NO_TIMEOUT} for none
+     */
+    public CommandInfo(String name, String help, String[] aliases, boolean fanOut, String category,
+                       long cacheTtl, int cacheSize, String[] invalidates, long timeout) {
+        this(name, help, aliases, fanOut, category, cacheTtl, cacheSize, invalidates);
+        this.timeout = timeout;
+    }
+
+    /**
+     * Reads the metadata of a command method, resolving the annotation defaults.
+     *
+     * @param command annotation of the method
+     * @param method  command method
+     * @return command metadata
+     */
+    public static CommandInfo fromAnnotation(Command command, Method method) {
+        String name = command.name();
+        if (name.equals(Command.METHOD_NAME)) {
+            name = method.getName();
+        }
+        String help = command.help().equals(Command.NO_HELP) ? null : command.help();
+        return new CommandInfo(name, help, command.aliases(), command.fanOut(), command.category(),
+                command.cacheTtl(), command.cacheSize(), command.invalidates(), command.timeout());
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * @return help text, or null if the command has none
+     */
+    public String getHelp() {
+        return this.help;
+    }
+
+    public String[] getAliases() {
+        return this.aliases;
+    }
+
+    public boolean isFanOut() {
+        return this.fanOut;
+    }
+
+    /**
+     * @return help heading of the command, empty if it has none
+     */
+    public String getCategory() {
+        return this.category;
+    }
+
+    /**
+     * @return milliseconds results are cached for, {@link Command#NO_CACHE} if they are not cached
+     */
+    public long getCacheTtl() {
+        return this.cacheTtl;
+    }
+
+    public int getCacheSize() {
+        return this.cacheSize;
+    }
+
+    /**
+     * @return names of the cached commands whose results are dropped after this command ran
+     */
+    public String[] getInvalidates() {
+        return this.invalidates;
+    }
+
+    /**
+     * @return milliseconds the command may run, see {@link Command#timeout()}
+     */
+    public long getTimeout() {
+        return this.timeout;
+    }
+}
@@ -0,0 +1,37 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+/**
+ * Calls command methods directly, without reflection or method handles. Generated
+ * {@link CommandRegistry} classes implement it for the methods they can access, so
+ * commands start quickly and run in native images without reflection metadata.
+ */
+public interface CommandInvoker {
+
+    /**
+     * @param command   number of the command method, as reported to the registry's collector
+     * @param target    object declaring the method, ignored for static methods
+     * @param arguments bound arguments, one per parameter
+     * @return value returned by the method, null for void methods
+     * @throws Throwable anything thrown by the method
+     */
+    Object invoke(int command, Object target, Object[] arguments) throws Throwable;
+}
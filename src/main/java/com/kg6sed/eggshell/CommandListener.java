@@ -0,0 +1,41 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+/**
+ * Notified after every dispatched command, with the time spent in each phase. Listeners
+ * are called on the thread that ran the command, background jobs report when they finish,
+ * so implementations must be thread safe and quick. Timing is only taken while at least
+ * one listener is registered. An exception thrown by a listener is printed like that of a
+ * failing command.
+ *
+ * @see AbstractShell#addCommandListener(CommandListener)
+ */
+public interface CommandListener {
+
+    /**
+     * @param command     the command, or null if the name did not resolve to one
+     * @param outcome     what happened
+     * @param parseNanos  time spent splitting the line and resolving the command name
+     * @param bindNanos   time spent converting the arguments, 0 if the command did not get that far
+     * @param invokeNanos time spent running the command, 0 if it was not run
+     */
+    void commandExecuted(ShellCommand command, CommandOutcome outcome, long parseNanos, long bindNanos, long invokeNanos);
+}
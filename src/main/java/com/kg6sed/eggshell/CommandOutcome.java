@@ -0,0 +1,68 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+/**
+ * Result of dispatching a single command line.
+ */
+public enum CommandOutcome {
+    /**
+     * The line contained no command.
+     */
+    EMPTY(false),
+    /**
+     * The command ran and returned normally.
+     */
+    SUCCESS(false),
+    /**
+     * No command with the given name exists.
+     */
+    UNKNOWN_COMMAND(true),
+    /**
+     * Too few arguments were given.
+     */
+    USAGE_ERROR(true),
+    /**
+     * An argument could not be converted to its parameter type.
+     */
+    BINDING_ERROR(true),
+    /**
+     * The command threw an exception.
+     */
+    FAILURE(true),
+    /**
+     * The command asked to exit the shell.
+     */
+    EXIT(false),
+    /**
+     * The command ran longer than its timeout and was interrupted or abandoned.
+     */
+    TIMEOUT(true);
+
+    private boolean failure;
+
+    private CommandOutcome(boolean failure) {
+        this.failure = failure;
+    }
+
+    public boolean isFailure() {
+        return this.failure;
+    }
+}
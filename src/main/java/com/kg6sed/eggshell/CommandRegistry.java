@@ -0,0 +1,60 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+/**
+ * Command registry generated at build time by
+ * {@link com.kg6sed.eggshell.apt.CommandRegistryProcessor}. For a shell class
+ * <code>com.example.MyShell</code> the registry is named
+ * <code>com.example.MyShell$$CommandRegistry</code>. Registries also implement
+ * {@link CommandInvoker} for the command methods they can call directly.
+ */
+public interface CommandRegistry {
+    public static String CLASS_SUFFIX = "$$CommandRegistry";
+
+    /**
+     * Reports every command of the shell, superclass commands first.
+     *
+     * @param collector receives the commands
+     * @throws NoSuchMethodException if the shell class no longer matches the registry
+     */
+    void registerCommands(Collector collector) throws NoSuchMethodException;
+
+    /**
+     * Receives the commands of a generated registry.
+     */
+    public interface Collector {
+
+        /**
+         * Reports a command whose method is looked up reflectively.
+         */
+        void command(Class<?> declaringClass, String methodName, Class<?>[] parameterTypes,
+                     CommandInfo info, ArgumentInfo[] arguments) throws NoSuchMethodException;
+
+        /**
+         * Reports a command the registry calls directly, without looking up its method.
+         *
+         * @param invoker calls the method
+         * @param id      number of the method for the invoker
+         */
+        void command(Class<?> declaringClass, String methodName, Class<?>[] parameterTypes,
+                     CommandInfo info, ArgumentInfo[] arguments, CommandInvoker invoker, int id);
+    }
+}
@@ -0,0 +1,138 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Finds the commands of a shell class, either through its generated
+ * {@link CommandRegistry} or by scanning the class hierarchy for {@link Command} methods.
+ */
+public final class CommandScanner {
+
+    private CommandScanner() {
+    }
+
+    /**
+     * Returns the name index over the commands of a shell class, computed once per class.
+     *
+     * @param clazz shell class
+     * @return index of command names and aliases
+     * @see ShellModel
+     */
+    public static CommandIndex findIndex(Class<?> clazz) {
+        return ShellModel.of(clazz).getIndex();
+    }
+
+    /**
+     * Finds the commands of a shell class, preferring the generated registry. The
+     * result is computed once per class and shared by all its instances.
+     *
+     * @param clazz shell class
+     * @return unmodifiable map of commands keyed by lower case name
+     * @see ShellModel
+     */
+    public static Map<String, ShellCommand> findCommands(Class<?> clazz) {
+        return ShellModel.of(clazz).getCommands();
+    }
+
+    /**
+     * Loads the commands from the generated registry of a shell class.
+     *
+     * @param clazz shell class
+     * @return commands keyed by lower case name, or null if there is no registry or it is
+     *         older than the class
+     * @throws IllegalStateException if the registry cannot be created
+     */
+    public static Map<String, ShellCommand> loadRegistry(Class<?> clazz) {
+        String registryName = clazz.getName() + CommandRegistry.CLASS_SUFFIX;
+        Class<?> registryClass;
+        try {
+            registryClass = Class.forName(registryName, true, clazz.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+        CommandRegistry registry;
+        try {
+            registry = (CommandRegistry) registryClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create command registry " + registryName, e);
+        }
+
+        final Map<String, ShellCommand> commands = new HashMap<String, ShellCommand>();
+        try {
+            registry.registerCommands(new CommandRegistry.Collector() {
+                public void command(Class<?> declaringClass, String methodName, Class<?>[] parameterTypes,
+                                    CommandInfo info, ArgumentInfo[] arguments) throws NoSuchMethodException {
+                    Method m = declaringClass.getDeclaredMethod(methodName, parameterTypes);
+                    m.setAccessible(true);
+                    put(commands, new ShellCommand(info, m, arguments));
+                }
+
+                public void command(Class<?> declaringClass, String methodName, Class<?>[] parameterTypes,
+                                    CommandInfo info, ArgumentInfo[] arguments, CommandInvoker invoker, int id) {
+                    put(commands, new ShellCommand(info, declaringClass, methodName, parameterTypes, arguments, invoker, id));
+                }
+            });
+        } catch (NoSuchMethodException e) {
+            // stale registry, the class was recompiled without the processor
+            return null;
+        }
+        return commands;
+    }
+
+    /**
+     * Scans the class hierarchy reflectively for {@link Command} methods.
+     *
+     * @param clazz shell class
+     * @return commands keyed by lower case name
+     */
+    public static Map<String, ShellCommand> scan(Class<?> clazz) {
+        Map<String, ShellCommand> commands = new HashMap<String, ShellCommand>();
+        scan(clazz, commands);
+        return commands;
+    }
+
+    private static void scan(Class<?> clazz, Map<String, ShellCommand> commands) {
+        if (clazz.getSuperclass() != null) {
+            scan(clazz.getSuperclass(), commands);
+        }
+
+        for (Method m : clazz.getDeclaredMethods()) {
+            Command c = m.getAnnotation(Command.class);
+            if (c == null) {
+                continue;
+            }
+            m.setAccessible(true);
+
+            Annotation[][] annArray = m.getParameterAnnotations();
+            ArgumentInfo[] arguments = ArgumentInfo.fromAnnotations(annArray);
+
+            put(commands, new ShellCommand(CommandInfo.fromAnnotation(c, m), m, arguments));
+        }
+    }
+
+    private static void put(Map<String, ShellCommand> commands, ShellCommand command) {
+        commands.put(command.getName().trim().toLowerCase(), command);
+    }
+}
@@ -0,0 +1,127 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable set of the commands a shell dispatches to: the commands of its own class and
+ * those of the providers registered with it. Registering or unregistering a provider
+ * creates a new set, so dispatching threads never lock and always see a consistent index.
+ */
+final class CommandSet {
+    private final ShellModel model;
+    private final Map<Object, List<ShellCommand>> providers;
+    private final Map<String, ShellCommand> commands;
+    private final CommandIndex index;
+    private volatile String help;
+
+    CommandSet(ShellModel model) {
+        this(model, Collections.<Object, List<ShellCommand>>emptyMap());
+    }
+
+    private CommandSet(ShellModel model, Map<Object, List<ShellCommand>> providers) {
+        this.model = model;
+        this.providers = providers;
+        if (providers.isEmpty()) {
+            this.commands = model.getCommands();
+            this.index = model.getIndex();
+        } else {
+            // commands of later providers replace those of the shell and of earlier providers
+            Map<String, ShellCommand> commands = new HashMap<String, ShellCommand>(model.getCommands());
+            for (List<ShellCommand> provided : providers.values()) {
+                for (ShellCommand command : provided) {
+                    commands.put(command.getName().trim().toLowerCase(), command);
+                }
+            }
+            this.commands = Collections.unmodifiableMap(commands);
+            this.index = new CommandIndex(commands.values());
+        }
+    }
+
+    /**
+     * @param provider object declaring command methods
+     * @return a set with the commands of the provider added, replacing its earlier registration
+     */
+    CommandSet with(Object provider) {
+        List<ShellCommand> provided = new ArrayList<ShellCommand>();
+        for (ShellCommand command : ShellModel.of(provider.getClass()).getCommands().values()) {
+            provided.add(command.bindTo(provider));
+        }
+        Map<Object, List<ShellCommand>> providers = new LinkedHashMap<Object, List<ShellCommand>>(this.providers);
+        providers.remove(provider);
+        providers.put(provider, Collections.unmodifiableList(provided));
+        return new CommandSet(this.model, providers);
+    }
+
+    /**
+     * @param provider registered provider
+     * @return a set without the commands of the provider
+     */
+    CommandSet without(Object provider) {
+        Map<Object, List<ShellCommand>> providers = new LinkedHashMap<Object, List<ShellCommand>>(this.providers);
+        providers.remove(provider);
+        return new CommandSet(this.model, providers);
+    }
+
+    boolean contains(Object provider) {
+        return this.providers.containsKey(provider);
+    }
+
+    /**
+     * @return commands of a registered provider, bound to it; empty if it is not registered
+     */
+    List<ShellCommand> getCommands(Object provider) {
+        List<ShellCommand> commands = this.providers.get(provider);
+        return commands == null ? Collections.<ShellCommand>emptyList() : commands;
+    }
+
+    List<Object> getProviders() {
+        return new ArrayList<Object>(this.providers.keySet());
+    }
+
+    Map<String, ShellCommand> getCommands() {
+        return this.commands;
+    }
+
+    CommandIndex getIndex() {
+        return this.index;
+    }
+
+    /**
+     * @return the <code>help</code> listing, rendered once per set
+     */
+    String getHelp() {
+        if (this.providers.isEmpty()) {
+            return this.model.getHelp();
+        }
+        String help = this.help;
+        if (help == null) {
+            help = ShellModel.renderHelp(this.commands.values());
+            this.help = help;
+        }
+        return help;
+    }
+}
@@ -0,0 +1,70 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Summary of a batch run, see {@link AbstractShell#execute(java.io.Reader, java.io.Writer)}.
+ */
+public class ExecutionSummary {
+    private int commandCount;
+    private int failureCount;
+    private long elapsedNanos;
+    private boolean exited;
+
+    public ExecutionSummary(int commandCount, int failureCount, long elapsedNanos, boolean exited) {
+        this.commandCount = commandCount;
+        this.failureCount = failureCount;
+        this.elapsedNanos = elapsedNanos;
+        this.exited = exited;
+    }
+
+    /**
+     * @return number of command lines dispatched, not counting empty lines and comments
+     */
+    public int getCommandCount() {
+        return this.commandCount;
+    }
+
+    /**
+     * @return number of commands that were unknown, had bad arguments or threw an exception
+     */
+    public int getFailureCount() {
+        return this.failureCount;
+    }
+
+    public long getElapsedNanos() {
+        return this.elapsedNanos;
+    }
+
+    /**
+     * @return true if a command exited the shell before the input ended
+     */
+    public boolean isExited() {
+        return this.exited;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d commands, %d failures in %d ms", this.commandCount, this.failureCount,
+                TimeUnit.NANOSECONDS.toMillis(this.elapsedNanos));
+    }
+}
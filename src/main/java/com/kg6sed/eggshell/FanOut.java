@@ -0,0 +1,170 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Targets of a shell and the bounded executor commands are fanned out to them on.
+ */
+class FanOut {
+    private static final ThreadLocal<Task> CURRENT = new ThreadLocal<Task>();
+
+    private ConcurrentSkipListMap<String, TargetContext> targets = new ConcurrentSkipListMap<String, TargetContext>();
+    private ExecutorService executor;
+    private int parallelism = Math.max(4, Runtime.getRuntime().availableProcessors());
+    private long timeoutNanos = TimeUnit.SECONDS.toNanos(30);
+
+    /**
+     * @return the task the calling thread runs a command for, or null
+     */
+    static Task current() {
+        return CURRENT.get();
+    }
+
+    static void setCurrent(Task task) {
+        if (task == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(task);
+        }
+    }
+
+    void register(String name, Object context) {
+        this.targets.put(name, new TargetContext(name, context));
+    }
+
+    boolean unregister(String name) {
+        return this.targets.remove(name) != null;
+    }
+
+    List<TargetContext> getTargets() {
+        return new ArrayList<TargetContext>(this.targets.values());
+    }
+
+    /**
+     * Selects targets by a comma separated list of names, where <code>*</code> matches
+     * any characters; <code>*</code> alone selects all targets.
+     *
+     * @param spec target names or patterns
+     * @return the matching targets in name order
+     */
+    List<TargetContext> select(String spec) {
+        String[] patterns = spec.split(",");
+        List<TargetContext> selected = new ArrayList<TargetContext>();
+        for (TargetContext target : this.targets.values()) {
+            for (String pattern : patterns) {
+                if (matches(pattern.trim(), target.getName())) {
+                    selected.add(target);
+                    break;
+                }
+            }
+        }
+        return selected;
+    }
+
+    synchronized ExecutorService getExecutor() {
+        if (this.executor == null) {
+            this.executor = Executors.newFixedThreadPool(this.parallelism, new ThreadFactory() {
+                private AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "eggshell-fanout-" + this.count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return this.executor;
+    }
+
+    synchronized void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Sets the number of targets served at once; takes effect on the default executor,
+     * which is created on first use.
+     */
+    synchronized void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    long getTimeoutNanos() {
+        return this.timeoutNanos;
+    }
+
+    void setTimeout(long timeout, TimeUnit unit) {
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * The run of a command on one target. Lines the command prints are collected in the
+     * task and printed with the target name when it completes.
+     */
+    static final class Task {
+        final TargetContext target;
+        final List<String> output = new ArrayList<String>();
+        // elements and rows returned for structured output, with the headers of a table
+        final List<Object> results = new ArrayList<Object>();
+        String[] headers;
+        volatile long start;
+        long end;
+        Throwable failure;
+        Future<Task> future;
+
+        Task(TargetContext target) {
+            this.target = target;
+        }
+
+        long getElapsed() {
+            return this.end - this.start;
+        }
+    }
+
+    private static boolean matches(String pattern, String name) {
+        int star = pattern.indexOf('*');
+        if (star < 0) {
+            return pattern.equals(name);
+        }
+        String prefix = pattern.substring(0, star);
+        if (!name.startsWith(prefix)) {
+            return false;
+        }
+        String rest = pattern.substring(star + 1);
+        if (rest.isEmpty()) {
+            return true;
+        }
+        for (int i = prefix.length(); i <= name.length(); i++) {
+            if (matches(rest, name.substring(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
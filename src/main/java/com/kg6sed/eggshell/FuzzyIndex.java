@@ -0,0 +1,306 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable BK-tree over a set of words for "did you mean" suggestions, ignoring case.
+ * Every child of a node is filed under its edit distance to the node, so by the triangle
+ * inequality a search within distance k only descends into children filed under
+ * d - k to d + k, which leaves most of the tree unvisited for small k. Distances are
+ * computed with Myers' bit-parallel algorithm, a few word operations per character.
+ * <p/>
+ * The tree is searched by Levenshtein distance, a metric, and the words found are ranked
+ * by the optimal string alignment distance, which counts swapping two adjacent
+ * characters as one edit. A swap costs two edits in the search, the search radius allows
+ * for one of them.
+ */
+public class FuzzyIndex {
+    private static final int NONE = -1;
+
+    private String[] values;
+    private String[] keys;
+    private int[] firstChild;
+    private int[] nextSibling;
+    private int[] edge;
+
+    /**
+     * @param words words to index, duplicates ignoring case are indexed once
+     */
+    public FuzzyIndex(Collection<String> words) {
+        int capacity = words.size();
+        this.values = new String[capacity];
+        this.keys = new String[capacity];
+        this.firstChild = new int[capacity];
+        this.nextSibling = new int[capacity];
+        this.edge = new int[capacity];
+
+        int count = 0;
+        for (String word : words) {
+            String key = word.toLowerCase();
+            if (count == 0) {
+                this.add(0, word, key);
+                count++;
+            } else if (this.insert(count, word, key)) {
+                count++;
+            }
+        }
+        if (count < capacity) {
+            this.values = Arrays.copyOf(this.values, count);
+            this.keys = Arrays.copyOf(this.keys, count);
+        }
+    }
+
+    private void add(int node, String value, String key) {
+        this.values[node] = value;
+        this.keys[node] = key;
+        this.firstChild[node] = NONE;
+        this.nextSibling[node] = NONE;
+    }
+
+    /**
+     * @return false if the key is already indexed
+     */
+    private boolean insert(int node, String value, String key) {
+        Pattern pattern = new Pattern(key);
+        int parent = 0;
+        while (true) {
+            int distance = pattern.distance(this.keys[parent]);
+            if (distance == 0) {
+                return false;
+            }
+            int child = this.firstChild[parent];
+            while (child != NONE && this.edge[child] != distance) {
+                child = this.nextSibling[child];
+            }
+            if (child == NONE) {
+                this.add(node, value, key);
+                this.edge[node] = distance;
+                this.nextSibling[node] = this.firstChild[parent];
+                this.firstChild[parent] = node;
+                return true;
+            }
+            parent = child;
+        }
+    }
+
+    /**
+     * Edit distance within which words are suggested: none for a single character, one edit
+     * up to three characters, two up to seven and three for longer words.
+     *
+     * @param length length of the mistyped word
+     * @return the distance
+     */
+    public static int maxDistance(int length) {
+        return length <= 1 ? 0 : length <= 3 ? 1 : length <= 7 ? 2 : 3;
+    }
+
+    /**
+     * Finds the closest words within {@link #maxDistance(int)}.
+     *
+     * @param word  mistyped word
+     * @param limit maximum number of words returned
+     * @return the words at the smallest distance found, sorted; empty if none is close enough
+     */
+    public List<String> suggest(CharSequence word, int limit) {
+        return this.suggest(word, maxDistance(word.length()), limit);
+    }
+
+    /**
+     * Finds the closest words within a distance.
+     *
+     * @param word        mistyped word
+     * @param maxDistance largest number of edits
+     * @param limit       maximum number of words returned
+     * @return the words at the smallest distance found, sorted; empty if none is close enough
+     */
+    public List<String> suggest(CharSequence word, int maxDistance, int limit) {
+        if (this.keys.length == 0 || limit <= 0) {
+            return Collections.emptyList();
+        }
+        String query = word.toString().toLowerCase();
+        Pattern pattern = new Pattern(query);
+        List<String> found = new ArrayList<String>();
+        // a swap costs two edits in the tree and one when ranking, so a word ranked k lies
+        // within k + 1; a small radius is searched first, which settles most typos cheaply
+        for (int radius = Math.min(2, maxDistance + 1); radius <= maxDistance + 1; radius++) {
+            int best = this.search(query, pattern, maxDistance, radius, found);
+            if (best < radius) {
+                break;
+            }
+        }
+        Collections.sort(found);
+        return found.size() > limit ? found.subList(0, limit) : found;
+    }
+
+    /**
+     * Collects the words ranked closest, at most maxRank, among those within a Levenshtein
+     * radius, narrowing the radius as closer words are found.
+     *
+     * @return rank of the words found, maxRank + 1 if none
+     */
+    private int search(String query, Pattern pattern, int maxRank, int radius, List<String> found) {
+        found.clear();
+        int best = maxRank + 1;
+        int[] stack = new int[16];
+        int size = 0;
+        stack[size++] = 0;
+        while (size > 0) {
+            int node = stack[--size];
+            int distance = pattern.distance(this.keys[node]);
+            if (distance <= radius) {
+                int rank = distance <= 1 ? distance : alignmentDistance(query, this.keys[node]);
+                if (rank < best) {
+                    best = rank;
+                    radius = Math.min(radius, best + 1);
+                    found.clear();
+                }
+                if (rank == best && rank <= maxRank) {
+                    found.add(this.values[node]);
+                }
+            }
+            for (int child = this.firstChild[node]; child != NONE; child = this.nextSibling[child]) {
+                if (Math.abs(this.edge[child] - distance) <= radius) {
+                    if (size == stack.length) {
+                        stack = Arrays.copyOf(stack, size * 2);
+                    }
+                    stack[size++] = child;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return number of indexed words
+     */
+    public int size() {
+        return this.keys.length;
+    }
+
+    /**
+     * Optimal string alignment distance: insertions, deletions, substitutions and swaps of
+     * adjacent characters each count as one edit.
+     */
+    static int alignmentDistance(String a, String b) {
+        int[] previous2 = new int[b.length() + 1];
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int value = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    value = Math.min(value, previous2[j - 2] + 1);
+                }
+                current[j] = value;
+            }
+            int[] recycled = previous2;
+            previous2 = previous;
+            previous = current;
+            current = recycled;
+        }
+        return previous[b.length()];
+    }
+
+    /**
+     * A word prepared for computing its Levenshtein distance to many others: one bit mask
+     * per character telling where it occurs. Words longer than 64 characters or with
+     * characters outside ASCII fall back to the dynamic programming table.
+     */
+    private static final class Pattern {
+        private final String word;
+        private final long[] masks;
+
+        Pattern(String word) {
+            this.word = word;
+            long[] masks = new long[128];
+            for (int i = 0; i < word.length() && masks != null; i++) {
+                char c = word.charAt(i);
+                if (i >= 64 || c >= 128) {
+                    masks = null;
+                } else {
+                    masks[c] |= 1L << i;
+                }
+            }
+            this.masks = masks;
+        }
+
+        int distance(String text) {
+            int m = this.word.length();
+            if (m == 0) {
+                return text.length();
+            }
+            if (this.masks == null) {
+                return levenshtein(this.word, text);
+            }
+            long last = 1L << (m - 1);
+            long pv = -1L;
+            long mv = 0;
+            int score = m;
+            for (int j = 0; j < text.length(); j++) {
+                char c = text.charAt(j);
+                long eq = c < 128 ? this.masks[c] : 0;
+                long xv = eq | mv;
+                long xh = (((eq & pv) + pv) ^ pv) | eq;
+                long ph = mv | ~(xh | pv);
+                long mh = pv & xh;
+                if ((ph & last) != 0) {
+                    score++;
+                } else if ((mh & last) != 0) {
+                    score--;
+                }
+                ph = (ph << 1) | 1;
+                mh = mh << 1;
+                pv = mh | ~(xv | ph);
+                mv = ph & xv;
+            }
+            return score;
+        }
+
+        private static int levenshtein(String a, String b) {
+            int[] previous = new int[b.length() + 1];
+            int[] current = new int[b.length() + 1];
+            for (int j = 0; j <= b.length(); j++) {
+                previous[j] = j;
+            }
+            for (int i = 1; i <= a.length(); i++) {
+                current[0] = i;
+                for (int j = 1; j <= b.length(); j++) {
+                    int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                    current[j] = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+                }
+                int[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+            return previous[b.length()];
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+/**
+ * Turns Ctrl-C into an interrupt of the foreground command. While no command is running
+ * the signal goes to the handler installed before, so Ctrl-C at the prompt still does what
+ * the host application set it up to do, by default ending the JVM. Where the JVM does not
+ * let the shell handle signals, Ctrl-C keeps its usual behaviour.
+ */
+class InterruptHandler {
+    private volatile Thread foreground;
+    private volatile SignalTrap trap;
+
+    /**
+     * Installs the handler for SIGINT, if the platform allows it.
+     */
+    void install() {
+        this.trap = SignalTrap.trap("INT", new Runnable() {
+            public void run() {
+                interrupt();
+            }
+        });
+    }
+
+    void uninstall() {
+        if (this.trap != null) {
+            this.trap.release();
+            this.trap = null;
+        }
+    }
+
+    /**
+     * Marks the current thread as running the foreground command.
+     */
+    void begin() {
+        this.foreground = Thread.currentThread();
+    }
+
+    /**
+     * Ends the foreground command, clearing an interrupt that arrived too late to matter.
+     */
+    void end() {
+        this.foreground = null;
+        Thread.interrupted();
+    }
+
+    private void interrupt() {
+        Thread thread = this.foreground;
+        SignalTrap trap = this.trap;
+        if (thread != null) {
+            thread.interrupt();
+        } else if (trap != null) {
+            trap.forward();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Builds method handles used to call command and completion methods without
+ * going through {@link Method#invoke(Object, Object...)}.
+ */
+public final class Invokers {
+    private static final MethodType SPREAD_TYPE = MethodType.methodType(Object.class, Object.class, Object[].class);
+
+    private Invokers() {
+    }
+
+    /**
+     * Creates a handle of type <code>(Object target, Object[] arguments)Object</code>
+     * for the given method. Arguments are unboxed to the parameter types by the handle,
+     * static methods ignore the target, void methods return null. Exceptions thrown by
+     * the method propagate unwrapped.
+     *
+     * @param method method to call
+     * @return handle to be called with {@link MethodHandle#invokeExact(Object...)}
+     */
+    public static MethodHandle spreadInvoker(Method method) {
+        MethodHandle handle = unreflect(method);
+        if (Modifier.isStatic(method.getModifiers())) {
+            handle = MethodHandles.dropArguments(handle, 0, Object.class);
+        }
+        int parameterCount = method.getParameterTypes().length;
+        MethodType generic = MethodType.genericMethodType(parameterCount + 1);
+        return handle.asType(generic).asSpreader(Object[].class, parameterCount).asType(SPREAD_TYPE);
+    }
+
+    /**
+     * Creates a handle of type <code>(Object target)Object</code> for a no-argument method.
+     *
+     * @param method method to call
+     * @return handle to be called with {@link MethodHandle#invokeExact(Object...)}
+     */
+    public static MethodHandle getterInvoker(Method method) {
+        MethodHandle handle = unreflect(method);
+        if (Modifier.isStatic(method.getModifiers())) {
+            handle = MethodHandles.dropArguments(handle, 0, Object.class);
+        }
+        return handle.asType(MethodType.genericMethodType(1));
+    }
+
+    private static MethodHandle unreflect(Method method) {
+        method.setAccessible(true);
+        try {
+            return MethodHandles.lookup().unreflect(method);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Cannot access " + method, e);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A command running in the background, started with a trailing <code>&amp;</code>.
+ */
+public class Job {
+    private int id;
+    private String commandLine;
+    private Future<Object> future;
+    private volatile boolean timedOut;
+
+    public Job(int id, String commandLine, Future<Object> future) {
+        this.id = id;
+        this.commandLine = commandLine;
+        this.future = future;
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    public String getCommandLine() {
+        return this.commandLine;
+    }
+
+    public Future<Object> getFuture() {
+        return this.future;
+    }
+
+    public boolean isDone() {
+        return this.future.isDone();
+    }
+
+    /**
+     * Interrupts the command.
+     *
+     * @return false if the job had already finished
+     */
+    public boolean cancel() {
+        return this.future.cancel(true);
+    }
+
+    /**
+     * Cancels the job because it ran past its timeout, see {@link Command#timeout()}.
+     */
+    void timedOut() {
+        this.timedOut = true;
+        this.future.cancel(true);
+    }
+
+    /**
+     * @return true if the job was cancelled because it ran past its timeout
+     */
+    public boolean isTimedOut() {
+        return this.timedOut;
+    }
+
+    /**
+     * @return Running, Done, Failed, Cancelled or Timed out
+     */
+    public String getState() {
+        if (!this.future.isDone()) {
+            return "Running";
+        } else if (this.future.isCancelled()) {
+            return this.timedOut ? "Timed out" : "Cancelled";
+        }
+        try {
+            this.future.get(0, TimeUnit.NANOSECONDS);
+            return "Done";
+        } catch (ExecutionException e) {
+            return "Failed";
+        } catch (CancellationException e) {
+            return "Cancelled";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "Running";
+        } catch (TimeoutException e) {
+            return "Running";
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[%d] %-9s %s", this.id, this.getState(), this.commandLine);
+    }
+}
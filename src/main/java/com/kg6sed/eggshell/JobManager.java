@@ -0,0 +1,143 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Background jobs of a shell. Jobs run on a configurable executor, by default a pool of
+ * daemon threads created on first use.
+ */
+public class JobManager {
+    private ExecutorService executor;
+    private ConcurrentSkipListMap<Integer, Job> jobs = new ConcurrentSkipListMap<Integer, Job>();
+    private AtomicInteger nextId = new AtomicInteger(1);
+
+    public synchronized ExecutorService getExecutor() {
+        if (this.executor == null) {
+            this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "eggshell-job-" + this.count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return this.executor;
+    }
+
+    /**
+     * Replaces the executor jobs are started on. Running jobs are not affected.
+     *
+     * @param executor executor for new jobs
+     */
+    public synchronized void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Starts a job. If the task returns a {@link Future} the job finishes with that future.
+     *
+     * @param commandLine line that started the job
+     * @param task        command invocation
+     * @return the started job
+     */
+    public Job start(String commandLine, final Callable<Object> task) {
+        Future<Object> future = this.getExecutor().submit(new Callable<Object>() {
+            public Object call() throws Exception {
+                return await(task.call());
+            }
+        });
+        Job job = new Job(this.nextId.getAndIncrement(), commandLine, future);
+        this.jobs.put(job.getId(), job);
+        return job;
+    }
+
+    /**
+     * Waits for a command result that is a {@link Future}, cancelling it when interrupted.
+     *
+     * @param result result of a command
+     * @return the value of the future, or the result itself
+     * @throws Exception if the future failed or the wait was interrupted
+     */
+    static Object await(Object result) throws Exception {
+        if (result instanceof Future) {
+            Future<?> pending = (Future<?>) result;
+            try {
+                return pending.get();
+            } catch (InterruptedException e) {
+                pending.cancel(true);
+                throw e;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param id job id
+     * @return the job, or null if there is no such job
+     */
+    public Job get(int id) {
+        return this.jobs.get(id);
+    }
+
+    /**
+     * @return all jobs not yet reported as finished, by id
+     */
+    public Collection<Job> getJobs() {
+        return this.jobs.values();
+    }
+
+    /**
+     * Removes the job from the table, typically after its result was reported.
+     *
+     * @param job job to remove
+     */
+    public void remove(Job job) {
+        this.jobs.remove(job.getId());
+    }
+
+    /**
+     * Removes and returns the jobs that have finished.
+     *
+     * @return finished jobs, by id
+     */
+    public List<Job> removeFinished() {
+        List<Job> finished = new ArrayList<Job>();
+        for (Job job : this.jobs.values()) {
+            if (job.isDone()) {
+                finished.add(job);
+                this.jobs.remove(job.getId());
+            }
+        }
+        return finished;
+    }
+}
@@ -0,0 +1,265 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.table.Table;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.BaseStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Moves elements between the commands of a pipeline. Elements are pulled lazily through
+ * iterators, so a stage only produces what the next one consumes.
+ */
+final class Pipes {
+    private static final Object END = new Object();
+    private static final int BATCH_SIZE = 64;
+    private static final int SPIN_LIMIT = 100;
+
+    private Pipes() {
+    }
+
+    /**
+     * @param type parameter type
+     * @return true if an {@link Input} parameter may have the type
+     */
+    static boolean isInputType(Class<?> type) {
+        return type.isAssignableFrom(Iterator.class) || type.isAssignableFrom(Stream.class) || type.isAssignableFrom(Iterable.class);
+    }
+
+    /**
+     * @param value value returned by a command
+     * @return true if the value is a sequence of elements produced lazily
+     */
+    static boolean isStream(Object value) {
+        return value instanceof Iterator || value instanceof BaseStream;
+    }
+
+    /**
+     * Returns the elements of a value returned by a command: the rows of a table, the
+     * elements of an iterator, stream, iterable or array, nothing for null, and the value
+     * itself otherwise.
+     *
+     * @param value value returned by a command
+     * @return the elements
+     */
+    static Iterator<?> iterator(Object value) {
+        if (value == null) {
+            return Collections.emptyIterator();
+        } else if (value instanceof Table) {
+            return ((Table) value).getRows();
+        } else if (value instanceof Iterator) {
+            return (Iterator<?>) value;
+        } else if (value instanceof BaseStream) {
+            return ((BaseStream<?, ?>) value).iterator();
+        } else if (value instanceof Iterable) {
+            return ((Iterable<?>) value).iterator();
+        } else if (value instanceof Object[]) {
+            return Arrays.asList((Object[]) value).iterator();
+        }
+        return Collections.singleton(value).iterator();
+    }
+
+    /**
+     * Closes a value returned by a command once its elements have been read, if it is
+     * closeable. A failure to close is added to the failure reading ended with, or thrown
+     * if reading succeeded.
+     *
+     * @param value   value returned by a command
+     * @param failure failure reading the elements ended with, null if none
+     * @throws IOException if closing failed after the elements were read
+     */
+    static void close(Object value, Throwable failure) throws IOException {
+        if (!(value instanceof AutoCloseable)) {
+            return;
+        }
+        try {
+            ((AutoCloseable) value).close();
+        } catch (Exception e) {
+            if (failure != null) {
+                // a value closed before may fail again with the same exception
+                if (e != failure) {
+                    failure.addSuppressed(e);
+                }
+            } else if (e instanceof IOException) {
+                throw (IOException) e;
+            } else if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            } else {
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IOException("Cannot close " + value.getClass().getName() + ": " + e, e);
+            }
+        }
+    }
+
+    /**
+     * Converts the input of a stage to the type of its {@link Input} parameter.
+     *
+     * @param input elements from the previous stage
+     * @param type  parameter type
+     * @return value to pass
+     */
+    static Object adapt(final Iterator<?> input, Class<?> type) {
+        if (type.isAssignableFrom(Iterator.class)) {
+            return input;
+        } else if (type.isAssignableFrom(Stream.class)) {
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(input, Spliterator.ORDERED), false);
+        }
+        // single use, like the stream
+        return new Iterable<Object>() {
+            @SuppressWarnings("unchecked")
+            public Iterator<Object> iterator() {
+                return (Iterator<Object>) input;
+            }
+        };
+    }
+
+    /**
+     * Drains an iterator on another thread into a bounded queue. The producer blocks while
+     * the queue is full, so it never runs more than about <code>capacity</code> elements
+     * ahead. Elements are handed over in batches; a batch is passed on when it is full or
+     * when the consumer is waiting for it, so a slow producer does not delay the consumer.
+     *
+     * @param source    elements to move
+     * @param executor  runs the producer
+     * @param capacity  number of elements the producer may run ahead
+     * @param producers receives the producer task, to be cancelled when the pipeline ends
+     * @return iterator over the queue, rethrowing failures of the producer
+     */
+    static Iterator<Object> async(final Iterator<?> source, ExecutorService executor, int capacity, List<Future<?>> producers) {
+        final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(Math.max(1, capacity / BATCH_SIZE));
+        final QueueIterator consumer = new QueueIterator(queue);
+        producers.add(executor.submit(new Runnable() {
+            public void run() {
+                try {
+                    try {
+                        Object[] batch = new Object[BATCH_SIZE];
+                        int size = 0;
+                        while (source.hasNext()) {
+                            batch[size++] = source.next();
+                            if (size == BATCH_SIZE || consumer.waiting) {
+                                queue.put(size == BATCH_SIZE ? batch : Arrays.copyOf(batch, size));
+                                batch = new Object[BATCH_SIZE];
+                                size = 0;
+                            }
+                        }
+                        if (size > 0) {
+                            queue.put(Arrays.copyOf(batch, size));
+                        }
+                        queue.put(END);
+                    } catch (RuntimeException e) {
+                        queue.put(new Failure(e));
+                    } catch (Error e) {
+                        queue.put(new Failure(e));
+                    }
+                } catch (InterruptedException e) {
+                    // cancelled, the consumer is gone
+                }
+            }
+        }));
+        return consumer;
+    }
+
+    private static class Failure {
+        Throwable cause;
+
+        Failure(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+
+    private static class QueueIterator implements Iterator<Object> {
+        private BlockingQueue<Object> queue;
+        private Object[] batch = new Object[0];
+        private int position;
+        private boolean done;
+        volatile boolean waiting;
+
+        QueueIterator(BlockingQueue<Object> queue) {
+            this.queue = queue;
+        }
+
+        public boolean hasNext() {
+            if (this.position == this.batch.length && !this.done) {
+                // a fast producer fills a batch within a few yields, parking right away
+                // would make it hand over tiny batches and wake the consumer for each
+                Object element = this.queue.poll();
+                for (int spin = 0; element == null && spin < SPIN_LIMIT; spin++) {
+                    Thread.yield();
+                    element = this.queue.poll();
+                }
+                if (element == null) {
+                    this.waiting = true;
+                    try {
+                        element = this.queue.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new CancellationException("Interrupted");
+                    } finally {
+                        this.waiting = false;
+                    }
+                }
+                if (element == END) {
+                    this.done = true;
+                } else if (element instanceof Failure) {
+                    this.done = true;
+                    Throwable cause = ((Failure) element).cause;
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw (RuntimeException) cause;
+                } else {
+                    this.batch = (Object[]) element;
+                    this.position = 0;
+                }
+            }
+            return this.position < this.batch.length;
+        }
+
+        public Object next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Object element = this.batch[this.position];
+            this.batch[this.position++] = null;
+            return element;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
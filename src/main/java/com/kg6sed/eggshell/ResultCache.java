@@ -0,0 +1,214 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Results of one cached command, see {@link Command#cacheTtl()}, keyed by the bound
+ * arguments and the target the command ran on. The number of results is bounded, least
+ * recently used results are evicted first. When several threads run the command with the
+ * same arguments at once, one of them calls the method and the others wait for its result.
+ */
+public class ResultCache {
+    private ShellCommand command;
+    private long ttlNanos;
+    private Map<Key, CachedResult> entries;
+
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+    private AtomicLong evictions = new AtomicLong();
+    private AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @param command cached command
+     */
+    public ResultCache(ShellCommand command) {
+        this.command = command;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(command.getCacheTtl());
+        final int maxEntries = command.getCacheSize();
+        this.entries = new LinkedHashMap<Key, CachedResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedResult> eldest) {
+                if (size() > maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached result for the arguments, invoking the command if there is none
+     * or it expired.
+     *
+     * @param shell     shell to invoke the command on
+     * @param target    name of the target the command runs on, null if none
+     * @param arguments bound arguments
+     * @return the result
+     * @throws Throwable whatever the command throws
+     */
+    public Object get(Object shell, String target, Object[] arguments) throws Throwable {
+        Key key = new Key(target, arguments);
+        CachedResult entry;
+        boolean load = false;
+        synchronized (this.entries) {
+            entry = this.entries.get(key);
+            if (entry == null || entry.isExpired(this.ttlNanos)) {
+                entry = new CachedResult();
+                this.entries.put(key, entry);
+                load = true;
+            }
+        }
+
+        if (!load) {
+            entry.done.await();
+            if (entry.loaded) {
+                this.hits.incrementAndGet();
+                return entry.value;
+            }
+            // the call we waited for failed or returned something that cannot be cached
+            this.misses.incrementAndGet();
+            return this.command.invoke(shell, arguments);
+        }
+
+        this.misses.incrementAndGet();
+        try {
+            Object value = this.command.invoke(shell, arguments);
+            if (isCacheable(value)) {
+                entry.value = value;
+                entry.loadedAt = System.nanoTime();
+                entry.loaded = true;
+            } else {
+                this.remove(key, entry);
+            }
+            return value;
+        } catch (Throwable t) {
+            this.remove(key, entry);
+            throw t;
+        } finally {
+            entry.done.countDown();
+        }
+    }
+
+    private static boolean isCacheable(Object value) {
+        return !Pipes.isStream(value) && !(value instanceof AutoCloseable) && !(value instanceof Future);
+    }
+
+    private void remove(Key key, CachedResult entry) {
+        synchronized (this.entries) {
+            if (this.entries.get(key) == entry) {
+                this.entries.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Drops all cached results. Calls running meanwhile return their result without
+     * caching it.
+     */
+    public void invalidate() {
+        synchronized (this.entries) {
+            this.entries.clear();
+        }
+        this.invalidations.incrementAndGet();
+    }
+
+    public ShellCommand getCommand() {
+        return this.command;
+    }
+
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    public long getMissCount() {
+        return this.misses.get();
+    }
+
+    public long getEvictionCount() {
+        return this.evictions.get();
+    }
+
+    /**
+     * @return number of times the cache was cleared
+     */
+    public long getInvalidationCount() {
+        return this.invalidations.get();
+    }
+
+    public int size() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d entries, %d hits, %d misses, %d evictions, %d invalidations", this.size(),
+                this.getHitCount(), this.getMissCount(), this.getEvictionCount(), this.getInvalidationCount());
+    }
+
+    private static final class Key {
+        private final String target;
+        private final Object[] arguments;
+        private final int hash;
+
+        Key(String target, Object[] arguments) {
+            this.target = target;
+            this.arguments = arguments.clone();
+            this.hash = 31 * Arrays.deepHashCode(this.arguments) + (target == null ? 0 : target.hashCode());
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return this.hash == other.hash
+                    && (this.target == null ? other.target == null : this.target.equals(other.target))
+                    && Arrays.deepEquals(this.arguments, other.arguments);
+        }
+    }
+
+    private static final class CachedResult {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile boolean loaded;
+        volatile Object value;
+        volatile long loadedAt;
+
+        boolean isExpired(long ttlNanos) {
+            return this.loaded && System.nanoTime() - this.loadedAt > ttlNanos;
+        }
+    }
+}
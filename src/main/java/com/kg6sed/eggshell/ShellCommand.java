@@ -19,7 +19,11 @@ package com.kg6sed.eggshell;
  * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
  */
 
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  *  Class representing a shell command.
@@ -27,18 +31,207 @@ import java.lang.reflect.Method;
 public class ShellCommand {
     private String name;
     private String help;
-    private Method method;
+    private String[] aliases;
+    private Class<?> declaringClass;
+    private String methodName;
+    private Class<?>[] parameterTypes;
+    private volatile Method method;
+    private volatile MethodHandle invoker;
+    private CommandInvoker directInvoker;
+    private int invokerId;
     private int requiredArgumentCount;
+    private ArgumentInfo[] arguments;
+    private ArgumentBinder[] binders;
+    private int inputIndex;
+    private boolean fanOut;
+    private String usage;
+    private String category;
+    private long cacheTtl;
+    private int cacheSize;
+    private String[] invalidates;
+    private long timeout;
+    private volatile String helpPage;
+    private Object target;
+    private volatile FuzzyIndex[] argumentIndexes;
 
     public ShellCommand(String name, Method method, int requiredArgumentCount) {
         this(name, method, requiredArgumentCount, null);
     }
 
     public ShellCommand(String name, Method method, int requiredArgumentCount, String help) {
-        this.name = name;
+        this(name, method, requiredArgumentCount, help, ArgumentInfo.fromAnnotations(method.getParameterAnnotations()));
+    }
+
+    public ShellCommand(String name, Method method, int requiredArgumentCount, String help, ArgumentInfo[] arguments) {
+        this(new CommandInfo(name, help), method, requiredArgumentCount, arguments);
+    }
+
+    /**
+     * @param info      command metadata
+     * @param method    command method
+     * @param arguments argument metadata, one entry per method parameter
+     */
+    public ShellCommand(CommandInfo info, Method method, ArgumentInfo[] arguments) {
+        this(info, method, countRequired(arguments), arguments);
+    }
+
+    /**
+     * Command called through a generated {@link CommandInvoker}. Its method is only looked
+     * up if {@link #getMethod()} is called, so the command is created without reflection.
+     *
+     * @param info           command metadata
+     * @param declaringClass class declaring the command method
+     * @param methodName     name of the command method
+     * @param parameterTypes parameter types of the command method
+     * @param arguments      argument metadata, one entry per method parameter
+     * @param invoker        calls the method
+     * @param id             number of the method for the invoker
+     */
+    public ShellCommand(CommandInfo info, Class<?> declaringClass, String methodName, Class<?>[] parameterTypes,
+                        ArgumentInfo[] arguments, CommandInvoker invoker, int id) {
+        this(info, declaringClass, methodName, parameterTypes, null, countRequired(arguments), arguments);
+        this.directInvoker = invoker;
+        this.invokerId = id;
+    }
+
+    private ShellCommand(CommandInfo info, Method method, int requiredArgumentCount, ArgumentInfo[] arguments) {
+        this(info, method.getDeclaringClass(), method.getName(), method.getParameterTypes(), method,
+                requiredArgumentCount, arguments);
+    }
+
+    private ShellCommand(CommandInfo info, Class<?> declaringClass, String methodName, Class<?>[] parameterTypes,
+                         Method method, int requiredArgumentCount, ArgumentInfo[] arguments) {
+        this.name = info.getName();
+        this.aliases = info.getAliases();
+        this.fanOut = info.isFanOut();
+        this.category = info.getCategory();
+        this.cacheTtl = info.getCacheTtl();
+        this.cacheSize = info.getCacheSize();
+        this.invalidates = info.getInvalidates();
+        this.timeout = info.getTimeout();
+        this.declaringClass = declaringClass;
+        this.methodName = methodName;
+        this.parameterTypes = parameterTypes;
+        // the method handle is created on the first call, which saves most of the startup
+        // time of shells with many commands
         this.method = method;
-        this.help = help;
+        this.help = info.getHelp();
         this.requiredArgumentCount = requiredArgumentCount;
+        this.arguments = arguments;
+        this.binders = createBinders(parameterTypes, arguments);
+        this.inputIndex = -1;
+        for (int i = 0; i < arguments.length; i++) {
+            if (arguments[i].isInput()) {
+                if (!Pipes.isInputType(this.binders[i].getType())) {
+                    throw new IllegalArgumentException("@Input parameter of " + declaringClass.getName() + "."
+                            + methodName + " must be an Iterator, Iterable or Stream");
+                }
+                this.inputIndex = i;
+            }
+        }
+        if (this.cacheTtl != Command.NO_CACHE && method != null && method.getReturnType() == void.class) {
+            throw new IllegalArgumentException("Cached command " + declaringClass.getName() + "." + methodName
+                    + " must return its result, a cache hit does not call the method");
+        }
+        this.usage = usage(this.name, arguments, this.binders);
+    }
+
+    private static String usage(String name, ArgumentInfo[] arguments, ArgumentBinder[] binders) {
+        StringBuilder usage = new StringBuilder(name);
+        for (int i = 0; i < arguments.length; i++) {
+            if (arguments[i].isInput()) {
+                continue;
+            }
+            boolean optional = arguments[i].isOptional();
+            usage.append(' ');
+            if (optional) {
+                usage.append("{");
+            }
+            if (arguments[i].hasName()) {
+                usage.append(arguments[i].getName());
+            } else {
+                usage.append(binders[i].getType().getName());
+            }
+            if (optional) {
+                usage.append("}");
+            }
+        }
+        return usage.toString();
+    }
+
+    /**
+     * Copy of a command that always runs on the given object.
+     */
+    private ShellCommand(ShellCommand command, Object target) {
+        this.name = command.name;
+        this.help = command.help;
+        this.aliases = command.aliases;
+        this.fanOut = command.fanOut;
+        this.declaringClass = command.declaringClass;
+        this.methodName = command.methodName;
+        this.parameterTypes = command.parameterTypes;
+        this.method = command.method;
+        this.invoker = command.invoker;
+        this.directInvoker = command.directInvoker;
+        this.invokerId = command.invokerId;
+        this.requiredArgumentCount = command.requiredArgumentCount;
+        this.arguments = command.arguments;
+        this.binders = command.binders;
+        this.inputIndex = command.inputIndex;
+        this.usage = command.usage;
+        this.category = command.category;
+        this.cacheTtl = command.cacheTtl;
+        this.cacheSize = command.cacheSize;
+        this.invalidates = command.invalidates;
+        this.timeout = command.timeout;
+        this.helpPage = command.helpPage;
+        this.target = target;
+    }
+
+    /**
+     * Returns a copy of this command which is invoked on the given object whatever
+     * target it is called with, for commands provided by objects other than the shell.
+     *
+     * @param target object declaring the command method
+     * @return bound command
+     */
+    public ShellCommand bindTo(Object target) {
+        return new ShellCommand(this, target);
+    }
+
+    /**
+     * @return the object the command is bound to, null if it runs on the shell
+     */
+    public Object getTarget() {
+        return this.target;
+    }
+
+    private static int countRequired(ArgumentInfo[] arguments) {
+        int requiredArguments = 0;
+        for (ArgumentInfo argument : arguments) {
+            if (!argument.isOptional()) {
+                requiredArguments++;
+            }
+        }
+        return requiredArguments;
+    }
+
+    private static ArgumentBinder[] createBinders(Class<?>[] parameterTypes, ArgumentInfo[] arguments) {
+        ArgumentBinder[] binders = new ArgumentBinder[parameterTypes.length];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            ArgumentConverter<?> converter;
+            if (arguments[i].hasConverter()) {
+                try {
+                    converter = arguments[i].getConverter().getDeclaredConstructor().newInstance();
+                } catch (Exception e) {
+                    throw new IllegalArgumentException("Cannot create converter " + arguments[i].getConverter().getName(), e);
+                }
+            } else {
+                converter = ArgumentConverters.find(parameterTypes[i]);
+            }
+            binders[i] = new ArgumentBinder(parameterTypes[i], converter);
+        }
+        return binders;
     }
 
     public String getName() {
@@ -49,12 +242,227 @@ public class ShellCommand {
         return this.help;
     }
 
+    /**
+     * @return alternative names of the command
+     */
+    public String[] getAliases() {
+        return this.aliases;
+    }
+
+    /**
+     * @return true if the command runs on all targets of the shell
+     */
+    public boolean isFanOut() {
+        return this.fanOut;
+    }
+
+    /**
+     * Returns the command method, looking it up on first use for commands created from a
+     * generated registry.
+     *
+     * @return the method
+     * @throws IllegalStateException if the class no longer declares the method
+     */
     public Method getMethod() {
-        return this.method;
+        Method method = this.method;
+        if (method == null) {
+            try {
+                method = this.declaringClass.getDeclaredMethod(this.methodName, this.parameterTypes);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalStateException("Command method " + this.declaringClass.getName() + "."
+                        + this.methodName + " no longer exists, the command registry is stale", e);
+            }
+            method.setAccessible(true);
+            this.method = method;
+        }
+        return method;
+    }
+
+    public Class<?> getDeclaringClass() {
+        return this.declaringClass;
+    }
+
+    /**
+     * Calls the command method. Exceptions thrown by the method, such as
+     * {@link ExitShellException}, are rethrown as they are.
+     *
+     * @param target    shell instance, ignored by commands bound to another object
+     * @param arguments bound arguments, one per parameter
+     * @return value returned by the method, null for void methods
+     * @throws Throwable anything thrown by the method
+     */
+    public Object invoke(Object target, Object[] arguments) throws Throwable {
+        if (this.target != null) {
+            target = this.target;
+        }
+        if (this.directInvoker != null) {
+            return this.directInvoker.invoke(this.invokerId, target, arguments);
+        }
+        MethodHandle invoker = this.invoker;
+        if (invoker == null) {
+            invoker = Invokers.spreadInvoker(this.getMethod());
+            this.invoker = invoker;
+        }
+        return (Object) invoker.invokeExact(target, arguments);
+    }
+
+    /**
+     * @return the command with its arguments, optional ones in braces, e.g. <code>fg {job}</code>
+     */
+    public String getUsage() {
+        return this.usage;
+    }
+
+    /**
+     * @return help heading of the command, empty if it has none
+     */
+    public String getCategory() {
+        return this.category;
+    }
+
+    /**
+     * @return true if results of the command are cached, see {@link Command#cacheTtl()}
+     */
+    public boolean isCached() {
+        return this.cacheTtl != Command.NO_CACHE && this.inputIndex < 0;
+    }
+
+    /**
+     * @return milliseconds results are cached for, {@link Command#NO_CACHE} if they are not cached
+     */
+    public long getCacheTtl() {
+        return this.cacheTtl;
+    }
+
+    public int getCacheSize() {
+        return this.cacheSize;
+    }
+
+    /**
+     * @return names of the cached commands whose results are dropped after this command ran
+     */
+    public String[] getInvalidates() {
+        return this.invalidates;
+    }
+
+    /**
+     * @return milliseconds the command may run, {@link Command#DEFAULT_TIMEOUT} for the
+     *         shell's default and {@link Command#NO_TIMEOUT} for no limit
+     */
+    public long getTimeout() {
+        return this.timeout;
+    }
+
+    /**
+     * Returns the text shown by <code>help &lt;command&gt;</code>: usage, help text, aliases
+     * and arguments. It is rendered on first use and kept.
+     *
+     * @return help page, lines separated by line breaks
+     */
+    public String getHelpPage() {
+        String page = this.helpPage;
+        if (page == null) {
+            page = this.renderHelpPage();
+            this.helpPage = page;
+        }
+        return page;
+    }
+
+    private String renderHelpPage() {
+        StringBuilder page = new StringBuilder("Usage: ").append(this.usage);
+        if (this.help != null) {
+            page.append('\n').append('\n').append(this.help);
+        }
+        if (this.aliases.length > 0) {
+            page.append('\n').append('\n').append("Aliases:");
+            for (String alias : this.aliases) {
+                page.append(' ').append(alias);
+            }
+        }
+        boolean first = true;
+        for (int i = 0; i < this.arguments.length; i++) {
+            ArgumentInfo argument = this.arguments[i];
+            if (argument.isInput()) {
+                continue;
+            }
+            if (first) {
+                page.append('\n').append('\n').append("Arguments:");
+                first = false;
+            }
+            page.append('\n').append("  ")
+                    .append(argument.hasName() ? argument.getName() : "arg" + (i + 1))
+                    .append(" (").append(this.binders[i].getType().getSimpleName())
+                    .append(argument.isOptional() ? ", optional)" : ")");
+            if (argument.hasCompletions() && argument.getType().equalsIgnoreCase(Argument.SIMPLE)) {
+                page.append(": ");
+                String[] completions = argument.getCompletions();
+                for (int j = 0; j < completions.length; j++) {
+                    page.append(j == 0 ? "" : ", ").append(completions[j]);
+                }
+            }
+        }
+        if (this.inputIndex >= 0) {
+            page.append('\n').append('\n').append("Reads the output of the previous command in a pipeline.");
+        }
+        return page.toString();
+    }
+
+    /**
+     * Suggests values close to a mistyped argument, for parameters with a fixed set of
+     * values: enums and arguments with simple completions.
+     *
+     * @param parameter parameter index
+     * @param value     the value that could not be converted
+     * @param limit     maximum number of suggestions
+     * @return the closest values, empty if the parameter has no fixed values or none is close
+     */
+    public List<String> suggestArgument(int parameter, String value, int limit) {
+        FuzzyIndex[] indexes = this.argumentIndexes;
+        if (indexes == null) {
+            indexes = new FuzzyIndex[this.arguments.length];
+            this.argumentIndexes = indexes;
+        }
+        FuzzyIndex index = indexes[parameter];
+        if (index == null) {
+            List<String> values = new ArrayList<String>();
+            ArgumentInfo argument = this.arguments[parameter];
+            Class<?> type = this.binders[parameter].getType();
+            if (argument.hasCompletions() && argument.getType().equalsIgnoreCase(Argument.SIMPLE)) {
+                values.addAll(Arrays.asList(argument.getCompletions()));
+            } else if (type.isEnum() && !argument.hasConverter()) {
+                for (Object constant : type.getEnumConstants()) {
+                    values.add(((Enum<?>) constant).name().toLowerCase());
+                }
+            }
+            index = new FuzzyIndex(values);
+            indexes[parameter] = index;
+        }
+        return index.suggest(value, limit);
     }
 
     public int getRequiredArgumentCount() {
         return requiredArgumentCount;
     }
 
+    /**
+     * @return argument metadata, one entry per method parameter
+     */
+    public ArgumentInfo[] getArguments() {
+        return this.arguments;
+    }
+
+    /**
+     * @return index of the {@link Input} parameter, -1 if the command takes no pipeline input
+     */
+    public int getInputIndex() {
+        return this.inputIndex;
+    }
+
+    /**
+     * @return argument binders, one entry per method parameter
+     */
+    public ArgumentBinder[] getBinders() {
+        return this.binders;
+    }
+
 }
@@ -0,0 +1,301 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.jline.CommandCompletor;
+import jline.ArgumentCompletor;
+import jline.Completor;
+import jline.FileNameCompletor;
+import jline.NullCompletor;
+import jline.SimpleCompletor;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable command model of a shell class: its commands, their name index and the
+ * templates their completors are made from. It is built once per class and shared by
+ * all instances, which only bind the parts of the completors that call the instance.
+ */
+public final class ShellModel {
+    private static final int MAX_USAGE_WIDTH = 30;
+    private static final ClassValue<ShellModel> MODELS = new ClassValue<ShellModel>() {
+        @Override
+        protected ShellModel computeValue(Class<?> type) {
+            return new ShellModel(type);
+        }
+    };
+
+    private final Class<?> type;
+    private final Map<String, ShellCommand> commands;
+    private final CommandIndex index;
+    private List<Completion> completions;
+    private Completor completor;
+    private volatile String help;
+
+    private ShellModel(Class<?> type) {
+        this.type = type;
+        Map<String, ShellCommand> commands = CommandScanner.loadRegistry(type);
+        if (commands == null) {
+            commands = CommandScanner.scan(type);
+        }
+        this.commands = Collections.unmodifiableMap(commands);
+        this.index = new CommandIndex(commands.values());
+    }
+
+    /**
+     * Returns the model of a shell class, building it on first use.
+     *
+     * @param type shell class
+     * @return shared model
+     */
+    public static ShellModel of(Class<?> type) {
+        return MODELS.get(type);
+    }
+
+    /**
+     * @return unmodifiable map of commands keyed by lower case name
+     */
+    public Map<String, ShellCommand> getCommands() {
+        return this.commands;
+    }
+
+    /**
+     * @return index of command names and aliases
+     */
+    public CommandIndex getIndex() {
+        return this.index;
+    }
+
+    /**
+     * Returns the command list shown by <code>help</code>: commands without a category
+     * first, then one section per category, each sorted by name. It is rendered on first
+     * use and kept, as the commands of a model do not change.
+     *
+     * @return help text, lines separated by line breaks
+     */
+    public String getHelp() {
+        String help = this.help;
+        if (help == null) {
+            help = renderHelp(this.commands.values());
+            this.help = help;
+        }
+        return help;
+    }
+
+    static String renderHelp(Collection<ShellCommand> commands) {
+        TreeMap<String, TreeMap<String, ShellCommand>> categories = new TreeMap<String, TreeMap<String, ShellCommand>>();
+        int width = 0;
+        for (ShellCommand command : commands) {
+            TreeMap<String, ShellCommand> category = categories.get(command.getCategory());
+            if (category == null) {
+                category = new TreeMap<String, ShellCommand>();
+                categories.put(command.getCategory(), category);
+            }
+            category.put(command.getName(), command);
+            width = Math.max(width, command.getUsage().length());
+        }
+        width = Math.min(width, MAX_USAGE_WIDTH);
+
+        StringBuilder help = new StringBuilder("Available commands:");
+        for (Map.Entry<String, TreeMap<String, ShellCommand>> category : categories.entrySet()) {
+            if (category.getKey().length() > 0) {
+                help.append('\n').append('\n').append(category.getKey()).append(':');
+            }
+            for (ShellCommand command : category.getValue().values()) {
+                help.append('\n').append("  ").append(command.getUsage());
+                if (command.getHelp() != null) {
+                    for (int i = command.getUsage().length(); i < width; i++) {
+                        help.append(' ');
+                    }
+                    help.append("  ").append(command.getHelp());
+                }
+            }
+        }
+        help.append('\n').append('\n').append("Type 'help <command>' for details.");
+        return help.toString();
+    }
+
+    /**
+     * Returns the completion templates, one per command, built when a console first asks.
+     */
+    synchronized List<Completion> getCompletions() {
+        if (this.completions == null) {
+            List<Completion> completions = new ArrayList<Completion>(this.commands.size());
+            Map<ShellCommand, Completor> shared = new HashMap<ShellCommand, Completor>();
+            for (ShellCommand command : this.commands.values()) {
+                Completion completion = new Completion(this.type, command);
+                completions.add(completion);
+                if (completion.getCompletor() != null) {
+                    shared.put(command, completion.getCompletor());
+                }
+            }
+            this.completions = Collections.unmodifiableList(completions);
+            if (shared.size() == completions.size()) {
+                this.completor = new CommandCompletor(this.index, shared);
+            }
+        }
+        return this.completions;
+    }
+
+    /**
+     * @return the command line completor, if no completion calls the shell instance; null otherwise
+     */
+    synchronized Completor getCompletor() {
+        this.getCompletions();
+        return this.completor;
+    }
+
+    /**
+     * Completors of one command's arguments. Completors of static completions, file names
+     * and arguments without completions are created once; completors calling a method
+     * of the shell only have their method looked up, and are created per instance.
+     */
+    static final class Completion {
+        private final ShellCommand command;
+        private final Completor[] completors;
+        private final Method[] methods;
+        private final MethodHandle[] getters;
+        private final ArgumentInfo[] arguments;
+        private Completor completor;
+
+        Completion(Class<?> type, ShellCommand command) {
+            this.command = command;
+            ArgumentInfo[] arguments = command.getArguments();
+            List<Completor> completors = new ArrayList<Completor>();
+            List<Method> methods = new ArrayList<Method>();
+            List<ArgumentInfo> bound = new ArrayList<ArgumentInfo>();
+            completors.add(new SimpleCompletor(command.getName()));
+            methods.add(null);
+            bound.add(null);
+
+            boolean shared = true;
+            for (ArgumentInfo arg : arguments) {
+                if (arg.isInput()) {
+                    continue;
+                }
+                Completor completor = null;
+                Method method = null;
+                if (arg.hasCompletions()) {
+                    if (arg.getType().equalsIgnoreCase(Argument.SIMPLE)) {
+                        completor = new SimpleCompletor(arg.getCompletions());
+                    } else if (arg.getType().equalsIgnoreCase(Argument.SIMPLE_METHOD)
+                            || arg.getType().equalsIgnoreCase(Argument.COMPLETOR_GETTER)) {
+                        method = completionMethod(type, command, arg.getCompletions()[0]);
+                        method.setAccessible(true);
+                    }
+                } else if (arg.getType().equalsIgnoreCase("filename")) {
+                    completor = new FileNameCompletor();
+                }
+                if (completor == null && method == null) {
+                    completor = new NullCompletor();
+                }
+                shared &= method == null;
+                completors.add(completor);
+                methods.add(method);
+                bound.add(method == null ? null : arg);
+            }
+            completors.add(new NullCompletor());
+            methods.add(null);
+            bound.add(null);
+
+            this.completors = completors.toArray(new Completor[completors.size()]);
+            this.methods = methods.toArray(new Method[methods.size()]);
+            this.arguments = bound.toArray(new ArgumentInfo[bound.size()]);
+            this.getters = new MethodHandle[this.methods.length];
+            for (int i = 0; i < this.methods.length; i++) {
+                if (this.methods[i] != null && this.arguments[i].isCompletionCached()) {
+                    this.getters[i] = Invokers.getterInvoker(this.methods[i]);
+                }
+            }
+            if (shared) {
+                this.completor = argumentCompletor(this.completors);
+            }
+        }
+
+        static Completor argumentCompletor(Completor[] completors) {
+            ArgumentCompletor completor = new ArgumentCompletor(completors);
+            completor.setStrict(false);
+            return completor;
+        }
+
+        /**
+         * Finds the method an argument names for its completions, declared by the shell
+         * class or one of its superclasses.
+         *
+         * @throws IllegalArgumentException if there is no such method without parameters
+         */
+        private static Method completionMethod(Class<?> type, ShellCommand command, String name) {
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                try {
+                    return c.getDeclaredMethod(name);
+                } catch (NoSuchMethodException e) {
+                    // look further up
+                }
+            }
+            throw new IllegalArgumentException("Completion method " + name + " of command " + command.getName()
+                    + " not found in " + type.getName());
+        }
+
+        ShellCommand getCommand() {
+            return this.command;
+        }
+
+        /**
+         * @return the completor shared by all instances, null if it has to be bound per instance
+         */
+        Completor getCompletor() {
+            return this.completor;
+        }
+
+        /**
+         * @return the completors of the command name, its arguments and the rest of the
+         *         line, null where a completor is bound per instance
+         */
+        Completor[] getCompletors() {
+            return this.completors.clone();
+        }
+
+        /**
+         * @return the completion method of a position, or null
+         */
+        Method getMethod(int position) {
+            return this.methods[position];
+        }
+
+        /**
+         * @return getter handle of a position whose completions are cached, or null
+         */
+        MethodHandle getGetter(int position) {
+            return this.getters[position];
+        }
+
+        ArgumentInfo getArgument(int position) {
+            return this.arguments[position];
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * A handler for one signal, installed through sun.misc.Signal. That class is not part of
+ * the Java API, so it is only reached by reflection: on a JVM without it, or where the
+ * signal is reserved (e.g. with -Xrs), {@link #trap} returns null and the signal keeps
+ * its default behaviour.
+ */
+final class SignalTrap {
+    private final Object signal;
+    private final Object handler;
+    private final Method handle;
+    private final Method raise;
+    private final Method handleSignal;
+    private Object previous;
+
+    private SignalTrap(Class<?> signalClass, Class<?> handlerClass, String name, final Runnable action)
+            throws ReflectiveOperationException {
+        this.signal = signalClass.getConstructor(String.class).newInstance(name);
+        this.handle = signalClass.getMethod("handle", signalClass, handlerClass);
+        this.raise = signalClass.getMethod("raise", signalClass);
+        this.handleSignal = handlerClass.getMethod("handle", signalClass);
+        this.handler = Proxy.newProxyInstance(SignalTrap.class.getClassLoader(), new Class<?>[]{handlerClass},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("equals")) {
+                            return proxy == args[0];
+                        } else if (method.getName().equals("hashCode")) {
+                            return System.identityHashCode(proxy);
+                        } else if (method.getName().equals("toString")) {
+                            return "SignalTrap[" + signal + "]";
+                        }
+                        action.run();
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * Installs a handler for a signal.
+     *
+     * @param name   signal name without the SIG prefix, e.g. "INT"
+     * @param action run on the signal dispatch thread whenever the signal arrives
+     * @return the installed trap, null if signals cannot be handled on this JVM
+     */
+    static SignalTrap trap(String name, Runnable action) {
+        try {
+            SignalTrap trap = new SignalTrap(Class.forName("sun.misc.Signal"), Class.forName("sun.misc.SignalHandler"),
+                    name, action);
+            trap.previous = trap.install(trap.handler);
+            return trap;
+        } catch (InvocationTargetException e) {
+            // unknown signal
+            return null;
+        } catch (IllegalArgumentException e) {
+            // signal reserved by the JVM
+            return null;
+        } catch (ReflectiveOperationException e) {
+            return null;
+        } catch (LinkageError e) {
+            return null;
+        } catch (SecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Passes the signal on to the handler that was installed before this one. A native
+     * handler, such as the default action, cannot be called directly; it is put back and
+     * the signal raised again, so it does whatever it would have done without this trap.
+     */
+    void forward() {
+        try {
+            this.invoke(this.handleSignal, this.previous, this.signal);
+        } catch (UnsupportedOperationException e) {
+            this.install(this.previous);
+            try {
+                this.invoke(this.raise, null, this.signal);
+            } finally {
+                // only reached if the previous handler did not end the JVM
+                this.install(this.handler);
+            }
+        }
+    }
+
+    /**
+     * Puts back the handler that was installed before this one.
+     */
+    void release() {
+        this.install(this.previous);
+    }
+
+    private Object install(Object handler) {
+        return this.invoke(this.handle, null, this.signal, handler);
+    }
+
+    private Object invoke(Method method, Object target, Object... args) {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Cannot call " + method, cause);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Cannot call " + method, e);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+/**
+ * A target commands can be fanned out to, such as a worker process, with the object the
+ * commands use to reach it. While a command runs for a target,
+ * {@link AbstractShell#getTarget()} returns it.
+ */
+public class TargetContext {
+    private String name;
+    private Object context;
+
+    public TargetContext(String name, Object context) {
+        this.name = name;
+        this.context = context;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * @return the object registered with the target, for example a client of the worker
+     */
+    public Object getContext() {
+        return this.context;
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+}
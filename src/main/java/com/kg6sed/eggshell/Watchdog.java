@@ -0,0 +1,343 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.stats.SlowCommand;
+import com.kg6sed.eggshell.stats.SlowCommandLog;
+
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MonitorInfo;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Enforces command timeouts, see {@link Command#timeout()}. A foreground command with a
+ * timeout runs on a command thread the shell waits for, so the shell can move on when the
+ * command does not stop; the deadlines of background jobs are kept by one scheduler thread
+ * shared by all shells. When a deadline passes the stack of the command thread is captured
+ * for the slow command log before the thread is interrupted.
+ */
+final class Watchdog {
+    private static final ThreadLocal<Watch> CURRENT = new ThreadLocal<Watch>();
+    private static final long OUTPUT_WAIT_MILLIS = 100;
+
+    private static ExecutorService commandExecutor;
+    private static ScheduledThreadPoolExecutor scheduler;
+
+    private Watchdog() {
+    }
+
+    /**
+     * @return pool of daemon threads foreground commands with a timeout run on; abandoned
+     *         commands keep their thread, so it is not bounded
+     */
+    static synchronized ExecutorService getCommandExecutor() {
+        if (commandExecutor == null) {
+            commandExecutor = Executors.newCachedThreadPool(daemonThreads("eggshell-command-"));
+        }
+        return commandExecutor;
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor getScheduler() {
+        if (scheduler == null) {
+            scheduler = new ScheduledThreadPoolExecutor(1, daemonThreads("eggshell-watchdog-"));
+            // most deadlines are cancelled long before they pass
+            scheduler.setRemoveOnCancelPolicy(true);
+        }
+        return scheduler;
+    }
+
+    private static ThreadFactory daemonThreads(final String prefix) {
+        return new ThreadFactory() {
+            private AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, prefix + this.count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * @return watch of the command running on the current thread, null if it has no timeout
+     */
+    static Watch current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Must be called before a command writes output; output of a command that has run past
+     * its deadline is dropped. Each successful call is followed by {@link #exitOutput()}.
+     *
+     * @return false if the output must be dropped
+     */
+    static boolean enterOutput() {
+        Watch watch = CURRENT.get();
+        return watch == null || watch.enterOutput();
+    }
+
+    static void exitOutput() {
+        Watch watch = CURRENT.get();
+        if (watch != null) {
+            watch.output.unlock();
+        }
+    }
+
+    /**
+     * Formats the stack of a thread like jstack, followed by the stack of the thread holding
+     * the lock it is blocked on, if any.
+     *
+     * @param thread thread to dump
+     * @return thread dump, empty if the thread has ended
+     */
+    static String dump(Thread thread) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        boolean monitors = threads.isObjectMonitorUsageSupported();
+        boolean synchronizers = threads.isSynchronizerUsageSupported();
+        ThreadInfo[] info = threads.getThreadInfo(new long[]{thread.getId()}, monitors, synchronizers);
+        if (info[0] == null) {
+            return "";
+        }
+        StringBuilder dump = new StringBuilder();
+        append(dump, info[0]);
+        if (info[0].getLockOwnerId() != -1) {
+            ThreadInfo[] owner = threads.getThreadInfo(new long[]{info[0].getLockOwnerId()}, monitors, synchronizers);
+            if (owner[0] != null) {
+                dump.append('\n');
+                append(dump, owner[0]);
+            }
+        }
+        return dump.toString();
+    }
+
+    private static void append(StringBuilder dump, ThreadInfo info) {
+        dump.append('"').append(info.getThreadName()).append("\" #").append(info.getThreadId())
+                .append(' ').append(info.getThreadState());
+        if (info.getLockOwnerName() != null) {
+            dump.append(" on ").append(info.getLockName()).append(" owned by \"")
+                    .append(info.getLockOwnerName()).append("\" #").append(info.getLockOwnerId());
+        }
+        dump.append('\n');
+        StackTraceElement[] stack = info.getStackTrace();
+        MonitorInfo[] monitors = info.getLockedMonitors();
+        for (int i = 0; i < stack.length; i++) {
+            dump.append("\tat ").append(stack[i]).append('\n');
+            if (i == 0 && info.getLockInfo() != null) {
+                dump.append(info.getThreadState() == Thread.State.BLOCKED ? "\t- blocked on " : "\t- waiting on ")
+                        .append(info.getLockInfo()).append('\n');
+            }
+            for (MonitorInfo monitor : monitors) {
+                if (monitor.getLockedStackDepth() == i) {
+                    dump.append("\t- locked ").append(monitor).append('\n');
+                }
+            }
+        }
+        LockInfo[] synchronizers = info.getLockedSynchronizers();
+        if (synchronizers.length > 0) {
+            dump.append("\n\tLocked synchronizers:\n");
+            for (LockInfo synchronizer : synchronizers) {
+                dump.append("\t- ").append(synchronizer).append('\n');
+            }
+        }
+    }
+
+    /**
+     * Deadline of one command run. The thread running the command binds it with
+     * {@link #begin(boolean)} and releases it with {@link #end()}.
+     */
+    static final class Watch implements Runnable {
+        private final String command;
+        private final String commandLine;
+        private final long timeout;
+        private final SlowCommandLog log;
+        private final ReentrantLock output = new ReentrantLock();
+        private final long start = System.nanoTime();
+        private Thread thread;
+        private boolean ended;
+        private SlowCommand entry;
+        private volatile boolean expired;
+        private volatile Job job;
+        private ScheduledFuture<?> deadline;
+
+        /**
+         * @param command     name of the command
+         * @param commandLine line that runs it
+         * @param timeout     milliseconds the command may run
+         * @param log         log the command is added to when it runs past its timeout
+         */
+        Watch(String command, String commandLine, long timeout, SlowCommandLog log) {
+            this.command = command;
+            this.commandLine = commandLine;
+            this.timeout = timeout;
+            this.log = log;
+        }
+
+        long getTimeout() {
+            return this.timeout;
+        }
+
+        /**
+         * @param job background job the command runs as, cancelled when the deadline passes
+         */
+        void setJob(Job job) {
+            this.job = job;
+        }
+
+        /**
+         * Binds the watch to the current thread.
+         *
+         * @param schedule true to have the deadline enforced by the watchdog thread, for commands
+         *                 nobody waits for
+         */
+        synchronized void begin(boolean schedule) {
+            this.thread = Thread.currentThread();
+            CURRENT.set(this);
+            if (schedule) {
+                this.deadline = getScheduler().schedule(this, this.timeout, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * Releases the watch when the command returns, also after it has expired.
+         */
+        void end() {
+            CURRENT.remove();
+            synchronized (this) {
+                this.ended = true;
+                this.thread = null;
+                if (this.deadline != null) {
+                    this.deadline.cancel(false);
+                }
+                if (this.entry != null) {
+                    this.entry.finished(System.nanoTime());
+                }
+            }
+        }
+
+        /**
+         * @return true once the command has run past its deadline
+         */
+        boolean isExpired() {
+            return this.expired;
+        }
+
+        /**
+         * Captures the stack of the command thread, adds the command to the slow command log
+         * and stops its output. The thread is not interrupted.
+         *
+         * @return the log entry, or null if the command returned meanwhile
+         */
+        SlowCommand expire() {
+            Thread thread;
+            synchronized (this) {
+                if (this.ended || this.expired) {
+                    return null;
+                }
+                thread = this.thread;
+            }
+            // the thread is null if the command has not started yet
+            SlowCommand entry = new SlowCommand(this.command, this.commandLine, thread == null ? null : thread.getName(),
+                    this.start, this.timeout, thread == null ? "" : dump(thread));
+            synchronized (this) {
+                if (this.ended) {
+                    return null;
+                }
+                this.entry = entry;
+                this.expired = true;
+            }
+            this.log.add(entry);
+            this.awaitOutput();
+            return entry;
+        }
+
+        /**
+         * Stops the output of a command the shell no longer waits for, without logging it.
+         */
+        void abandon() {
+            synchronized (this) {
+                if (this.ended) {
+                    return;
+                }
+                this.expired = true;
+            }
+            this.awaitOutput();
+        }
+
+        /**
+         * Waits for a line being written to complete; a command stuck writing keeps the lock,
+         * its output is then dropped without waiting for it.
+         */
+        private void awaitOutput() {
+            boolean locked = false;
+            try {
+                locked = this.output.tryLock(OUTPUT_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (locked) {
+                    this.output.unlock();
+                }
+            }
+        }
+
+        /**
+         * Interrupts the command thread unless the command has returned.
+         */
+        synchronized void interrupt() {
+            if (!this.ended && this.thread != null) {
+                this.thread.interrupt();
+            }
+        }
+
+        /**
+         * Enforces a scheduled deadline: the job is cancelled as timed out.
+         */
+        public void run() {
+            if (this.expire() == null) {
+                return;
+            }
+            Job job = this.job;
+            if (job != null) {
+                job.timedOut();
+            } else {
+                this.interrupt();
+            }
+        }
+
+        private boolean enterOutput() {
+            this.output.lock();
+            if (this.expired) {
+                this.output.unlock();
+                return false;
+            }
+            return true;
+        }
+    }
+}
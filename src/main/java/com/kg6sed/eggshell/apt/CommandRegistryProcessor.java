@@ -0,0 +1,508 @@
+package com.kg6sed.eggshell.apt;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.Argument;
+import com.kg6sed.eggshell.ArgumentConverter;
+import com.kg6sed.eggshell.Command;
+import com.kg6sed.eggshell.CommandRegistry;
+import com.kg6sed.eggshell.Input;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.MirroredTypeException;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Annotation processor that generates a {@link CommandRegistry} for every class declaring
+ * {@link Command} methods, so shells can be set up without scanning their class hierarchy.
+ * Classes the registry cannot reference (private or local classes, inaccessible parameter
+ * types) are skipped and fall back to the reflective scan at runtime.
+ */
+@SupportedAnnotationTypes("com.kg6sed.eggshell.Command")
+public class CommandRegistryProcessor extends AbstractProcessor {
+    private static final int COMMANDS_PER_METHOD = 100;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        Set<TypeElement> shells = new LinkedHashSet<TypeElement>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(Command.class)) {
+            if (element.getKind() == ElementKind.METHOD && element.getEnclosingElement().getKind() == ElementKind.CLASS) {
+                shells.add((TypeElement) element.getEnclosingElement());
+            }
+        }
+
+        for (TypeElement shell : shells) {
+            try {
+                generate(shell);
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Unable to write command registry: " + e.getMessage(), shell);
+            }
+        }
+        return false;
+    }
+
+    private void generate(TypeElement shell) throws IOException {
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(shell);
+
+        // superclasses first, so subclass commands replace inherited ones like the reflective scan does
+        List<TypeElement> hierarchy = new LinkedList<TypeElement>();
+        for (TypeElement type = shell; type != null; type = superclassOf(type)) {
+            hierarchy.add(0, type);
+        }
+
+        if (!isAccessible(shell, pkg)) {
+            note(shell, "not accessible from its package");
+            return;
+        }
+
+        StringBuilder body = new StringBuilder();
+        body.append("        Class<?>[] types = new Class<?>[").append(hierarchy.size()).append("];\n");
+        body.append("        types[0] = ").append(shell.getQualifiedName()).append(".class;\n");
+        for (int depth = 1; depth < hierarchy.size(); depth++) {
+            body.append("        types[").append(depth).append("] = types[").append(depth - 1).append("].getSuperclass();\n");
+        }
+
+        // registrations are split over several methods, one method for all of them would
+        // exceed the size limit of a method for shells with a few thousand commands
+        List<String> registrations = new ArrayList<String>();
+        // calls of the methods the registry can access, the others go through reflection
+        List<String> invocations = new ArrayList<String>();
+        ReflectionConfig config = new ReflectionConfig();
+        config.add(binaryName(pkg, registryName(shell)), "<init>");
+
+        for (int i = 0; i < hierarchy.size(); i++) {
+            TypeElement type = hierarchy.get(i);
+            int depth = hierarchy.size() - 1 - i;
+            for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+                Command command = method.getAnnotation(Command.class);
+                if (command == null) {
+                    continue;
+                }
+                if (command.cacheTtl() != Command.NO_CACHE && method.getReturnType().getKind() == TypeKind.VOID) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                            "Cached command must return its result, a cache hit does not call the method", method);
+                    return;
+                }
+
+                StringBuilder parameterTypes = new StringBuilder();
+                StringBuilder arguments = new StringBuilder();
+                List<String> configTypes = new ArrayList<String>();
+                for (VariableElement parameter : method.getParameters()) {
+                    TypeMirror erasure = processingEnv.getTypeUtils().erasure(parameter.asType());
+                    if (!isAccessible(erasure, pkg)) {
+                        note(shell, "parameter type " + erasure + " of " + method + " is not accessible");
+                        return;
+                    }
+                    if (parameterTypes.length() > 0) {
+                        parameterTypes.append(", ");
+                        arguments.append(", ");
+                    }
+                    parameterTypes.append(erasure).append(".class");
+                    configTypes.add(configName(erasure));
+                    if (parameter.getAnnotation(Input.class) != null) {
+                        arguments.append("com.kg6sed.eggshell.ArgumentInfo.INPUT");
+                        continue;
+                    }
+                    Argument argument = parameter.getAnnotation(Argument.class);
+                    TypeMirror converter = argument == null ? null : converterOf(argument);
+                    if (converter != null && !isAccessible(converter, pkg)) {
+                        note(shell, "converter " + converter + " of " + method + " is not accessible");
+                        return;
+                    }
+                    appendArgument(arguments, argument, converter);
+                    addConversion(config, erasure, converter);
+                    if (argument != null && argument.completions().length > 0
+                            && (argument.type().equalsIgnoreCase(Argument.SIMPLE_METHOD)
+                            || argument.type().equalsIgnoreCase(Argument.COMPLETOR_GETTER))) {
+                        addCompletionMethod(config, shell, argument.completions()[0]);
+                    }
+                }
+                config.add(binaryName(type), method.getSimpleName().toString(), configTypes);
+
+                String name = command.name();
+                if (name.equals(Command.METHOD_NAME)) {
+                    name = method.getSimpleName().toString();
+                }
+                String help = command.help().equals(Command.NO_HELP) ? null : command.help();
+
+                StringBuilder registration = new StringBuilder()
+                        .append("        collector.command(types[").append(depth).append("], ")
+                        .append(literal(method.getSimpleName().toString())).append(", ")
+                        .append("new Class<?>[]{").append(parameterTypes).append("}, ")
+                        .append("new com.kg6sed.eggshell.CommandInfo(")
+                        .append(literal(name)).append(", ")
+                        .append(literal(help)).append(", ")
+                        .append(stringArray(command.aliases())).append(", ")
+                        .append(command.fanOut()).append(", ")
+                        .append(literal(command.category())).append(", ")
+                        .append(command.cacheTtl()).append("L, ")
+                        .append(command.cacheSize()).append(", ")
+                        .append(stringArray(command.invalidates())).append(", ")
+                        .append(command.timeout()).append("L), ")
+                        .append("new com.kg6sed.eggshell.ArgumentInfo[]{").append(arguments).append("}");
+                String invocation = invocation(type, method, pkg);
+                if (invocation != null) {
+                    registration.append(", invoker, ").append(invocations.size());
+                    invocations.add(invocation);
+                }
+                registrations.add(registration.append(");\n").toString());
+            }
+        }
+
+        StringBuilder chunks = new StringBuilder();
+        for (int start = 0; start < registrations.size(); start += COMMANDS_PER_METHOD) {
+            int chunk = start / COMMANDS_PER_METHOD;
+            body.append("        register").append(chunk).append("(collector, types, this);\n");
+            chunks.append("\n    private static void register").append(chunk)
+                    .append("(com.kg6sed.eggshell.CommandRegistry.Collector collector, Class<?>[] types,")
+                    .append(" com.kg6sed.eggshell.CommandInvoker invoker) throws NoSuchMethodException {\n");
+            for (String registration : registrations.subList(start, Math.min(start + COMMANDS_PER_METHOD, registrations.size()))) {
+                chunks.append(registration);
+            }
+            chunks.append("    }\n");
+        }
+
+        StringBuilder dispatch = new StringBuilder();
+        dispatch.append("        switch (command / ").append(COMMANDS_PER_METHOD).append(") {\n");
+        for (int start = 0; start < invocations.size(); start += COMMANDS_PER_METHOD) {
+            int chunk = start / COMMANDS_PER_METHOD;
+            dispatch.append("            case ").append(chunk).append(":\n")
+                    .append("                return invoke").append(chunk).append("(command, target, arguments);\n");
+            chunks.append("\n    private static Object invoke").append(chunk)
+                    .append("(int command, Object target, Object[] arguments) throws Throwable {\n")
+                    .append("        switch (command) {\n");
+            for (int id = start; id < Math.min(start + COMMANDS_PER_METHOD, invocations.size()); id++) {
+                chunks.append("            case ").append(id).append(":\n")
+                        .append("                ").append(invocations.get(id)).append("\n");
+            }
+            chunks.append("            default:\n")
+                    .append("                throw new IllegalArgumentException(\"No command \" + command);\n")
+                    .append("        }\n")
+                    .append("    }\n");
+        }
+        dispatch.append("            default:\n")
+                .append("                throw new IllegalArgumentException(\"No command \" + command);\n")
+                .append("        }\n");
+
+        String registryName = registryName(shell);
+        String qualifiedName = pkg.isUnnamed() ? registryName : pkg.getQualifiedName() + "." + registryName;
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, shell);
+        PrintWriter out = new PrintWriter(file.openWriter());
+        try {
+            if (!pkg.isUnnamed()) {
+                out.println("package " + pkg.getQualifiedName() + ";");
+                out.println();
+            }
+            out.println("/**");
+            out.println(" * Generated by " + CommandRegistryProcessor.class.getName() + ", do not edit.");
+            out.println(" */");
+            out.println("@SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+            out.println("public final class " + registryName
+                    + " implements com.kg6sed.eggshell.CommandRegistry, com.kg6sed.eggshell.CommandInvoker {");
+            out.println();
+            out.println("    public void registerCommands(com.kg6sed.eggshell.CommandRegistry.Collector collector) throws NoSuchMethodException {");
+            out.print(body);
+            out.println("    }");
+            out.println();
+            out.println("    public Object invoke(int command, Object target, Object[] arguments) throws Throwable {");
+            out.print(dispatch);
+            out.println("    }");
+            out.print(chunks);
+            out.println("}");
+        } finally {
+            out.close();
+        }
+
+        // native-image reads reflection metadata from META-INF/native-image on the class path
+        FileObject resource = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+                "META-INF/native-image/com.kg6sed.eggshell/" + binaryName(shell) + "/reflect-config.json", shell);
+        Writer writer = resource.openWriter();
+        try {
+            writer.write(config.toJson());
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Returns the statement calling a command method from the generated invoker, or null
+     * if the registry cannot access the method and has to leave it to reflection.
+     */
+    private String invocation(TypeElement type, ExecutableElement method, PackageElement pkg) {
+        Set<Modifier> modifiers = method.getModifiers();
+        boolean samePackage = processingEnv.getElementUtils().getPackageOf(type).equals(pkg);
+        if (!isAccessible(type, pkg) || modifiers.contains(Modifier.PRIVATE)
+                || (!modifiers.contains(Modifier.PUBLIC) && !samePackage)) {
+            return null;
+        }
+        StringBuilder call = new StringBuilder();
+        if (modifiers.contains(Modifier.STATIC)) {
+            call.append(type.getQualifiedName());
+        } else {
+            call.append("((").append(processingEnv.getTypeUtils().erasure(type.asType())).append(") target)");
+        }
+        call.append('.').append(method.getSimpleName()).append('(');
+        List<? extends VariableElement> parameters = method.getParameters();
+        for (int i = 0; i < parameters.size(); i++) {
+            TypeMirror erasure = processingEnv.getTypeUtils().erasure(parameters.get(i).asType());
+            String cast = erasure.getKind().isPrimitive()
+                    ? processingEnv.getTypeUtils().boxedClass((PrimitiveType) erasure).getQualifiedName().toString()
+                    : erasure.toString();
+            call.append(i == 0 ? "" : ", ").append('(').append(cast).append(") arguments[").append(i).append(']');
+        }
+        call.append(')');
+        if (method.getReturnType().getKind() == TypeKind.VOID) {
+            return call.append(";\n                return null;").toString();
+        }
+        return "return " + call + ";";
+    }
+
+    /**
+     * Adds what converting an argument needs reflectively: the declared converter's
+     * constructor, or the constructor taking a string the default conversion falls back to.
+     */
+    private void addConversion(ReflectionConfig config, TypeMirror type, TypeMirror converter) {
+        if (converter != null && !converter.toString().equals(ArgumentConverter.class.getName())) {
+            config.add(configName(converter), "<init>");
+            return;
+        }
+        if (type.getKind() != TypeKind.DECLARED) {
+            return;
+        }
+        TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+        if (processingEnv.getElementUtils().getPackageOf(element).getQualifiedName().contentEquals("java.lang")) {
+            // strings, boxed primitives and the like have converters of their own
+            return;
+        }
+        if (element.getKind() == ElementKind.ENUM) {
+            config.add(binaryName(element), "values");
+            return;
+        }
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(element.getEnclosedElements())) {
+            List<? extends VariableElement> parameters = constructor.getParameters();
+            if (constructor.getModifiers().contains(Modifier.PUBLIC) && parameters.size() == 1
+                    && processingEnv.getTypeUtils().erasure(parameters.get(0).asType()).toString().equals(String.class.getName())) {
+                config.add(binaryName(element), "<init>", Collections.singletonList(String.class.getName()));
+            }
+        }
+    }
+
+    /**
+     * Adds a no-argument completion method, which is looked up on the shell class itself.
+     */
+    private void addCompletionMethod(ReflectionConfig config, TypeElement shell, String name) {
+        for (ExecutableElement method : ElementFilter.methodsIn(shell.getEnclosedElements())) {
+            if (method.getSimpleName().contentEquals(name) && method.getParameters().isEmpty()) {
+                config.add(binaryName(shell), name);
+            }
+        }
+    }
+
+    private String binaryName(TypeElement type) {
+        return processingEnv.getElementUtils().getBinaryName(type).toString();
+    }
+
+    private String binaryName(PackageElement pkg, String simpleName) {
+        return pkg.isUnnamed() ? simpleName : pkg.getQualifiedName() + "." + simpleName;
+    }
+
+    /**
+     * @return name of an erased type as native-image configuration files spell it
+     */
+    private String configName(TypeMirror erasure) {
+        if (erasure.getKind() == TypeKind.ARRAY) {
+            return configName(((ArrayType) erasure).getComponentType()) + "[]";
+        } else if (erasure.getKind() == TypeKind.DECLARED) {
+            return binaryName((TypeElement) ((DeclaredType) erasure).asElement());
+        }
+        return erasure.toString();
+    }
+
+    private TypeMirror converterOf(Argument argument) {
+        try {
+            argument.converter();
+            throw new IllegalStateException("converter class should not be loadable during processing");
+        } catch (MirroredTypeException e) {
+            return e.getTypeMirror();
+        }
+    }
+
+    private void appendArgument(StringBuilder out, Argument argument, TypeMirror converter) {
+        if (argument == null) {
+            out.append("com.kg6sed.eggshell.ArgumentInfo.DEFAULT");
+            return;
+        }
+        out.append("new com.kg6sed.eggshell.ArgumentInfo(")
+                .append(literal(argument.name())).append(", ")
+                .append(literal(argument.type())).append(", ")
+                .append(argument.optional()).append(", ")
+                .append(stringArray(argument.completions())).append(", ")
+                .append(processingEnv.getTypeUtils().erasure(converter)).append(".class, ")
+                .append(argument.completionTtl()).append("L, ")
+                .append(argument.completionCacheSize()).append(")");
+    }
+
+    private String stringArray(String[] values) {
+        StringBuilder out = new StringBuilder("new String[]{");
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                out.append(", ");
+            }
+            out.append(literal(values[i]));
+        }
+        return out.append("}").toString();
+    }
+
+    private String registryName(TypeElement shell) {
+        StringBuilder name = new StringBuilder(shell.getSimpleName());
+        for (Element e = shell.getEnclosingElement(); e instanceof TypeElement; e = e.getEnclosingElement()) {
+            name.insert(0, '$').insert(0, e.getSimpleName());
+        }
+        return name.append(CommandRegistry.CLASS_SUFFIX).toString();
+    }
+
+    private TypeElement superclassOf(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        if (superclass.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        TypeElement element = (TypeElement) ((DeclaredType) superclass).asElement();
+        return element.getQualifiedName().contentEquals("java.lang.Object") ? null : element;
+    }
+
+    private boolean isAccessible(TypeMirror type, PackageElement from) {
+        if (type.getKind().isPrimitive()) {
+            return true;
+        } else if (type.getKind() == TypeKind.ARRAY) {
+            return isAccessible(((ArrayType) type).getComponentType(), from);
+        } else if (type.getKind() == TypeKind.DECLARED) {
+            return isAccessible((TypeElement) ((DeclaredType) type).asElement(), from);
+        }
+        return false;
+    }
+
+    private boolean isAccessible(TypeElement type, PackageElement from) {
+        if (type.getNestingKind() == NestingKind.LOCAL || type.getNestingKind() == NestingKind.ANONYMOUS) {
+            return false;
+        }
+        boolean samePackage = processingEnv.getElementUtils().getPackageOf(type).equals(from);
+        for (Element e = type; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            Set<Modifier> modifiers = e.getModifiers();
+            if (modifiers.contains(Modifier.PRIVATE)) {
+                return false;
+            }
+            if (!samePackage && !modifiers.contains(Modifier.PUBLIC)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String literal(String value) {
+        if (value == null) {
+            return "null";
+        }
+        return processingEnv.getElementUtils().getConstantExpression(value);
+    }
+
+    private void note(TypeElement shell, String reason) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                "No command registry generated for " + shell.getQualifiedName() + ", " + reason, shell);
+    }
+
+    /**
+     * Methods and constructors per class that a native image has to keep for reflection,
+     * written as a native-image <code>reflect-config.json</code>.
+     */
+    private static final class ReflectionConfig {
+        private final Map<String, Set<String>> methods = new LinkedHashMap<String, Set<String>>();
+
+        void add(String type, String method) {
+            this.add(type, method, Collections.<String>emptyList());
+        }
+
+        void add(String type, String method, List<String> parameterTypes) {
+            Set<String> entries = this.methods.get(type);
+            if (entries == null) {
+                entries = new LinkedHashSet<String>();
+                this.methods.put(type, entries);
+            }
+            StringBuilder entry = new StringBuilder("{\"name\": \"").append(method).append("\", \"parameterTypes\": [");
+            for (int i = 0; i < parameterTypes.size(); i++) {
+                entry.append(i == 0 ? "\"" : ", \"").append(parameterTypes.get(i)).append('"');
+            }
+            entries.add(entry.append("]}").toString());
+        }
+
+        String toJson() {
+            StringBuilder json = new StringBuilder("[\n");
+            boolean firstType = true;
+            for (Map.Entry<String, Set<String>> type : this.methods.entrySet()) {
+                json.append(firstType ? "" : ",\n").append("  {\n    \"name\": \"").append(type.getKey())
+                        .append("\",\n    \"methods\": [\n");
+                boolean firstMethod = true;
+                for (String method : type.getValue()) {
+                    json.append(firstMethod ? "" : ",\n").append("      ").append(method);
+                    firstMethod = false;
+                }
+                json.append("\n    ]\n  }");
+                firstType = false;
+            }
+            return json.append("\n]\n").toString();
+        }
+    }
+}
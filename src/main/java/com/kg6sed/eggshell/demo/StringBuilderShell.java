@@ -22,9 +22,9 @@ package com.kg6sed.eggshell.demo;
 import com.kg6sed.eggshell.AbstractShell;
 import com.kg6sed.eggshell.Command;
 import com.kg6sed.eggshell.ExitShellException;
-import com.kg6sed.eggshell.Shell;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 
 /**
  * This class demonstrates how you can build a shell around a StringBuilder object.
@@ -77,10 +77,19 @@ public class StringBuilderShell extends AbstractShell {
         throw new ExitShellException("Goodbye.");
     }
 
+    /**
+     * Runs the shell interactively, or runs the script given as the first argument.
+     *
+     * @param args optional script file
+     */
     public static void main(String[] args) {
         try {
-            Shell shell = new StringBuilderShell();
-            shell.run();
+            StringBuilderShell shell = new StringBuilderShell();
+            if (args.length > 0) {
+                System.err.println(shell.executeFile(Paths.get(args[0])));
+            } else {
+                shell.run();
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
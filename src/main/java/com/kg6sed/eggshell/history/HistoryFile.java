@@ -0,0 +1,379 @@
+package com.kg6sed.eggshell.history;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Append-only command history in a file of UTF-8 lines, shared by any number of shells
+ * and processes. Entries are appended under a file lock, and the file is rotated to
+ * <code>&lt;name&gt;.1</code> when it would grow beyond its size cap. Reading goes through
+ * a memory mapping of the file and only touches the entries asked for, so opening a
+ * history does not read it.
+ * <p/>
+ * Entries are addressed by the offset of their first byte; {@link #end()} is the offset
+ * after the last entry. {@link #search(String, long)} looks backwards for a substring and
+ * skips 64K blocks whose trigram filter shows they cannot contain it. Filters are built
+ * the first time a block is searched and take 512 bytes per block.
+ */
+public class HistoryFile implements Closeable {
+    public static final long DEFAULT_MAX_SIZE = 8L * 1024 * 1024;
+    public static final long MAX_SIZE = 1024L * 1024 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int BLOCK_SHIFT = 16;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+    private static final int FILTER_BITS = 4096;
+    /**
+     * File locks are held per JVM, shells of one JVM sharing a file serialize on this monitor.
+     */
+    private static final ConcurrentHashMap<Path, Object> APPEND_LOCKS = new ConcurrentHashMap<Path, Object>();
+
+    private Path path;
+    private long maxSize;
+    private FileChannel channel;
+    private Object fileKey;
+    private MappedByteBuffer map;
+    private int size;
+    private List<long[]> filters = new ArrayList<long[]>();
+    private byte[] scratch = new byte[0];
+
+    /**
+     * Opens or creates a history file.
+     *
+     * @param path    history file
+     * @param maxSize size in bytes at which the file is rotated, at most 1G
+     * @throws IOException if the file cannot be opened
+     */
+    public HistoryFile(Path path, long maxSize) throws IOException {
+        if (maxSize <= 0 || maxSize > MAX_SIZE) {
+            throw new IllegalArgumentException("Invalid history size " + maxSize);
+        }
+        this.path = path.toAbsolutePath().normalize();
+        this.maxSize = maxSize;
+        this.open();
+    }
+
+    private void open() throws IOException {
+        if (this.channel != null) {
+            this.channel.close();
+        }
+        this.channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.fileKey = fileKey(this.path);
+        this.map = null;
+        this.size = 0;
+        this.filters.clear();
+        this.refresh();
+    }
+
+    /**
+     * Maps entries appended since the last call, by this or other processes, and
+     * switches to the new file if another process rotated it.
+     *
+     * @throws IOException on read errors
+     */
+    public synchronized void refresh() throws IOException {
+        if (this.isRotated()) {
+            this.open();
+            return;
+        }
+        long length = this.channel.size();
+        if (length != this.size || this.map == null) {
+            // only whole entries are visible, a concurrent append may not be complete yet
+            this.map = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            int end = (int) length;
+            while (end > 0 && this.map.get(end - 1) != '\n') {
+                end--;
+            }
+            this.size = end;
+        }
+    }
+
+    private boolean isRotated() throws IOException {
+        try {
+            if (this.fileKey == null) {
+                // no file identity on this platform, a rotated file is smaller than ours
+                return Files.size(this.path) < this.channel.size();
+            }
+            return !this.fileKey.equals(fileKey(this.path));
+        } catch (NoSuchFileException e) {
+            return true;
+        }
+    }
+
+    private static Object fileKey(Path path) throws IOException {
+        return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+    }
+
+    /**
+     * Appends an entry, rotating the file first if the entry would exceed the size cap.
+     * Line breaks in the entry are replaced by spaces.
+     *
+     * @param entry command line
+     * @throws IOException on write errors
+     */
+    public void append(String entry) throws IOException {
+        byte[] bytes = (entry.replace('\n', ' ').replace('\r', ' ') + "\n").getBytes(UTF8);
+        Object monitor = APPEND_LOCKS.putIfAbsent(this.path, new Object());
+        if (monitor == null) {
+            monitor = APPEND_LOCKS.get(this.path);
+        }
+        synchronized (monitor) {
+            synchronized (this) {
+                if (this.isRotated()) {
+                    this.open();
+                }
+                FileLock lock = this.channel.lock();
+                try {
+                    // another process may have rotated the file while we waited for the lock
+                    if (this.isRotated()) {
+                        lock.release();
+                        this.open();
+                        lock = this.channel.lock();
+                    }
+                    if (this.channel.size() + bytes.length > this.maxSize && this.channel.size() > 0) {
+                        Files.move(this.path, this.path.resolveSibling(this.path.getFileName() + ".1"),
+                                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                        lock.release();
+                        this.open();
+                        lock = this.channel.lock();
+                    }
+                    // all writers hold the lock, so the end cannot move while writing
+                    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                    long position = this.channel.size();
+                    while (buffer.hasRemaining()) {
+                        position += this.channel.write(buffer, position);
+                    }
+                } finally {
+                    lock.release();
+                }
+                this.refresh();
+            }
+        }
+    }
+
+    /**
+     * @return offset after the last entry
+     */
+    public synchronized long end() {
+        return this.size;
+    }
+
+    /**
+     * @param offset offset of an entry, or {@link #end()}
+     * @return offset of the entry before, -1 if there is none
+     */
+    public synchronized long previous(long offset) {
+        if (offset <= 0 || offset > this.size) {
+            return -1;
+        }
+        return this.startOf((int) offset - 1);
+    }
+
+    /**
+     * @param offset offset of an entry
+     * @return offset of the entry after, {@link #end()} for the last entry
+     */
+    public synchronized long next(long offset) {
+        int position = (int) offset;
+        while (position < this.size && this.map.get(position) != '\n') {
+            position++;
+        }
+        return Math.min(position + 1, this.size);
+    }
+
+    /**
+     * @param offset offset of an entry
+     * @return the entry, null at {@link #end()}
+     */
+    public synchronized String get(long offset) {
+        if (offset < 0 || offset >= this.size) {
+            return null;
+        }
+        int start = (int) offset;
+        int end = start;
+        while (this.map.get(end) != '\n') {
+            end++;
+        }
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = this.map.get(start + i);
+        }
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Finds the latest entry containing a string whose occurrence starts before an offset.
+     *
+     * @param query  string to find
+     * @param before offset the occurrence must start before; {@link #end()} to search all
+     * @return offset of the occurrence, -1 if none was found
+     */
+    public synchronized long search(String query, long before) {
+        byte[] pattern = query.getBytes(UTF8);
+        if (pattern.length == 0) {
+            return -1;
+        }
+        int[] trigrams = trigrams(pattern);
+        int position = (int) Math.min(before, this.size) - 1;
+        while (position >= 0) {
+            int block = position >> BLOCK_SHIFT;
+            int blockStart = block << BLOCK_SHIFT;
+            if (trigrams.length > 0 && !this.mayContain(block, trigrams)) {
+                position = blockStart - 1;
+                continue;
+            }
+            // scan a copy of the block, reading the mapping byte by byte is several times slower
+            int length = Math.min(position + pattern.length, this.size) - blockStart;
+            if (this.scratch.length < length) {
+                this.scratch = new byte[length];
+            }
+            ByteBuffer view = this.map.duplicate();
+            view.position(blockStart);
+            view.get(this.scratch, 0, length);
+            int found = lastIndexOf(this.scratch, length, pattern);
+            if (found >= 0) {
+                return blockStart + found;
+            }
+            position = blockStart - 1;
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(byte[] bytes, int length, byte[] pattern) {
+        byte first = pattern[0];
+        for (int i = length - pattern.length; i >= 0; i--) {
+            if (bytes[i] != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < pattern.length && bytes[i + j] == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the entry containing an offset returned by {@link #search(String, long)}
+     */
+    public synchronized long entryOf(long offset) {
+        return this.startOf((int) offset);
+    }
+
+    private int startOf(int position) {
+        // position is inside an entry or on its line break
+        int start = position;
+        while (start > 0 && this.map.get(start - 1) != '\n') {
+            start--;
+        }
+        return start;
+    }
+
+    /**
+     * An occurrence starting in a block has its trigrams in that block or the next.
+     */
+    private boolean mayContain(int block, int[] trigrams) {
+        long[] filter = this.filter(block);
+        long[] next = this.filter(block + 1);
+        if (filter == null || next == null) {
+            return true;
+        }
+        for (int trigram : trigrams) {
+            if ((filter[trigram >>> 6] & 1L << trigram) == 0 && (next[trigram >>> 6] & 1L << trigram) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the trigram filter of a complete block, building it on first use; null for
+     * the last, still growing block.
+     */
+    private long[] filter(int block) {
+        int start = block << BLOCK_SHIFT;
+        if (start >= this.size) {
+            // past the end, no occurrence can continue here
+            return new long[FILTER_BITS / 64];
+        }
+        if (start + BLOCK_SIZE + 2 > this.size) {
+            return null;
+        }
+        while (this.filters.size() <= block) {
+            this.filters.add(null);
+        }
+        long[] filter = this.filters.get(block);
+        if (filter == null) {
+            filter = new long[FILTER_BITS / 64];
+            byte[] bytes = new byte[BLOCK_SIZE + 2];
+            ByteBuffer view = this.map.duplicate();
+            view.position(start);
+            view.get(bytes);
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                int trigram = hash(bytes[i], bytes[i + 1], bytes[i + 2]);
+                filter[trigram >>> 6] |= 1L << trigram;
+            }
+            this.filters.set(block, filter);
+        }
+        return filter;
+    }
+
+    private static int[] trigrams(byte[] pattern) {
+        int[] trigrams = new int[Math.max(pattern.length - 2, 0)];
+        for (int i = 0; i < trigrams.length; i++) {
+            trigrams[i] = hash(pattern[i], pattern[i + 1], pattern[i + 2]);
+        }
+        return trigrams;
+    }
+
+    private static int hash(byte a, byte b, byte c) {
+        int h = (a & 0xff) * 961 + (b & 0xff) * 31 + (c & 0xff);
+        return (h * 0x9E3779B1 >>> 20) & (FILTER_BITS - 1);
+    }
+
+    public Path getPath() {
+        return this.path;
+    }
+
+    public synchronized void close() throws IOException {
+        this.map = null;
+        this.channel.close();
+    }
+}
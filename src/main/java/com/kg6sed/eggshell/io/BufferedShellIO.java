@@ -0,0 +1,123 @@
+package com.kg6sed.eggshell.io;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.io.IOException;
+
+/**
+ * Base class collecting output in a reusable buffer that is written out on
+ * {@link #flush()} or when it is full, so many short lines cost one write instead of one
+ * write each.
+ */
+public abstract class BufferedShellIO implements ShellIO {
+    /**
+     * Default buffer size in characters.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+    private char[] buffer;
+    private int length;
+
+    protected BufferedShellIO() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize characters collected before they are written out
+     */
+    protected BufferedShellIO(int bufferSize) {
+        this.buffer = new char[bufferSize];
+    }
+
+    public String readLine(String prompt) throws IOException {
+        if (prompt != null) {
+            this.print(prompt);
+        }
+        this.flush();
+        return this.read();
+    }
+
+    public synchronized void print(CharSequence text) throws IOException {
+        int textLength = text.length();
+        if (this.length + textLength > this.buffer.length) {
+            this.writeBuffer();
+            if (textLength > this.buffer.length) {
+                // too large to buffer, write it as it is
+                this.write(text.toString().toCharArray(), 0, textLength);
+                return;
+            }
+        }
+        if (text instanceof String) {
+            ((String) text).getChars(0, textLength, this.buffer, this.length);
+        } else {
+            for (int i = 0; i < textLength; i++) {
+                this.buffer[this.length + i] = text.charAt(i);
+            }
+        }
+        this.length += textLength;
+    }
+
+    public synchronized void println(CharSequence line) throws IOException {
+        this.print(line);
+        this.print(LINE_SEPARATOR);
+    }
+
+    public synchronized void flush() throws IOException {
+        this.writeBuffer();
+        this.flushOutput();
+    }
+
+    public void close() throws IOException {
+        this.flush();
+    }
+
+    private void writeBuffer() throws IOException {
+        if (this.length > 0) {
+            this.write(this.buffer, 0, this.length);
+            this.length = 0;
+        }
+    }
+
+    /**
+     * Reads a line, pending output has been flushed.
+     *
+     * @return the line, or null at the end of the input
+     * @throws IOException on read errors
+     */
+    protected abstract String read() throws IOException;
+
+    /**
+     * Writes buffered characters to the output.
+     *
+     * @param chars  characters, only valid during the call
+     * @param offset first character
+     * @param count  number of characters
+     * @throws IOException on write errors
+     */
+    protected abstract void write(char[] chars, int offset, int count) throws IOException;
+
+    /**
+     * Flushes the underlying output after buffered characters were written.
+     *
+     * @throws IOException on write errors
+     */
+    protected abstract void flushOutput() throws IOException;
+}
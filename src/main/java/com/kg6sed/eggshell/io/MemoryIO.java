@@ -0,0 +1,66 @@
+package com.kg6sed.eggshell.io;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * Input from a string and output collected in memory, for tests and embedding.
+ */
+public class MemoryIO extends BufferedShellIO {
+    private BufferedReader input;
+    private StringBuilder output = new StringBuilder();
+
+    /**
+     * @param input lines to read
+     */
+    public MemoryIO(String input) {
+        this.input = new BufferedReader(new StringReader(input));
+    }
+
+    @Override
+    protected String read() throws IOException {
+        return this.input.readLine();
+    }
+
+    @Override
+    protected synchronized void write(char[] chars, int offset, int count) {
+        this.output.append(chars, offset, count);
+    }
+
+    @Override
+    protected void flushOutput() {
+    }
+
+    public boolean isInteractive() {
+        return false;
+    }
+
+    /**
+     * @return everything written so far, including pending output
+     * @throws IOException never
+     */
+    public synchronized String getOutput() throws IOException {
+        this.flush();
+        return this.output.toString();
+    }
+}
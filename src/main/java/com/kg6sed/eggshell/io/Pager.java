@@ -0,0 +1,84 @@
+package com.kg6sed.eggshell.io;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.io.IOException;
+
+/**
+ * Prints long output a screen at a time on a terminal, <code>more</code> style: space
+ * shows the next page, enter the next line, q stops. On other outputs lines are passed
+ * through.
+ */
+public class Pager {
+    public static final String PROMPT = "--More--";
+
+    private ShellIO io;
+    private TerminalIO terminal;
+    private int pageSize;
+    private int remaining;
+
+    public Pager(ShellIO io) {
+        this.io = io;
+        if (io instanceof TerminalIO && io.isInteractive()) {
+            this.terminal = (TerminalIO) io;
+            this.pageSize = this.terminal.getHeight() - 1;
+        }
+        this.remaining = this.pageSize;
+    }
+
+    /**
+     * Prints a line, first waiting for the user if the screen is full.
+     *
+     * @param line line to print
+     * @return false if the user stopped the output, the line was not printed
+     * @throws IOException on read or write errors
+     */
+    public boolean println(CharSequence line) throws IOException {
+        if (this.pageSize > 0 && this.remaining == 0 && !this.more()) {
+            return false;
+        }
+        this.io.println(line);
+        this.remaining--;
+        return true;
+    }
+
+    private boolean more() throws IOException {
+        this.io.print(PROMPT);
+        this.io.flush();
+        int key = this.terminal.readKey();
+        // erase the prompt
+        this.io.print("\r" + PROMPT.replaceAll(".", " ") + "\r");
+        switch (key) {
+            case 'q':
+            case 'Q':
+            case 3:
+            case -1:
+                this.io.flush();
+                return false;
+            case '\r':
+            case '\n':
+                this.remaining = 1;
+                return true;
+            default:
+                this.remaining = this.pageSize;
+                return true;
+        }
+    }
+}
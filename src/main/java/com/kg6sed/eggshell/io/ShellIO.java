@@ -0,0 +1,56 @@
+package com.kg6sed.eggshell.io;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Input and output of a shell: a terminal, plain streams, memory or a network connection.
+ * Output may be buffered until {@link #flush()}; reading a line flushes pending output
+ * first. Output methods are thread safe, background jobs print through the same instance.
+ */
+public interface ShellIO extends Closeable {
+
+    /**
+     * Flushes pending output, shows the prompt and reads a line.
+     *
+     * @param prompt prompt to show, or null for none
+     * @return the line without terminator, or null at the end of the input
+     * @throws IOException on read errors
+     */
+    String readLine(String prompt) throws IOException;
+
+    void print(CharSequence text) throws IOException;
+
+    void println(CharSequence line) throws IOException;
+
+    /**
+     * Writes all pending output.
+     *
+     * @throws IOException on write errors
+     */
+    void flush() throws IOException;
+
+    /**
+     * @return true if a user is typing at a terminal, which enables Ctrl-C handling
+     */
+    boolean isInteractive();
+}
@@ -0,0 +1,46 @@
+package com.kg6sed.eggshell.io;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Input and output over a connected socket. Output is written once per command, so
+ * Nagle's algorithm is turned off to send it without delay.
+ */
+public class SocketIO extends StreamIO {
+    private SocketChannel channel;
+
+    /**
+     * @param channel connected channel in blocking mode
+     * @throws IOException if the socket options cannot be set
+     */
+    public SocketIO(SocketChannel channel) throws IOException {
+        super(channel.socket().getInputStream(), channel.socket().getOutputStream());
+        this.channel = channel;
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+
+    public SocketChannel getChannel() {
+        return this.channel;
+    }
+}
@@ -0,0 +1,92 @@
+package com.kg6sed.eggshell.io;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Input and output over plain streams, for scripts, pipes and network sessions.
+ */
+public class StreamIO extends BufferedShellIO {
+    private BufferedReader input;
+    private Writer output;
+
+    public StreamIO(InputStream input, OutputStream output) {
+        this(new InputStreamReader(input, Charset.defaultCharset()), new OutputStreamWriter(output, Charset.defaultCharset()));
+    }
+
+    public StreamIO(Reader input, Writer output) {
+        this(input, output, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param input      lines to read
+     * @param output     destination of all output
+     * @param bufferSize characters collected before they are written to the output
+     */
+    public StreamIO(Reader input, Writer output, int bufferSize) {
+        super(bufferSize);
+        this.input = input instanceof BufferedReader ? (BufferedReader) input : new BufferedReader(input, bufferSize);
+        this.output = output;
+    }
+
+    @Override
+    protected String read() throws IOException {
+        return this.input.readLine();
+    }
+
+    @Override
+    protected void write(char[] chars, int offset, int count) throws IOException {
+        this.output.write(chars, offset, count);
+    }
+
+    @Override
+    protected void flushOutput() throws IOException {
+        this.output.flush();
+    }
+
+    public boolean isInteractive() {
+        return false;
+    }
+
+    /**
+     * Flushes the output and closes both streams.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            this.flush();
+        } finally {
+            try {
+                this.input.close();
+            } finally {
+                this.output.close();
+            }
+        }
+    }
+}
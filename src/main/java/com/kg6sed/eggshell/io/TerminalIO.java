@@ -0,0 +1,84 @@
+package com.kg6sed.eggshell.io;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import jline.ConsoleReader;
+
+import java.io.IOException;
+
+/**
+ * Terminal input and output through a jline console, with line editing, history and
+ * completion.
+ */
+public class TerminalIO extends BufferedShellIO {
+    private ConsoleReader console;
+
+    public TerminalIO(ConsoleReader console) {
+        this.console = console;
+    }
+
+    public ConsoleReader getConsole() {
+        return this.console;
+    }
+
+    @Override
+    public String readLine(String prompt) throws IOException {
+        // the console prints the prompt itself, so it can redraw it while editing
+        this.flush();
+        return this.console.readLine(prompt);
+    }
+
+    @Override
+    protected String read() throws IOException {
+        return this.console.readLine();
+    }
+
+    @Override
+    protected void write(char[] chars, int offset, int count) throws IOException {
+        this.console.printString(new String(chars, offset, count));
+    }
+
+    @Override
+    protected void flushOutput() throws IOException {
+        this.console.flushConsole();
+    }
+
+    /**
+     * @return lines on the screen, 0 or less if unknown
+     */
+    public int getHeight() {
+        // ConsoleReader.getTermheight() asks the global terminal, not the one of this console
+        return this.console.getTerminal().getTerminalHeight();
+    }
+
+    /**
+     * Waits for a single key press, pending output is not flushed.
+     *
+     * @return the key, -1 at the end of the input
+     * @throws IOException on read errors
+     */
+    public int readKey() throws IOException {
+        return this.console.readVirtualKey();
+    }
+
+    public boolean isInteractive() {
+        return this.console.getTerminal().isSupported();
+    }
+}
@@ -0,0 +1,227 @@
+package com.kg6sed.eggshell.jline;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import jline.Completor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the results of a slow completor per completed prefix. Completion never
+ * blocks longer than the configured wait: cached results are returned directly,
+ * expired ones are returned while a refresh runs in the background, and a prefix seen
+ * for the first time is loaded in the background and only waited for briefly. The
+ * number of cached prefixes is bounded, least recently used prefixes are evicted.
+ */
+public class CachingCompletor implements Completor {
+    private Completor delegate;
+    private long ttlNanos;
+    private long waitMillis;
+    private ExecutorService executor;
+    private Map<String, CachedCompletion> entries;
+
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong staleHits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+    private AtomicLong loads = new AtomicLong();
+    private AtomicLong failures = new AtomicLong();
+    private AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param delegate   completor doing the actual work
+     * @param ttlMillis  milliseconds a result stays fresh
+     * @param maxEntries maximum number of cached prefixes
+     * @param waitMillis milliseconds to wait for a prefix that is not cached yet
+     * @param executor   runs loads and refreshes
+     */
+    public CachingCompletor(Completor delegate, long ttlMillis, final int maxEntries, long waitMillis, ExecutorService executor) {
+        this.delegate = delegate;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.waitMillis = waitMillis;
+        this.executor = executor;
+        this.entries = new LinkedHashMap<String, CachedCompletion>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedCompletion> eldest) {
+                if (size() > maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"}) // jline passes a raw list of candidates
+    public int complete(String buffer, int cursor, List candidates) {
+        final String prefix = buffer == null ? "" : buffer.substring(0, cursor);
+
+        CachedCompletion entry;
+        boolean refresh = false;
+        synchronized (this.entries) {
+            entry = this.entries.get(prefix);
+            if (entry == null) {
+                entry = new CachedCompletion();
+                entry.loading = true;
+                this.entries.put(prefix, entry);
+            } else if (!entry.loading && System.nanoTime() - entry.loadedAt > this.ttlNanos) {
+                entry.loading = true;
+                refresh = true;
+            }
+        }
+
+        if (entry.candidates != null) {
+            if (refresh) {
+                this.staleHits.incrementAndGet();
+                this.load(prefix, entry);
+            } else {
+                this.hits.incrementAndGet();
+            }
+            return entry.copyTo(candidates);
+        }
+
+        // first request for this prefix, or its first load is still running
+        this.misses.incrementAndGet();
+        Future<?> pending = entry.pending;
+        if (pending == null) {
+            pending = this.load(prefix, entry);
+        }
+        try {
+            pending.get(this.waitMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        } catch (ExecutionException e) {
+            return -1;
+        }
+        return entry.candidates == null ? -1 : entry.copyTo(candidates);
+    }
+
+    private Future<?> load(final String prefix, final CachedCompletion entry) {
+        Future<?> future = this.executor.submit(new Runnable() {
+            public void run() {
+                loads.incrementAndGet();
+                try {
+                    List<String> result = new ArrayList<String>();
+                    int position = delegate.complete(prefix, prefix.length(), result);
+                    entry.update(position, result);
+                } catch (RuntimeException e) {
+                    failures.incrementAndGet();
+                    synchronized (entries) {
+                        if (entry.candidates == null) {
+                            entries.remove(prefix);
+                        }
+                    }
+                    throw e;
+                } finally {
+                    entry.loading = false;
+                    entry.pending = null;
+                }
+            }
+        });
+        if (entry.loading) {
+            entry.pending = future;
+        }
+        return future;
+    }
+
+    /**
+     * Drops all cached results.
+     */
+    public void invalidate() {
+        synchronized (this.entries) {
+            this.entries.clear();
+        }
+    }
+
+    public long getHitCount() {
+        return this.hits.get();
+    }
+
+    /**
+     * @return number of expired results served while they were refreshed
+     */
+    public long getStaleHitCount() {
+        return this.staleHits.get();
+    }
+
+    public long getMissCount() {
+        return this.misses.get();
+    }
+
+    /**
+     * @return number of calls to the delegate, including refreshes
+     */
+    public long getLoadCount() {
+        return this.loads.get();
+    }
+
+    public long getFailureCount() {
+        return this.failures.get();
+    }
+
+    public long getEvictionCount() {
+        return this.evictions.get();
+    }
+
+    public int size() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d entries, %d hits, %d stale hits, %d misses, %d loads, %d failures, %d evictions",
+                this.size(), this.getHitCount(), this.getStaleHitCount(), this.getMissCount(), this.getLoadCount(),
+                this.getFailureCount(), this.getEvictionCount());
+    }
+
+    private static class CachedCompletion {
+        volatile boolean loading;
+        volatile Future<?> pending;
+        volatile long loadedAt;
+        volatile int position;
+        volatile List<String> candidates;
+
+        void update(int position, List<String> candidates) {
+            this.position = position;
+            this.candidates = Collections.unmodifiableList(candidates);
+            this.loadedAt = System.nanoTime();
+        }
+
+        int copyTo(List<? super String> candidates) {
+            List<String> cached = this.candidates;
+            candidates.addAll(cached);
+            return cached.isEmpty() ? -1 : this.position;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.kg6sed.eggshell.jline;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.CommandIndex;
+import com.kg6sed.eggshell.ShellCommand;
+import jline.Completor;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single completor for a whole shell. The first word is completed from the
+ * {@link CommandIndex}, or corrected to the closest name if no name starts with it;
+ * later words are handed to the argument completor of the command the first word
+ * resolves to, so no completor is consulted per command.
+ */
+public class CommandCompletor implements Completor {
+    private volatile CommandIndex index;
+    private Map<ShellCommand, Completor> argumentCompletors;
+
+    /**
+     * @param index              index of command names
+     * @param argumentCompletors completor for the whole line of each command
+     */
+    public CommandCompletor(CommandIndex index, Map<ShellCommand, Completor> argumentCompletors) {
+        this.index = index;
+        this.argumentCompletors = argumentCompletors;
+    }
+
+    /**
+     * Switches to the index of a changed set of commands. Argument completors of added
+     * commands are expected in the map passed to the constructor.
+     *
+     * @param index new index of command names
+     */
+    public void setIndex(CommandIndex index) {
+        this.index = index;
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"}) // jline passes a raw list of candidates
+    public int complete(String buffer, int cursor, List candidates) {
+        CommandIndex index = this.index;
+        if (buffer == null) {
+            buffer = "";
+        }
+        int start = 0;
+        while (start < cursor && Character.isWhitespace(buffer.charAt(start))) {
+            start++;
+        }
+        int end = start;
+        while (end < buffer.length() && !Character.isWhitespace(buffer.charAt(end))) {
+            end++;
+        }
+
+        if (cursor <= end) {
+            String prefix = buffer.substring(start, cursor);
+            List<String> names = index.complete(prefix);
+            if (names.isEmpty()) {
+                // a mistyped name is corrected when a single name is closest, several would
+                // replace it with their common prefix
+                List<String> suggestions = cursor == end ? index.suggest(prefix, 2) : Collections.<String>emptyList();
+                if (suggestions.size() != 1) {
+                    return -1;
+                }
+                candidates.add(suggestions.get(0) + " ");
+                return start;
+            }
+            if (names.size() == 1) {
+                candidates.add(names.get(0) + " ");
+            } else {
+                candidates.addAll(names);
+            }
+            return start;
+        }
+
+        ShellCommand command = index.resolve(buffer.substring(start, end));
+        Completor completor = command == null ? null : this.argumentCompletors.get(command);
+        if (completor == null) {
+            return -1;
+        }
+        return completor.complete(buffer, cursor, candidates);
+    }
+}
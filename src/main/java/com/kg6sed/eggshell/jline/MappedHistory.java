@@ -0,0 +1,160 @@
+package com.kg6sed.eggshell.jline;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.history.HistoryFile;
+import jline.ConsoleReader;
+import jline.History;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Console history backed by a {@link HistoryFile}. Browsing with the arrow keys reads
+ * entries from the mapped file as they are shown, entries are appended to the file as
+ * they are entered and entries appended by other shells show up after the next line.
+ * Failures to write or re-read the file are printed on the console, the line being
+ * entered is not affected.
+ */
+public class MappedHistory extends History {
+    private HistoryFile file;
+    private ConsoleReader console;
+    private long position;
+
+    /**
+     * @param file    history file
+     * @param console console the history belongs to, failures are printed on it
+     */
+    public MappedHistory(HistoryFile file, ConsoleReader console) {
+        this.file = file;
+        this.console = console;
+        this.position = file.end();
+    }
+
+    @Override
+    public void addToHistory(String buffer) {
+        if (buffer.trim().length() == 0) {
+            return;
+        }
+        long last = this.file.previous(this.file.end());
+        if (last >= 0 && buffer.equals(this.file.get(last))) {
+            return;
+        }
+        try {
+            this.file.append(buffer);
+        } catch (IOException e) {
+            printWarning(this.console, "Line not saved to history " + this.file.getPath() + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void moveToEnd() {
+        try {
+            this.file.refresh();
+        } catch (IOException e) {
+            printWarning(this.console, "Cannot read history " + this.file.getPath() + ": " + e.getMessage());
+        }
+        this.position = this.file.end();
+    }
+
+    @Override
+    public boolean moveToFirstEntry() {
+        if (this.file.end() == 0) {
+            return false;
+        }
+        this.position = 0;
+        return true;
+    }
+
+    @Override
+    public boolean moveToLastEntry() {
+        long last = this.file.previous(this.file.end());
+        if (last < 0) {
+            return false;
+        }
+        this.position = last;
+        return true;
+    }
+
+    @Override
+    public String current() {
+        String entry = this.file.get(this.position);
+        return entry == null ? "" : entry;
+    }
+
+    @Override
+    public boolean previous() {
+        long previous = this.file.previous(this.position);
+        if (previous < 0) {
+            return false;
+        }
+        this.position = previous;
+        return true;
+    }
+
+    @Override
+    public boolean next() {
+        if (this.position >= this.file.end()) {
+            return false;
+        }
+        this.position = this.file.next(this.position);
+        return true;
+    }
+
+    /**
+     * Reads all entries, only meant for small histories.
+     */
+    @Override
+    public List<String> getHistoryList() {
+        List<String> entries = new ArrayList<String>();
+        for (long offset = 0; offset < this.file.end(); offset = this.file.next(offset)) {
+            entries.add(this.file.get(offset));
+        }
+        return entries;
+    }
+
+    @Override
+    public int size() {
+        return this.getHistoryList().size();
+    }
+
+    /**
+     * Prints a line on the console between two input lines.
+     *
+     * @throws UncheckedIOException if the console cannot be written, reading the next line
+     *                              would fail as well
+     */
+    static void printWarning(ConsoleReader console, String message) {
+        try {
+            console.printString(message);
+            console.printNewline();
+            console.flushConsole();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.file.getPath().toString();
+    }
+}
@@ -0,0 +1,41 @@
+package com.kg6sed.eggshell.jline;
+
+import jline.Completor;
+import jline.SimpleCompletor;
+
+import java.lang.invoke.MethodHandle;
+import java.util.List;
+
+/**
+ * Completes from the strings returned by a method, calling it on every completion.
+ * Meant to be wrapped in a {@link CachingCompletor} when the method is slow.
+ */
+public class MethodCompletor implements Completor {
+    private Object instance;
+    private MethodHandle getter;
+
+    /**
+     * @param instance object the getter is called on
+     * @param getter   handle of type <code>(Object)Object</code> returning a <code>String[]</code>
+     */
+    public MethodCompletor(Object instance, MethodHandle getter) {
+        this.instance = instance;
+        this.getter = getter;
+    }
+
+    @SuppressWarnings("rawtypes") // jline passes a raw list of candidates
+    public int complete(String s, int i, List list) {
+        String[] candidates;
+        try {
+            candidates = (String[]) (Object) this.getter.invokeExact(this.instance);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException("Completion method failed", t);
+        }
+        if (candidates == null) {
+            return -1;
+        }
+        return new SimpleCompletor(candidates).complete(s, i, list);
+    }
+}
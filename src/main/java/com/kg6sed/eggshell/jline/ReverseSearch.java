@@ -0,0 +1,181 @@
+package com.kg6sed.eggshell.jline;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.history.HistoryFile;
+import jline.ConsoleOperations;
+import jline.ConsoleReader;
+import jline.CursorBuffer;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.IOException;
+import java.io.PushbackInputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.util.LinkedList;
+
+/**
+ * Incremental reverse search of a {@link HistoryFile} on Ctrl-R. Typed characters narrow
+ * the search, Ctrl-R again finds the next older match, backspace undoes the last
+ * character and Ctrl-G or Esc restores the original line. Any other key takes the match
+ * into the line and is then handled as usual, so enter runs the found command.
+ */
+public class ReverseSearch implements ActionListener {
+    private static final int CTRL_G = 7;
+    private static final int CTRL_R = 18;
+    private static final int ESCAPE = 27;
+
+    private ConsoleReader console;
+    private HistoryFile file;
+    private PushbackInputStream input;
+    private int shown;
+
+    private ReverseSearch(ConsoleReader console, HistoryFile file, PushbackInputStream input) {
+        this.console = console;
+        this.file = file;
+        this.input = input;
+    }
+
+    /**
+     * Binds Ctrl-R of a console to the search. jline binds it to redrawing the line,
+     * the binding is replaced.
+     *
+     * @param console console to bind
+     * @param file    history to search
+     * @return false if the console does not allow rebinding the key
+     */
+    public static boolean install(ConsoleReader console, HistoryFile file) {
+        try {
+            Field field = ConsoleReader.class.getDeclaredField("keybindings");
+            field.setAccessible(true);
+            short[] keybindings = (short[]) field.get(console);
+            keybindings[CTRL_R] = ConsoleOperations.UNKNOWN;
+        } catch (NoSuchFieldException e) {
+            // a jline version without the table, Ctrl-R stays bound to redrawing the line
+            return false;
+        } catch (IllegalAccessException e) {
+            return false;
+        }
+        // the key ending the search is pushed back for the console to handle
+        PushbackInputStream input = new PushbackInputStream(console.getInput(), 1);
+        console.setInput(input);
+        console.addTriggeredAction((char) CTRL_R, new ReverseSearch(console, file, input));
+        return true;
+    }
+
+    public void actionPerformed(ActionEvent event) {
+        try {
+            this.search();
+        } catch (IOException e) {
+            // the search is abandoned, the line typed before it is drawn again
+            try {
+                this.console.printNewline();
+                this.console.printString("History search failed: " + e.getMessage());
+                this.console.printNewline();
+                this.console.drawLine();
+                this.console.flushConsole();
+            } catch (IOException e1) {
+                throw new UncheckedIOException(e1);
+            }
+        }
+    }
+
+    private void search() throws IOException {
+        this.file.refresh();
+        String original = this.console.getCursorBuffer().toString();
+        StringBuilder query = new StringBuilder();
+        // match offsets before each typed character, for backspace
+        LinkedList<Long> matches = new LinkedList<Long>();
+        long match = -1;
+        boolean failing = false;
+        this.shown = 0;
+
+        while (true) {
+            String entry = match < 0 ? "" : this.file.get(this.file.entryOf(match));
+            this.show((failing ? "(failing reverse-i-search)`" : "(reverse-i-search)`") + query + "': " + entry);
+
+            int key = this.console.readVirtualKey();
+            if (key == CTRL_R) {
+                long older = query.length() == 0 || match < 0 ? -1 : this.file.search(query.toString(), this.file.entryOf(match));
+                if (older >= 0) {
+                    match = older;
+                } else {
+                    this.console.beep();
+                }
+            } else if (key == '\b' || key == 127) {
+                if (query.length() > 0) {
+                    query.setLength(query.length() - 1);
+                    match = matches.removeLast();
+                    failing = false;
+                }
+            } else if (key == CTRL_G || key == ESCAPE || key == -1) {
+                this.finish(original);
+                return;
+            } else if (key >= ' ') {
+                matches.add(match);
+                query.append((char) key);
+                if (!failing) {
+                    long found = this.file.search(query.toString(), match < 0 ? this.file.end() : match + 1);
+                    if (found >= 0) {
+                        match = found;
+                    } else {
+                        failing = true;
+                        this.console.beep();
+                    }
+                }
+            } else {
+                this.finish(match < 0 ? original : entry);
+                if (key < 256) {
+                    this.input.unread(key);
+                }
+                return;
+            }
+        }
+    }
+
+    private void show(String line) throws IOException {
+        int width = this.console.getTerminal().getTerminalWidth() - 1;
+        if (width > 0 && line.length() > width) {
+            line = line.substring(0, width);
+        }
+        StringBuilder out = new StringBuilder("\r").append(line);
+        for (int i = line.length(); i < this.shown; i++) {
+            out.append(' ');
+        }
+        out.append('\r').append(line);
+        this.console.printString(out.toString());
+        this.console.flushConsole();
+        this.shown = line.length();
+    }
+
+    private void finish(String line) throws IOException {
+        StringBuilder out = new StringBuilder("\r");
+        for (int i = 0; i < this.shown; i++) {
+            out.append(' ');
+        }
+        this.console.printString(out.append('\r').toString());
+        CursorBuffer buffer = this.console.getCursorBuffer();
+        buffer.clearBuffer();
+        buffer.write(line);
+        this.console.drawLine();
+        this.console.flushConsole();
+    }
+}
@@ -1,8 +1,9 @@
 package com.kg6sed.eggshell.jline;
 
+import com.kg6sed.eggshell.Invokers;
 import jline.Completor;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Method;
 import java.util.List;
 
@@ -10,22 +11,31 @@ import java.util.List;
  */
 public class WrappingCompletor implements Completor {
     private Object instance;
-    private Method method;
+    private MethodHandle getter;
 
     public WrappingCompletor(Object instance, Method method) {
+        this(instance, Invokers.getterInvoker(method));
+    }
+
+    /**
+     * @param instance object the getter is called on
+     * @param getter   handle of type <code>(Object)Object</code> returning a {@link Completor}
+     */
+    public WrappingCompletor(Object instance, MethodHandle getter) {
         this.instance = instance;
-        this.method = method;
+        this.getter = getter;
     }
 
+    @SuppressWarnings("rawtypes") // jline passes a raw list of candidates
     public int complete(String s, int i, List list) {
         try {
-            Completor completor = (Completor) this.method.invoke(this.instance);
+            Completor completor = (Completor) (Object) this.getter.invokeExact(this.instance);
             if (completor == null) {
                 return -1;
             }
             return completor.complete(s, i, list);
-        } catch (Exception e) {
-            e.printStackTrace();
+        } catch (Throwable t) {
+            t.printStackTrace();
             return -1;
         }
     }
@@ -0,0 +1,65 @@
+package com.kg6sed.eggshell.output;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the records of {@link StructuredOutput} in the encoding of {@link BinaryWriter}.
+ * The stream starts with the bytes <code>EGSO</code> and a version byte, every record
+ * follows its length in bytes. Read it with {@link BinaryOutputReader}.
+ */
+public class BinaryOutput extends StructuredOutput {
+    static final byte[] MAGIC = {'E', 'G', 'S', 'O'};
+    static final int VERSION = 1;
+
+    private BinaryWriter writer = new BinaryWriter();
+    private OutputStream out;
+
+    /**
+     * @param out destination, closed with this output
+     * @throws IOException if the header cannot be written
+     */
+    public BinaryOutput(OutputStream out) throws IOException {
+        this.out = new BufferedOutputStream(out, 64 * 1024);
+        this.out.write(MAGIC);
+        this.out.write(VERSION);
+    }
+
+    @Override
+    protected ValueWriter getWriter() {
+        return this.writer;
+    }
+
+    @Override
+    protected void writeRecord() throws IOException {
+        this.writer.writeRecord(this.out);
+    }
+
+    public synchronized void flush() throws IOException {
+        this.out.flush();
+    }
+
+    public synchronized void close() throws IOException {
+        this.out.close();
+    }
+}
@@ -0,0 +1,211 @@
+package com.kg6sed.eggshell.output;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the records written by {@link BinaryOutput}. Objects are read as maps, arrays as
+ * lists, integers as longs and doubles, strings, booleans and null as they are.
+ */
+public class BinaryOutputReader implements Closeable {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Object END = new Object();
+
+    private DataInputStream in;
+    private byte[] record = new byte[256];
+    private int position;
+    private int length;
+    private List<String> names = new ArrayList<String>();
+
+    /**
+     * @param in stream written by a {@link BinaryOutput}, closed with this reader
+     * @throws IOException if the stream cannot be read or was not written by a binary output
+     */
+    public BinaryOutputReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+        try {
+            byte[] magic = new byte[BinaryOutput.MAGIC.length];
+            this.in.readFully(magic);
+            for (int i = 0; i < magic.length; i++) {
+                if (magic[i] != BinaryOutput.MAGIC[i]) {
+                    throw new IOException("Not a binary shell output");
+                }
+            }
+            int version = this.in.readUnsignedByte();
+            if (version != BinaryOutput.VERSION) {
+                throw new IOException("Unsupported binary shell output version " + version);
+            }
+        } catch (IOException e) {
+            this.in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the next record. A record cut short ends the stream.
+     *
+     * @return the record, null at the end of the stream
+     * @throws IOException on read errors or corrupt records
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> read() throws IOException {
+        try {
+            int recordLength = (int) this.readLength();
+            if (recordLength > this.record.length) {
+                this.record = new byte[Math.max(recordLength, this.record.length * 2)];
+            }
+            this.in.readFully(this.record, 0, recordLength);
+            this.position = 0;
+            this.length = recordLength;
+        } catch (EOFException e) {
+            return null;
+        }
+        Object value = this.value();
+        if (!(value instanceof Map) || this.position != this.length) {
+            throw new IOException("Corrupt binary shell output, a record is not a single object");
+        }
+        return (Map<String, Object>) value;
+    }
+
+    public void close() throws IOException {
+        this.in.close();
+    }
+
+    private Object value() throws IOException {
+        int tag = this.nextByte();
+        switch (tag) {
+            case BinaryWriter.NULL:
+                return null;
+            case BinaryWriter.FALSE:
+                return Boolean.FALSE;
+            case BinaryWriter.TRUE:
+                return Boolean.TRUE;
+            case BinaryWriter.LONG:
+                long value = this.number();
+                return (value >>> 1) ^ -(value & 1);
+            case BinaryWriter.DOUBLE:
+                long bits = 0;
+                for (int i = 0; i < 8; i++) {
+                    bits = (bits << 8) | this.nextByte();
+                }
+                return Double.longBitsToDouble(bits);
+            case BinaryWriter.STRING:
+                return this.string();
+            case BinaryWriter.ARRAY:
+                List<Object> elements = new ArrayList<Object>();
+                for (Object element = this.value(); element != END; element = this.value()) {
+                    elements.add(element);
+                }
+                return elements;
+            case BinaryWriter.OBJECT:
+                Map<String, Object> members = new LinkedHashMap<String, Object>();
+                for (String name = this.name(); name != null; name = this.name()) {
+                    Object member = this.value();
+                    if (member == END) {
+                        throw new IOException("Corrupt binary shell output, member " + name + " has no value");
+                    }
+                    members.put(name, member);
+                }
+                return members;
+            case BinaryWriter.END:
+                return END;
+            default:
+                throw new IOException("Corrupt binary shell output, unknown tag " + tag);
+        }
+    }
+
+    /**
+     * @return the name of the next member, null at the end of the object
+     */
+    private String name() throws IOException {
+        int tag = this.nextByte();
+        if (tag == BinaryWriter.END) {
+            return null;
+        } else if (tag == BinaryWriter.NAME_REFERENCE) {
+            int number = (int) this.number();
+            if (number >= this.names.size()) {
+                throw new IOException("Corrupt binary shell output, unknown name " + number);
+            }
+            return this.names.get(number);
+        } else if (tag == BinaryWriter.NAME) {
+            String name = this.string();
+            if (this.names.size() < BinaryWriter.MAX_NAMES) {
+                this.names.add(name);
+            }
+            return name;
+        }
+        throw new IOException("Corrupt binary shell output, expected a name but got tag " + tag);
+    }
+
+    private String string() throws IOException {
+        int byteCount = (int) this.number();
+        if (byteCount > this.length - this.position) {
+            throw new IOException("Corrupt binary shell output, string exceeds its record");
+        }
+        String value = new String(this.record, this.position, byteCount, UTF8);
+        this.position += byteCount;
+        return value;
+    }
+
+    private long number() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = this.nextByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt binary shell output, number too long");
+    }
+
+    private int nextByte() throws IOException {
+        if (this.position >= this.length) {
+            throw new IOException("Corrupt binary shell output, record ends early");
+        }
+        return this.record[this.position++] & 0xff;
+    }
+
+    private long readLength() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = this.in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt binary shell output, record length too long");
+    }
+}
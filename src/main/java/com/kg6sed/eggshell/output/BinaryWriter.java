@@ -0,0 +1,258 @@
+package com.kg6sed.eggshell.output;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes values in a compact binary encoding into a reusable buffer, one record at a
+ * time. Every value starts with a tag byte: null, false, true, an integer (zigzag
+ * encoded), an 8 byte double, a string (UTF-8 with its length), the start of an array or
+ * object, or the end of one. Numbers are variable length, 7 bits per byte. Member names
+ * are numbered in the order they first appear in the stream, the name follows its first
+ * use and later uses only the number, up to {@link #MAX_NAMES} names.
+ * <p/>
+ * The names are shared by the records of one stream, so each stream needs a writer of
+ * its own and has to be read in order, see {@link BinaryOutputReader}.
+ */
+public class BinaryWriter extends ValueWriter {
+    /**
+     * Number of names remembered per stream, later names are written in full every time.
+     */
+    public static final int MAX_NAMES = 4096;
+
+    static final int NULL = 0;
+    static final int FALSE = 1;
+    static final int TRUE = 2;
+    static final int LONG = 3;
+    static final int DOUBLE = 4;
+    static final int STRING = 5;
+    static final int ARRAY = 6;
+    static final int OBJECT = 7;
+    static final int END = 8;
+    static final int NAME = 9;
+    static final int NAME_REFERENCE = 10;
+
+    private byte[] buffer = new byte[256];
+    private byte[] prefix = new byte[5];
+    private int length;
+    private Map<String, Integer> names = new HashMap<String, Integer>();
+    private List<String> nameOrder = new ArrayList<String>();
+    // names defined by records already written, the others are dropped with the record
+    private int writtenNames;
+
+    @Override
+    public BinaryWriter beginObject() {
+        this.append(OBJECT);
+        return this;
+    }
+
+    @Override
+    public BinaryWriter endObject() {
+        this.append(END);
+        return this;
+    }
+
+    @Override
+    public BinaryWriter beginArray() {
+        this.append(ARRAY);
+        return this;
+    }
+
+    @Override
+    public BinaryWriter endArray() {
+        this.append(END);
+        return this;
+    }
+
+    @Override
+    public BinaryWriter name(String name) {
+        Integer number = this.names.get(name);
+        if (number != null) {
+            this.append(NAME_REFERENCE);
+            this.number(number);
+            return this;
+        }
+        if (this.nameOrder.size() < MAX_NAMES) {
+            this.names.put(name, this.nameOrder.size());
+            this.nameOrder.add(name);
+        }
+        this.append(NAME);
+        this.string(name);
+        return this;
+    }
+
+    @Override
+    public BinaryWriter nullValue() {
+        this.append(NULL);
+        return this;
+    }
+
+    @Override
+    public BinaryWriter value(boolean value) {
+        this.append(value ? TRUE : FALSE);
+        return this;
+    }
+
+    @Override
+    public BinaryWriter value(long value) {
+        this.append(LONG);
+        this.number((value << 1) ^ (value >> 63));
+        return this;
+    }
+
+    @Override
+    public BinaryWriter value(double value) {
+        this.append(DOUBLE);
+        long bits = Double.doubleToLongBits(value);
+        this.ensure(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            this.buffer[this.length++] = (byte) (bits >>> shift);
+        }
+        return this;
+    }
+
+    @Override
+    public BinaryWriter value(CharSequence value) {
+        if (value == null) {
+            return this.nullValue();
+        }
+        this.append(STRING);
+        this.string(value);
+        return this;
+    }
+
+    /**
+     * Drops the record written since the last {@link #writeRecord(OutputStream)}, along
+     * with the names it introduced.
+     */
+    @Override
+    public void reset() {
+        super.reset();
+        this.length = 0;
+        while (this.nameOrder.size() > this.writtenNames) {
+            this.names.remove(this.nameOrder.remove(this.nameOrder.size() - 1));
+        }
+    }
+
+    /**
+     * Writes the current record preceded by its length in bytes and starts the next one.
+     *
+     * @param out destination
+     * @throws IOException on write errors
+     */
+    public void writeRecord(OutputStream out) throws IOException {
+        int recordLength = this.length;
+        byte[] prefix = this.prefix;
+        int prefixLength = 0;
+        for (int rest = recordLength; ; rest >>>= 7) {
+            if ((rest & ~0x7f) == 0) {
+                prefix[prefixLength++] = (byte) rest;
+                break;
+            }
+            prefix[prefixLength++] = (byte) ((rest & 0x7f) | 0x80);
+        }
+        out.write(prefix, 0, prefixLength);
+        out.write(this.buffer, 0, recordLength);
+        this.length = 0;
+        this.writtenNames = this.nameOrder.size();
+    }
+
+    /**
+     * @return size of the current record in bytes
+     */
+    public int size() {
+        return this.length;
+    }
+
+    private void string(CharSequence value) {
+        int valueLength = value.length();
+        int bytes = 0;
+        for (int i = 0; i < valueLength; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < valueLength && Character.isLowSurrogate(value.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        this.number(bytes);
+        this.ensure(bytes);
+        byte[] buffer = this.buffer;
+        int position = this.length;
+        for (int i = 0; i < valueLength; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xc0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < valueLength && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[position++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else {
+                // unpaired surrogates become the replacement character, as with String.getBytes
+                if (Character.isSurrogate(c)) {
+                    c = '\ufffd';
+                }
+                buffer[position++] = (byte) (0xe0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[position++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        this.length = position;
+    }
+
+    private void number(long value) {
+        this.ensure(10);
+        while ((value & ~0x7fL) != 0) {
+            this.buffer[this.length++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        this.buffer[this.length++] = (byte) value;
+    }
+
+    private void append(int tag) {
+        if (this.length == this.buffer.length) {
+            this.ensure(1);
+        }
+        this.buffer[this.length++] = (byte) tag;
+    }
+
+    private void ensure(int count) {
+        if (this.length + count > this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.length + count));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.kg6sed.eggshell.output;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.io.ShellIO;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes the records of {@link StructuredOutput} as JSON Lines: one JSON object per line.
+ */
+public class JsonLinesOutput extends StructuredOutput {
+    private JsonWriter writer = new JsonWriter();
+    private Writer out;
+    private ShellIO io;
+
+    /**
+     * @param out destination, closed with this output
+     */
+    public JsonLinesOutput(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Writes the records to a shell I/O, for example the connection of a server session,
+     * which is not closed with this output.
+     *
+     * @param io destination
+     */
+    public JsonLinesOutput(ShellIO io) {
+        this.io = io;
+    }
+
+    @Override
+    protected ValueWriter getWriter() {
+        return this.writer;
+    }
+
+    @Override
+    protected void writeRecord() throws IOException {
+        if (this.io != null) {
+            this.io.println(this.writer);
+        } else {
+            this.writer.writeTo(this.out);
+            this.out.write('\n');
+        }
+    }
+
+    public synchronized void flush() throws IOException {
+        if (this.io != null) {
+            this.io.flush();
+        } else {
+            this.out.flush();
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        if (this.io != null) {
+            this.io.flush();
+        } else {
+            this.out.close();
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.kg6sed.eggshell.output;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Writes JSON into a reusable character buffer, without whitespace. The buffer is itself
+ * the {@link CharSequence} of the JSON written since the last {@link #reset()}, so it can
+ * be handed to an output without copying. Doubles that are not finite are written as the
+ * strings <code>"NaN"</code>, <code>"Infinity"</code> and <code>"-Infinity"</code>.
+ */
+public class JsonWriter extends ValueWriter implements CharSequence {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    // valid in JSON, but line breaks to JavaScript and some line based readers
+    private static final char LINE_SEPARATOR = 0x2028;
+    private static final char PARAGRAPH_SEPARATOR = 0x2029;
+
+    private char[] buffer = new char[256];
+    private int length;
+    // set after a complete value, a following name or value is preceded by a comma
+    private boolean separate;
+
+    @Override
+    public JsonWriter beginObject() {
+        this.separator();
+        this.append('{');
+        this.separate = false;
+        return this;
+    }
+
+    @Override
+    public JsonWriter endObject() {
+        this.append('}');
+        this.separate = true;
+        return this;
+    }
+
+    @Override
+    public JsonWriter beginArray() {
+        this.separator();
+        this.append('[');
+        this.separate = false;
+        return this;
+    }
+
+    @Override
+    public JsonWriter endArray() {
+        this.append(']');
+        this.separate = true;
+        return this;
+    }
+
+    @Override
+    public JsonWriter name(String name) {
+        this.separator();
+        this.string(name);
+        this.append(':');
+        this.separate = false;
+        return this;
+    }
+
+    @Override
+    public JsonWriter nullValue() {
+        this.separator();
+        this.append("null");
+        this.separate = true;
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(boolean value) {
+        this.separator();
+        this.append(value ? "true" : "false");
+        this.separate = true;
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(long value) {
+        this.separator();
+        if (value == Long.MIN_VALUE) {
+            this.append("-9223372036854775808");
+        } else {
+            if (value < 0) {
+                this.append('-');
+                value = -value;
+            }
+            // digits are written backwards into the space they need
+            int digits = 1;
+            for (long rest = value / 10; rest > 0; rest /= 10) {
+                digits++;
+            }
+            this.ensure(digits);
+            for (int i = this.length + digits - 1; i >= this.length; i--) {
+                this.buffer[i] = (char) ('0' + value % 10);
+                value /= 10;
+            }
+            this.length += digits;
+        }
+        this.separate = true;
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return this.value(Double.toString(value));
+        }
+        if (value == (long) value && Math.abs(value) < 1e15) {
+            return this.value((long) value);
+        }
+        this.separator();
+        this.append(Double.toString(value));
+        this.separate = true;
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(CharSequence value) {
+        if (value == null) {
+            return this.nullValue();
+        }
+        this.separator();
+        this.string(value);
+        this.separate = true;
+        return this;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        this.length = 0;
+        this.separate = false;
+    }
+
+    /**
+     * Writes the JSON written since the last reset.
+     *
+     * @param out destination
+     * @throws IOException on write errors
+     */
+    public void writeTo(Writer out) throws IOException {
+        out.write(this.buffer, 0, this.length);
+    }
+
+    public int length() {
+        return this.length;
+    }
+
+    public char charAt(int index) {
+        if (index >= this.length) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        return this.buffer[index];
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        return this.toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return new String(this.buffer, 0, this.length);
+    }
+
+    private void string(CharSequence value) {
+        int valueLength = value.length();
+        // most strings need no escapes, room for the rest is made as escapes are written
+        this.ensure(valueLength + 2);
+        char[] buffer = this.buffer;
+        int position = this.length;
+        buffer[position++] = '"';
+        for (int i = 0; i < valueLength; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != LINE_SEPARATOR && c != PARAGRAPH_SEPARATOR) {
+                buffer[position++] = c;
+                continue;
+            }
+            this.length = position;
+            if (c == '"' || c == '\\') {
+                this.append('\\');
+                this.append(c);
+            } else if (c == '\n') {
+                this.append("\\n");
+            } else if (c == '\r') {
+                this.append("\\r");
+            } else if (c == '\t') {
+                this.append("\\t");
+            } else {
+                this.append("\\u");
+                this.append(HEX[c >> 12]);
+                this.append(HEX[(c >> 8) & 0xf]);
+                this.append(HEX[(c >> 4) & 0xf]);
+                this.append(HEX[c & 0xf]);
+            }
+            this.ensure(valueLength - i + 1);
+            buffer = this.buffer;
+            position = this.length;
+        }
+        buffer[position++] = '"';
+        this.length = position;
+    }
+
+    private void separator() {
+        if (this.separate) {
+            this.append(',');
+        }
+    }
+
+    private void append(char c) {
+        if (this.length == this.buffer.length) {
+            this.ensure(1);
+        }
+        this.buffer[this.length++] = c;
+    }
+
+    private void append(String text) {
+        int textLength = text.length();
+        this.ensure(textLength);
+        text.getChars(0, textLength, this.buffer, this.length);
+        this.length += textLength;
+    }
+
+    private void ensure(int count) {
+        if (this.length + count > this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.length + count));
+        }
+    }
+}
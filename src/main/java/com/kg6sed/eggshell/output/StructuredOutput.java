@@ -0,0 +1,230 @@
+package com.kg6sed.eggshell.output;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.CommandOutcome;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Output of a shell as a stream of typed records for programs rather than people, see
+ * {@link com.kg6sed.eggshell.AbstractShell#setStructuredOutput(StructuredOutput)}. Every
+ * record is an object with a <code>type</code> member:
+ * <ul>
+ * <li><code>result</code>: a value returned by <code>command</code>, one record per
+ * element of iterators, streams and tables, in <code>value</code></li>
+ * <li><code>text</code>: a line the shell or a command printed, in <code>text</code></li>
+ * <li><code>error</code>: a failed command line with its <code>outcome</code> and
+ * <code>message</code>, the <code>usage</code> of the command and <code>suggestions</code>
+ * where there are any, and for exceptions the <code>exception</code> class, its
+ * <code>stack</code> and <code>causes</code></li>
+ * <li><code>end</code>: the end of a command line, with its <code>outcome</code> and
+ * the time it took in <code>nanos</code></li>
+ * </ul>
+ * Records of commands run for a target carry its name in <code>target</code>. Members
+ * without a value are left out. Records are written whole, also from background jobs.
+ */
+public abstract class StructuredOutput implements Flushable, Closeable {
+    private static final String[] OUTCOMES;
+
+    static {
+        CommandOutcome[] outcomes = CommandOutcome.values();
+        OUTCOMES = new String[outcomes.length];
+        for (int i = 0; i < outcomes.length; i++) {
+            OUTCOMES[i] = outcomes[i].name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * @return the writer records are serialized with, reset before every record
+     */
+    protected abstract ValueWriter getWriter();
+
+    /**
+     * Writes out the record just serialized with the writer.
+     *
+     * @throws IOException on write errors
+     */
+    protected abstract void writeRecord() throws IOException;
+
+    /**
+     * @param command name of the command that returned the value
+     * @param target  target the command ran for, or null
+     * @param value   the value, or one element of it
+     * @throws IOException on write errors
+     */
+    public synchronized void result(String command, String target, Object value) throws IOException {
+        ValueWriter writer = this.begin("result");
+        try {
+            this.member("command", command);
+            this.member("target", target);
+            writer.name("value").value(value);
+        } catch (RuntimeException e) {
+            // a value failing half way leaves nothing behind
+            writer.reset();
+            throw e;
+        }
+        this.finish();
+    }
+
+    /**
+     * Writes a row of a table a command returned, as an object keyed by the headers or as
+     * an array of its cells if the table has no headers.
+     *
+     * @param command name of the command that returned the table
+     * @param target  target the command ran for, or null
+     * @param headers column headers of the table
+     * @param row     the row
+     * @throws IOException on write errors
+     */
+    public synchronized void row(String command, String target, String[] headers, Object row) throws IOException {
+        ValueWriter writer = this.begin("result");
+        try {
+            this.member("command", command);
+            this.member("target", target);
+            writer.name("value").row(headers, row);
+        } catch (RuntimeException e) {
+            writer.reset();
+            throw e;
+        }
+        this.finish();
+    }
+
+    /**
+     * @param target target a command printed the line for, or null
+     * @param text   the line
+     * @throws IOException on write errors
+     */
+    public synchronized void text(String target, CharSequence text) throws IOException {
+        this.begin("text");
+        this.member("target", target);
+        this.member("text", text);
+        this.finish();
+    }
+
+    /**
+     * Writes the error of a command line that could not be run, or of a command that failed
+     * without an exception.
+     *
+     * @param command     name of the command, null if it is unknown
+     * @param target      target the command ran for, or null
+     * @param outcome     kind of error
+     * @param message     description for people
+     * @param usage       usage line of the command, or null
+     * @param suggestions commands or values that may have been meant, or null
+     * @throws IOException on write errors
+     */
+    public synchronized void error(String command, String target, CommandOutcome outcome, String message,
+                                   String usage, List<String> suggestions) throws IOException {
+        ValueWriter writer = this.begin("error");
+        this.member("command", command);
+        this.member("target", target);
+        this.member("outcome", OUTCOMES[outcome.ordinal()]);
+        this.member("message", message);
+        this.member("usage", usage);
+        if (suggestions != null && !suggestions.isEmpty()) {
+            writer.name("suggestions").beginArray();
+            for (String suggestion : suggestions) {
+                writer.value(suggestion);
+            }
+            writer.endArray();
+        }
+        this.finish();
+    }
+
+    /**
+     * Writes the exception a command failed with. Wrappers added by reflection, proxies
+     * and futures are removed first.
+     *
+     * @param command name of the command
+     * @param target  target the command ran for, or null
+     * @param failure the exception
+     * @throws IOException on write errors
+     */
+    public synchronized void failure(String command, String target, Throwable failure) throws IOException {
+        failure = unwrap(failure);
+        ValueWriter writer = this.begin("error");
+        this.member("command", command);
+        this.member("target", target);
+        this.member("outcome", OUTCOMES[CommandOutcome.FAILURE.ordinal()]);
+        this.member("message", failure.getMessage() == null ? failure.toString() : failure.getMessage());
+        this.member("exception", failure.getClass().getName());
+        writer.name("stack").beginArray();
+        for (StackTraceElement element : failure.getStackTrace()) {
+            writer.value(element.toString());
+        }
+        writer.endArray();
+        if (failure.getCause() != null) {
+            writer.name("causes").beginArray();
+            for (Throwable cause = failure.getCause(); cause != null && cause != cause.getCause(); cause = cause.getCause()) {
+                writer.value(cause.toString());
+            }
+            writer.endArray();
+        }
+        this.finish();
+    }
+
+    /**
+     * @param command name of the command, null if it is unknown
+     * @param outcome what happened
+     * @param nanos   time the command line took
+     * @throws IOException on write errors
+     */
+    public synchronized void end(String command, CommandOutcome outcome, long nanos) throws IOException {
+        ValueWriter writer = this.begin("end");
+        this.member("command", command);
+        this.member("outcome", OUTCOMES[outcome.ordinal()]);
+        writer.name("nanos").value(nanos);
+        this.finish();
+    }
+
+    static Throwable unwrap(Throwable failure) {
+        while ((failure instanceof InvocationTargetException || failure instanceof UndeclaredThrowableException
+                || failure instanceof ExecutionException) && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        return failure;
+    }
+
+    private ValueWriter begin(String type) {
+        ValueWriter writer = this.getWriter();
+        writer.reset();
+        writer.beginObject().name("type").value(type);
+        return writer;
+    }
+
+    private void member(String name, CharSequence value) {
+        if (value != null) {
+            this.getWriter().name(name).value(value);
+        }
+    }
+
+    private void finish() throws IOException {
+        this.getWriter().endObject();
+        this.writeRecord();
+    }
+}
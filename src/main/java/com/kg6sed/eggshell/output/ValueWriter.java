@@ -0,0 +1,180 @@
+package com.kg6sed.eggshell.output;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.table.Table;
+
+import java.lang.reflect.Array;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.stream.BaseStream;
+
+/**
+ * Serializes values in one encoding into a buffer that is reused from value to value, so
+ * writing a record allocates next to nothing. Objects are written as a sequence of
+ * {@link #name(String)} and value calls between {@link #beginObject()} and
+ * {@link #endObject()}. Writers are not thread safe.
+ */
+public abstract class ValueWriter {
+    private static final int MAX_DEPTH = 64;
+
+    private int depth;
+
+    public abstract ValueWriter beginObject();
+
+    public abstract ValueWriter endObject();
+
+    public abstract ValueWriter beginArray();
+
+    public abstract ValueWriter endArray();
+
+    /**
+     * Writes the name of the next object member.
+     *
+     * @param name member name
+     * @return this writer
+     */
+    public abstract ValueWriter name(String name);
+
+    public abstract ValueWriter nullValue();
+
+    public abstract ValueWriter value(boolean value);
+
+    public abstract ValueWriter value(long value);
+
+    public abstract ValueWriter value(double value);
+
+    public abstract ValueWriter value(CharSequence value);
+
+    /**
+     * Drops everything written so far, for example the rest of a record that failed.
+     */
+    public void reset() {
+        this.depth = 0;
+    }
+
+    /**
+     * Writes any value: {@link OutputValue}s write themselves, maps become objects,
+     * iterables, iterators, streams, arrays and tables become arrays, with the rows of a
+     * table with headers as objects. Numbers, booleans and strings are written as such,
+     * enums by name and everything else as its <code>toString()</code>.
+     *
+     * @param value value to write, may be null
+     * @return this writer
+     * @throws IllegalArgumentException if the value is nested too deeply, as cyclic values are
+     */
+    public ValueWriter value(Object value) {
+        if (value == null) {
+            return this.nullValue();
+        } else if (value instanceof CharSequence) {
+            return this.value((CharSequence) value);
+        } else if (value instanceof Boolean) {
+            return this.value(((Boolean) value).booleanValue());
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return this.value(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            return this.value(((Number) value).doubleValue());
+        } else if (value instanceof Enum) {
+            return this.value(((Enum<?>) value).name());
+        }
+
+        if (++this.depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("Value nested deeper than " + MAX_DEPTH + " levels, is it cyclic?");
+        }
+        try {
+            if (value instanceof OutputValue) {
+                ((OutputValue) value).writeTo(this);
+            } else if (value instanceof Map) {
+                this.beginObject();
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                    this.name(String.valueOf(entry.getKey()));
+                    this.value(entry.getValue());
+                }
+                this.endObject();
+            } else if (value instanceof Table) {
+                Table table = (Table) value;
+                this.beginArray();
+                for (Iterator<?> rows = table.getRows(); rows.hasNext(); ) {
+                    this.row(table.getHeaders(), rows.next());
+                }
+                this.endArray();
+            } else if (value instanceof Iterable) {
+                this.elements(((Iterable<?>) value).iterator());
+            } else if (value instanceof Iterator) {
+                this.elements((Iterator<?>) value);
+            } else if (value instanceof BaseStream) {
+                this.elements(((BaseStream<?, ?>) value).iterator());
+            } else if (value.getClass().isArray()) {
+                this.beginArray();
+                for (int i = 0, length = Array.getLength(value); i < length; i++) {
+                    this.value(Array.get(value, i));
+                }
+                this.endArray();
+            } else {
+                this.value(value.toString());
+            }
+        } finally {
+            this.depth--;
+        }
+        return this;
+    }
+
+    /**
+     * Writes a row of a table: an object keyed by the headers, or an array of the cells if
+     * the table has no headers. A row is an <code>Object[]</code>, an iterable of cells or
+     * a single cell.
+     *
+     * @param headers column headers
+     * @param row     the row
+     * @return this writer
+     */
+    public ValueWriter row(String[] headers, Object row) {
+        if (headers.length == 0) {
+            if (row instanceof Object[] || row instanceof Iterable) {
+                return this.value(row);
+            }
+            return this.beginArray().value(row).endArray();
+        }
+        this.beginObject();
+        if (row instanceof Object[]) {
+            Object[] values = (Object[]) row;
+            for (int i = 0; i < values.length; i++) {
+                this.name(i < headers.length ? headers[i] : String.valueOf(i)).value(values[i]);
+            }
+        } else if (row instanceof Iterable) {
+            int i = 0;
+            for (Object cell : (Iterable<?>) row) {
+                this.name(i < headers.length ? headers[i] : String.valueOf(i)).value(cell);
+                i++;
+            }
+        } else {
+            this.name(headers[0]).value(row);
+        }
+        return this.endObject();
+    }
+
+    private void elements(Iterator<?> elements) {
+        this.beginArray();
+        while (elements.hasNext()) {
+            this.value(elements.next());
+        }
+        this.endArray();
+    }
+}
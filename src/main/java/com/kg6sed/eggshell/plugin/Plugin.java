@@ -0,0 +1,271 @@
+package com.kg6sed.eggshell.plugin;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.AbstractShell;
+import com.kg6sed.eggshell.CommandProvider;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * Command providers loaded from a jar, each load in its own class loader. The jar is
+ * copied before loading, so it can be replaced while loaded; when watched, a changed jar
+ * is loaded again and its providers replace the previous ones in one step. A jar that
+ * fails to load leaves the previous providers in place, and reload failures are passed to
+ * the {@link PluginListener}.
+ */
+public class Plugin implements Closeable {
+    private static final long QUIET_MILLIS = 500;
+
+    private AbstractShell shell;
+    private Path jar;
+    private URLClassLoader loader;
+    private Path copy;
+    private List<CommandProvider> providers = Collections.emptyList();
+    private WatchService watchService;
+    private Thread watcher;
+    private volatile PluginListener listener;
+
+    public Plugin(AbstractShell shell, Path jar) {
+        this.shell = shell;
+        this.jar = jar.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Sets the listener told about reloads of a watched plugin.
+     *
+     * @param listener listener, null for none
+     */
+    public void setListener(PluginListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Loads the providers of the jar, replacing those of an earlier load. When the jar
+     * cannot be loaded the providers of the earlier load stay registered.
+     *
+     * @throws IOException if the jar cannot be read, a provider cannot be created or its
+     *                     commands cannot be registered
+     */
+    public synchronized void load() throws IOException {
+        Path copy = Files.createTempFile("eggshell-plugin", ".jar");
+        URLClassLoader loader = null;
+        try {
+            Files.copy(this.jar, copy, StandardCopyOption.REPLACE_EXISTING);
+            loader = new URLClassLoader(new URL[]{copy.toUri().toURL()}, this.shell.getClass().getClassLoader());
+            List<CommandProvider> providers = new ArrayList<CommandProvider>();
+            for (CommandProvider provider : ServiceLoader.load(CommandProvider.class, loader)) {
+                // the loader also finds the providers of its parents, which are not part of the plugin
+                if (provider.getClass().getClassLoader() == loader) {
+                    providers.add(provider);
+                }
+            }
+            this.shell.replaceCommands(this.providers, providers);
+            this.providers = providers;
+        } catch (IOException e) {
+            discard(loader, copy);
+            throw e;
+        } catch (ServiceConfigurationError e) {
+            discard(loader, copy);
+            throw new IOException("Cannot load plugin " + this.jar + ": " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            // e.g. a command with an unsupported parameter
+            discard(loader, copy);
+            throw new IOException("Cannot load plugin " + this.jar + ": " + e.getMessage(), e);
+        } catch (LinkageError e) {
+            // classes of the jar that do not fit those of the shell
+            discard(loader, copy);
+            throw new IOException("Cannot load plugin " + this.jar + ": " + e, e);
+        }
+        URLClassLoader previous = this.loader;
+        Path previousCopy = this.copy;
+        this.loader = loader;
+        this.copy = copy;
+        if (previous != null) {
+            discard(previous, previousCopy);
+        }
+    }
+
+    private static void discard(URLClassLoader loader, Path copy) throws IOException {
+        try {
+            if (loader != null) {
+                loader.close();
+            }
+        } finally {
+            Files.deleteIfExists(copy);
+        }
+    }
+
+    private void release() throws IOException {
+        if (this.loader != null) {
+            this.loader.close();
+            Files.deleteIfExists(this.copy);
+            this.loader = null;
+        }
+    }
+
+    /**
+     * Reloads the plugin whenever its jar is written, once the jar has not changed for
+     * half a second.
+     *
+     * @throws IOException if the directory of the jar cannot be watched
+     */
+    public synchronized void watch() throws IOException {
+        if (this.watcher != null) {
+            return;
+        }
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.jar.getParent().register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        this.watcher = new Thread(new Runnable() {
+            public void run() {
+                watchJar();
+            }
+        }, "eggshell-plugin-" + this.jar.getFileName());
+        this.watcher.setDaemon(true);
+        this.watcher.start();
+    }
+
+    private void watchJar() {
+        try {
+            while (true) {
+                WatchKey key = this.watchService.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    changed |= this.jar.getFileName().equals(event.context());
+                }
+                key.reset();
+                if (changed) {
+                    this.awaitQuiet();
+                    this.reload();
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } catch (ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    private void reload() {
+        PluginListener listener = this.listener;
+        try {
+            this.load();
+        } catch (Exception e) {
+            // the watcher keeps running, the next change of the jar may fix it
+            if (listener != null) {
+                try {
+                    listener.reloadFailed(this, e);
+                } catch (RuntimeException e1) {
+                    e1.addSuppressed(e);
+                    uncaught(e1);
+                }
+            }
+            return;
+        }
+        if (listener != null) {
+            try {
+                listener.reloaded(this);
+            } catch (RuntimeException e) {
+                uncaught(e);
+            }
+        }
+    }
+
+    /**
+     * Passes a failure of the listener to the handler of the watcher thread, which prints
+     * it by default; the watcher keeps running.
+     */
+    private static void uncaught(RuntimeException e) {
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    }
+
+    /**
+     * Waits until the jar is no longer being written.
+     */
+    private void awaitQuiet() throws InterruptedException {
+        long modified = -1;
+        while (true) {
+            Thread.sleep(QUIET_MILLIS);
+            long current;
+            try {
+                current = Files.getLastModifiedTime(this.jar).toMillis() ^ Files.size(this.jar);
+            } catch (IOException e) {
+                // being replaced
+                continue;
+            }
+            if (current == modified) {
+                return;
+            }
+            modified = current;
+        }
+    }
+
+    /**
+     * @return providers of the current load
+     */
+    public synchronized List<CommandProvider> getProviders() {
+        return this.providers;
+    }
+
+    public Path getJar() {
+        return this.jar;
+    }
+
+    /**
+     * Stops watching the jar and unregisters the plugin's commands.
+     */
+    public void close() throws IOException {
+        Thread watcher;
+        synchronized (this) {
+            watcher = this.watcher;
+            this.watcher = null;
+            if (this.watchService != null) {
+                this.watchService.close();
+            }
+        }
+        if (watcher != null) {
+            watcher.interrupt();
+        }
+        synchronized (this) {
+            this.shell.replaceCommands(this.providers, Collections.<CommandProvider>emptyList());
+            this.providers = Collections.emptyList();
+            this.release();
+        }
+    }
+}
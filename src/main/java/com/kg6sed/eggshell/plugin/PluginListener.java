@@ -0,0 +1,39 @@
+package com.kg6sed.eggshell.plugin;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+/**
+ * Notified when a watched {@link Plugin} has been reloaded, or failed to reload. Exceptions
+ * thrown by the listener go to the uncaught exception handler of the watcher thread.
+ */
+public interface PluginListener {
+    /**
+     * @param plugin plugin whose providers were replaced by those of the changed jar
+     */
+    void reloaded(Plugin plugin);
+
+    /**
+     * Called when the changed jar could not be loaded; the previous providers stay registered.
+     *
+     * @param plugin plugin that failed to reload
+     * @param e      why the jar could not be loaded
+     */
+    void reloadFailed(Plugin plugin, Exception e);
+}
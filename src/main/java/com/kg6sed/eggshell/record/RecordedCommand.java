@@ -0,0 +1,88 @@
+package com.kg6sed.eggshell.record;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.CommandOutcome;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One command line read back from a {@link SessionRecording}.
+ */
+public class RecordedCommand {
+    private int session;
+    private long offsetNanos;
+    private String line;
+    private String commandName;
+    private CommandOutcome outcome;
+    private long latencyNanos;
+
+    public RecordedCommand(int session, long offsetNanos, String line, String commandName, CommandOutcome outcome,
+                           long latencyNanos) {
+        this.session = session;
+        this.offsetNanos = offsetNanos;
+        this.line = line;
+        this.commandName = commandName;
+        this.outcome = outcome;
+        this.latencyNanos = latencyNanos;
+    }
+
+    /**
+     * @return number of the recorded shell, unique within the recording
+     */
+    public int getSession() {
+        return this.session;
+    }
+
+    /**
+     * @return time the line arrived, in nanoseconds since the recording started
+     */
+    public long getOffsetNanos() {
+        return this.offsetNanos;
+    }
+
+    public String getLine() {
+        return this.line;
+    }
+
+    /**
+     * @return name of the command the line resolved to, null if it did not resolve to one
+     */
+    public String getCommandName() {
+        return this.commandName;
+    }
+
+    public CommandOutcome getOutcome() {
+        return this.outcome;
+    }
+
+    /**
+     * @return time from the line arriving until the command returned
+     */
+    public long getLatencyNanos() {
+        return this.latencyNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[%d] +%d ms %s -> %s in %d us", this.session, TimeUnit.NANOSECONDS.toMillis(this.offsetNanos),
+                this.line, this.outcome, TimeUnit.NANOSECONDS.toMicros(this.latencyNanos));
+    }
+}
@@ -0,0 +1,121 @@
+package com.kg6sed.eggshell.record;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.stats.LatencyHistogram;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Result of a {@link SessionReplay}, with the latencies of the replayed commands next to
+ * those that were recorded.
+ */
+public class ReplayReport {
+    private int shellCount;
+    private long commandCount;
+    private long failureCount;
+    private long recordedFailureCount;
+    private long elapsedNanos;
+    private LatencyHistogram latencies;
+    private LatencyHistogram recordedLatencies;
+
+    public ReplayReport(int shellCount, long commandCount, long failureCount, long recordedFailureCount,
+                        long elapsedNanos, LatencyHistogram latencies, LatencyHistogram recordedLatencies) {
+        this.shellCount = shellCount;
+        this.commandCount = commandCount;
+        this.failureCount = failureCount;
+        this.recordedFailureCount = recordedFailureCount;
+        this.elapsedNanos = elapsedNanos;
+        this.latencies = latencies;
+        this.recordedLatencies = recordedLatencies;
+    }
+
+    /**
+     * @return number of shells the sessions were replayed on
+     */
+    public int getShellCount() {
+        return this.shellCount;
+    }
+
+    /**
+     * @return number of command lines dispatched, not counting empty lines and comments
+     */
+    public long getCommandCount() {
+        return this.commandCount;
+    }
+
+    /**
+     * @return number of commands that were unknown, had bad arguments or threw an exception
+     */
+    public long getFailureCount() {
+        return this.failureCount;
+    }
+
+    /**
+     * @return number of failures the replayed commands had when they were recorded, once per copy
+     */
+    public long getRecordedFailureCount() {
+        return this.recordedFailureCount;
+    }
+
+    public long getElapsedNanos() {
+        return this.elapsedNanos;
+    }
+
+    /**
+     * @return commands per second over the whole replay
+     */
+    public double getThroughput() {
+        return this.elapsedNanos == 0 ? 0 : this.commandCount / (this.elapsedNanos / 1e9);
+    }
+
+    /**
+     * @return latencies of the replayed commands, see {@link SessionReplay} for how they are measured
+     */
+    public LatencyHistogram getLatencies() {
+        return this.latencies;
+    }
+
+    /**
+     * @return latencies of the commands when they were recorded
+     */
+    public LatencyHistogram getRecordedLatencies() {
+        return this.recordedLatencies;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d commands on %d shells in %d ms: %.0f commands/s, %d failures (%d recorded)%n"
+                        + "latency   %s%nrecorded  %s", this.commandCount, this.shellCount,
+                TimeUnit.NANOSECONDS.toMillis(this.elapsedNanos), this.getThroughput(), this.failureCount,
+                this.recordedFailureCount, percentiles(this.latencies), percentiles(this.recordedLatencies));
+    }
+
+    private static String percentiles(LatencyHistogram histogram) {
+        return String.format("p50 %d us, p90 %d us, p99 %d us, p99.9 %d us, max %d us",
+                micros(histogram.getValueAtPercentile(50)), micros(histogram.getValueAtPercentile(90)),
+                micros(histogram.getValueAtPercentile(99)), micros(histogram.getValueAtPercentile(99.9)),
+                micros(histogram.getMax()));
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,272 @@
+package com.kg6sed.eggshell.record;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.AbstractShell;
+import com.kg6sed.eggshell.CommandOutcome;
+import com.kg6sed.eggshell.ShellCommand;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the command lines of one or more shells into a file that {@link SessionReplay}
+ * can play back, see {@link AbstractShell#setRecorder(SessionRecorder)}. Shells only put
+ * their commands on a queue, a background thread encodes and writes them in batches.
+ * When the queue is full commands are dropped and counted rather than slowing the shells
+ * down.
+ *
+ * @see SessionRecording for the file format
+ */
+public class SessionRecorder implements Closeable {
+    /**
+     * Default number of commands queued for writing.
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 64 * 1024;
+    private static final int BATCH_SIZE = 1024;
+    private static final Entry CLOSE = new Entry(0, 0, null, null, null, 0);
+
+    private Path file;
+    private OutputStream out;
+    private BlockingQueue<Entry> queue;
+    private Thread writer;
+    private long start = System.nanoTime();
+    private AtomicInteger sessions = new AtomicInteger();
+    private AtomicLong recorded = new AtomicLong();
+    private AtomicLong dropped = new AtomicLong();
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    // encoder state, only used by the writer thread
+    private byte[] scratch = new byte[10];
+    private long previous;
+    private Map<String, Integer> commandIds = new HashMap<String, Integer>();
+
+    /**
+     * @param file file to record into, replaced if it exists
+     * @throws IOException if the file cannot be created
+     */
+    public SessionRecorder(Path file) throws IOException {
+        this(file, DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * @param file      file to record into, replaced if it exists
+     * @param queueSize commands queued for writing before further commands are dropped
+     * @throws IOException if the file cannot be created
+     */
+    public SessionRecorder(Path file, int queueSize) throws IOException {
+        this.file = file;
+        this.queue = new ArrayBlockingQueue<Entry>(queueSize);
+        this.out = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024);
+        this.out.write(SessionRecording.MAGIC);
+        this.out.write(SessionRecording.VERSION);
+        long time = System.currentTimeMillis();
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            this.out.write((int) (time >>> shift));
+        }
+
+        this.writer = new Thread(new Runnable() {
+            public void run() {
+                write();
+            }
+        }, "session-recorder");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * @return a new session number, every shell recording into this recorder gets its own
+     */
+    public int newSession() {
+        return this.sessions.incrementAndGet();
+    }
+
+    /**
+     * Queues a dispatched command line for writing, never blocks.
+     *
+     * @param session      session number of the shell
+     * @param arrivalNanos {@link System#nanoTime()} when the line arrived
+     * @param line         the line
+     * @param command      command the line resolved to, null if none
+     * @param outcome      what happened
+     * @param latencyNanos time from the line arriving until the command returned
+     */
+    public void record(int session, long arrivalNanos, String line, ShellCommand command, CommandOutcome outcome,
+                       long latencyNanos) {
+        if (this.closed) {
+            return;
+        }
+        Entry entry = new Entry(session, arrivalNanos - this.start, line, command == null ? null : command.getName(),
+                outcome, latencyNanos);
+        if (this.queue.offer(entry)) {
+            this.recorded.incrementAndGet();
+        } else {
+            this.dropped.incrementAndGet();
+        }
+    }
+
+    public Path getFile() {
+        return this.file;
+    }
+
+    /**
+     * @return number of commands queued for writing so far
+     */
+    public long getRecordedCount() {
+        return this.recorded.get();
+    }
+
+    /**
+     * @return number of commands dropped because the queue was full or writing failed
+     */
+    public long getDroppedCount() {
+        return this.dropped.get();
+    }
+
+    /**
+     * Writes the queued commands and closes the file. Commands recorded afterwards are
+     * ignored.
+     *
+     * @throws IOException if writing failed at any point
+     */
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            while (this.writer.isAlive() && !this.queue.offer(CLOSE, 100, TimeUnit.MILLISECONDS)) {
+                // the writer is busy draining a full queue
+            }
+            this.writer.join();
+        } catch (InterruptedException e) {
+            this.writer.interrupt();
+            throw new InterruptedIOException("Interrupted while closing " + this.file);
+        } finally {
+            this.out.close();
+        }
+        if (this.failure != null) {
+            throw this.failure;
+        }
+    }
+
+    private void write() {
+        List<Entry> batch = new ArrayList<Entry>(BATCH_SIZE);
+        try {
+            while (true) {
+                batch.add(this.queue.take());
+                this.queue.drainTo(batch, BATCH_SIZE - 1);
+                for (Entry entry : batch) {
+                    if (entry == CLOSE) {
+                        this.out.flush();
+                        return;
+                    }
+                    this.write(entry);
+                }
+                batch.clear();
+                if (this.queue.isEmpty()) {
+                    this.out.flush();
+                }
+            }
+        } catch (InterruptedException e) {
+            // closing was interrupted, the file ends with the last complete record
+        } catch (IOException e) {
+            // close() throws the failure, until then further commands are dropped
+            this.failure = e;
+            this.closed = true;
+            this.dropped.addAndGet(this.queue.size());
+            this.queue.clear();
+        }
+    }
+
+    private void write(Entry entry) throws IOException {
+        this.writeNumber(entry.session);
+        long delta = entry.offset - this.previous;
+        this.writeNumber((delta << 1) ^ (delta >> 63));
+        this.previous = entry.offset;
+
+        if (entry.command == null) {
+            this.writeNumber(0);
+        } else {
+            Integer id = this.commandIds.get(entry.command);
+            if (id == null) {
+                id = this.commandIds.size() + 1;
+                this.commandIds.put(entry.command, id);
+                this.writeNumber(id);
+                this.writeString(entry.command);
+            } else {
+                this.writeNumber(id);
+            }
+        }
+
+        this.out.write(entry.outcome.ordinal());
+        this.writeNumber(entry.latency);
+        this.writeString(entry.line);
+    }
+
+    private void writeNumber(long value) throws IOException {
+        int length = 0;
+        while ((value & ~0x7fL) != 0) {
+            this.scratch[length++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        this.scratch[length++] = (byte) value;
+        this.out.write(this.scratch, 0, length);
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(SessionRecording.UTF8);
+        this.writeNumber(bytes.length);
+        this.out.write(bytes);
+    }
+
+    private static final class Entry {
+        final int session;
+        final long offset;
+        final String line;
+        final String command;
+        final CommandOutcome outcome;
+        final long latency;
+
+        Entry(int session, long offset, String line, String command, CommandOutcome outcome, long latency) {
+            this.session = session;
+            this.offset = offset;
+            this.line = line;
+            this.command = command;
+            this.outcome = outcome;
+            this.latency = latency;
+        }
+    }
+}
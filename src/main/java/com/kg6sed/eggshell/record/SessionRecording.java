@@ -0,0 +1,176 @@
+package com.kg6sed.eggshell.record;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.CommandOutcome;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a file written by {@link SessionRecorder}.
+ * <p/>
+ * The file starts with the bytes <code>EGSR</code>, a version byte and the wall clock time
+ * the recording started in milliseconds. Every record then holds the session number, the
+ * nanoseconds since the previous record (zigzag encoded, records of concurrent sessions
+ * may be written slightly out of order), the command, the outcome ordinal, the latency in
+ * nanoseconds and the line in UTF-8. Numbers are variable length, 7 bits per byte. Commands
+ * are numbered in the order they first appear, with the name following the first use of a
+ * number and 0 standing for no command.
+ */
+public class SessionRecording implements Closeable {
+    static final byte[] MAGIC = {'E', 'G', 'S', 'R'};
+    static final int VERSION = 1;
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final CommandOutcome[] OUTCOMES = CommandOutcome.values();
+
+    private DataInputStream in;
+    private long startTime;
+    private long offset;
+    private List<String> commandNames = new ArrayList<String>();
+
+    /**
+     * @param file recording to read
+     * @throws IOException if the file cannot be read or is not a recording
+     */
+    public SessionRecording(Path file) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024));
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            this.in.readFully(magic);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (magic[i] != MAGIC[i]) {
+                    throw new IOException(file + " is not a session recording");
+                }
+            }
+            int version = this.in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported session recording version " + version);
+            }
+            this.startTime = this.in.readLong();
+        } catch (IOException e) {
+            this.in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads all commands of a recording.
+     *
+     * @param file recording to read
+     * @return the commands in the order they were recorded
+     * @throws IOException if the file cannot be read
+     */
+    public static List<RecordedCommand> readAll(Path file) throws IOException {
+        SessionRecording recording = new SessionRecording(file);
+        try {
+            List<RecordedCommand> commands = new ArrayList<RecordedCommand>();
+            for (RecordedCommand command = recording.read(); command != null; command = recording.read()) {
+                commands.add(command);
+            }
+            return commands;
+        } finally {
+            recording.close();
+        }
+    }
+
+    /**
+     * @return wall clock time the recording started, in milliseconds since the epoch
+     */
+    public long getStartTime() {
+        return this.startTime;
+    }
+
+    /**
+     * Reads the next command.
+     *
+     * @return the command, null at the end of the recording
+     * @throws IOException on read errors or corrupt records, including a last record cut
+     *                     short by a process that died while recording
+     */
+    public RecordedCommand read() throws IOException {
+        int first = this.in.read();
+        if (first < 0) {
+            return null;
+        }
+        try {
+            int session = (int) this.readNumber(first);
+            long delta = this.readNumber();
+            this.offset += (delta >>> 1) ^ -(delta & 1);
+
+            int id = (int) this.readNumber();
+            if (id == this.commandNames.size() + 1) {
+                this.commandNames.add(this.readString());
+            } else if (id > this.commandNames.size()) {
+                throw new IOException("Corrupt session recording, unknown command " + id);
+            }
+            String commandName = id == 0 ? null : this.commandNames.get(id - 1);
+
+            int outcome = this.in.readUnsignedByte();
+            if (outcome >= OUTCOMES.length) {
+                throw new IOException("Corrupt session recording, unknown outcome " + outcome);
+            }
+            long latency = this.readNumber();
+            String line = this.readString();
+            return new RecordedCommand(session, this.offset, line, commandName, OUTCOMES[outcome], latency);
+        } catch (EOFException e) {
+            throw new IOException("Corrupt session recording, the last record is cut short", e);
+        }
+    }
+
+    public void close() throws IOException {
+        this.in.close();
+    }
+
+    private long readNumber() throws IOException {
+        return this.readNumber(this.in.read());
+    }
+
+    private long readNumber(int b) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            b = this.in.read();
+        }
+        throw new IOException("Corrupt session recording, number too long");
+    }
+
+    private String readString() throws IOException {
+        int length = (int) this.readNumber();
+        byte[] bytes = new byte[length];
+        this.in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+}
@@ -0,0 +1,257 @@
+package com.kg6sed.eggshell.record;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.AbstractShell;
+import com.kg6sed.eggshell.ExecutionSummary;
+import com.kg6sed.eggshell.io.BufferedShellIO;
+import com.kg6sed.eggshell.server.ShellFactory;
+import com.kg6sed.eggshell.stats.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays a {@link SessionRecording} back against fresh shells: every recorded session runs
+ * on a shell of its own and thread of its own, at the recorded pace, faster, or as fast as
+ * the shells allow. Sessions can be replayed several times at once to multiply the load.
+ * <p/>
+ * When pacing, the latency of a command that is late because the previous one took too
+ * long is measured from the time it was due rather than the time it was sent, so a shell
+ * falling behind shows up in the latencies instead of silently slowing the replay down.
+ */
+public class SessionReplay {
+    private ShellFactory factory;
+    private double speed = 1;
+    private int copies = 1;
+
+    /**
+     * @param factory creates the shell every replayed session runs on
+     */
+    public SessionReplay(ShellFactory factory) {
+        this.factory = factory;
+    }
+
+    public double getSpeed() {
+        return this.speed;
+    }
+
+    /**
+     * @param speed 1 to keep the recorded pauses between commands, 10 to make them ten times
+     *              shorter, 0 to send every command as soon as the previous one returned
+     */
+    public void setSpeed(double speed) {
+        if (speed < 0 || Double.isNaN(speed)) {
+            throw new IllegalArgumentException("Speed must not be negative: " + speed);
+        }
+        this.speed = speed;
+    }
+
+    public int getCopies() {
+        return this.copies;
+    }
+
+    /**
+     * @param copies number of shells each recorded session is replayed on at the same time
+     */
+    public void setCopies(int copies) {
+        if (copies < 1) {
+            throw new IllegalArgumentException("At least one copy is needed: " + copies);
+        }
+        this.copies = copies;
+    }
+
+    /**
+     * Replays a recording and waits for all sessions to finish.
+     *
+     * @param recording file written by a {@link SessionRecorder}
+     * @return throughput and latencies of the replay
+     * @throws IOException          if the recording cannot be read, a shell cannot be created or fails
+     * @throws InterruptedException if interrupted while waiting for the sessions
+     */
+    public ReplayReport replay(Path recording) throws IOException, InterruptedException {
+        return this.replay(SessionRecording.readAll(recording));
+    }
+
+    /**
+     * Replays recorded commands and waits for all sessions to finish.
+     *
+     * @param commands commands as read from a recording
+     * @return throughput and latencies of the replay
+     * @throws IOException          if a shell cannot be created or fails
+     * @throws InterruptedException if interrupted while waiting for the sessions
+     */
+    public ReplayReport replay(List<RecordedCommand> commands) throws IOException, InterruptedException {
+        Map<Integer, List<RecordedCommand>> sessions = new LinkedHashMap<Integer, List<RecordedCommand>>();
+        LatencyHistogram recordedLatencies = new LatencyHistogram();
+        long recordedFailures = 0;
+        long origin = Long.MAX_VALUE;
+        for (RecordedCommand command : commands) {
+            List<RecordedCommand> session = sessions.get(command.getSession());
+            if (session == null) {
+                session = new ArrayList<RecordedCommand>();
+                sessions.put(command.getSession(), session);
+            }
+            session.add(command);
+            recordedLatencies.record(command.getLatencyNanos());
+            if (command.getOutcome().isFailure()) {
+                recordedFailures += this.copies;
+            }
+            origin = Math.min(origin, command.getOffsetNanos());
+        }
+
+        // shells are created up front so their setup does not count towards the replay
+        List<Replayer> replayers = new ArrayList<Replayer>();
+        LatencyHistogram latencies = new LatencyHistogram();
+        for (List<RecordedCommand> session : sessions.values()) {
+            for (int copy = 0; copy < this.copies; copy++) {
+                replayers.add(new Replayer(this.factory.createShell(), session, origin, latencies));
+            }
+        }
+
+        final CountDownLatch done = new CountDownLatch(replayers.size());
+        long start = System.nanoTime();
+        for (int i = 0; i < replayers.size(); i++) {
+            final Replayer replayer = replayers.get(i);
+            replayer.start = start;
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        replayer.run();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "replay-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        long commandCount = 0;
+        long failureCount = 0;
+        for (Replayer replayer : replayers) {
+            if (replayer.failure instanceof IOException) {
+                throw (IOException) replayer.failure;
+            } else if (replayer.failure instanceof Error) {
+                throw (Error) replayer.failure;
+            } else if (replayer.failure != null) {
+                throw new IOException("A replayed shell failed: " + replayer.failure, replayer.failure);
+            }
+            commandCount += replayer.summary.getCommandCount();
+            failureCount += replayer.summary.getFailureCount();
+        }
+        return new ReplayReport(replayers.size(), commandCount, failureCount, recordedFailures, elapsed,
+                latencies, recordedLatencies);
+    }
+
+    /**
+     * Feeds the lines of one session to its shell, waiting until each is due, and discards
+     * the output.
+     */
+    private final class Replayer extends BufferedShellIO {
+        private AbstractShell shell;
+        private List<RecordedCommand> commands;
+        private long origin;
+        private LatencyHistogram latencies;
+        private long start;
+        private int next;
+        private long issued;
+        private boolean pending;
+        private ExecutionSummary summary;
+        private Throwable failure;
+
+        Replayer(AbstractShell shell, List<RecordedCommand> commands, long origin, LatencyHistogram latencies) {
+            this.shell = shell;
+            this.commands = commands;
+            this.origin = origin;
+            this.latencies = latencies;
+        }
+
+        void run() {
+            try {
+                this.summary = this.shell.execute(this);
+                // a command that exited the shell was not followed by another read
+                this.returned();
+            } catch (Throwable t) {
+                // anything escaping the shell fails the replay instead of leaving the summary unset
+                this.failure = t;
+            }
+        }
+
+        @Override
+        protected String read() throws IOException {
+            this.returned();
+            if (this.next == this.commands.size()) {
+                return null;
+            }
+            RecordedCommand command = this.commands.get(this.next++);
+            if (SessionReplay.this.speed > 0) {
+                long due = this.start + (long) ((command.getOffsetNanos() - this.origin) / SessionReplay.this.speed);
+                long now = System.nanoTime();
+                if (now - due < 0) {
+                    try {
+                        for (long wait = due - now; wait > 0; wait = due - now) {
+                            TimeUnit.NANOSECONDS.sleep(wait);
+                            now = System.nanoTime();
+                        }
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException("Replay interrupted");
+                    }
+                    // oversleeping is the replay's delay, not the shell's
+                    this.issued = now;
+                } else {
+                    this.issued = due;
+                }
+            } else {
+                this.issued = System.nanoTime();
+            }
+            this.pending = true;
+            return command.getLine();
+        }
+
+        private void returned() {
+            if (this.pending) {
+                this.latencies.record(System.nanoTime() - this.issued);
+                this.pending = false;
+            }
+        }
+
+        @Override
+        protected void write(char[] chars, int offset, int count) {
+        }
+
+        @Override
+        protected void flushOutput() {
+        }
+
+        public boolean isInteractive() {
+            return false;
+        }
+    }
+}
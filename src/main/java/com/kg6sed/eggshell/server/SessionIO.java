@@ -0,0 +1,131 @@
+package com.kg6sed.eggshell.server;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.io.BufferedShellIO;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Output of a multiplexed session over a non-blocking channel. Its lines are read by the
+ * selector of {@link ShellServer}, so {@link #readLine(String)} is not supported. Writes
+ * block while the client does not take the output, like those of a blocking socket.
+ */
+class SessionIO extends BufferedShellIO {
+    private static final long WRITE_POLL_MILLIS = 1000;
+
+    private SocketChannel channel;
+    private CharsetEncoder encoder = Charset.defaultCharset().newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer bytes = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+    private char highSurrogate;
+    private Selector writeSelector;
+
+    /**
+     * @param channel connected channel in non-blocking mode
+     */
+    SessionIO(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    protected String read() throws IOException {
+        throw new UnsupportedOperationException("Lines of a server session are read by the server");
+    }
+
+    @Override
+    protected void write(char[] chars, int offset, int count) throws IOException {
+        CharBuffer text = CharBuffer.wrap(chars, offset, count);
+        if (this.highSurrogate != 0) {
+            // the pair was split by the buffer of the previous write
+            text = CharBuffer.allocate(count + 1).put(this.highSurrogate).put(chars, offset, count);
+            text.flip();
+            this.highSurrogate = 0;
+        }
+        while (true) {
+            CoderResult result = this.encoder.encode(text, this.bytes, false);
+            this.send();
+            if (result.isUnderflow()) {
+                break;
+            }
+        }
+        if (text.hasRemaining()) {
+            this.highSurrogate = text.get();
+        }
+    }
+
+    @Override
+    protected void flushOutput() throws IOException {
+        // written by write
+    }
+
+    public boolean isInteractive() {
+        return false;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            this.flush();
+        } finally {
+            if (this.writeSelector != null) {
+                this.writeSelector.close();
+            }
+        }
+    }
+
+    private void send() throws IOException {
+        this.bytes.flip();
+        while (this.bytes.hasRemaining()) {
+            if (this.channel.write(this.bytes) == 0) {
+                this.awaitWritable();
+            }
+        }
+        this.bytes.clear();
+    }
+
+    /**
+     * Waits for the client to take output, on a selector of its own so the server's
+     * selectors never wait for a slow client.
+     */
+    private void awaitWritable() throws IOException {
+        if (this.writeSelector == null) {
+            this.writeSelector = Selector.open();
+            this.channel.register(this.writeSelector, SelectionKey.OP_WRITE);
+        }
+        while (this.writeSelector.select(WRITE_POLL_MILLIS) == 0) {
+            if (!this.channel.isOpen()) {
+                throw new ClosedChannelException();
+            }
+        }
+        this.writeSelector.selectedKeys().clear();
+    }
+}
@@ -0,0 +1,432 @@
+package com.kg6sed.eggshell.server;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.AbstractShell;
+import com.kg6sed.eggshell.CommandOutcome;
+import com.kg6sed.eggshell.output.JsonLinesOutput;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves shell sessions over TCP. Every connection gets its own shell instance from a
+ * {@link ShellFactory}, with its own output and prompt; the command model is built once
+ * per shell class and shared by all sessions.
+ * <p/>
+ * The connections are read by a few selector threads, which split the input into lines.
+ * A session only takes a thread of the executor while it has lines to run, so idle
+ * sessions cost no threads, and a bounded executor makes lines wait for a thread instead
+ * of shutting out whole sessions. The default executor is a pool of daemon threads that
+ * grows with the number of lines running at the same time. The server binds to the
+ * loopback interface unless another address is given, the sessions are not authenticated.
+ */
+public class ShellServer implements Closeable {
+    private static final int READ_BUFFER_SIZE = 4 * 1024;
+    // a client sending faster than its lines run is not read until they have caught up
+    private static final int MAX_PENDING_LINES = 64;
+
+    private ShellFactory factory;
+    private InetSocketAddress address;
+    private ExecutorService executor;
+    private int selectorCount = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    private ServerSocketChannel serverChannel;
+    private Thread acceptor;
+    private SelectorLoop[] selectors;
+    private Set<Session> sessions = Collections.newSetFromMap(new ConcurrentHashMap<Session, Boolean>());
+    private volatile boolean jsonLines;
+
+    /**
+     * Creates a server on the given loopback port.
+     *
+     * @param factory creates the shell of each session
+     * @param port    port, 0 for any free port
+     */
+    public ShellServer(ShellFactory factory, int port) {
+        this(factory, new InetSocketAddress(InetAddress.getLoopbackAddress(), port), newDefaultExecutor());
+    }
+
+    /**
+     * @param factory  creates the shell of each session
+     * @param address  address to listen on
+     * @param executor runs the lines of the sessions, one task per session while it has lines to run
+     */
+    public ShellServer(ShellFactory factory, InetSocketAddress address, ExecutorService executor) {
+        this.factory = factory;
+        this.address = address;
+        this.executor = executor;
+    }
+
+    /**
+     * Makes new sessions answer in JSON Lines records instead of text, see
+     * {@link com.kg6sed.eggshell.output.StructuredOutput}.
+     *
+     * @param jsonLines true for JSON Lines
+     */
+    public void setJsonLines(boolean jsonLines) {
+        this.jsonLines = jsonLines;
+    }
+
+    /**
+     * Sets the number of threads reading the connections, before the server is started.
+     * By default half the processors, at most 4.
+     *
+     * @param selectorCount number of selector threads
+     */
+    public void setSelectorCount(int selectorCount) {
+        if (selectorCount < 1) {
+            throw new IllegalArgumentException("At least one selector is needed: " + selectorCount);
+        }
+        this.selectorCount = selectorCount;
+    }
+
+    /**
+     * Binds the server socket and starts accepting sessions.
+     *
+     * @throws IOException if the address cannot be bound
+     */
+    public synchronized void start() throws IOException {
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(this.address, 1024);
+        this.address = (InetSocketAddress) this.serverChannel.getLocalAddress();
+
+        this.selectors = new SelectorLoop[this.selectorCount];
+        for (int i = 0; i < this.selectors.length; i++) {
+            this.selectors[i] = new SelectorLoop(Selector.open());
+            Thread thread = new Thread(this.selectors[i], "eggshell-selector-" + this.address.getPort() + "-" + (i + 1));
+            thread.setDaemon(true);
+            thread.start();
+        }
+        this.acceptor = new Thread(new Runnable() {
+            public void run() {
+                accept();
+            }
+        }, "eggshell-acceptor-" + this.address.getPort());
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+    }
+
+    /**
+     * @return address the server listens on, with the actual port once started
+     */
+    public InetSocketAddress getAddress() {
+        return this.address;
+    }
+
+    /**
+     * @return number of open sessions
+     */
+    public int getSessionCount() {
+        return this.sessions.size();
+    }
+
+    /**
+     * Stops accepting, closes all open sessions and shuts down the selectors and the executor.
+     */
+    public synchronized void close() throws IOException {
+        if (this.serverChannel != null) {
+            this.serverChannel.close();
+        }
+        for (Session session : this.sessions) {
+            session.channel.close();
+        }
+        if (this.selectors != null) {
+            for (SelectorLoop selector : this.selectors) {
+                selector.selector.close();
+            }
+        }
+        this.executor.shutdownNow();
+    }
+
+    private void accept() {
+        int next = 0;
+        try {
+            while (true) {
+                SocketChannel channel = this.serverChannel.accept();
+                // output is written once per command, so it is sent without waiting for more
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.configureBlocking(false);
+                Session session = new Session(channel);
+                this.sessions.add(session);
+                this.selectors[next++ % this.selectors.length].register(session);
+                // the first run opens the shell and prints the welcome message and prompt
+                session.schedule();
+            }
+        } catch (ClosedChannelException e) {
+            // server closed
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static ExecutorService newDefaultExecutor() {
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            private AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "eggshell-session-" + this.count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Reads the connections registered with one selector. Other threads hand it work
+     * through a queue, so that only this thread touches the keys of its selector.
+     */
+    private class SelectorLoop implements Runnable {
+        private Selector selector;
+        private Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+        SelectorLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        void register(final Session session) {
+            session.selector = this;
+            this.execute(new Runnable() {
+                public void run() {
+                    try {
+                        session.key = session.channel.register(selector, SelectionKey.OP_READ, session);
+                    } catch (ClosedChannelException e) {
+                        // closed before it was registered
+                    }
+                }
+            });
+        }
+
+        void execute(Runnable task) {
+            this.tasks.add(task);
+            this.selector.wakeup();
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    this.selector.select();
+                    for (Runnable task = this.tasks.poll(); task != null; task = this.tasks.poll()) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (key.isValid() && key.isReadable()) {
+                            ((Session) key.attachment()).read();
+                        }
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                // server closed
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * A connection and its shell. The selector thread reads complete lines into a queue,
+     * which a thread of the executor then runs in order.
+     */
+    private class Session implements Runnable {
+        private SocketChannel channel;
+        private SelectorLoop selector;
+        private SelectionKey key;
+        private CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private ByteBuffer input = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private CharBuffer chars = CharBuffer.allocate(READ_BUFFER_SIZE);
+        private StringBuilder line = new StringBuilder();
+        private Queue<String> lines = new ConcurrentLinkedQueue<String>();
+        private AtomicInteger pendingLines = new AtomicInteger();
+        private AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean inputEnded;
+        private volatile boolean paused;
+        private AbstractShell shell;
+        private SessionIO io;
+
+        Session(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Reads what the client has sent, on the selector thread.
+         */
+        void read() {
+            int count;
+            try {
+                count = this.channel.read(this.input);
+            } catch (IOException e) {
+                count = -1;
+            }
+            if (count < 0) {
+                this.key.cancel();
+                if (this.line.length() > 0) {
+                    this.add(this.line.toString());
+                }
+                this.inputEnded = true;
+                this.schedule();
+                return;
+            }
+            this.input.flip();
+            this.decoder.decode(this.input, this.chars, false);
+            this.input.compact();
+            this.chars.flip();
+            while (this.chars.hasRemaining()) {
+                char c = this.chars.get();
+                if (c == '\n') {
+                    int length = this.line.length();
+                    if (length > 0 && this.line.charAt(length - 1) == '\r') {
+                        this.line.setLength(length - 1);
+                    }
+                    this.add(this.line.toString());
+                    this.line.setLength(0);
+                } else {
+                    this.line.append(c);
+                }
+            }
+            this.chars.clear();
+            if (this.pendingLines.get() >= MAX_PENDING_LINES) {
+                this.paused = true;
+                this.key.interestOps(0);
+            }
+            this.schedule();
+        }
+
+        private void add(String line) {
+            this.lines.add(line);
+            this.pendingLines.incrementAndGet();
+        }
+
+        void schedule() {
+            if (this.scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RuntimeException e) {
+                    // executor shut down or saturated
+                    this.scheduled.set(false);
+                    this.close();
+                }
+            }
+        }
+
+        /**
+         * Runs the queued lines on a thread of the executor.
+         */
+        public void run() {
+            try {
+                if (this.shell == null) {
+                    this.shell = factory.createShell();
+                    this.io = new SessionIO(this.channel);
+                    if (jsonLines) {
+                        this.shell.setStructuredOutput(new JsonLinesOutput(this.io));
+                    }
+                    this.shell.open(this.io);
+                }
+                // the last line is queued before the end of the input is set, read it first
+                boolean inputEnded = this.inputEnded;
+                for (String line = this.lines.poll(); line != null; line = this.lines.poll()) {
+                    this.pendingLines.decrementAndGet();
+                    if (this.shell.runLine(line) == CommandOutcome.EXIT) {
+                        this.close();
+                        return;
+                    }
+                }
+                if (inputEnded) {
+                    this.close();
+                    return;
+                }
+                if (this.paused) {
+                    this.resume();
+                }
+            } catch (IOException e) {
+                // session dropped
+                this.close();
+                return;
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                this.close();
+                return;
+            }
+            this.scheduled.set(false);
+            // lines read while the last one ran
+            if (!this.lines.isEmpty() || this.inputEnded) {
+                this.schedule();
+            }
+        }
+
+        private void resume() {
+            this.paused = false;
+            this.selector.execute(new Runnable() {
+                public void run() {
+                    if (key != null && key.isValid()) {
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                }
+            });
+        }
+
+        private void close() {
+            if (!sessions.remove(this)) {
+                return;
+            }
+            try {
+                if (this.io != null) {
+                    this.io.close();
+                }
+            } catch (IOException e) {
+                // already gone
+            } finally {
+                try {
+                    this.channel.close();
+                } catch (IOException e) {
+                    // already gone
+                }
+            }
+        }
+    }
+}
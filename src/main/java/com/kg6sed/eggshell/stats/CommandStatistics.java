@@ -0,0 +1,161 @@
+package com.kg6sed.eggshell.stats;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.CommandListener;
+import com.kg6sed.eggshell.CommandOutcome;
+import com.kg6sed.eggshell.ShellCommand;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts, errors and latency histograms per command, split into parse, bind and invoke
+ * time. Thread safe; one instance can be shared by many shells, for example all sessions
+ * of a {@link com.kg6sed.eggshell.server.ShellServer}, to aggregate their commands.
+ */
+public class CommandStatistics implements CommandListener, CommandStatisticsMXBean {
+    /**
+     * Domain of the names the statistics are registered under.
+     */
+    public static final String JMX_DOMAIN = "com.kg6sed.eggshell";
+
+    private ConcurrentMap<String, Entry> commands = new ConcurrentSkipListMap<String, Entry>();
+    private AtomicLong unknownCommands = new AtomicLong();
+
+    public void commandExecuted(ShellCommand command, CommandOutcome outcome, long parseNanos, long bindNanos, long invokeNanos) {
+        if (command == null) {
+            this.unknownCommands.incrementAndGet();
+            return;
+        }
+        Entry entry = this.commands.get(command.getName());
+        if (entry == null) {
+            Entry created = new Entry();
+            entry = this.commands.putIfAbsent(command.getName(), created);
+            if (entry == null) {
+                entry = created;
+            }
+        }
+        entry.record(outcome, parseNanos, bindNanos, invokeNanos);
+    }
+
+    public List<CommandSummary> getCommands() {
+        List<CommandSummary> result = new ArrayList<CommandSummary>();
+        for (Map.Entry<String, Entry> e : this.commands.entrySet()) {
+            result.add(e.getValue().summarize(e.getKey()));
+        }
+        return result;
+    }
+
+    public long getUnknownCommandCount() {
+        return this.unknownCommands.get();
+    }
+
+    /**
+     * @param command command name
+     * @return histogram of the time spent running the command, or null if it has not run
+     */
+    public LatencyHistogram getInvokeHistogram(String command) {
+        Entry entry = this.commands.get(command);
+        return entry == null ? null : entry.invoke;
+    }
+
+    public void reset() {
+        this.commands.clear();
+        this.unknownCommands.set(0);
+    }
+
+    /**
+     * Registers the statistics with the platform MBean server under
+     * <code>com.kg6sed.eggshell:type=CommandStatistics,name=&lt;name&gt;</code>.
+     *
+     * @param name value of the name key, e.g. the shell class
+     * @return the name the statistics were registered under
+     * @throws JMException if the name is taken or invalid
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=CommandStatistics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /**
+     * @param objectName name returned by {@link #register(String)}
+     * @throws JMException if the statistics are not registered under that name
+     */
+    public void unregister(ObjectName objectName) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.unregisterMBean(objectName);
+    }
+
+    /**
+     * Formats a duration in nanoseconds with a unit suited to its size.
+     *
+     * @param nanos duration
+     * @return e.g. <code>850ns</code>, <code>12.4us</code>, <code>3.1ms</code> or <code>2.0s</code>
+     */
+    public static String formatNanos(double nanos) {
+        if (nanos < 1000) {
+            return String.format("%.0fns", nanos);
+        } else if (nanos < 1000000) {
+            return String.format("%.1fus", nanos / 1000);
+        } else if (nanos < 1000000000) {
+            return String.format("%.1fms", nanos / 1000000);
+        }
+        return String.format("%.1fs", nanos / 1000000000);
+    }
+
+    private static class Entry {
+        AtomicLong count = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        LatencyHistogram parse = new LatencyHistogram();
+        LatencyHistogram bind = new LatencyHistogram();
+        LatencyHistogram invoke = new LatencyHistogram();
+
+        void record(CommandOutcome outcome, long parseNanos, long bindNanos, long invokeNanos) {
+            this.count.incrementAndGet();
+            if (outcome.isFailure()) {
+                this.errors.incrementAndGet();
+            }
+            this.parse.record(parseNanos);
+            if (outcome != CommandOutcome.USAGE_ERROR) {
+                this.bind.record(bindNanos);
+            }
+            if (outcome != CommandOutcome.USAGE_ERROR && outcome != CommandOutcome.BINDING_ERROR) {
+                this.invoke.record(invokeNanos);
+            }
+        }
+
+        CommandSummary summarize(String name) {
+            return new CommandSummary(name, this.count.get(), this.errors.get(),
+                    this.parse.getValueAtPercentile(50), this.bind.getValueAtPercentile(50),
+                    this.invoke.getValueAtPercentile(50), this.invoke.getValueAtPercentile(99),
+                    this.invoke.getMax(), this.invoke.getMean());
+        }
+    }
+}
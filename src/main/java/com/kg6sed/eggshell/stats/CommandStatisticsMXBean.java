@@ -0,0 +1,43 @@
+package com.kg6sed.eggshell.stats;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.util.List;
+
+/**
+ * Management interface of {@link CommandStatistics}.
+ */
+public interface CommandStatisticsMXBean {
+
+    /**
+     * @return one summary per command that has run, sorted by name
+     */
+    List<CommandSummary> getCommands();
+
+    /**
+     * @return number of lines naming no known command
+     */
+    long getUnknownCommandCount();
+
+    /**
+     * Clears all counters and histograms.
+     */
+    void reset();
+}
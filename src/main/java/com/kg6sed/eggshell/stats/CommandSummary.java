@@ -0,0 +1,91 @@
+package com.kg6sed.eggshell.stats;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Snapshot of the statistics of one command. Durations are in nanoseconds.
+ */
+public class CommandSummary {
+    private String name;
+    private long count;
+    private long errorCount;
+    private long parseMedian;
+    private long bindMedian;
+    private long invokeMedian;
+    private long invoke99thPercentile;
+    private long invokeMax;
+    private double invokeMean;
+
+    @ConstructorProperties({"name", "count", "errorCount", "parseMedian", "bindMedian", "invokeMedian",
+            "invoke99thPercentile", "invokeMax", "invokeMean"})
+    public CommandSummary(String name, long count, long errorCount, long parseMedian, long bindMedian,
+                          long invokeMedian, long invoke99thPercentile, long invokeMax, double invokeMean) {
+        this.name = name;
+        this.count = count;
+        this.errorCount = errorCount;
+        this.parseMedian = parseMedian;
+        this.bindMedian = bindMedian;
+        this.invokeMedian = invokeMedian;
+        this.invoke99thPercentile = invoke99thPercentile;
+        this.invokeMax = invokeMax;
+        this.invokeMean = invokeMean;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * @return number of runs with a usage, binding or execution error
+     */
+    public long getErrorCount() {
+        return this.errorCount;
+    }
+
+    public long getParseMedian() {
+        return this.parseMedian;
+    }
+
+    public long getBindMedian() {
+        return this.bindMedian;
+    }
+
+    public long getInvokeMedian() {
+        return this.invokeMedian;
+    }
+
+    public long getInvoke99thPercentile() {
+        return this.invoke99thPercentile;
+    }
+
+    public long getInvokeMax() {
+        return this.invokeMax;
+    }
+
+    public double getInvokeMean() {
+        return this.invokeMean;
+    }
+}
@@ -0,0 +1,132 @@
+package com.kg6sed.eggshell.stats;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A command that ran past its timeout, with the stack of its thread captured at the deadline.
+ */
+public class SlowCommand {
+    private int id;
+    private String command;
+    private String commandLine;
+    private String threadName;
+    private long startTime;
+    private long startNanos;
+    private long timeout;
+    private String threadDump;
+    private volatile long endNanos;
+
+    /**
+     * @param command     name of the command
+     * @param commandLine line that ran it
+     * @param threadName  thread the command ran on
+     * @param startNanos  {@link System#nanoTime()} when the command started
+     * @param timeout     milliseconds the command was allowed to run
+     * @param threadDump  stack of the thread at the deadline
+     */
+    public SlowCommand(String command, String commandLine, String threadName, long startNanos, long timeout,
+                       String threadDump) {
+        this.command = command;
+        this.commandLine = commandLine;
+        this.threadName = threadName;
+        this.startNanos = startNanos;
+        this.startTime = System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        this.timeout = timeout;
+        this.threadDump = threadDump;
+    }
+
+    /**
+     * @return number of the entry in its log, see {@link SlowCommandLog#get(int)}
+     */
+    public int getId() {
+        return this.id;
+    }
+
+    void setId(int id) {
+        this.id = id;
+    }
+
+    public String getCommand() {
+        return this.command;
+    }
+
+    public String getCommandLine() {
+        return this.commandLine;
+    }
+
+    public String getThreadName() {
+        return this.threadName;
+    }
+
+    /**
+     * @return time the command started, in milliseconds since the epoch
+     */
+    public long getStartTime() {
+        return this.startTime;
+    }
+
+    /**
+     * @return milliseconds the command was allowed to run
+     */
+    public long getTimeout() {
+        return this.timeout;
+    }
+
+    /**
+     * @return stack of the command thread at the deadline, and of the thread holding the
+     *         lock it waited for, in the format of jstack
+     */
+    public String getThreadDump() {
+        return this.threadDump;
+    }
+
+    /**
+     * Records that the command has returned, after being interrupted or abandoned.
+     *
+     * @param endNanos {@link System#nanoTime()} when the command returned
+     */
+    public void finished(long endNanos) {
+        this.endNanos = endNanos;
+    }
+
+    /**
+     * @return true once the command has returned
+     */
+    public boolean isFinished() {
+        return this.endNanos != 0;
+    }
+
+    /**
+     * @param unit unit of the result
+     * @return time the command ran, or has been running if it has not returned yet
+     */
+    public long getRunningTime(TimeUnit unit) {
+        long end = this.endNanos;
+        return unit.convert((end == 0 ? System.nanoTime() : end) - this.startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[%d] %s %s after %d ms (timeout %d ms)", this.id, this.commandLine,
+                this.isFinished() ? "returned" : "still running", this.getRunningTime(TimeUnit.MILLISECONDS), this.timeout);
+    }
+}
@@ -0,0 +1,96 @@
+package com.kg6sed.eggshell.stats;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The most recent commands that ran past their timeout. Shells can share one log, the
+ * oldest entries are dropped once it is full.
+ */
+public class SlowCommandLog {
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private final int capacity;
+    private final ArrayDeque<SlowCommand> entries = new ArrayDeque<SlowCommand>();
+    private int nextId = 1;
+    private long count;
+
+    public SlowCommandLog() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of entries kept
+     */
+    public SlowCommandLog(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Adds an entry, numbering it and dropping the oldest entry if the log is full.
+     *
+     * @param command command that ran past its timeout
+     */
+    public synchronized void add(SlowCommand command) {
+        command.setId(this.nextId++);
+        if (this.entries.size() == this.capacity) {
+            this.entries.removeFirst();
+        }
+        this.entries.addLast(command);
+        this.count++;
+    }
+
+    /**
+     * @return the entries, oldest first
+     */
+    public synchronized List<SlowCommand> getEntries() {
+        return new ArrayList<SlowCommand>(this.entries);
+    }
+
+    /**
+     * @param id number of the entry
+     * @return the entry, or null if there is none or it was dropped
+     */
+    public synchronized SlowCommand get(int id) {
+        for (SlowCommand command : this.entries) {
+            if (command.getId() == id) {
+                return command;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return number of entries ever added, including those dropped since
+     */
+    public synchronized long getCount() {
+        return this.count;
+    }
+
+    public synchronized void clear() {
+        this.entries.clear();
+    }
+}
@@ -0,0 +1,84 @@
+package com.kg6sed.eggshell.table;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Rows a command returns to have them printed as a table. Rows are pulled one at a time
+ * while the table is printed, see {@link TableRenderer}; a row is an <code>Object[]</code>,
+ * an {@link Iterable} of cells, or a single cell. In a pipeline the next command receives
+ * the rows themselves. A table can be read once.
+ */
+public class Table implements AutoCloseable {
+    private String[] headers;
+    private Iterator<?> rows;
+    private Stream<?> source;
+
+    /**
+     * @param headers column headers, empty for a table without header line
+     * @param rows    rows, pulled lazily
+     */
+    public Table(String[] headers, Iterator<?> rows) {
+        this(headers, rows, null);
+    }
+
+    private Table(String[] headers, Iterator<?> rows, Stream<?> source) {
+        this.headers = headers;
+        this.rows = rows;
+        this.source = source;
+    }
+
+    public static Table of(Iterable<?> rows, String... headers) {
+        return new Table(headers, rows.iterator());
+    }
+
+    /**
+     * Creates a table over a stream, which is closed with the table.
+     *
+     * @param rows    rows, pulled lazily
+     * @param headers column headers
+     * @return the table
+     */
+    public static Table of(Stream<?> rows, String... headers) {
+        return new Table(headers, rows.iterator(), rows);
+    }
+
+    public String[] getHeaders() {
+        return this.headers;
+    }
+
+    /**
+     * @return the rows, not yet read
+     */
+    public Iterator<?> getRows() {
+        return this.rows;
+    }
+
+    /**
+     * Closes the stream the rows come from, if any.
+     */
+    public void close() {
+        if (this.source != null) {
+            this.source.close();
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.kg6sed.eggshell.table;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Renders a {@link Table} as lines of aligned text while its rows are read. Column widths
+ * are computed from a window of the first rows, which is the only part of the table held
+ * in memory; later cells wider than their column are cut and end with <code>~</code>.
+ * Numbers are aligned right, everything else left.
+ */
+public class TableRenderer {
+    public static final int DEFAULT_SAMPLE_SIZE = 100;
+    public static final int DEFAULT_MAX_COLUMN_WIDTH = 40;
+    private static final String COLUMN_SEPARATOR = "  ";
+
+    private int sampleSize;
+    private int maxColumnWidth;
+
+    public TableRenderer() {
+        this(DEFAULT_SAMPLE_SIZE, DEFAULT_MAX_COLUMN_WIDTH);
+    }
+
+    /**
+     * @param sampleSize     number of rows read ahead to compute column widths
+     * @param maxColumnWidth widest a column may get
+     */
+    public TableRenderer(int sampleSize, int maxColumnWidth) {
+        this.sampleSize = sampleSize;
+        this.maxColumnWidth = maxColumnWidth;
+    }
+
+    /**
+     * Returns the lines of the table: the header, a separator line and one line per row.
+     * Rows are read as the lines are; the first line reads the sample window.
+     *
+     * @param table table to render
+     * @return lines without terminators
+     */
+    public Iterator<String> lines(Table table) {
+        return new Lines(table);
+    }
+
+    private static Object[] cells(Object row) {
+        if (row instanceof Object[]) {
+            return (Object[]) row;
+        } else if (row instanceof Iterable) {
+            List<Object> cells = new ArrayList<Object>();
+            for (Object cell : (Iterable<?>) row) {
+                cells.add(cell);
+            }
+            return cells.toArray();
+        }
+        return new Object[]{row};
+    }
+
+    private class Lines implements Iterator<String> {
+        private Table table;
+        private Iterator<?> rows;
+        private List<Object[]> window;
+        private int[] widths;
+        private boolean[] numeric;
+        // -2 before the header, -1 before the separator, then index in the window
+        private int position = -2;
+        private StringBuilder line = new StringBuilder();
+
+        Lines(Table table) {
+            this.table = table;
+            this.rows = table.getRows();
+        }
+
+        public boolean hasNext() {
+            this.sample();
+            if (this.position < 0) {
+                return true;
+            }
+            return this.position < this.window.size() || this.rows.hasNext();
+        }
+
+        public String next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (this.position == -2) {
+                this.position = -1;
+                return this.format(this.table.getHeaders(), false);
+            }
+            if (this.position == -1) {
+                this.position = 0;
+                this.line.setLength(0);
+                for (int i = 0; i < this.widths.length; i++) {
+                    if (i > 0) {
+                        this.line.append(COLUMN_SEPARATOR);
+                    }
+                    for (int j = 0; j < this.widths[i]; j++) {
+                        this.line.append('-');
+                    }
+                }
+                return this.line.toString();
+            }
+            if (this.position < this.window.size()) {
+                Object[] cells = this.window.get(this.position);
+                // release sampled rows as they are printed
+                this.window.set(this.position++, null);
+                return this.format(cells, true);
+            }
+            return this.format(cells(this.rows.next()), true);
+        }
+
+        /**
+         * Reads the sample window and computes the column widths, once.
+         */
+        private void sample() {
+            if (this.window != null) {
+                return;
+            }
+            this.window = new ArrayList<Object[]>();
+            while (this.window.size() < sampleSize && this.rows.hasNext()) {
+                this.window.add(cells(this.rows.next()));
+            }
+            int columns = this.table.getHeaders().length;
+            for (Object[] cells : this.window) {
+                columns = Math.max(columns, cells.length);
+            }
+            this.widths = new int[columns];
+            this.numeric = new boolean[columns];
+            for (int i = 0; i < columns; i++) {
+                this.numeric[i] = !this.window.isEmpty();
+            }
+            this.measure(this.table.getHeaders(), false);
+            for (Object[] cells : this.window) {
+                this.measure(cells, true);
+            }
+            if (columns == 0 || this.table.getHeaders().length == 0) {
+                // no header and separator lines
+                this.position = 0;
+            }
+            for (int i = 0; i < columns; i++) {
+                this.widths[i] = Math.min(this.widths[i], maxColumnWidth);
+            }
+        }
+
+        private void measure(Object[] cells, boolean row) {
+            for (int i = 0; i < cells.length; i++) {
+                this.widths[i] = Math.max(this.widths[i], text(cells[i]).length());
+                if (row && cells[i] != null && !(cells[i] instanceof Number)) {
+                    this.numeric[i] = false;
+                }
+            }
+        }
+
+        private String format(Object[] cells, boolean row) {
+            this.line.setLength(0);
+            for (int i = 0; i < cells.length; i++) {
+                if (i > 0) {
+                    this.line.append(COLUMN_SEPARATOR);
+                }
+                int width = i < this.widths.length ? this.widths[i] : maxColumnWidth;
+                String text = text(cells[i]);
+                if (text.length() > width) {
+                    text = width > 0 ? text.substring(0, width - 1) + "~" : "";
+                }
+                boolean right = row && i < this.numeric.length && this.numeric[i];
+                if (right) {
+                    pad(this.line, width - text.length());
+                }
+                this.line.append(text);
+                if (!right && i < cells.length - 1) {
+                    pad(this.line, width - text.length());
+                }
+            }
+            return this.line.toString();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static String text(Object cell) {
+        return cell == null ? "" : String.valueOf(cell);
+    }
+
+    private static void pad(StringBuilder line, int count) {
+        for (int i = 0; i < count; i++) {
+            line.append(' ');
+        }
+    }
+}
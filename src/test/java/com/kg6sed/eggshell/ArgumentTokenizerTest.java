@@ -0,0 +1,143 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ArgumentTokenizerTest {
+    private ArgumentTokenizer tokenizer = new ArgumentTokenizer();
+
+    private List<String> tokenize(String line) {
+        int count = this.tokenizer.tokenize(line);
+        List<String> tokens = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            tokens.add(this.tokenizer.getString(i));
+        }
+        assertEquals(count, this.tokenizer.getTokenCount());
+        return tokens;
+    }
+
+    @Test
+    public void splitsOnSpacesAndTabs() {
+        assertEquals(Arrays.asList("open", "a", "b"), this.tokenize("  open a\t\t b  "));
+        assertEquals(Arrays.<String>asList(), this.tokenize(""));
+        assertEquals(Arrays.<String>asList(), this.tokenize(" \t "));
+    }
+
+    @Test
+    public void doubleQuotesGroupAndEscapeQuotesAndBackslashes() {
+        assertEquals(Arrays.asList("echo", "a b", "c"), this.tokenize("echo \"a b\" c"));
+        assertEquals(Arrays.asList("say \"hi\""), this.tokenize("\"say \\\"hi\\\"\""));
+        assertEquals(Arrays.asList("a\\b"), this.tokenize("\"a\\\\b\""));
+        // other escapes are kept as they are
+        assertEquals(Arrays.asList("a\\nb"), this.tokenize("\"a\\nb\""));
+    }
+
+    @Test
+    public void singleQuotesAreLiteral() {
+        assertEquals(Arrays.asList("a \\\" b"), this.tokenize("'a \\\" b'"));
+        assertEquals(Arrays.asList("x", "\"y\""), this.tokenize("x '\"y\"'"));
+    }
+
+    @Test
+    public void backslashEscapesOutsideQuotes() {
+        assertEquals(Arrays.asList("a b", "c"), this.tokenize("a\\ b c"));
+        assertEquals(Arrays.asList("'"), this.tokenize("\\'"));
+        // a trailing backslash has nothing to escape
+        assertEquals(Arrays.asList("a\\"), this.tokenize("a\\"));
+    }
+
+    @Test
+    public void quotedPartsJoinUnquotedOnes() {
+        assertEquals(Arrays.asList("ab c"), this.tokenize("a\"b c\""));
+        assertEquals(Arrays.asList("key=a value", "next"), this.tokenize("key='a value' next"));
+        assertEquals(Arrays.asList("abcd"), this.tokenize("a'b'\"c\"d"));
+    }
+
+    @Test
+    public void emptyQuotesAreAnArgument() {
+        assertEquals(Arrays.asList("set", "", "x"), this.tokenize("set \"\" x"));
+        assertEquals(Arrays.asList(""), this.tokenize("''"));
+    }
+
+    @Test
+    public void unterminatedQuotesRunToTheEnd() {
+        assertEquals(Arrays.asList("echo", "a b "), this.tokenize("echo \"a b "));
+    }
+
+    @Test
+    public void onlyUnquotedTokensArePlain() {
+        assertEquals(5, this.tokenizer.tokenize("a | \"|\" \\| '&'"));
+        assertTrue(this.tokenizer.isPlain(0));
+        assertTrue(this.tokenizer.isPlain(1));
+        assertFalse(this.tokenizer.isPlain(2));
+        assertFalse(this.tokenizer.isPlain(3));
+        assertFalse(this.tokenizer.isPlain(4));
+        assertEquals("|", this.tokenizer.getString(2));
+        assertEquals("|", this.tokenizer.getString(3));
+        assertEquals("&", this.tokenizer.getString(4));
+    }
+
+    @Test
+    public void tokensAreCharSequenceViews() {
+        this.tokenizer.tokenize("plain \"co py\"");
+        CharSequence plain = this.tokenizer.getToken(0);
+        CharSequence copied = this.tokenizer.getToken(1);
+        assertEquals(5, plain.length());
+        assertEquals('a', plain.charAt(2));
+        assertEquals("la", plain.subSequence(1, 3).toString());
+        assertEquals(5, copied.length());
+        assertEquals(' ', copied.charAt(2));
+        assertEquals("o p", copied.subSequence(1, 4).toString());
+    }
+
+    @Test
+    public void reusesStateAcrossLines() {
+        StringBuilder longLine = new StringBuilder();
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 40; i++) {
+            longLine.append(" \"arg ").append(i).append('"');
+            expected.add("arg " + i);
+        }
+        assertEquals(expected, this.tokenize(longLine.toString()));
+        assertEquals(Arrays.asList("short", "x y"), this.tokenize("short 'x y'"));
+        assertEquals(Arrays.asList("one"), this.tokenize("one"));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsTokensPastTheLine() {
+        this.tokenizer.tokenize("a b");
+        this.tokenizer.getToken(2);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsCharactersPastTheToken() {
+        this.tokenizer.tokenize("abc");
+        this.tokenizer.getToken(0).charAt(3);
+    }
+}
@@ -0,0 +1,175 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CommandIndexTest {
+
+    public void run() {
+    }
+
+    static ShellCommand command(String name, String... aliases) throws NoSuchMethodException {
+        return new ShellCommand(new CommandInfo(name, null, aliases), CommandIndexTest.class.getMethod("run"),
+                new ArgumentInfo[0]);
+    }
+
+    @Test
+    public void looksUpNamesAndAliasesIgnoringCase() throws Exception {
+        ShellCommand status = command("status", "st");
+        ShellCommand stop = command("stop");
+        CommandIndex index = new CommandIndex(Arrays.asList(status, stop));
+
+        assertSame(status, index.lookup("status"));
+        assertSame(status, index.lookup("STATUS"));
+        assertSame(status, index.lookup("st"));
+        assertSame(stop, index.lookup("Stop"));
+        assertNull(index.lookup("sta"));
+        assertNull(index.lookup("stopped"));
+        assertNull(index.lookup(""));
+        assertEquals(3, index.size());
+    }
+
+    @Test
+    public void resolvesPrefixesOfASingleCommand() throws Exception {
+        ShellCommand status = command("status", "state");
+        ShellCommand stop = command("stop");
+        ShellCommand help = command("help");
+        CommandIndex index = new CommandIndex(Arrays.asList(status, stop, help));
+
+        assertSame(help, index.resolve("h"));
+        assertSame(help, index.resolve("HE"));
+        // both keys below "sta" belong to status
+        assertSame(status, index.resolve("sta"));
+        assertSame(stop, index.resolve("sto"));
+        assertNull(index.resolve("st"));
+        assertNull(index.resolve("x"));
+        assertNull(index.resolve("helpme"));
+    }
+
+    @Test
+    public void exactNamesWinOverLongerOnes() throws Exception {
+        ShellCommand get = command("get");
+        ShellCommand getAll = command("getall");
+        CommandIndex index = new CommandIndex(Arrays.asList(get, getAll));
+
+        assertSame(get, index.resolve("get"));
+        assertSame(getAll, index.resolve("geta"));
+        assertNull(index.resolve("ge"));
+    }
+
+    @Test
+    public void namesWinOverAliasesOfOtherCommands() throws Exception {
+        ShellCommand list = command("list", "ls", "show");
+        ShellCommand show = command("show");
+        CommandIndex index = new CommandIndex(Arrays.asList(list, show));
+
+        assertSame(show, index.lookup("show"));
+        assertSame(list, index.lookup("ls"));
+    }
+
+    @Test
+    public void completesPrefixesInOrder() throws Exception {
+        CommandIndex index = new CommandIndex(Arrays.asList(command("stop"), command("status", "st"), command("help")));
+
+        assertEquals(Arrays.asList("st", "status", "stop"), index.complete("st"));
+        assertEquals(Arrays.asList("status"), index.complete("STATU"));
+        assertEquals(Arrays.asList("help", "st", "status", "stop"), index.complete(""));
+        assertEquals(Collections.<String>emptyList(), index.complete("q"));
+    }
+
+    @Test
+    public void emptyIndexFindsNothing() {
+        CommandIndex index = new CommandIndex(Collections.<ShellCommand>emptyList());
+
+        assertNull(index.lookup("a"));
+        assertNull(index.resolve(""));
+        assertEquals(Collections.<String>emptyList(), index.complete(""));
+        assertEquals(Collections.<String>emptyList(), index.suggest("help", 5));
+    }
+
+    @Test
+    public void matchesLinearSearch() throws Exception {
+        Random random = new Random(42);
+        Map<String, ShellCommand> keys = new TreeMap<String, ShellCommand>();
+        List<ShellCommand> commands = new ArrayList<ShellCommand>();
+        for (int i = 0; i < 500; i++) {
+            String name = randomWord(random);
+            ShellCommand command = random.nextInt(4) == 0 ? command(name, name + "x", randomWord(random)) : command(name);
+            commands.add(command);
+        }
+        for (ShellCommand command : commands) {
+            for (String alias : command.getAliases()) {
+                keys.put(alias, command);
+            }
+        }
+        for (ShellCommand command : commands) {
+            keys.put(command.getName(), command);
+        }
+        CommandIndex index = new CommandIndex(commands);
+        assertEquals(keys.size(), index.size());
+
+        for (int i = 0; i < 2000; i++) {
+            String word = randomWord(random);
+            String query = word.substring(0, Math.min(word.length(), 1 + random.nextInt(4)));
+            List<String> expected = new ArrayList<String>();
+            Set<ShellCommand> matching = new HashSet<ShellCommand>();
+            for (Map.Entry<String, ShellCommand> key : keys.entrySet()) {
+                if (key.getKey().startsWith(query)) {
+                    expected.add(key.getKey());
+                    matching.add(key.getValue());
+                }
+            }
+            assertEquals(query, expected, index.complete(query));
+            ShellCommand exact = keys.get(query);
+            assertSame(query, exact, index.lookup(query));
+            assertSame(query, exact != null ? exact : matching.size() == 1 ? matching.iterator().next() : null,
+                    index.resolve(query));
+        }
+        for (String key : keys.keySet()) {
+            assertSame(key, keys.get(key), index.lookup(key));
+            assertTrue(key, index.complete(key).contains(key));
+        }
+    }
+
+    private static String randomWord(Random random) {
+        StringBuilder word = new StringBuilder();
+        int length = 2 + random.nextInt(6);
+        for (int i = 0; i < length; i++) {
+            word.append((char) ('a' + random.nextInt(4)));
+        }
+        return word.toString();
+    }
+}
@@ -0,0 +1,267 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.apt.CommandRegistryProcessor;
+import com.kg6sed.eggshell.demo.StringBuilderShell;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Compiles a shell with the {@link CommandRegistryProcessor} and checks that its generated
+ * registry describes the same commands as the reflective scan.
+ */
+public class CommandRegistryTest {
+    private static final String BASE_SHELL = "package registrytest;\n"
+            + "import com.kg6sed.eggshell.*;\n"
+            + "import java.io.IOException;\n"
+            + "public class BaseShell extends AbstractShell {\n"
+            + "    public BaseShell() throws IOException {\n"
+            + "    }\n"
+            + "    @Command(help = \"Greets someone\", aliases = {\"hi\"}, category = \"Greetings\")\n"
+            + "    public void greet(@Argument(name = \"name\") String name,\n"
+            + "                      @Argument(name = \"times\", optional = true) int times) throws IOException {\n"
+            + "        println(\"hello \" + name + \" x\" + Math.max(times, 1));\n"
+            + "    }\n"
+            + "    @Command(help = \"Package private\")\n"
+            + "    void hidden() throws IOException {\n"
+            + "        println(\"hidden\");\n"
+            + "    }\n"
+            + "}\n";
+
+    private static final String SHELL = "package registrytest;\n"
+            + "import com.kg6sed.eggshell.*;\n"
+            + "import java.io.IOException;\n"
+            + "import java.util.Iterator;\n"
+            + "public class RegistryShell extends BaseShell {\n"
+            + "    public enum Mode { FAST, SLOW }\n"
+            + "    public RegistryShell() throws IOException {\n"
+            + "    }\n"
+            + "    @Override\n"
+            + "    @Command(help = \"Greets loudly\", aliases = {\"hi\", \"hey\"})\n"
+            + "    public void greet(@Argument(name = \"name\") String name,\n"
+            + "                      @Argument(name = \"times\", optional = true) int times) throws IOException {\n"
+            + "        println(\"HELLO \" + name + \" x\" + Math.max(times, 1));\n"
+            + "    }\n"
+            + "    @Command\n"
+            + "    private void secret() throws IOException {\n"
+            + "        println(\"secret\");\n"
+            + "    }\n"
+            + "    @Command(cacheTtl = 1000, cacheSize = 8, invalidates = {}, timeout = 500)\n"
+            + "    public String lookup(@Argument(name = \"id\") int id) {\n"
+            + "        return \"value \" + id;\n"
+            + "    }\n"
+            + "    @Command(invalidates = \"lookup\", fanOut = true)\n"
+            + "    public static String version() {\n"
+            + "        return \"1.0\";\n"
+            + "    }\n"
+            + "    @Command\n"
+            + "    public int count(@Input Iterator<String> lines) {\n"
+            + "        return 0;\n"
+            + "    }\n"
+            + "    @Command\n"
+            + "    public void mode(@Argument(name = \"mode\", completions = {\"FAST\", \"SLOW\"}) Mode mode) throws IOException {\n"
+            + "        println(\"mode \" + mode);\n"
+            + "    }\n"
+            + "}\n";
+
+    public static class BrokenRegistryShell extends AbstractShell {
+        public BrokenRegistryShell() throws IOException {
+        }
+
+        /**
+         * Named like a generated registry, so its binary name ends in $$CommandRegistry.
+         */
+        public static class $CommandRegistry implements CommandRegistry {
+            public $CommandRegistry() {
+                throw new IllegalStateException("broken registry");
+            }
+
+            public void registerCommands(Collector collector) {
+            }
+        }
+    }
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private static Class<?> shellClass;
+
+    @BeforeClass
+    public static void compileShell() throws Exception {
+        File classes = folder.newFolder("classes");
+        assertEquals("compilation failed", 0, compile(classes, BASE_SHELL, SHELL));
+
+        ClassLoader loader = new URLClassLoader(new URL[]{classes.toURI().toURL()}, CommandRegistryTest.class.getClassLoader());
+        shellClass = Class.forName("registrytest.RegistryShell", true, loader);
+    }
+
+    /**
+     * Compiles shells of the registrytest package with the processor.
+     *
+     * @return status of the compiler, 0 on success
+     */
+    private static int compile(File classes, String... sources) throws Exception {
+        File directory = folder.newFolder();
+        List<String> arguments = new ArrayList<String>();
+        arguments.addAll(Arrays.asList("-classpath", location(AbstractShell.class) + File.pathSeparator + location(jline.Completor.class),
+                "-processor", CommandRegistryProcessor.class.getName(), "-d", classes.getPath()));
+        for (String source : sources) {
+            String name = source.substring(source.indexOf("public class ") + 13, source.indexOf(" extends"));
+            File file = new File(directory, name + ".java");
+            Files.write(file.toPath(), source.getBytes(Charset.forName("UTF-8")));
+            arguments.add(file.getPath());
+        }
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        return compiler.run(null, null, new ByteArrayOutputStream(), arguments.toArray(new String[arguments.size()]));
+    }
+
+    private static String location(Class<?> type) throws Exception {
+        return new File(type.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+    }
+
+    @Test
+    public void registryMatchesReflectiveScan() {
+        Map<String, ShellCommand> generated = CommandScanner.loadRegistry(shellClass);
+        assertNotNull("no registry was generated", generated);
+        Map<String, ShellCommand> scanned = CommandScanner.scan(shellClass);
+        assertEquals(scanned.keySet(), generated.keySet());
+
+        for (String name : scanned.keySet()) {
+            ShellCommand expected = scanned.get(name);
+            ShellCommand actual = generated.get(name);
+            assertEquals(name, expected.getName(), actual.getName());
+            assertEquals(name, expected.getHelp(), actual.getHelp());
+            assertEquals(name, expected.getUsage(), actual.getUsage());
+            assertEquals(name, expected.getCategory(), actual.getCategory());
+            assertArrayEquals(name, expected.getAliases(), actual.getAliases());
+            assertEquals(name, expected.isFanOut(), actual.isFanOut());
+            assertEquals(name, expected.getCacheTtl(), actual.getCacheTtl());
+            assertEquals(name, expected.getCacheSize(), actual.getCacheSize());
+            assertArrayEquals(name, expected.getInvalidates(), actual.getInvalidates());
+            assertEquals(name, expected.getTimeout(), actual.getTimeout());
+            assertEquals(name, expected.getRequiredArgumentCount(), actual.getRequiredArgumentCount());
+            assertEquals(name, expected.getInputIndex(), actual.getInputIndex());
+            assertEquals(name, expected.getDeclaringClass(), actual.getDeclaringClass());
+            assertEquals(name, expected.getMethod(), actual.getMethod());
+
+            assertEquals(name, expected.getArguments().length, actual.getArguments().length);
+            for (int i = 0; i < expected.getArguments().length; i++) {
+                ArgumentInfo expectedArgument = expected.getArguments()[i];
+                ArgumentInfo actualArgument = actual.getArguments()[i];
+                String parameter = name + "/" + i;
+                assertEquals(parameter, expectedArgument.getName(), actualArgument.getName());
+                assertEquals(parameter, expectedArgument.getType(), actualArgument.getType());
+                assertEquals(parameter, expectedArgument.isOptional(), actualArgument.isOptional());
+                assertEquals(parameter, expectedArgument.isInput(), actualArgument.isInput());
+                assertArrayEquals(parameter, expectedArgument.getCompletions(), actualArgument.getCompletions());
+                assertEquals(parameter, expectedArgument.getConverter(), actualArgument.getConverter());
+                assertEquals(parameter, expected.getBinders()[i].getType(), actual.getBinders()[i].getType());
+            }
+        }
+    }
+
+    @Test
+    public void subclassCommandsReplaceInheritedOnes() {
+        ShellCommand greet = CommandScanner.loadRegistry(shellClass).get("greet");
+        assertEquals("Greets loudly", greet.getHelp());
+        assertEquals(shellClass, greet.getDeclaringClass());
+        assertEquals(Arrays.asList("hi", "hey"), Arrays.asList(greet.getAliases()));
+    }
+
+    @Test
+    public void shellRunsCommandsThroughRegistry() throws Exception {
+        AbstractShell shell = (AbstractShell) shellClass.getConstructor().newInstance();
+        StringWriter output = new StringWriter();
+        ExecutionSummary summary = shell.execute(new StringReader("greet bob 2\nhi al\nhidden\nsecret\nmode slow\n"), output);
+
+        assertEquals(5, summary.getCommandCount());
+        assertEquals(output.toString(), 0, summary.getFailureCount());
+        assertEquals(lines("HELLO bob x2", "HELLO al x1", "hidden", "secret", "mode SLOW"), output.toString());
+    }
+
+    @Test
+    public void classesWithoutRegistryAreScanned() throws Exception {
+        // the library itself is compiled without the processor
+        assertNull(CommandScanner.loadRegistry(StringBuilderShell.class));
+        assertNotNull(CommandScanner.findCommands(StringBuilderShell.class).get("help"));
+    }
+
+    @Test
+    public void registriesThatFailToLoadAreReported() throws Exception {
+        try {
+            CommandScanner.loadRegistry(BrokenRegistryShell.class);
+            fail("fell back to scanning");
+        } catch (IllegalStateException e) {
+            assertEquals("Cannot create command registry " + BrokenRegistryShell.class.getName()
+                    + CommandRegistry.CLASS_SUFFIX, e.getMessage());
+            assertEquals("broken registry", e.getCause().getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void processorRejectsCachedVoidCommands() throws Exception {
+        String shell = "package registrytest;\n"
+                + "import com.kg6sed.eggshell.*;\n"
+                + "import java.io.IOException;\n"
+                + "public class VoidCachedShell extends AbstractShell {\n"
+                + "    public VoidCachedShell() throws IOException {\n"
+                + "    }\n"
+                + "    @Command(cacheTtl = 1000)\n"
+                + "    public void lookup(@Argument(name = \"id\") int id) throws IOException {\n"
+                + "        println(\"value \" + id);\n"
+                + "    }\n"
+                + "}\n";
+        assertNotEquals(0, compile(folder.newFolder(), shell));
+    }
+
+    static String lines(String... lines) {
+        StringBuilder result = new StringBuilder();
+        for (String line : lines) {
+            result.append(line).append(System.getProperty("line.separator"));
+        }
+        return result.toString();
+    }
+}
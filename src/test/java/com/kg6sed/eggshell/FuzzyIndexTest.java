@@ -0,0 +1,169 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class FuzzyIndexTest {
+    private static final List<String> COMMANDS = Arrays.asList("help", "history", "status", "stop", "start", "list",
+            "load", "jobs", "kill", "wait", "foreach", "targets");
+
+    @Test
+    public void suggestsClosestCommands() {
+        FuzzyIndex index = new FuzzyIndex(COMMANDS);
+
+        assertEquals(Arrays.asList("help"), index.suggest("hepl", 5));
+        assertEquals(Arrays.asList("status"), index.suggest("stauts", 5));
+        assertEquals(Arrays.asList("list"), index.suggest("lsit", 5));
+        assertEquals(Arrays.asList("history"), index.suggest("histroy", 5));
+        assertEquals(Arrays.asList("start"), index.suggest("stat", 5));
+        assertEquals(Arrays.asList("stop"), index.suggest("STOPP", 5));
+    }
+
+    @Test
+    public void exactWordsRankFirst() {
+        FuzzyIndex index = new FuzzyIndex(COMMANDS);
+
+        assertEquals(Arrays.asList("kill"), index.suggest("kill", 5));
+        assertEquals(Arrays.asList("wait"), index.suggest("WAIT", 5));
+    }
+
+    @Test
+    public void distantWordsAreNotSuggested() {
+        FuzzyIndex index = new FuzzyIndex(COMMANDS);
+
+        assertEquals(Collections.<String>emptyList(), index.suggest("xyzzy", 5));
+        // a single character allows no edit
+        assertEquals(Collections.<String>emptyList(), index.suggest("k", 5));
+        assertEquals(Arrays.asList("jobs"), index.suggest("jobs", 0, 5));
+        assertEquals(Collections.<String>emptyList(), index.suggest("jbos", 0, 5));
+    }
+
+    @Test
+    public void limitsTheSuggestions() {
+        FuzzyIndex index = new FuzzyIndex(Arrays.asList("cab", "cat", "car", "can", "cap"));
+
+        assertEquals(Arrays.asList("cab", "can"), index.suggest("caz", 2));
+        assertEquals(Collections.<String>emptyList(), index.suggest("caz", 0));
+    }
+
+    @Test
+    public void keepsTheCaseOfTheWordsAndIndexesDuplicatesOnce() {
+        FuzzyIndex index = new FuzzyIndex(Arrays.asList("Deploy", "deploy", "Status"));
+
+        assertEquals(2, index.size());
+        assertEquals(Arrays.asList("Deploy"), index.suggest("depoly", 5));
+        assertEquals(Arrays.asList("Status"), index.suggest("status", 5));
+    }
+
+    @Test
+    public void handlesLongAndNonAsciiWords() {
+        StringBuilder longWord = new StringBuilder();
+        for (int i = 0; i < 70; i++) {
+            longWord.append((char) ('a' + i % 26));
+        }
+        String typo = longWord.substring(0, 30) + "X" + longWord.substring(31);
+        FuzzyIndex index = new FuzzyIndex(Arrays.asList(longWord.toString(), "gr\u00fc\u00dfe", "gruss"));
+
+        assertEquals(Arrays.asList(longWord.toString()), index.suggest(typo, 5));
+        assertEquals(Arrays.asList("gruss", "gr\u00fc\u00dfe"), index.suggest("gr\u00fcsse", 5));
+        assertEquals(Arrays.asList("gruss"), index.suggest("grus", 5));
+    }
+
+    @Test
+    public void alignmentDistanceCountsSwapsOnce() {
+        assertEquals(0, FuzzyIndex.alignmentDistance("abc", "abc"));
+        assertEquals(1, FuzzyIndex.alignmentDistance("abc", "acb"));
+        assertEquals(1, FuzzyIndex.alignmentDistance("abc", "ab"));
+        assertEquals(3, FuzzyIndex.alignmentDistance("", "abc"));
+        assertEquals(3, FuzzyIndex.alignmentDistance("kitten", "sitting"));
+    }
+
+    @Test
+    public void matchesLinearSearchForSingleTypos() {
+        Random random = new Random(7);
+        Set<String> words = new LinkedHashSet<String>();
+        while (words.size() < 3000) {
+            words.add(randomWord(random, 3 + random.nextInt(8)));
+        }
+        List<String> list = new ArrayList<String>(words);
+        FuzzyIndex index = new FuzzyIndex(list);
+        assertEquals(list.size(), index.size());
+
+        for (int i = 0; i < 1000; i++) {
+            String query = typo(random, list.get(random.nextInt(list.size())));
+            if (query.length() < 2) {
+                continue;
+            }
+            // a single edit is within the first search radius, so the index finds every closest word
+            int best = Integer.MAX_VALUE;
+            List<String> expected = new ArrayList<String>();
+            for (String word : list) {
+                int distance = FuzzyIndex.alignmentDistance(query, word);
+                if (distance < best) {
+                    best = distance;
+                    expected.clear();
+                }
+                if (distance == best) {
+                    expected.add(word);
+                }
+            }
+            Collections.sort(expected);
+            assertEquals(query, expected, index.suggest(query, Integer.MAX_VALUE));
+        }
+    }
+
+    private static String typo(Random random, String word) {
+        int position = random.nextInt(word.length());
+        char c = (char) ('a' + random.nextInt(6));
+        switch (random.nextInt(4)) {
+            case 0:
+                return word.substring(0, position) + c + word.substring(position);
+            case 1:
+                return word.substring(0, position) + word.substring(position + 1);
+            case 2:
+                return word.substring(0, position) + c + word.substring(position + 1);
+            default:
+                if (position == word.length() - 1) {
+                    return word;
+                }
+                return word.substring(0, position) + word.charAt(position + 1) + word.charAt(position)
+                        + word.substring(position + 2);
+        }
+    }
+
+    private static String randomWord(Random random, int length) {
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            word.append((char) ('a' + random.nextInt(6)));
+        }
+        return word.toString();
+    }
+}
@@ -0,0 +1,266 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.kg6sed.eggshell.CommandRegistryTest.lines;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class ResultCacheTest {
+
+    public static class CachedShell extends AbstractShell {
+        final AtomicInteger calls = new AtomicInteger();
+        volatile CountDownLatch gate;
+
+        public CachedShell() throws IOException {
+        }
+
+        @Command(cacheTtl = 60000)
+        public String lookup(@Argument(name = "id") int id) throws InterruptedException {
+            if (id < 0) {
+                throw new IllegalArgumentException("negative id");
+            }
+            CountDownLatch gate = this.gate;
+            if (gate != null) {
+                gate.await(5, TimeUnit.SECONDS);
+            }
+            return "value of " + id + " (call " + this.calls.incrementAndGet() + ")";
+        }
+
+        @Command(cacheTtl = 60000)
+        public List<String> range(@Argument(name = "count") int count) {
+            this.calls.incrementAndGet();
+            return Arrays.asList("first", "second", "third").subList(0, count);
+        }
+
+        @Command(cacheTtl = 30)
+        public String brief(@Argument(name = "id") int id) {
+            return "brief " + id + " (call " + this.calls.incrementAndGet() + ")";
+        }
+
+        @Command(cacheTtl = 60000, cacheSize = 2)
+        public String small(@Argument(name = "id") int id) {
+            return "small " + id + " (call " + this.calls.incrementAndGet() + ")";
+        }
+
+        @Command(cacheTtl = 60000)
+        public Iterator<String> stream() {
+            this.calls.incrementAndGet();
+            return Arrays.asList("a", "b").iterator();
+        }
+
+        @Command(invalidates = "lookup")
+        public void reset() {
+        }
+    }
+
+    public static class VoidCachedShell extends AbstractShell {
+        public VoidCachedShell() throws IOException {
+        }
+
+        @Command(cacheTtl = 60000)
+        public void lookup(@Argument(name = "id") int id) throws IOException {
+            this.println("value of " + id);
+        }
+    }
+
+    private static String run(AbstractShell shell, String... commands) throws IOException {
+        StringWriter output = new StringWriter();
+        shell.execute(new StringReader(lines(commands)), output);
+        return output.toString();
+    }
+
+    private static ResultCache cache(String command) {
+        return new ResultCache(CommandScanner.findCommands(CachedShell.class).get(command));
+    }
+
+    @Test
+    public void cachedCommandPrintsItsResultOnEveryRun() throws Exception {
+        CachedShell shell = new CachedShell();
+
+        assertEquals(lines("value of 1 (call 1)"), run(shell, "lookup 1"));
+        assertEquals(lines("value of 1 (call 1)"), run(shell, "lookup 1"));
+        assertEquals(lines("value of 2 (call 2)", "value of 1 (call 1)"), run(shell, "lookup 2", "lookup 1"));
+        assertEquals(2, shell.calls.get());
+    }
+
+    @Test
+    public void cachedListsArePrintedOneElementPerLine() throws Exception {
+        CachedShell shell = new CachedShell();
+
+        assertEquals(lines("first", "second", "first", "second"), run(shell, "range 2", "range 2"));
+        assertEquals(1, shell.calls.get());
+    }
+
+    @Test
+    public void invalidatingCommandDropsResults() throws Exception {
+        CachedShell shell = new CachedShell();
+
+        assertEquals(lines("value of 1 (call 1)", "value of 1 (call 2)"), run(shell, "lookup 1", "reset", "lookup 1"));
+    }
+
+    @Test
+    public void voidCommandsCannotBeCached() throws Exception {
+        try {
+            new VoidCachedShell();
+            fail("a void command was cached");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Cached command " + VoidCachedShell.class.getName() + ".lookup must return its result,"
+                    + " a cache hit does not call the method", e.getMessage());
+        }
+    }
+
+    @Test
+    public void keysResultsOnArgumentsAndTarget() throws Throwable {
+        CachedShell shell = new CachedShell();
+        ResultCache cache = cache("lookup");
+
+        assertEquals("value of 1 (call 1)", cache.get(shell, null, new Object[]{1}));
+        assertEquals("value of 2 (call 2)", cache.get(shell, null, new Object[]{2}));
+        assertEquals("value of 1 (call 3)", cache.get(shell, "web1", new Object[]{1}));
+        assertEquals("value of 1 (call 1)", cache.get(shell, null, new Object[]{1}));
+        assertEquals("value of 1 (call 3)", cache.get(shell, "web1", new Object[]{1}));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void expiredResultsAreLoadedAgain() throws Throwable {
+        CachedShell shell = new CachedShell();
+        ResultCache cache = cache("brief");
+
+        assertEquals("brief 1 (call 1)", cache.get(shell, null, new Object[]{1}));
+        Thread.sleep(60);
+        assertEquals("brief 1 (call 2)", cache.get(shell, null, new Object[]{1}));
+        assertEquals("brief 1 (call 2)", cache.get(shell, null, new Object[]{1}));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedResults() throws Throwable {
+        CachedShell shell = new CachedShell();
+        ResultCache cache = cache("small");
+
+        cache.get(shell, null, new Object[]{1});
+        cache.get(shell, null, new Object[]{2});
+        cache.get(shell, null, new Object[]{1});
+        cache.get(shell, null, new Object[]{3});
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+
+        assertEquals("small 1 (call 1)", cache.get(shell, null, new Object[]{1}));
+        assertEquals("small 2 (call 4)", cache.get(shell, null, new Object[]{2}));
+    }
+
+    @Test
+    public void failuresAndStreamsAreNotCached() throws Throwable {
+        CachedShell shell = new CachedShell();
+        ResultCache lookup = cache("lookup");
+        for (int i = 0; i < 2; i++) {
+            try {
+                lookup.get(shell, null, new Object[]{-1});
+                fail("no exception");
+            } catch (IllegalArgumentException e) {
+                assertEquals("negative id", e.getMessage());
+            }
+        }
+        assertEquals(0, lookup.size());
+
+        ResultCache stream = cache("stream");
+        stream.get(shell, null, new Object[0]);
+        stream.get(shell, null, new Object[0]);
+        assertEquals(2, shell.calls.get());
+        assertEquals(0, stream.size());
+    }
+
+    @Test
+    public void invalidateDropsAllResults() throws Throwable {
+        CachedShell shell = new CachedShell();
+        ResultCache cache = cache("lookup");
+
+        cache.get(shell, null, new Object[]{1});
+        cache.invalidate();
+        assertEquals(0, cache.size());
+        assertEquals("value of 1 (call 2)", cache.get(shell, null, new Object[]{1}));
+        assertEquals(1, cache.getInvalidationCount());
+    }
+
+    @Test
+    public void concurrentCallersShareOneCall() throws Exception {
+        final CachedShell shell = new CachedShell();
+        shell.gate = new CountDownLatch(1);
+        final ResultCache cache = cache("lookup");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<?>[] results = new Future<?>[4];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = executor.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        try {
+                            return cache.get(shell, null, new Object[]{7});
+                        } catch (Exception e) {
+                            throw e;
+                        } catch (Throwable t) {
+                            throw new IllegalStateException(t);
+                        }
+                    }
+                });
+            }
+            Thread.sleep(50);
+            shell.gate.countDown();
+            for (Future<?> result : results) {
+                assertEquals("value of 7 (call 1)", result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, shell.calls.get());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(3, cache.getHitCount());
+    }
+
+    @Test
+    public void shellKeepsOneCachePerCommand() throws Exception {
+        CachedShell shell = new CachedShell();
+        run(shell, "lookup 1", "lookup 2", "lookup 1");
+
+        ResultCache cache = shell.getResultCaches().get("lookup");
+        assertSame(CommandScanner.findCommands(CachedShell.class).get("lookup"), cache.getCommand());
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getHitCount());
+    }
+}
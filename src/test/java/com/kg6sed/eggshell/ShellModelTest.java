@@ -0,0 +1,117 @@
+package com.kg6sed.eggshell;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import jline.ConsoleReader;
+import jline.UnsupportedTerminal;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ShellModelTest {
+
+    public abstract static class HostShell extends AbstractShell {
+        protected HostShell() throws IOException {
+        }
+
+        String[] hosts() {
+            return new String[]{"alpha", "beta"};
+        }
+
+        @Override
+        protected ConsoleReader createConsole() throws IOException {
+            return new ConsoleReader(new ByteArrayInputStream(new byte[0]), new StringWriter(), null,
+                    new UnsupportedTerminal());
+        }
+    }
+
+    public static class ConnectShell extends HostShell {
+        public ConnectShell() throws IOException {
+        }
+
+        @Command
+        public void connect(@Argument(name = "host", type = Argument.SIMPLE_METHOD, completions = "hosts") String host) {
+        }
+    }
+
+    public static class MisspelledShell extends HostShell {
+        public MisspelledShell() throws IOException {
+        }
+
+        @Command
+        public void connect(@Argument(name = "host", type = Argument.SIMPLE_METHOD, completions = "hostz") String host) {
+        }
+    }
+
+    public static class FailingShell extends HostShell {
+        public FailingShell() throws IOException {
+        }
+
+        @Override
+        String[] hosts() {
+            throw new IllegalStateException("no hosts");
+        }
+
+        @Command
+        public void connect(@Argument(name = "host", type = Argument.SIMPLE_METHOD, completions = "hosts") String host) {
+        }
+    }
+
+    private static ShellModel.Completion completion(Class<?> type, String command) {
+        for (ShellModel.Completion completion : ShellModel.of(type).getCompletions()) {
+            if (completion.getCommand().getName().equals(command)) {
+                return completion;
+            }
+        }
+        throw new AssertionError("no completion of " + command);
+    }
+
+    @Test
+    public void findsCompletionMethodsOfSuperclasses() throws Exception {
+        assertEquals(HostShell.class.getDeclaredMethod("hosts"), completion(ConnectShell.class, "connect").getMethod(1));
+    }
+
+    @Test
+    public void rejectsMisspelledCompletionMethods() throws Exception {
+        try {
+            ShellModel.of(MisspelledShell.class).getCompletions();
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Completion method hostz of command connect not found in " + MisspelledShell.class.getName(),
+                    e.getMessage());
+        }
+    }
+
+    @Test
+    public void reportsFailingCompletionMethods() throws Exception {
+        try {
+            new FailingShell().getConsole();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("Completion method hosts failed", e.getMessage());
+            assertEquals("no hosts", e.getCause().getMessage());
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.kg6sed.eggshell.history;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HistoryFileTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path path;
+    private List<HistoryFile> opened = new ArrayList<HistoryFile>();
+
+    @Before
+    public void createPath() throws Exception {
+        this.path = this.folder.getRoot().toPath().resolve("history");
+    }
+
+    @After
+    public void closeFiles() throws Exception {
+        for (HistoryFile file : this.opened) {
+            file.close();
+        }
+    }
+
+    private HistoryFile open(long maxSize) throws Exception {
+        HistoryFile file = new HistoryFile(this.path, maxSize);
+        this.opened.add(file);
+        return file;
+    }
+
+    private static List<String> entries(HistoryFile file) {
+        List<String> entries = new ArrayList<String>();
+        for (long offset = 0; offset < file.end(); offset = file.next(offset)) {
+            entries.add(file.get(offset));
+        }
+        return entries;
+    }
+
+    @Test
+    public void browsesEntriesBothWays() throws Exception {
+        HistoryFile file = this.open(HistoryFile.DEFAULT_MAX_SIZE);
+        assertEquals(0, file.end());
+        assertEquals(-1, file.previous(file.end()));
+        file.append("status");
+        file.append("greet \"two\nlines\"");
+        file.append("gr\u00fc\u00df dich");
+
+        long last = file.previous(file.end());
+        assertEquals("gr\u00fc\u00df dich", file.get(last));
+        long middle = file.previous(last);
+        assertEquals("greet \"two lines\"", file.get(middle));
+        long first = file.previous(middle);
+        assertEquals(0, first);
+        assertEquals("status", file.get(first));
+        assertEquals(-1, file.previous(first));
+
+        assertEquals(middle, file.next(first));
+        assertEquals(file.end(), file.next(last));
+        assertNull(file.get(file.end()));
+        assertEquals(Files.size(this.path), file.end());
+    }
+
+    @Test
+    public void sharesEntriesWithOtherShells() throws Exception {
+        HistoryFile one = this.open(HistoryFile.DEFAULT_MAX_SIZE);
+        HistoryFile other = this.open(HistoryFile.DEFAULT_MAX_SIZE);
+        one.append("status");
+        other.append("stop");
+        // one has not seen the entry of the other yet
+        assertEquals(7, one.end());
+        one.refresh();
+        assertEquals(entries(other), entries(one));
+        assertEquals("[status, stop]", entries(one).toString());
+    }
+
+    @Test
+    public void rotatesWhenFull() throws Exception {
+        HistoryFile one = this.open(64);
+        HistoryFile other = this.open(64);
+        List<String> appended = new ArrayList<String>();
+        for (int i = 0; i < 40; i++) {
+            String entry = "command " + i;
+            (i % 2 == 0 ? one : other).append(entry);
+            appended.add(entry);
+            assertTrue(Files.size(this.path) <= 64);
+        }
+        Path rotated = this.path.resolveSibling("history.1");
+        assertTrue(Files.exists(rotated));
+
+        // the current file holds the latest entries and the rotated one those right before
+        one.refresh();
+        other.refresh();
+        List<String> current = entries(one);
+        assertEquals(current, entries(other));
+        assertEquals(appended.subList(appended.size() - current.size(), appended.size()), current);
+        List<String> previous = Files.readAllLines(rotated);
+        int end = appended.size() - current.size();
+        assertEquals(appended.subList(end - previous.size(), end), previous);
+    }
+
+    @Test
+    public void searchMatchesLinearScan() throws Exception {
+        // several 64K blocks, so searches skip blocks by their filters
+        Random random = new Random(11);
+        String[] words = {"status", "stop", "start", "greet", "deploy", "rollback", "tail", "grep", "jobs"};
+        HistoryFile file = this.open(HistoryFile.DEFAULT_MAX_SIZE);
+        StringBuilder content = new StringBuilder();
+        while (content.length() < 300 * 1024) {
+            String entry = words[random.nextInt(words.length)] + " " + random.nextInt(100000);
+            file.append(entry);
+            content.append(entry).append('\n');
+        }
+        String text = content.toString();
+        assertEquals(text.length(), file.end());
+
+        for (int i = 0; i < 2000; i++) {
+            String query;
+            if (i % 3 == 0) {
+                query = Integer.toString(random.nextInt(100000));
+            } else {
+                String word = words[random.nextInt(words.length)];
+                int start = random.nextInt(word.length());
+                query = word.substring(start, Math.min(word.length(), start + 2 + random.nextInt(4))) + (i % 2 == 0 ? " " : "");
+            }
+            long before = random.nextInt(text.length() + 1);
+            long expected = before == 0 ? -1 : text.lastIndexOf(query, (int) before - 1);
+            assertEquals(query + " before " + before, expected, file.search(query, before));
+            if (expected >= 0) {
+                assertEquals(text.lastIndexOf('\n', (int) expected) + 1, file.entryOf(expected));
+            }
+        }
+    }
+}
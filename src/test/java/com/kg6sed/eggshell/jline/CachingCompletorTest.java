@@ -0,0 +1,208 @@
+package com.kg6sed.eggshell.jline;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import jline.Completor;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CachingCompletorTest {
+    private ExecutorService executor = Executors.newSingleThreadExecutor();
+    private CountingCompletor delegate = new CountingCompletor();
+
+    @After
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+    private List<String> complete(Completor completor, String buffer) {
+        List<String> candidates = new ArrayList<String>();
+        int position = completor.complete(buffer, buffer.length(), candidates);
+        assertEquals(candidates.isEmpty() ? -1 : 0, position);
+        return candidates;
+    }
+
+    /**
+     * Waits for the loads and refreshes submitted so far, the executor runs one at a time.
+     */
+    private void awaitLoads() throws Exception {
+        this.executor.submit(new Runnable() {
+            public void run() {
+            }
+        }).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void cachesResultsPerPrefix() {
+        CachingCompletor completor = new CachingCompletor(this.delegate, 60000, 16, 5000, this.executor);
+
+        assertEquals(Arrays.asList("alpha", "alps"), this.complete(completor, "al"));
+        assertEquals(Arrays.asList("alpha", "alps"), this.complete(completor, "al"));
+        assertEquals(Arrays.asList("beta"), this.complete(completor, "b"));
+
+        assertEquals(2, this.delegate.calls.get());
+        assertEquals(1, completor.getHitCount());
+        assertEquals(2, completor.getMissCount());
+        assertEquals(2, completor.getLoadCount());
+        assertEquals(2, completor.size());
+    }
+
+    @Test
+    public void cachesEmptyResults() {
+        CachingCompletor completor = new CachingCompletor(this.delegate, 60000, 16, 5000, this.executor);
+
+        assertEquals(Collections.<String>emptyList(), this.complete(completor, "x"));
+        assertEquals(Collections.<String>emptyList(), this.complete(completor, "x"));
+        assertEquals(1, this.delegate.calls.get());
+    }
+
+    @Test
+    public void doesNotWaitLongForSlowLoads() throws Exception {
+        this.delegate.block = new CountDownLatch(1);
+        CachingCompletor completor = new CachingCompletor(this.delegate, 60000, 16, 50, this.executor);
+
+        long start = System.nanoTime();
+        assertEquals(Collections.<String>emptyList(), this.complete(completor, "al"));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        // the load still running is not started again
+        assertEquals(Collections.<String>emptyList(), this.complete(completor, "al"));
+
+        this.delegate.block.countDown();
+        this.awaitLoads();
+        assertEquals(Arrays.asList("alpha", "alps"), this.complete(completor, "al"));
+        assertEquals(1, this.delegate.calls.get());
+    }
+
+    @Test
+    public void servesStaleResultsWhileRefreshing() throws Exception {
+        CachingCompletor completor = new CachingCompletor(this.delegate, 0, 16, 5000, this.executor);
+
+        assertEquals(Arrays.asList("beta"), this.complete(completor, "b"));
+        this.delegate.values = Arrays.asList("beta", "bravo");
+        this.delegate.block = new CountDownLatch(1);
+        Thread.sleep(1);
+        // expired, the old result is returned while the refresh is held up
+        assertEquals(Arrays.asList("beta"), this.complete(completor, "b"));
+        assertEquals(1, completor.getStaleHitCount());
+        this.delegate.block.countDown();
+        this.awaitLoads();
+
+        assertEquals(2, this.delegate.calls.get());
+        assertEquals(Arrays.asList("beta", "bravo"), this.complete(completor, "b"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedPrefixes() {
+        CachingCompletor completor = new CachingCompletor(this.delegate, 60000, 2, 5000, this.executor);
+
+        this.complete(completor, "a");
+        this.complete(completor, "b");
+        this.complete(completor, "a");
+        this.complete(completor, "g");
+        assertEquals(2, completor.size());
+        assertEquals(1, completor.getEvictionCount());
+        assertEquals(3, this.delegate.calls.get());
+
+        // "b" was used least recently and has to be loaded again, "a" is still cached
+        this.complete(completor, "a");
+        assertEquals(3, this.delegate.calls.get());
+        this.complete(completor, "b");
+        assertEquals(4, this.delegate.calls.get());
+    }
+
+    @Test
+    public void failedLoadsAreNotCached() {
+        CachingCompletor completor = new CachingCompletor(this.delegate, 60000, 16, 5000, this.executor);
+        this.delegate.fail = true;
+
+        assertEquals(Collections.<String>emptyList(), this.complete(completor, "al"));
+        assertEquals(1, completor.getFailureCount());
+        assertEquals(0, completor.size());
+
+        this.delegate.fail = false;
+        assertEquals(Arrays.asList("alpha", "alps"), this.complete(completor, "al"));
+        assertEquals(2, this.delegate.calls.get());
+    }
+
+    @Test
+    public void invalidateDropsResults() {
+        CachingCompletor completor = new CachingCompletor(this.delegate, 60000, 16, 5000, this.executor);
+
+        this.complete(completor, "al");
+        this.delegate.values = Arrays.asList("almond");
+        completor.invalidate();
+        assertEquals(Arrays.asList("almond"), this.complete(completor, "al"));
+        assertEquals(2, this.delegate.calls.get());
+    }
+
+    @Test
+    public void completesTheTextBeforeTheCursor() {
+        CachingCompletor completor = new CachingCompletor(this.delegate, 60000, 16, 5000, this.executor);
+        List<String> candidates = new ArrayList<String>();
+
+        assertEquals(0, completor.complete("bxyz", 1, candidates));
+        assertEquals(Arrays.asList("beta"), candidates);
+    }
+
+    /**
+     * Completes words from a list, counting its calls; can be made to block or fail.
+     */
+    private static final class CountingCompletor implements Completor {
+        final AtomicInteger calls = new AtomicInteger();
+        volatile List<String> values = Arrays.asList("alpha", "alps", "beta", "gamma");
+        volatile CountDownLatch block;
+        volatile boolean fail;
+
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        public int complete(String buffer, int cursor, List candidates) {
+            this.calls.incrementAndGet();
+            CountDownLatch block = this.block;
+            if (block != null) {
+                try {
+                    block.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (this.fail) {
+                throw new IllegalStateException("completion failed");
+            }
+            for (String value : this.values) {
+                if (value.startsWith(buffer.substring(0, cursor))) {
+                    candidates.add(value);
+                }
+            }
+            return candidates.isEmpty() ? -1 : 0;
+        }
+    }
+}
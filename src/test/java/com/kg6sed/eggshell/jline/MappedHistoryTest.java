@@ -0,0 +1,119 @@
+package com.kg6sed.eggshell.jline;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.history.HistoryFile;
+import jline.ConsoleReader;
+import jline.UnsupportedTerminal;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MappedHistoryTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path path;
+    private HistoryFile file;
+    private StringWriter out = new StringWriter();
+    private MappedHistory history;
+
+    @Before
+    public void open() throws Exception {
+        this.path = this.folder.getRoot().toPath().resolve("history");
+        this.file = new HistoryFile(this.path, 64);
+        ConsoleReader console = new ConsoleReader(new ByteArrayInputStream(new byte[0]), this.out, null,
+                new UnsupportedTerminal());
+        this.history = new MappedHistory(this.file, console);
+    }
+
+    @After
+    public void close() throws Exception {
+        this.file.close();
+    }
+
+    @Test
+    public void browsesEnteredLines() throws Exception {
+        assertFalse(this.history.moveToLastEntry());
+        this.history.addToHistory("status");
+        this.history.addToHistory("  ");
+        this.history.addToHistory("stop");
+        this.history.addToHistory("stop");
+        this.history.moveToEnd();
+        assertEquals("[status, stop]", this.history.getHistoryList().toString());
+
+        assertEquals("", this.history.current());
+        assertTrue(this.history.previous());
+        assertEquals("stop", this.history.current());
+        assertTrue(this.history.previous());
+        assertEquals("status", this.history.current());
+        assertFalse(this.history.previous());
+        assertTrue(this.history.next());
+        assertEquals("stop", this.history.current());
+        assertTrue(this.history.next());
+        assertEquals("", this.history.current());
+        assertFalse(this.history.next());
+    }
+
+    @Test
+    public void showsLinesOfOtherShellsAfterTheNextLine() throws Exception {
+        HistoryFile other = new HistoryFile(this.path, 64);
+        try {
+            this.history.addToHistory("status");
+            other.append("stop");
+            this.history.moveToEnd();
+            assertTrue(this.history.moveToLastEntry());
+            assertEquals("stop", this.history.current());
+
+            // the other shell rotates the file
+            for (int i = 0; i < 10; i++) {
+                other.append("command " + i);
+            }
+            this.history.moveToEnd();
+            assertTrue(this.history.moveToLastEntry());
+            assertEquals("command 9", this.history.current());
+        } finally {
+            other.close();
+        }
+    }
+
+    @Test
+    public void printsLinesThatCannotBeSaved() throws Exception {
+        this.history.addToHistory("status");
+        // a directory in the way of rotating the file
+        Files.createDirectories(this.path.resolveSibling("history.1").resolve("in-the-way"));
+        this.history.addToHistory("a line that is too long to fit into the 64 bytes left next to the first one");
+
+        assertTrue(this.out.toString(), this.out.toString().startsWith("Line not saved to history " + this.path));
+        this.history.moveToEnd();
+        assertEquals("[status]", this.history.getHistoryList().toString());
+    }
+}
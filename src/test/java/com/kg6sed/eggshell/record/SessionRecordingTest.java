@@ -0,0 +1,139 @@
+package com.kg6sed.eggshell.record;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.CommandOutcome;
+import com.kg6sed.eggshell.ShellCommand;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SessionRecordingTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    public void run() {
+    }
+
+    private ShellCommand command(String name) throws NoSuchMethodException {
+        return new ShellCommand(name, SessionRecordingTest.class.getMethod("run"), 0);
+    }
+
+    private Path record() throws Exception {
+        Path file = this.folder.newFile().toPath();
+        SessionRecorder recorder = new SessionRecorder(file);
+        int first = recorder.newSession();
+        int second = recorder.newSession();
+        ShellCommand status = this.command("status");
+        ShellCommand greet = this.command("greet");
+        long start = System.nanoTime();
+        recorder.record(first, start + 1000, "status", status, CommandOutcome.SUCCESS, 250);
+        recorder.record(second, start + 3000, "greet \"gr\u00fc\u00df dich\"", greet, CommandOutcome.FAILURE, 70000);
+        // sessions run concurrently, so records may arrive slightly out of order
+        recorder.record(first, start + 2000, "statsu", null, CommandOutcome.UNKNOWN_COMMAND, 10);
+        recorder.record(first, start + 400000000000L, "status", status, CommandOutcome.SUCCESS, 300);
+        recorder.close();
+        assertEquals(4, recorder.getRecordedCount());
+        assertEquals(0, recorder.getDroppedCount());
+        return file;
+    }
+
+    @Test
+    public void readsBackWhatWasRecorded() throws Exception {
+        List<RecordedCommand> commands = SessionRecording.readAll(this.record());
+        assertEquals(4, commands.size());
+
+        assertCommand(commands.get(0), 1, "status", "status", CommandOutcome.SUCCESS, 250);
+        assertCommand(commands.get(1), 2, "greet \"gr\u00fc\u00df dich\"", "greet", CommandOutcome.FAILURE, 70000);
+        assertCommand(commands.get(2), 1, "statsu", null, CommandOutcome.UNKNOWN_COMMAND, 10);
+        assertCommand(commands.get(3), 1, "status", "status", CommandOutcome.SUCCESS, 300);
+
+        long offset = commands.get(0).getOffsetNanos();
+        assertEquals(2000, commands.get(1).getOffsetNanos() - offset);
+        assertEquals(1000, commands.get(2).getOffsetNanos() - offset);
+        assertEquals(400000000000L - 1000, commands.get(3).getOffsetNanos() - offset);
+    }
+
+    private static void assertCommand(RecordedCommand command, int session, String line, String commandName,
+                                      CommandOutcome outcome, long latencyNanos) {
+        assertEquals(session, command.getSession());
+        assertEquals(line, command.getLine());
+        assertEquals(commandName, command.getCommandName());
+        assertEquals(outcome, command.getOutcome());
+        assertEquals(latencyNanos, command.getLatencyNanos());
+    }
+
+    @Test
+    public void emptyRecordingHasNoCommands() throws Exception {
+        Path file = this.folder.newFile().toPath();
+        long before = System.currentTimeMillis();
+        new SessionRecorder(file).close();
+
+        SessionRecording recording = new SessionRecording(file);
+        try {
+            assertTrue(recording.getStartTime() >= before);
+            assertNull(recording.read());
+        } finally {
+            recording.close();
+        }
+    }
+
+    @Test
+    public void reportsRecordsCutShort() throws Exception {
+        Path file = this.record();
+        byte[] bytes = Files.readAllBytes(file);
+        // cut the file shorter and shorter until it ends right after the third record
+        int corrupt = 0;
+        for (int length = bytes.length - 1; ; length--) {
+            Files.write(file, Arrays.copyOf(bytes, length));
+            try {
+                assertEquals(3, SessionRecording.readAll(file).size());
+                break;
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Corrupt session recording"));
+                corrupt++;
+            }
+        }
+        assertTrue(corrupt > 0);
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws Exception {
+        Path file = this.folder.newFile().toPath();
+        Files.write(file, "status\n".getBytes("UTF-8"));
+        try {
+            new SessionRecording(file);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith("is not a session recording"));
+        }
+    }
+}
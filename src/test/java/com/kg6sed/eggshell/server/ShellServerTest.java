@@ -0,0 +1,138 @@
+package com.kg6sed.eggshell.server;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import com.kg6sed.eggshell.AbstractShell;
+import com.kg6sed.eggshell.Argument;
+import com.kg6sed.eggshell.Command;
+import com.kg6sed.eggshell.ExitShellException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import static org.junit.Assert.assertEquals;
+
+public class ShellServerTest {
+    private static final String NL = System.getProperty("line.separator");
+    private static final String WELCOME = "Welcome. Type 'help' for help." + NL + "> ";
+
+    public static class EchoShell extends AbstractShell {
+        public EchoShell() throws IOException {
+        }
+
+        @Command
+        public void echo(@Argument(name = "text") String text) throws IOException {
+            this.println(text);
+        }
+
+        @Command
+        public void quit() {
+            throw new ExitShellException("Bye.");
+        }
+    }
+
+    private ShellServer server;
+
+    @Before
+    public void start() throws Exception {
+        this.server = new ShellServer(new ShellFactory() {
+            public AbstractShell createShell() throws IOException {
+                return new EchoShell();
+            }
+        }, 0);
+        this.server.start();
+    }
+
+    @After
+    public void stop() throws Exception {
+        this.server.close();
+    }
+
+    /**
+     * Sends the input, ends it and returns everything the session printed until it closed.
+     */
+    private String converse(String input) throws IOException {
+        InetSocketAddress address = this.server.getAddress();
+        Socket socket = new Socket(address.getAddress(), address.getPort());
+        try {
+            socket.setSoTimeout(10000);
+            socket.getOutputStream().write(input.getBytes("UTF-8"));
+            socket.shutdownOutput();
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[4096];
+            for (int count = in.read(buffer); count >= 0; count = in.read(buffer)) {
+                output.write(buffer, 0, count);
+            }
+            return output.toString("UTF-8");
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static String echoed(String... lines) {
+        StringBuilder output = new StringBuilder(WELCOME);
+        for (String line : lines) {
+            output.append(line).append(NL).append("> ");
+        }
+        return output.toString();
+    }
+
+    @Test
+    public void runsLinesInOrder() throws Exception {
+        assertEquals(echoed("a", "b", "c"), this.converse("echo a\necho b\necho c\n"));
+    }
+
+    @Test
+    public void stripsCarriageReturns() throws Exception {
+        assertEquals(echoed("a", "b"), this.converse("echo a\r\necho b\r\n"));
+    }
+
+    @Test
+    public void runsLastLineWithoutLineBreak() throws Exception {
+        // the end of the input arrives right after the last line, as from printf 'echo b' | nc
+        for (int i = 0; i < 200; i++) {
+            assertEquals(echoed("a", "b"), this.converse("echo a\necho b"));
+        }
+    }
+
+    @Test
+    public void readsClientsSendingFasterThanTheirLinesRun() throws Exception {
+        StringBuilder input = new StringBuilder();
+        String[] lines = new String[1000];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = "line-" + i;
+            input.append("echo ").append(lines[i]).append('\n');
+        }
+        assertEquals(echoed(lines), this.converse(input.toString()));
+    }
+
+    @Test
+    public void exitEndsTheSession() throws Exception {
+        assertEquals(echoed("a") + "Bye." + NL, this.converse("echo a\nquit\necho b\n"));
+        assertEquals(0, this.server.getSessionCount());
+    }
+}
@@ -0,0 +1,137 @@
+package com.kg6sed.eggshell.table;
+
+/*
+ * EggShell - Annotation driven command-line shell library
+ * Copyright (C) 2010 Daniel Mattias Larsson
+ * <p/>
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ * <p/>
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TableRendererTest {
+    private static List<String> render(TableRenderer renderer, Table table) {
+        List<String> lines = new ArrayList<String>();
+        for (Iterator<String> i = renderer.lines(table); i.hasNext(); ) {
+            lines.add(i.next());
+        }
+        return lines;
+    }
+
+    @Test
+    public void alignsColumnsToTheWidestCell() {
+        Table table = Table.of(Arrays.asList(
+                new Object[]{"web-1", 8080, "up"},
+                new Object[]{"database", 5432, null},
+                new Object[]{"cache", 11211, "degraded"}), "host", "port", "state");
+        assertEquals(Arrays.asList(
+                "host      port   state",
+                "--------  -----  --------",
+                "web-1      8080  up",
+                "database   5432  ",
+                "cache     11211  degraded"), render(new TableRenderer(), table));
+    }
+
+    @Test
+    public void acceptsIterablesAndSingleCells() {
+        Table table = Table.of(Arrays.asList(Arrays.asList("a", 1), Collections.singletonList("bb"), "ccc"), "name", "n");
+        assertEquals(Arrays.asList(
+                "name  n",
+                "----  -",
+                "a     1",
+                "bb",
+                "ccc"), render(new TableRenderer(), table));
+    }
+
+    @Test
+    public void cutsCellsWiderThanTheirColumn() {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        rows.add(new Object[]{"short", "x"});
+        rows.add(new Object[]{"a rather long value", "y"});
+        // beyond the sample of two rows
+        rows.add(new Object[]{"longer than the sample", "z"});
+        assertEquals(Arrays.asList(
+                "name        v",
+                "----------  -",
+                "short       x",
+                "a rather ~  y",
+                "longer th~  z"), render(new TableRenderer(2, 10), Table.of(rows, "name", "v")));
+    }
+
+    @Test
+    public void mixedColumnsAlignLeft() {
+        Table table = Table.of(Arrays.asList(new Object[]{1, 2}, new Object[]{"n/a", 30}), "a", "b");
+        assertEquals(Arrays.asList(
+                "a    b",
+                "---  --",
+                "1     2",
+                "n/a  30"), render(new TableRenderer(), table));
+    }
+
+    @Test
+    public void tablesWithoutHeadersHaveNoHeaderLines() {
+        Table table = Table.of(Arrays.asList(new Object[]{"a", "b"}, new Object[]{"cc", "d"}));
+        assertEquals(Arrays.asList("a   b", "cc  d"), render(new TableRenderer(), table));
+    }
+
+    @Test
+    public void emptyTablesHaveHeaderLinesOnly() {
+        assertEquals(Arrays.asList("state", "-----"), render(new TableRenderer(),
+                Table.of(Collections.emptyList(), "state")));
+    }
+
+    @Test
+    public void readsRowsWhileRendering() {
+        final AtomicInteger read = new AtomicInteger();
+        final AtomicBoolean closed = new AtomicBoolean();
+        Stream<Object[]> rows = IntStream.range(0, 1000).mapToObj(new IntFunction<Object[]>() {
+            public Object[] apply(int i) {
+                read.incrementAndGet();
+                return new Object[]{i};
+            }
+        });
+        Table table = Table.of(rows.onClose(new Runnable() {
+            public void run() {
+                closed.set(true);
+            }
+        }), "n");
+        Iterator<String> lines = new TableRenderer(10, 40).lines(table);
+        assertEquals("n", lines.next());
+        assertEquals(10, read.get());
+        int count = 1;
+        while (lines.hasNext()) {
+            lines.next();
+            count++;
+        }
+        assertEquals(1002, count);
+        assertEquals(1000, read.get());
+        table.close();
+        assertTrue(closed.get());
+    }
+}